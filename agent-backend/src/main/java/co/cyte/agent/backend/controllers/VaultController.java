@@ -1,22 +1,40 @@
 package co.cyte.agent.backend.controllers;
 
 import co.cyte.agent.backend.filesystem.DokanFileSystem;
+import co.cyte.agent.core.domain.LockProgress;
+import co.cyte.agent.core.domain.UnlockProgress;
 import co.cyte.agent.core.domain.Vault;
+import co.cyte.agent.core.domain.VaultOptions;
 import co.cyte.agent.core.services.EncryptionService;
+import co.cyte.agent.core.storage.FileContent;
+import co.cyte.agent.core.storage.FileTree;
 import dev.dokan.dokan_java.FileSystemInformation;
 import dev.dokan.dokan_java.constants.dokany.MountOption;
 import dev.dokan.dokan_java.constants.microsoft.FileSystemFlag;
 import dev.dokan.dokan_java.masking.MaskValueSet;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.AntPathMatcher;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.HandlerMapping;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -29,6 +47,9 @@ import java.util.concurrent.atomic.AtomicBoolean;
 @RequestMapping("/api/vaults")
 public class VaultController {
 
+    // Resultado de parseRange() para un rango válido que no corresponde al archivo
+    private static final long[] UNSATISFIABLE = new long[0];
+
     // Mapa para almacenar las Vaults del usuario (podría provenir de una base de datos en un caso real)
     private final Map<String, Vault> userVaults = new ConcurrentHashMap<>();
     // Mapa para almacenar las instancias de DokanFileSystem montadas por cada Vault
@@ -41,6 +62,49 @@ public class VaultController {
 
     private final AtomicBoolean isMounted = new AtomicBoolean(false);
 
+    // Presupuesto de memoria por bóveda en MiB (0 = sin límite)
+    @Value("${vault.memory.budget-mb:0}")
+    private long memoryBudgetMb;
+    // Guardar el contenido descifrado fuera del heap de Java
+    @Value("${vault.memory.off-heap:true}")
+    private boolean memoryOffHeap;
+    // Memoria en uso a partir de la cual se desalojan archivos a disco, en MiB (0 = solo al agotar el presupuesto)
+    @Value("${vault.memory.spill-threshold-mb:0}")
+    private long spillThresholdMb;
+    // Descifrar los archivos bajo demanda al desbloquear
+    @Value("${vault.unlock.lazy:true}")
+    private boolean lazyUnlock;
+    // Archivos desde este tamaño se leen descifrando solo lo que se lee, sin cargarlos, en MiB (0 = nunca)
+    @Value("${vault.unlock.direct-read-mb:16}")
+    private long directReadMb;
+    // Hilos para descifrar en paralelo al desbloquear (0 = uno por procesador)
+    @Value("${vault.unlock.threads:0}")
+    private int unlockThreads;
+    // Hilos para cifrar en paralelo al bloquear (0 = uno por procesador)
+    @Value("${vault.lock.threads:0}")
+    private int lockThreads;
+    // Intervalo entre checkpoints en segundo plano, en segundos (0 = solo se guarda al bloquear)
+    @Value("${vault.checkpoint.interval-seconds:30}")
+    private long checkpointIntervalSeconds;
+    // Ritmo máximo de escritura de los checkpoints, en MiB/s (0 = sin límite)
+    @Value("${vault.checkpoint.max-mb-per-second:0}")
+    private long checkpointMaxMbPerSecond;
+    // Alias de cifrado: suites para los archivos nuevos y clave de la bóveda
+    @Value("${vault.crypto.alias:AES}")
+    private String cipherAlias;
+    // Guardar los archivos como fragmentos deduplicados (cada fragmento distinto se escribe una vez)
+    @Value("${vault.storage.deduplication:false}")
+    private boolean deduplication;
+    // Guardar la lista de archivos en un manifiesto cifrado y los contenidos en blobs con nombres aleatorios
+    @Value("${vault.storage.manifest:false}")
+    private boolean manifest;
+    // Guardar los archivos pequeños en unos pocos archivos de paquete en lugar de un blob cada uno
+    @Value("${vault.storage.pack-files:false}")
+    private boolean packFiles;
+    // Registrar las modificaciones de la unidad en un diario cifrado antes de confirmarlas
+    @Value("${vault.storage.journal:false}")
+    private boolean journal;
+
     @Autowired
     public VaultController(EncryptionService encryptionService) {
         this.encryptionService = encryptionService;
@@ -69,7 +133,35 @@ public class VaultController {
     }
 
     /**
-     * Crea una nueva Vault para el usuario, dado un identificador y la ruta en disco.
+     * Construye las opciones de una bóveda a partir de la configuración del backend.
+     */
+    private VaultOptions buildVaultOptions() {
+        VaultOptions options = new VaultOptions();
+        options.setOffHeap(memoryOffHeap);
+        options.setLazyUnlock(lazyUnlock);
+        options.setUnlockThreads(unlockThreads);
+        options.setLockThreads(lockThreads);
+        options.setCheckpointIntervalMillis(checkpointIntervalSeconds * 1000);
+        options.setCheckpointMaxBytesPerSecond(checkpointMaxMbPerSecond * 1024 * 1024);
+        options.setCipherAlias(cipherAlias);
+        options.setDeduplication(deduplication);
+        options.setManifest(manifest);
+        options.setPackFiles(packFiles);
+        options.setJournal(journal);
+        if (memoryBudgetMb > 0) {
+            options.setMemoryBudgetBytes(memoryBudgetMb * 1024 * 1024);
+        }
+        options.setDirectReadThresholdBytes(directReadMb > 0 ? directReadMb * 1024 * 1024 : Long.MAX_VALUE);
+        if (spillThresholdMb > 0) {
+            options.setSpillThresholdBytes(spillThresholdMb * 1024 * 1024);
+        }
+        return options;
+    }
+
+    /**
+     * Crea una nueva Vault para el usuario, dado un identificador y la ruta en disco. Los
+     * archivos sin cifrar de la carpeta se importan en segundo plano; el avance se consulta en
+     * /{vaultId}/import/progress.
      *
      * @param vaultId   Identificador único de la Vault.
      * @param vaultPath Ruta en disco donde se almacenan los archivos cifrados.
@@ -79,61 +171,117 @@ public class VaultController {
     public ResponseEntity<String> createVault(@RequestParam String vaultId,
                                               @RequestParam String vaultPath) {
         Path path = Paths.get(vaultPath);
-        Vault vault = new Vault(path, encryptionService);
+        Vault vault = new Vault(path, encryptionService, buildVaultOptions());
         userVaults.put(vaultId, vault);
-        return ResponseEntity.ok("Vault creada con id: " + vaultId);
+        String importing = vault.isImporting() ? " (importando los archivos sin cifrar en segundo plano)" : "";
+        return ResponseEntity.ok("Vault creada con id: " + vaultId + importing);
+    }
+
+    /**
+     * Retorna el avance de la importación de los archivos sin cifrar de la Vault: archivos y
+     * bytes importados, rendimiento y errores por archivo.
+     *
+     * @param vaultId Identificador de la Vault.
+     * @return Avance de la importación.
+     */
+    @GetMapping("/{vaultId}/import/progress")
+    public ResponseEntity<LockProgress> getImportProgress(@PathVariable String vaultId) {
+        Vault vault = userVaults.get(vaultId);
+        if (vault == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(vault.getImportProgress());
+    }
+
+    /**
+     * Solicita cancelar la importación en curso; se retoma al volver a crear la Vault.
+     *
+     * @param vaultId Identificador de la Vault.
+     * @return Respuesta indicando que se solicitó la cancelación.
+     */
+    @PostMapping("/{vaultId}/import/cancel")
+    public ResponseEntity<String> cancelImport(@PathVariable String vaultId) {
+        Vault vault = userVaults.get(vaultId);
+        if (vault == null) {
+            return ResponseEntity.notFound().build();
+        }
+        vault.cancelImport();
+        return ResponseEntity.ok("Cancelación de la importación solicitada");
     }
 
     /**
      * Desbloquea (unlock) la Vault identificada, leyendo los archivos cifrados y
      * cargándolos en memoria. A continuación, instancia DokanFileSystem y se monta
-     * la unidad virtual usando las opciones especificadas.
+     * la unidad virtual usando las opciones especificadas. Con mount=false la Vault se desbloquea
+     * sin montar la unidad, para usarla solo a través de /{vaultId}/files/.
      *
      * @param vaultId Identificador de la Vault a desbloquear.
+     * @param mount Montar la unidad virtual.
      * @return Respuesta indicando el resultado de la operación.
      */
     @PostMapping("/{vaultId}/unlock")
-    public ResponseEntity<String> unlockVault(@PathVariable String vaultId) {
+    public ResponseEntity<String> unlockVault(@PathVariable String vaultId,
+                                              @RequestParam(defaultValue = "true") boolean mount) {
         Vault vault = userVaults.get(vaultId);
         if (vault == null) {
             return ResponseEntity.notFound().build();
         }
+        if (vault.isImporting()) {
+            return ResponseEntity.status(409).body("La Vault todavía está importando sus archivos sin cifrar");
+        }
         try {
             vault.unlock();
 
-            // Obtener una letra de unidad disponible
-            Path dynamicMountDrive = getNextAvailableDriveLetter();
-
-            DokanFileSystem fs = new DokanFileSystem(
-                    vault.getVaultPath(),
-                    fileSystemInformation,
-                    vault,
-                    dynamicMountDrive.toString()
-            );
-
-            MaskValueSet<MountOption> mountOptions = MaskValueSet.of(
-                    MountOption.ALT_STREAM,
-                    MountOption.NETWORK_DRIVE,
-                    MountOption.DEBUG_MODE
-            );
-
-            Thread mountThread = new Thread(() -> {
-                try {
-                    fs.mount(dynamicMountDrive, mountOptions);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            });
-            mountThread.setDaemon(false);
-            mountThread.start();
-
-            mountedFileSystems.put(vaultId, fs);
-            mountThreads.put(vaultId, mountThread);
-            return ResponseEntity.ok("Vault desbloqueada y montada en " + dynamicMountDrive);
+            int failed = vault.getUnlockProgress().getFailedFiles();
+            String warning = failed > 0 ? " (" + failed + " archivos no se pudieron descifrar)" : "";
+            if (!mount) {
+                return ResponseEntity.ok("Vault desbloqueada sin montar" + warning);
+            }
+            Path dynamicMountDrive = mountVault(vaultId, vault);
+            return ResponseEntity.ok("Vault desbloqueada y montada en " + dynamicMountDrive + warning);
         } catch (Exception e) {
             return ResponseEntity.status(500).body("Error desbloqueando vault: " + e.getMessage());
         }
     }
+    /**
+     * Monta la unidad virtual de una Vault ya desbloqueada en la siguiente letra disponible.
+     *
+     * @param vaultId Identificador de la Vault.
+     * @param vault Vault desbloqueada.
+     * @return Letra de unidad donde se montó.
+     */
+    private Path mountVault(String vaultId, Vault vault) {
+        // Obtener una letra de unidad disponible
+        Path dynamicMountDrive = getNextAvailableDriveLetter();
+
+        DokanFileSystem fs = new DokanFileSystem(
+                vault.getVaultPath(),
+                fileSystemInformation,
+                vault,
+                dynamicMountDrive.toString()
+        );
+
+        MaskValueSet<MountOption> mountOptions = MaskValueSet.of(
+                MountOption.ALT_STREAM,
+                MountOption.NETWORK_DRIVE,
+                MountOption.DEBUG_MODE
+        );
+
+        Thread mountThread = new Thread(() -> {
+            try {
+                fs.mount(dynamicMountDrive, mountOptions);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        mountThread.setDaemon(false);
+        mountThread.start();
+
+        mountedFileSystems.put(vaultId, fs);
+        mountThreads.put(vaultId, mountThread);
+        return dynamicMountDrive;
+    }
+
     /**
      * Bloquea (lock) la Vault identificada, cifrando el contenido actual en memoria y
      * persistiendo los archivos cifrados en disco. También desmonta la unidad virtual.
@@ -168,12 +316,69 @@ public class VaultController {
             }
             // Bloquear la Vault: cifra y persiste los archivos en disco
             vault.lock();
-            return ResponseEntity.ok("Vault bloqueada y cambios guardados.");
+            LockProgress progress = vault.getLockProgress();
+            return ResponseEntity.ok("Vault bloqueada y cambios guardados (" + progress.getLockedFiles()
+                    + " archivos, " + progress.getThroughputBytesPerSecond() / (1024 * 1024) + " MiB/s).");
+        } catch (CancellationException e) {
+            // La Vault sigue desbloqueada: se vuelve a montar para no dejar sus archivos inaccesibles
+            Path drive = mountVault(vaultId, vault);
+            return ResponseEntity.status(409).body("Bloqueo cancelado; la vault sigue montada en " + drive);
         } catch (Exception e) {
             return ResponseEntity.status(500).body("Error bloqueando vault: " + e.getMessage());
         }
     }
 
+    /**
+     * Guarda en disco los cambios de la Vault sin bloquearla; la unidad sigue montada.
+     *
+     * @param vaultId Identificador de la Vault.
+     * @return Avance del checkpoint: archivos escritos y errores por archivo.
+     */
+    @PostMapping("/{vaultId}/checkpoint")
+    public ResponseEntity<LockProgress> checkpointVault(@PathVariable String vaultId) {
+        Vault vault = userVaults.get(vaultId);
+        if (vault == null) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            return ResponseEntity.ok(vault.checkpoint());
+        } catch (Exception e) {
+            return ResponseEntity.status(500).build();
+        }
+    }
+
+    /**
+     * Solicita cancelar el bloqueo en curso de la Vault.
+     *
+     * @param vaultId Identificador de la Vault.
+     * @return Respuesta indicando que se solicitó la cancelación.
+     */
+    @PostMapping("/{vaultId}/lock/cancel")
+    public ResponseEntity<String> cancelLock(@PathVariable String vaultId) {
+        Vault vault = userVaults.get(vaultId);
+        if (vault == null) {
+            return ResponseEntity.notFound().build();
+        }
+        vault.cancelLock();
+        return ResponseEntity.ok("Cancelación del bloqueo solicitada.");
+    }
+
+    /**
+     * Retorna el avance del bloqueo de la Vault: archivos y bytes escritos, errores y
+     * rendimiento. Puede consultarse mientras el bloqueo está en curso.
+     *
+     * @param vaultId Identificador de la Vault.
+     * @return Avance del último bloqueo.
+     */
+    @GetMapping("/{vaultId}/lock/progress")
+    public ResponseEntity<LockProgress> getLockProgress(@PathVariable String vaultId) {
+        Vault vault = userVaults.get(vaultId);
+        if (vault == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(vault.getLockProgress());
+    }
+
     /**
      * Lista los identificadores de Vaults disponibles para el usuario.
      *
@@ -190,6 +395,209 @@ public class VaultController {
             return ResponseEntity.notFound().build();
         }
         boolean isMounted = mountedFileSystems.containsKey(vaultId);
+        if (!isMounted && userVaults.get(vaultId).isUnlocked()) {
+            return ResponseEntity.ok("unlocked");
+        }
         return ResponseEntity.ok(isMounted ? "mounted" : "locked");
     }
+
+    /**
+     * Guarda un archivo en la unidad de una Vault desbloqueada (montada o no) con el cuerpo de la
+     * petición, que se cifra a medida que llega: la memoria usada no depende del tamaño del
+     * archivo. Reemplaza al archivo que tuviera la misma ruta.
+     *
+     * @param vaultId Identificador de la Vault.
+     * @param request Petición; la ruta del archivo en la unidad es lo que sigue a /files/.
+     * @return Respuesta indicando el tamaño del archivo guardado.
+     */
+    @PutMapping("/{vaultId}/files/**")
+    public ResponseEntity<String> putFile(@PathVariable String vaultId, HttpServletRequest request) {
+        Vault vault = userVaults.get(vaultId);
+        if (vault == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!vault.isUnlocked()) {
+            return ResponseEntity.status(409).body("La Vault no está desbloqueada");
+        }
+        String path = drivePathOf(request);
+        try (ReadableByteChannel in = Channels.newChannel(request.getInputStream())) {
+            long size = vault.storeFile(path, in);
+            return ResponseEntity.ok("Archivo guardado: " + path + " (" + size + " bytes)");
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(409).body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body("Error guardando el archivo: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Descarga un archivo de la unidad de una Vault desbloqueada (montada o no). El contenido se
+     * escribe en la respuesta por bloques, descifrando solo los segmentos pedidos. Admite un rango
+     * de bytes en la cabecera Range ("bytes=inicio-fin", "bytes=inicio-" o "bytes=-sufijo"), que
+     * se responde con 206, o con 416 si no corresponde al archivo; una cabecera que no es un rango
+     * válido, o con varios rangos, se ignora y se envía el archivo completo.
+     *
+     * El tamaño declarado es el del contenido al comenzar la descarga. Si el archivo se acorta o
+     * se reemplaza mientras se envía, la respuesta se interrumpe en lugar de quedar más corta que
+     * lo declarado.
+     *
+     * @param vaultId Identificador de la Vault.
+     * @param range Cabecera Range, opcional.
+     * @param request Petición; la ruta del archivo en la unidad es lo que sigue a /files/.
+     * @param response Respuesta donde se escribe el contenido.
+     * @throws IOException Si no se pudo leer el archivo o escribir la respuesta.
+     */
+    @GetMapping("/{vaultId}/files/**")
+    public void getFile(@PathVariable String vaultId,
+                        @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+                        HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Vault vault = userVaults.get(vaultId);
+        if (vault == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if (!vault.isUnlocked()) {
+            response.sendError(HttpServletResponse.SC_CONFLICT, "La Vault no está desbloqueada");
+            return;
+        }
+        String path = drivePathOf(request);
+        FileContent content = vault.getDecryptedFiles().get(path);
+        if (content == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        long size = content.size();
+        long start = 0;
+        long end = size - 1;
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (range != null && range.startsWith("bytes=") && range.indexOf(',') < 0) {
+            long[] bounds = parseRange(range.substring("bytes=".length()), size);
+            if (bounds == UNSATISFIABLE) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (bounds != null) {
+                start = bounds[0];
+                end = bounds[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+            }
+        }
+        long length = end - start + 1;
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setContentLengthLong(length);
+        // Se lee el mismo contenido cuyo tamaño se declaró; el contenedor cierra el stream
+        WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+        long copied = vault.readFile(content, start, length, out);
+        if (copied < length) {
+            // La respuesta ya está comprometida: la excepción hace que el contenedor corte la
+            // conexión, y el cliente detecta el cuerpo incompleto en lugar de esperar el resto
+            throw new IOException("El archivo " + path + " cambió durante la descarga: se enviaron "
+                    + copied + " de " + length + " bytes");
+        }
+    }
+
+    /**
+     * Interpreta un rango de bytes ("inicio-fin", "inicio-" o "-sufijo") sobre un archivo.
+     *
+     * @return Posiciones inicial y final (inclusive); UNSATISFIABLE si el rango es válido pero no
+     *         corresponde al archivo, o null si no es un rango válido y la cabecera se ignora.
+     */
+    private static long[] parseRange(String spec, long size) {
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        String first = spec.substring(0, dash).trim();
+        String last = spec.substring(dash + 1).trim();
+        if ((!first.isEmpty() && !isDigits(first)) || (!last.isEmpty() && !isDigits(last))
+                || (first.isEmpty() && last.isEmpty())) {
+            return null;
+        }
+        if (first.isEmpty()) {
+            // Los últimos "sufijo" bytes
+            long suffix = parsePosition(last);
+            if (suffix == 0 || size == 0) {
+                return UNSATISFIABLE;
+            }
+            return new long[]{Math.max(0, size - suffix), size - 1};
+        }
+        long start = parsePosition(first);
+        long end = last.isEmpty() ? Long.MAX_VALUE : parsePosition(last);
+        if (end < start) {
+            return null;
+        }
+        if (start >= size) {
+            return UNSATISFIABLE;
+        }
+        return new long[]{start, Math.min(end, size - 1)};
+    }
+
+    private static boolean isDigits(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return !value.isEmpty();
+    }
+
+    /**
+     * Posición de un rango (solo dígitos); una que no cabe en un long equivale a Long.MAX_VALUE.
+     */
+    private static long parsePosition(String digits) {
+        try {
+            return Long.parseLong(digits);
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Ruta en la unidad del archivo de una petición a /{vaultId}/files/**: lo que sigue a /files/,
+     * con el separador de la unidad.
+     */
+    private static String drivePathOf(HttpServletRequest request) {
+        String path = (String) request.getAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE);
+        String pattern = (String) request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        return new AntPathMatcher().extractPathWithinPattern(pattern, path).replace('/', FileTree.SEPARATOR);
+    }
+
+    /**
+     * Retorna el avance del desbloqueo de la Vault: archivos totales, desbloqueados y los
+     * errores por archivo. Puede consultarse mientras el desbloqueo está en curso.
+     *
+     * @param vaultId Identificador de la Vault.
+     * @return Avance del último desbloqueo.
+     */
+    @GetMapping("/{vaultId}/unlock/progress")
+    public ResponseEntity<UnlockProgress> getUnlockProgress(@PathVariable String vaultId) {
+        Vault vault = userVaults.get(vaultId);
+        if (vault == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(vault.getUnlockProgress());
+    }
+
+    /**
+     * Retorna el uso de memoria de la Vault frente a su presupuesto.
+     *
+     * @param vaultId Identificador de la Vault.
+     * @return Bytes en uso y presupuesto (-1 si no hay límite).
+     */
+    @GetMapping("/{vaultId}/memory")
+    public ResponseEntity<Map<String, Long>> getVaultMemory(@PathVariable String vaultId) {
+        Vault vault = userVaults.get(vaultId);
+        if (vault == null) {
+            return ResponseEntity.notFound().build();
+        }
+        Map<String, Long> usage = new LinkedHashMap<>();
+        usage.put("usedBytes", vault.getMemoryUsedBytes());
+        long budget = vault.getMemoryBudgetBytes();
+        usage.put("budgetBytes", budget == Long.MAX_VALUE ? -1L : budget);
+        return ResponseEntity.ok(usage);
+    }
 }
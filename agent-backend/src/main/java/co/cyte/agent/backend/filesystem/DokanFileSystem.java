@@ -1,6 +1,11 @@
 package co.cyte.agent.backend.filesystem;
 
+import co.cyte.agent.core.domain.VaultJournal;
 import co.cyte.agent.core.domain.VirtualDrive;
+import co.cyte.agent.core.storage.ContentLoadException;
+import co.cyte.agent.core.storage.FileContent;
+import co.cyte.agent.core.storage.FileTree;
+import co.cyte.agent.core.storage.MemoryBudgetExceededException;
 import com.sun.jna.Pointer;
 import com.sun.jna.WString;
 import com.sun.jna.platform.win32.WinBase;
@@ -12,18 +17,18 @@ import dev.dokan.dokan_java.DokanOperations;
 import dev.dokan.dokan_java.DokanUtils;
 import dev.dokan.dokan_java.FileSystemInformation;
 import dev.dokan.dokan_java.constants.microsoft.CreateDisposition;
+import dev.dokan.dokan_java.constants.microsoft.CreateOption;
 import dev.dokan.dokan_java.constants.microsoft.NtStatuses;
 import dev.dokan.dokan_java.masking.EnumInteger;
 import dev.dokan.dokan_java.structure.ByHandleFileInformation;
 import dev.dokan.dokan_java.structure.DokanFileInfo;
 import dev.dokan.dokan_java.structure.DokanIOSecurityContext;
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.nio.file.*;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -31,19 +36,32 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class DokanFileSystem extends DokanFileSystemStub {
 
     private AtomicLong handleHandler;
     private FileStore fileStore;
     private Path root;
-    // Se obtiene la referencia al Map compartido desde VirtualDrive (p.ej., Vault)
-    private final Map<String, ByteArrayOutputStream> decryptedFiles;
+    // Se obtiene la referencia al árbol de archivos compartido desde VirtualDrive (p.ej., Vault)
+    private final FileTree decryptedFiles;
+    // Unidad virtual que provee la memoria para los archivos nuevos
+    private final VirtualDrive virtualDrive;
     private final String mountDrive;
     // Asocia el nombre original con sus archivos temporales
     private final Map<String, Set<String>> tempFilesByOriginal = new ConcurrentHashMap<>();
     private static final ThreadLocal<DokanContext> contextHolder = ThreadLocal.withInitial(DokanContext::new);
     private final AtomicBoolean isMounted = new AtomicBoolean(false);
+    // Los cambios del espacio de nombres (crear, renombrar, eliminar) toman el bloqueo de escritura.
+    // Las escrituras de datos toman el de lectura, que no las serializa entre sí, y el monitor de su
+    // archivo: así cada cambio y su registro en el diario quedan en el mismo orden respecto de los
+    // renombrados, las eliminaciones y las demás escrituras al mismo archivo. Las lecturas no lo toman.
+    private final ReentrantReadWriteLock namespaceLock = new ReentrantReadWriteLock();
+    // Posición del diario cuando la unidad no tiene diario, y cuando no se pudo registrar el cambio
+    private static final long NOT_JOURNALED = -1;
+    private static final long JOURNAL_FAILED = -2;
+    // Resultado de changeData() cuando el archivo ya no existe
+    private static final long FILE_GONE = -3;
 
     /**
      * Constructor que recibe la instancia de VirtualDrive para obtener el mapa compartido
@@ -58,6 +76,7 @@ public class DokanFileSystem extends DokanFileSystemStub {
         super(fileSystemInformation);
         this.root = root;
         this.decryptedFiles = virtualDrive.getDecryptedFiles();
+        this.virtualDrive = virtualDrive;
         this.handleHandler = new AtomicLong(0);
         FileStore tmp = null;
         try {
@@ -101,29 +120,53 @@ public class DokanFileSystem extends DokanFileSystemStub {
             return NtStatuses.STATUS_SUCCESS;
         }
 
-        // Si no existe una entrada exacta, verificar si se trata de un directorio
-        if (!decryptedFiles.containsKey(fileName)) {
-            String dirPrefix = fileName + "\\"; // O usa File.separator según corresponda
-            boolean foundDir = false;
-            for (String key : decryptedFiles.keySet()) {
-                if (key.startsWith(dirPrefix)) {
-                    foundDir = true;
-                    break;
+        CreateDisposition createDisposition = EnumInteger.enumFromInt(rawCreateDisposition,
+                CreateDisposition.values());
+        boolean directoryRequested = (rawCreateOptions & CreateOption.FILE_DIRECTORY_FILE.maskingValue()) != 0;
+        // Archivo existente que se sobrescribe; se vacía fuera del bloqueo del espacio de nombres
+        FileContent toTruncate = null;
+        // Posición en el diario del archivo creado
+        long logged = NOT_JOURNALED;
+
+        namespaceLock.writeLock().lock();
+        try {
+
+            // Los directorios se resuelven con el índice del árbol, sin recorrer las claves
+            if (decryptedFiles.isDirectory(fileName)) {
+                if (createDisposition == CreateDisposition.FILE_CREATE) {
+                    return NtStatuses.STATUS_OBJECT_NAME_COLLISION;
                 }
-            }
-            if (foundDir) {
-                // Se reconoce la ruta como un directorio virtual.
                 dokanFileInfo.IsDirectory = 1;
                 dokanFileInfo.Context = 1;
                 return NtStatuses.STATUS_SUCCESS;
             }
-        }
-
-        synchronized (decryptedFiles) {
 
             boolean fileExists = decryptedFiles.containsKey(fileName);
-            CreateDisposition createDisposition = EnumInteger.enumFromInt(rawCreateDisposition,
-                    CreateDisposition.values());
+
+            // Creación o apertura de un directorio que aún no existe
+            if (directoryRequested) {
+                if (fileExists) {
+                    return NtStatuses.STATUS_NOT_A_DIRECTORY;
+                }
+                if (createDisposition != CreateDisposition.FILE_CREATE
+                        && createDisposition != CreateDisposition.FILE_OPEN_IF) {
+                    return NtStatuses.STATUS_OBJECT_NAME_NOT_FOUND;
+                }
+                if (!decryptedFiles.createDirectory(fileName)) {
+                    // Algún componente intermedio de la ruta es un archivo
+                    return NtStatuses.STATUS_OBJECT_PATH_NOT_FOUND;
+                }
+                dokanFileInfo.IsDirectory = 1;
+                dokanFileInfo.Context = 1;
+                // Crear un directorio es poco frecuente: se confirma sin soltar el bloqueo
+                return syncJournal(journalCreate(fileName, true), "zwCreateFile");
+            }
+
+            // Un archivo no puede crearse debajo de otro archivo
+            String parent = FileTree.parentOf(fileName);
+            if (!fileExists && decryptedFiles.containsKey(parent)) {
+                return NtStatuses.STATUS_OBJECT_PATH_NOT_FOUND;
+            }
 
             switch (createDisposition) {
                 case FILE_SUPERSEDE:
@@ -131,40 +174,59 @@ public class DokanFileSystem extends DokanFileSystemStub {
                 case FILE_OVERWRITE_IF:
                     // Si el archivo existe, limpiar su contenido sin borrar el objeto en memoria
                     if (fileExists) {
-                        decryptedFiles.get(fileName).reset();
+                        toTruncate = decryptedFiles.get(fileName);
                     } else {
-                        decryptedFiles.put(fileName, new ByteArrayOutputStream());
+                        decryptedFiles.put(fileName, virtualDrive.newFileContent());
+                        logged = journalCreate(fileName, false);
                     }
-                    dokanFileInfo.Context = this.handleHandler.incrementAndGet();
-                    return NtStatuses.STATUS_SUCCESS;
+                    break;
 
                 case FILE_CREATE:
                     if (fileExists) {
                         return NtStatuses.STATUS_OBJECT_NAME_COLLISION;
                     }
-                    decryptedFiles.put(fileName, new ByteArrayOutputStream());
+                    decryptedFiles.put(fileName, virtualDrive.newFileContent());
+                    logged = journalCreate(fileName, false);
                     break;
 
                 case FILE_OPEN:
                 case FILE_OPEN_IF:
                     if (!fileExists) {
                         if (createDisposition == CreateDisposition.FILE_OPEN_IF) {
-                            decryptedFiles.put(fileName, new ByteArrayOutputStream());
+                            decryptedFiles.put(fileName, virtualDrive.newFileContent());
+                            logged = journalCreate(fileName, false);
                         } else {
                             return NtStatuses.STATUS_OBJECT_NAME_NOT_FOUND;
                         }
                     }
-                    dokanFileInfo.Context = this.handleHandler.incrementAndGet();
-                    return NtStatuses.STATUS_SUCCESS;
+                    break;
 
                 default:
                     return NtStatuses.STATUS_INVALID_PARAMETER;
             }
+        } finally {
+            namespaceLock.writeLock().unlock();
+        }
 
-            // Asociar el archivo con el PID del proceso que lo abrió/creó.
-            dokanFileInfo.Context = this.handleHandler.incrementAndGet();
-            return NtStatuses.STATUS_SUCCESS;
+        // Vaciar el archivo solo toma su propio bloqueo, sin detener a los demás archivos
+        if (toTruncate != null) {
+            logged = changeData(fileName, content -> {
+                content.truncate(0);
+                return journal(j -> j.logTruncate(fileName, 0));
+            });
+            if (logged == FILE_GONE) {
+                return NtStatuses.STATUS_OBJECT_NAME_NOT_FOUND;
+            }
+        }
+        // El archivo creado o vaciado debe ser durable antes de confirmarlo
+        int status = syncJournal(logged, "zwCreateFile");
+        if (status != NtStatuses.STATUS_SUCCESS) {
+            return status;
         }
+
+        // Asociar el archivo con el PID del proceso que lo abrió/creó.
+        dokanFileInfo.Context = this.handleHandler.incrementAndGet();
+        return NtStatuses.STATUS_SUCCESS;
     }
 
     @Override
@@ -173,15 +235,30 @@ public class DokanFileSystem extends DokanFileSystemStub {
 
         // Si se indica que el archivo se debe borrar al cerrar
         if (dokanFileInfo.deleteOnClose()) {
+            // Un directorio solo se elimina si está vacío (deleteDirectory ya lo verificó)
+            if (decryptedFiles.isDirectory(fileName)) {
+                long logged = NOT_JOURNALED;
+                namespaceLock.writeLock().lock();
+                try {
+                    if (decryptedFiles.removeDirectory(fileName)) {
+                        logged = journal(j -> j.logDelete(fileName, true));
+                    }
+                } finally {
+                    namespaceLock.writeLock().unlock();
+                }
+                syncJournal(logged, "cleanup");
+                return;
+            }
             // Eliminar el archivo original
-            decryptedFiles.remove(fileName);
+            long logged = removeFile(fileName);
             // También eliminar sus temporales si existen
             Set<String> tempSet = tempFilesByOriginal.remove(fileName);
             if (tempSet != null) {
                 for (String tempName : tempSet) {
-                    decryptedFiles.remove(tempName);
+                    logged = Math.max(logged, removeFile(tempName));
                 }
             }
+            syncJournal(logged, "cleanup");
         }
     }
 
@@ -196,23 +273,22 @@ public class DokanFileSystem extends DokanFileSystemStub {
             Set<String> tempSet = tempFilesByOriginal.get(fileName);
             if (tempSet != null) {
                 for (String tempName : tempSet) {
-                    decryptedFiles.remove(tempName);
+                    removeFile(tempName);
                 }
                 tempFilesByOriginal.remove(fileName);
             }
 
-            // Luego, recorrer el mapa de decryptedFiles para buscar archivos temporales que empiecen con "~$"
+            // Luego, buscar en la misma carpeta los archivos temporales que empiecen con "~$"
+            String parent = FileTree.parentOf(fileName);
             List<String> keysToRemove = new ArrayList<>();
 
-            for (String key : decryptedFiles.keySet()) {
-                Path keyPath = Paths.get(key);
-                String keyBase = keyPath.getFileName().toString();
-                if (keyBase.startsWith("~$")) {
-                    keysToRemove.add(key);
+            for (String name : decryptedFiles.listFiles(parent)) {
+                if (name.startsWith("~$")) {
+                    keysToRemove.add(childPath(parent, name));
                 }
             }
             for (String key : keysToRemove) {
-                decryptedFiles.remove(key);
+                removeFile(key);
             }
         }
     }
@@ -223,38 +299,52 @@ public class DokanFileSystem extends DokanFileSystemStub {
 
         String fileName = resolveRelativeFileName(rawPath, dokanFileInfo);
 
-        synchronized (decryptedFiles) {
-            ByteArrayOutputStream memoryStream = decryptedFiles.get(fileName);
-
-            // Si no existe, se crea nuevo stream automáticamente (para casos de creación)
-            if (memoryStream == null) {
-                memoryStream = new ByteArrayOutputStream();
-                decryptedFiles.put(fileName, memoryStream);
-            }
-            // Obtener contenido actual del archivo
-            byte[] data = memoryStream.toByteArray();
-
-            // Ajustar tamaño si es necesario
-            int endOffset = (int) rawOffset + rawBufferLength;
-            if (endOffset > data.length) {
-                data = Arrays.copyOf(data, endOffset);
+        // Si no existe, se crea un contenido nuevo automáticamente (para casos de creación)
+        if (decryptedFiles.get(fileName) == null) {
+            namespaceLock.writeLock().lock();
+            try {
+                if (decryptedFiles.get(fileName) == null) {
+                    decryptedFiles.put(fileName, virtualDrive.newFileContent());
+                    if (journalCreate(fileName, false) == JOURNAL_FAILED) {
+                        return NtStatuses.STATUS_IO_DEVICE_ERROR;
+                    }
+                }
+            } finally {
+                namespaceLock.writeLock().unlock();
             }
+        }
 
-            // Leer datos desde Dokan
-            byte[] buffer = new byte[rawBufferLength];
-            rawBuffer.read(0, buffer, 0, rawBufferLength);
-
-            // Copiar datos en la posición correcta
-            System.arraycopy(buffer, 0, data, (int) rawOffset, rawBufferLength);
-
-            // Permitir sobrescritura desde un offset sin resetear todo el contenido
-            memoryStream.reset();
-            memoryStream.write(data, 0, endOffset);
-
-            rawWrittenLength.setValue(rawBufferLength);
-            return NtStatuses.STATUS_SUCCESS;
-
+        // Copiar directamente desde el buffer nativo de Dokan a los bloques afectados;
+        // solo se bloquea este archivo, de modo que los demás siguen atendiéndose en paralelo
+        ByteBuffer data = rawBuffer.getByteBuffer(0, rawBufferLength);
+        long logged;
+        try {
+            logged = changeData(fileName, content -> {
+                // Escribir al final si Dokan lo indica; en otro caso, en el offset solicitado
+                long offset = dokanFileInfo.writeToEndOfFile() ? content.size() : rawOffset;
+                content.write(offset, data.duplicate());
+                return journal(j -> j.logWrite(fileName, offset, data));
+            });
+        } catch (MemoryBudgetExceededException e) {
+            System.err.println("(writeFile) " + e.getMessage() + ": " + fileName);
+            return NtStatuses.STATUS_DISK_FULL;
+        } catch (ContentLoadException e) {
+            System.err.println("(writeFile) " + e.getMessage());
+            return NtStatuses.STATUS_IO_DEVICE_ERROR;
+        }
+        if (logged == FILE_GONE) {
+            // El archivo se renombró o eliminó desde que se buscó
+            return NtStatuses.STATUS_OBJECT_NAME_NOT_FOUND;
         }
+        // La escritura se confirma cuando su registro es durable (fuera de los bloqueos);
+        // varios hilos comparten la sincronización
+        int status = syncJournal(logged, "writeFile");
+        if (status != NtStatuses.STATUS_SUCCESS) {
+            return status;
+        }
+
+        rawWrittenLength.setValue(rawBufferLength);
+        return NtStatuses.STATUS_SUCCESS;
     }
 
     @Override
@@ -272,28 +362,54 @@ public class DokanFileSystem extends DokanFileSystemStub {
         // Obtener el nombre del archivo a partir de rawPath
         String fileName = resolveRelativeFileName(rawPath, dokanFileInfo);
 
-        // Obtener los datos en memoria para el archivo solicitado
-        ByteArrayOutputStream baos = decryptedFiles.get(fileName);
-        if (baos == null) {
+        // Obtener el contenido en memoria para el archivo solicitado
+        FileContent content = decryptedFiles.get(fileName);
+        if (content == null) {
             return NtStatuses.STATUS_OBJECT_NAME_NOT_FOUND;
         }
-        byte[] data = baos.toByteArray();
 
-        // Validar límites de lectura
-        int offset = (int) rawOffset;
-        if (offset >= data.length) {
+        // Copiar solo el rango solicitado directamente al buffer de Dokan
+        // (si el archivo aún no se ha descifrado, se descifra en este momento)
+        int bytesRead;
+        try {
+            bytesRead = content.read(rawOffset, rawBuffer.getByteBuffer(0, rawBufferLength));
+        } catch (MemoryBudgetExceededException | ContentLoadException e) {
+            System.err.println("(readFile) " + e.getMessage() + ": " + fileName);
+            return NtStatuses.STATUS_IO_DEVICE_ERROR;
+        }
+        if (bytesRead < 0) {
             rawReadLength.setValue(0);
             return NtStatuses.STATUS_END_OF_FILE;
         }
-
-        // Calcular la cantidad de bytes a leer y copiarlos al buffer de Dokan
-        int bytesToRead = Math.min(rawBufferLength, data.length - offset);
-        rawBuffer.write(0, data, offset, bytesToRead);
-        rawReadLength.setValue(bytesToRead);
+        rawReadLength.setValue(bytesRead);
 
         return NtStatuses.STATUS_SUCCESS;
     }
 
+    @Override
+    public int setEndOfFile(WString rawPath, long rawByteOffset, DokanFileInfo dokanFileInfo) {
+        String fileName = resolveRelativeFileName(rawPath, dokanFileInfo);
+
+        // Recorta o extiende con ceros sin copiar los bloques que se conservan
+        long logged;
+        try {
+            logged = changeData(fileName, content -> {
+                content.truncate(rawByteOffset);
+                return journal(j -> j.logTruncate(fileName, rawByteOffset));
+            });
+        } catch (MemoryBudgetExceededException e) {
+            System.err.println("(setEndOfFile) " + e.getMessage() + ": " + fileName);
+            return NtStatuses.STATUS_DISK_FULL;
+        } catch (ContentLoadException e) {
+            System.err.println("(setEndOfFile) " + e.getMessage());
+            return NtStatuses.STATUS_IO_DEVICE_ERROR;
+        }
+        if (logged == FILE_GONE) {
+            return NtStatuses.STATUS_OBJECT_NAME_NOT_FOUND;
+        }
+        return syncJournal(logged, "setEndOfFile");
+    }
+
     @Override
     public int getFileInformation(WString rawPath, ByHandleFileInformation fileInfo, DokanFileInfo dokanFileInfo) {
         String rawStr = rawPath.toString(); // Por ejemplo: "\" o "\sub" o "\sub\prueba-sub.docx"
@@ -312,10 +428,10 @@ public class DokanFileSystem extends DokanFileSystemStub {
 
         // Primero, buscamos una entrada exacta en decryptedFiles
         if (decryptedFiles.containsKey(relativePath)) {
-            ByteArrayOutputStream fileData = decryptedFiles.get(relativePath);
+            long fileSize = decryptedFiles.get(relativePath).size();
             fileInfo.dwFileAttributes = WinNT.FILE_ATTRIBUTE_ARCHIVE | WinNT.FILE_ATTRIBUTE_NORMAL;
-            fileInfo.nFileSizeHigh = 0;
-            fileInfo.nFileSizeLow = fileData.size();
+            fileInfo.nFileSizeHigh = (int) (fileSize >>> 32);
+            fileInfo.nFileSizeLow = (int) fileSize;
             fileInfo.ftCreationTime = getCurrentFileTime();
             fileInfo.ftLastAccessTime = getCurrentFileTime();
             fileInfo.ftLastWriteTime = getCurrentFileTime();
@@ -326,17 +442,13 @@ public class DokanFileSystem extends DokanFileSystemStub {
             return NtStatuses.STATUS_SUCCESS;
         }
 
-        // Si no se encontró, se verifica si la ruta corresponde a un directorio.
-        // Si existe al menos un archivo cuya clave inicie con "relativePath\" se asume que es un directorio.
-        String prefix = relativePath + "\\";
-        for (String key : decryptedFiles.keySet()) {
-            if (key.startsWith(prefix)) {
-                fileInfo.dwFileAttributes = WinNT.FILE_ATTRIBUTE_DIRECTORY;
-                fileInfo.ftCreationTime = getCurrentFileTime();
-                fileInfo.ftLastAccessTime = getCurrentFileTime();
-                fileInfo.ftLastWriteTime = getCurrentFileTime();
-                return NtStatuses.STATUS_SUCCESS;
-            }
+        // Si no se encontró, se verifica en el índice si la ruta corresponde a un directorio.
+        if (decryptedFiles.isDirectory(relativePath)) {
+            fileInfo.dwFileAttributes = WinNT.FILE_ATTRIBUTE_DIRECTORY;
+            fileInfo.ftCreationTime = getCurrentFileTime();
+            fileInfo.ftLastAccessTime = getCurrentFileTime();
+            fileInfo.ftLastWriteTime = getCurrentFileTime();
+            return NtStatuses.STATUS_SUCCESS;
         }
 
         return NtStatuses.STATUS_OBJECT_NAME_NOT_FOUND;
@@ -348,25 +460,20 @@ public class DokanFileSystem extends DokanFileSystemStub {
         // Si es raíz, la ruta relativa es vacía; de lo contrario, eliminamos la barra inicial.
         String currentDir = (rawStr.equals("\\") || rawStr.isEmpty()) ? "" : rawStr.substring(1);
 
-        // Set para evitar listar directorios duplicados.
-        Set<String> foldersListed = new HashSet<>();
+        if (!decryptedFiles.isDirectory(currentDir)) {
+            return NtStatuses.STATUS_OBJECT_PATH_NOT_FOUND;
+        }
 
         try {
-            for (Map.Entry<String, ByteArrayOutputStream> entry : decryptedFiles.entrySet()) {
-                String key = entry.getKey(); // Ej: "tabla.xlsx" o "sub\prueba-sub.docx"
-
-                if (currentDir.isEmpty()) {
-                    // En la raíz:
-                    // Si la clave no contiene separadores, es un archivo en la raíz.
-                    fillFileFindData(fillFindData, dokanFileInfo, foldersListed, entry, key);
-                } else {
-                    String prefix = currentDir + "\\";
-                    if (key.startsWith(prefix)) {
-                        // Extraer la parte restante.
-                        String remaining = key.substring(prefix.length());
-                        // Si 'remaining' no contiene separadores, es un archivo directamente en el directorio.
-                        fillFileFindData(fillFindData, dokanFileInfo, foldersListed, entry, remaining);
-                    }
+            // Solo se recorren los hijos directos del directorio
+            for (String folder : decryptedFiles.listDirectories(currentDir)) {
+                fillDirectoryFindData(fillFindData, dokanFileInfo, folder);
+            }
+            for (String name : decryptedFiles.listFiles(currentDir)) {
+                FileContent content = decryptedFiles.get(childPath(currentDir, name));
+                // Puede haberse eliminado mientras se listaba
+                if (content != null) {
+                    fillFileFindData(fillFindData, dokanFileInfo, name, content.size());
                 }
             }
             return NtStatuses.STATUS_SUCCESS;
@@ -376,56 +483,68 @@ public class DokanFileSystem extends DokanFileSystemStub {
         }
     }
 
-    private void fillFileFindData(DokanOperations.FillWin32FindData fillFindData, DokanFileInfo dokanFileInfo, Set<String> foldersListed, Map.Entry<String, ByteArrayOutputStream> entry, String key) {
-        if (!key.contains("\\") && !key.contains("/")) {
-            WinBase.WIN32_FIND_DATA findData = new WinBase.WIN32_FIND_DATA();
-            findData.dwFileAttributes = WinNT.FILE_ATTRIBUTE_ARCHIVE | WinNT.FILE_ATTRIBUTE_NORMAL;
-            char[] fileChars = key.toCharArray();
-            System.arraycopy(fileChars, 0, findData.cFileName, 0, Math.min(fileChars.length, findData.cFileName.length));
-            ByteArrayOutputStream baos = entry.getValue();
-            findData.nFileSizeHigh = 0;
-            findData.nFileSizeLow = baos.size();
-            findData.ftCreationTime = getCurrentFileTime();
-            findData.ftLastAccessTime = getCurrentFileTime();
-            findData.ftLastWriteTime = getCurrentFileTime();
-            fillFindData.fillWin32FindData(findData, dokanFileInfo);
-        } else {
-            // Si la clave contiene separadores, el primer token es el directorio.
-            String folder = key.split("[/\\\\]")[0];
-            if (!foldersListed.contains(folder)) {
-                foldersListed.add(folder);
-                WinBase.WIN32_FIND_DATA findData = new WinBase.WIN32_FIND_DATA();
-                findData.dwFileAttributes = WinNT.FILE_ATTRIBUTE_DIRECTORY;
-                char[] folderChars = folder.toCharArray();
-                System.arraycopy(folderChars, 0, findData.cFileName, 0, Math.min(folderChars.length, findData.cFileName.length));
-                findData.ftCreationTime = getCurrentFileTime();
-                findData.ftLastAccessTime = getCurrentFileTime();
-                findData.ftLastWriteTime = getCurrentFileTime();
-                fillFindData.fillWin32FindData(findData, dokanFileInfo);
-            }
-        }
+    private void fillFileFindData(DokanOperations.FillWin32FindData fillFindData, DokanFileInfo dokanFileInfo, String name, long fileSize) {
+        WinBase.WIN32_FIND_DATA findData = new WinBase.WIN32_FIND_DATA();
+        findData.dwFileAttributes = WinNT.FILE_ATTRIBUTE_ARCHIVE | WinNT.FILE_ATTRIBUTE_NORMAL;
+        char[] fileChars = name.toCharArray();
+        System.arraycopy(fileChars, 0, findData.cFileName, 0, Math.min(fileChars.length, findData.cFileName.length));
+        findData.nFileSizeHigh = (int) (fileSize >>> 32);
+        findData.nFileSizeLow = (int) fileSize;
+        findData.ftCreationTime = getCurrentFileTime();
+        findData.ftLastAccessTime = getCurrentFileTime();
+        findData.ftLastWriteTime = getCurrentFileTime();
+        fillFindData.fillWin32FindData(findData, dokanFileInfo);
     }
 
+    private void fillDirectoryFindData(DokanOperations.FillWin32FindData fillFindData, DokanFileInfo dokanFileInfo, String folder) {
+        WinBase.WIN32_FIND_DATA findData = new WinBase.WIN32_FIND_DATA();
+        findData.dwFileAttributes = WinNT.FILE_ATTRIBUTE_DIRECTORY;
+        char[] folderChars = folder.toCharArray();
+        System.arraycopy(folderChars, 0, findData.cFileName, 0, Math.min(folderChars.length, findData.cFileName.length));
+        findData.ftCreationTime = getCurrentFileTime();
+        findData.ftLastAccessTime = getCurrentFileTime();
+        findData.ftLastWriteTime = getCurrentFileTime();
+        fillFindData.fillWin32FindData(findData, dokanFileInfo);
+    }
 
     @Override
     public int deleteFile(WString rawPath, DokanFileInfo dokanFileInfo) {
-        // Extraer el nombre del archivo a partir de la ruta
-        String rawStr = rawPath.toString();
-        Path p = Paths.get(rawStr);
-        String fileName = (p.getFileName() != null ? p.getFileName().toString() : "");
+        // Obtener la ruta relativa del archivo (incluyendo subcarpetas)
+        String fileName = resolveRelativeFileName(rawPath, dokanFileInfo);
         System.out.println("Eliminando archivo " + fileName);
+        if (decryptedFiles.isDirectory(fileName)) {
+            return NtStatuses.STATUS_FILE_IS_A_DIRECTORY;
+        }
         // Si el archivo existe en el mapa, se elimina
         if (decryptedFiles.containsKey(fileName)) {
-            decryptedFiles.remove(fileName);
-            return NtStatuses.STATUS_SUCCESS;
+            return syncJournal(removeFile(fileName), "deleteFile");
         }
         return NtStatuses.STATUS_OBJECT_NAME_NOT_FOUND;
     }
 
+    @Override
+    public int deleteDirectory(WString rawPath, DokanFileInfo dokanFileInfo) {
+        String dirName = resolveRelativeFileName(rawPath, dokanFileInfo);
+        // La raíz no se puede eliminar
+        if (dirName.isEmpty()) {
+            return NtStatuses.STATUS_ACCESS_DENIED;
+        }
+        if (!decryptedFiles.isDirectory(dirName)) {
+            return NtStatuses.STATUS_OBJECT_NAME_NOT_FOUND;
+        }
+        // Solo se valida: el directorio se elimina en cleanup cuando se marca para borrar al cerrar
+        if (!decryptedFiles.isEmptyDirectory(dirName)) {
+            return NtStatuses.STATUS_DIRECTORY_NOT_EMPTY;
+        }
+        return NtStatuses.STATUS_SUCCESS;
+    }
+
     @Override
     public int moveFile(WString existingFileName, WString newFileName, boolean replaceIfExisting,
                         DokanFileInfo dokanFileInfo) {
-        synchronized (decryptedFiles) {
+        long logged;
+        namespaceLock.writeLock().lock();
+        try {
             String oldName = resolveRelativeFileName(existingFileName, dokanFileInfo);
             String newName = resolveRelativeFileName(newFileName, dokanFileInfo);
 
@@ -440,21 +559,35 @@ public class DokanFileSystem extends DokanFileSystemStub {
                 return NtStatuses.STATUS_ACCESS_DENIED;
             }
 
-            // Verificar que el archivo exista en la unidad virtual
-            if (!decryptedFiles.containsKey(oldName)) {
+            // Verificar que el archivo o directorio exista en la unidad virtual
+            boolean isDirectory = decryptedFiles.isDirectory(oldName);
+            if (!isDirectory && !decryptedFiles.containsKey(oldName)) {
                 return NtStatuses.STATUS_OBJECT_NAME_NOT_FOUND;
             }
 
-            // Si se permite reemplazar y el archivo ya existe en la nueva ubicación, eliminarlo
-            if (replaceIfExisting && decryptedFiles.containsKey(newName)) {
-                decryptedFiles.remove(newName);
+            // Si el destino ya existe, solo se reemplaza si se permite y es un archivo
+            if (!newName.equals(oldName)) {
+                if (decryptedFiles.isDirectory(newName)) {
+                    return NtStatuses.STATUS_OBJECT_NAME_COLLISION;
+                }
+                if (decryptedFiles.containsKey(newName)) {
+                    if (!replaceIfExisting) {
+                        return NtStatuses.STATUS_OBJECT_NAME_COLLISION;
+                    }
+                    removeFile(newName);
+                }
             }
 
-            // Mover (renombrar) dentro de la unidad virtual
-            ByteArrayOutputStream fileData = decryptedFiles.remove(oldName);
-            decryptedFiles.put(newName, fileData);
-            // Si el archivo nuevo es temporal, lo asociamos al original
-            if (isTemporary(newName)) {
+            // Mover (renombrar) dentro de la unidad virtual; un directorio se mueve con todo su contenido
+            if (!decryptedFiles.move(oldName, newName)) {
+                return NtStatuses.STATUS_OBJECT_PATH_NOT_FOUND;
+            }
+            logged = journal(j -> j.logMove(oldName, newName));
+            if (isDirectory) {
+                System.out.println("(moveFile) Directorio renombrado dentro de la unidad virtual: "
+                        + oldName + " → " + newName);
+            } else if (isTemporary(newName)) {
+                // Si el archivo nuevo es temporal, lo asociamos al original
                 // Asumamos que el archivo original es el que se muestra sin prefijo o sin extensión .tmp
                 // Por ejemplo, si el temporal es "~$prueba.docx" o "E3F38718.tmp", se asocia a "prueba.docx"
                 String originalName = deduceOriginalName(oldName, newName);
@@ -471,10 +604,14 @@ public class DokanFileSystem extends DokanFileSystemStub {
                     }
                 }
             }
-            System.out.println("(moveFile) Archivo renombrado dentro de la unidad virtual: "
-                    + oldName + " → " + newName);
+            if (!isDirectory) {
+                System.out.println("(moveFile) Archivo renombrado dentro de la unidad virtual: "
+                        + oldName + " → " + newName);
+            }
+        } finally {
+            namespaceLock.writeLock().unlock();
         }
-        return NtStatuses.STATUS_SUCCESS;
+        return syncJournal(logged, "moveFile");
     }
 
     @Override
@@ -543,6 +680,143 @@ public class DokanFileSystem extends DokanFileSystemStub {
         return newName;
     }
 
+    /**
+     * Construye la ruta relativa de un hijo dentro de un directorio ("" para la raíz).
+     */
+    private String childPath(String directory, String name) {
+        return directory.isEmpty() ? name : directory + FileTree.SEPARATOR + name;
+    }
+
+    /**
+     * Quita un archivo del mapa y devuelve su memoria a la unidad virtual.
+     *
+     * @return Posición de la eliminación en el diario, para sincronizarla (syncJournal()).
+     */
+    private long removeFile(String fileName) {
+        FileContent removed;
+        long logged = NOT_JOURNALED;
+        namespaceLock.writeLock().lock();
+        try {
+            removed = decryptedFiles.remove(fileName);
+            if (removed != null) {
+                logged = journal(j -> j.logDelete(fileName, false));
+            }
+        } finally {
+            namespaceLock.writeLock().unlock();
+        }
+        // La memoria se libera fuera del bloqueo del espacio de nombres: puede esperar a que
+        // termine una lectura en curso sobre el mismo archivo
+        if (removed != null) {
+            removed.release();
+        }
+        return logged;
+    }
+
+    /**
+     * Modifica los datos de un archivo y registra el cambio en el diario en el mismo orden respecto
+     * de los demás cambios (ver namespaceLock). Vault.storeFile() reemplaza el contenido de una ruta
+     * con el monitor del contenido anterior tomado: si mientras tanto se reemplazó, se vuelve a buscar.
+     *
+     * @return Posición del registro en el diario, o FILE_GONE si el archivo no existe.
+     */
+    private long changeData(String fileName, DataChange change) {
+        namespaceLock.readLock().lock();
+        try {
+            while (true) {
+                FileContent content = decryptedFiles.get(fileName);
+                if (content == null) {
+                    return FILE_GONE;
+                }
+                synchronized (content) {
+                    if (decryptedFiles.get(fileName) == content) {
+                        return change.apply(content);
+                    }
+                }
+            }
+        } finally {
+            namespaceLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Modificación de los datos de un archivo; retorna la posición de su registro en el diario.
+     */
+    private interface DataChange {
+        long apply(FileContent content);
+    }
+
+    /**
+     * Registra una modificación ya aplicada en el diario de la unidad, si tiene.
+     *
+     * @return Posición del registro, NOT_JOURNALED sin diario o JOURNAL_FAILED si no se pudo registrar.
+     */
+    private long journal(JournalRecord record) {
+        VaultJournal journal = virtualDrive.getJournal();
+        if (journal == null) {
+            return NOT_JOURNALED;
+        }
+        try {
+            return record.log(journal);
+        } catch (IOException e) {
+            System.err.println("(journal) No se pudo registrar el cambio en el diario: " + e.getMessage());
+            return JOURNAL_FAILED;
+        }
+    }
+
+    /**
+     * Registra la creación de un archivo o directorio que ya se agregó a la unidad, con el bloqueo
+     * del espacio de nombres tomado. Si no se pudo registrar, la creación se deshace: de lo
+     * contrario una escritura posterior se confirmaría sin su registro CREATE y se perdería al
+     * recuperar el diario.
+     *
+     * @return Posición del registro en el diario, NOT_JOURNALED o JOURNAL_FAILED.
+     */
+    private long journalCreate(String fileName, boolean directory) {
+        long logged = journal(j -> j.logCreate(fileName, directory));
+        if (logged == JOURNAL_FAILED) {
+            if (directory) {
+                decryptedFiles.removeDirectory(fileName);
+            } else {
+                FileContent created = decryptedFiles.remove(fileName);
+                if (created != null) {
+                    created.release();
+                }
+            }
+        }
+        return logged;
+    }
+
+    /**
+     * Espera a que el diario sea durable hasta la posición de un registro antes de confirmar la
+     * operación al llamador.
+     *
+     * @return STATUS_SUCCESS, o STATUS_IO_DEVICE_ERROR si el cambio no se pudo registrar.
+     */
+    private int syncJournal(long position, String operation) {
+        if (position == JOURNAL_FAILED) {
+            return NtStatuses.STATUS_IO_DEVICE_ERROR;
+        }
+        VaultJournal journal = virtualDrive.getJournal();
+        if (position == NOT_JOURNALED || journal == null) {
+            return NtStatuses.STATUS_SUCCESS;
+        }
+        try {
+            journal.sync(position);
+            return NtStatuses.STATUS_SUCCESS;
+        } catch (IOException e) {
+            System.err.println("(" + operation + ") No se pudo sincronizar el diario: " + e.getMessage());
+            return NtStatuses.STATUS_IO_DEVICE_ERROR;
+        }
+    }
+
+    /**
+     * Modificación a registrar en el diario.
+     */
+    @FunctionalInterface
+    private interface JournalRecord {
+        long log(VaultJournal journal) throws IOException;
+    }
+
     private DokanContext getContext() {
         return contextHolder.get();
     }
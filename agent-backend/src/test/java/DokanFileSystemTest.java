@@ -2,10 +2,20 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import co.cyte.agent.backend.filesystem.DokanFileSystem;
 import co.cyte.agent.core.domain.Vault;
+import co.cyte.agent.core.domain.VaultJournal;
+import co.cyte.agent.core.domain.VaultOptions;
+import co.cyte.agent.core.domain.VirtualDrive;
+import co.cyte.agent.core.crypto.AESCipher;
 import co.cyte.agent.core.services.EncryptionService;
+import co.cyte.agent.core.services.KeyManager;
+import co.cyte.agent.core.storage.ChunkedFileContent;
+import co.cyte.agent.core.storage.FileContent;
+import co.cyte.agent.core.storage.FileTree;
 import dev.dokan.dokan_java.FileSystemInformation;
 import dev.dokan.dokan_java.constants.microsoft.CreateDisposition;
+import dev.dokan.dokan_java.constants.microsoft.CreateOption;
 import dev.dokan.dokan_java.constants.microsoft.FileSystemFlag;
+import dev.dokan.dokan_java.constants.microsoft.NtStatuses;
 import dev.dokan.dokan_java.masking.MaskValueSet;
 import dev.dokan.dokan_java.structure.DokanFileInfo;
 import com.sun.jna.Memory;
@@ -13,7 +23,6 @@ import com.sun.jna.WString;
 import com.sun.jna.ptr.IntByReference;
 import org.junit.jupiter.api.*;
 
-import java.io.ByteArrayOutputStream;
 import java.nio.file.*;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -33,7 +42,7 @@ public class DokanFileSystemTest {
     public void setupAll() throws Exception {
         // Crear un directorio temporal para simular la raíz del sistema de archivos
         root = Files.createTempDirectory("dokanTestRoot");
-        encryptionService = new EncryptionService();
+        encryptionService = new EncryptionService(new AESCipher(new KeyManager()));
     }
 
     @BeforeEach
@@ -76,7 +85,7 @@ public class DokanFileSystemTest {
     }
 
     @Test
-    public void testWriteFileAndReadFile() {
+    public void testWriteFileAndReadFile() throws Exception {
         // Crear el archivo "file2.txt" usando FILE_CREATE
         WString filePath = new WString("\\file2.txt");
         DokanFileInfo fileInfo = new DokanFileInfo();
@@ -102,10 +111,10 @@ public class DokanFileSystemTest {
         assertEquals(0, status, "readFile debe retornar éxito");
         assertEquals(contentBytes.length, readLength.getValue(), "La cantidad de bytes leídos debe coincidir");
 
-        // Alternativamente, leer directamente del ByteArrayOutputStream almacenado en Vault
-        ByteArrayOutputStream baos = vault.getDecryptedFiles().get("file2.txt");
-        assertNotNull(baos, "El archivo 'file2.txt' debe existir en el Map");
-        String storedContent = baos.toString();
+        // Alternativamente, leer directamente del contenido almacenado en Vault
+        FileContent stored = vault.getDecryptedFiles().get("file2.txt");
+        assertNotNull(stored, "El archivo 'file2.txt' debe existir en el Map");
+        String storedContent = new String(stored.newInputStream().readAllBytes());
         assertEquals(content, storedContent, "El contenido almacenado debe coincidir con lo escrito");
     }
 
@@ -113,7 +122,7 @@ public class DokanFileSystemTest {
     public void testDeleteFile() {
         // Simular que existe el archivo "file3.txt" en el Map a través de Vault
         String fileName = "file3.txt";
-        vault.getDecryptedFiles().put(fileName, new ByteArrayOutputStream());
+        vault.getDecryptedFiles().put(fileName, new ChunkedFileContent());
         DokanFileInfo fileInfo = new DokanFileInfo();
         WString filePath = new WString("\\" + fileName);
 
@@ -121,4 +130,52 @@ public class DokanFileSystemTest {
         assertEquals(0, status, "deleteFile debe retornar éxito");
         assertFalse(vault.getDecryptedFiles().containsKey(fileName), "El archivo debe eliminarse del Map");
     }
+
+    @Test
+    public void testCreateIsUndoneWhenJournalFails() throws Exception {
+        // Un diario cerrado no acepta registros
+        VaultOptions options = new VaultOptions();
+        options.setJournal(true);
+        options.setCheckpointIntervalMillis(0);
+        Vault journaled = new Vault(Files.createDirectories(root.resolve("journal-failed")), encryptionService, options);
+        journaled.unlock();
+        VaultJournal closed = journaled.getJournal();
+        journaled.lock();
+
+        FileTree files = new FileTree();
+        DokanFileSystem failing = new DokanFileSystem(root, fsInfo, new VirtualDrive() {
+            @Override
+            public FileTree getDecryptedFiles() {
+                return files;
+            }
+
+            @Override
+            public FileContent newFileContent() {
+                return new ChunkedFileContent();
+            }
+
+            @Override
+            public VaultJournal getJournal() {
+                return closed;
+            }
+        }, mountDrive);
+
+        // Sin su registro CREATE, una escritura posterior confirmada se perdería al recuperar el diario
+        int status = failing.zwCreateFile(new WString("\\nuevo.txt"), null, 0, 0, 0,
+                CreateDisposition.FILE_CREATE.intValue(), 0, new DokanFileInfo());
+        assertEquals(NtStatuses.STATUS_IO_DEVICE_ERROR, status);
+        assertFalse(files.containsKey("nuevo.txt"), "La creación no registrada se deshace");
+
+        status = failing.zwCreateFile(new WString("\\carpeta"), null, 0, 0, 0,
+                CreateDisposition.FILE_CREATE.intValue(), CreateOption.FILE_DIRECTORY_FILE.maskingValue(),
+                new DokanFileInfo());
+        assertEquals(NtStatuses.STATUS_IO_DEVICE_ERROR, status);
+        assertFalse(files.isDirectory("carpeta"), "El directorio no registrado se deshace");
+
+        Memory buffer = new Memory(4);
+        buffer.write(0, "dato".getBytes(), 0, 4);
+        status = failing.writeFile(new WString("\\escrito.txt"), buffer, 4, new IntByReference(), 0, new DokanFileInfo());
+        assertEquals(NtStatuses.STATUS_IO_DEVICE_ERROR, status);
+        assertFalse(files.containsKey("escrito.txt"), "La creación implícita no registrada se deshace");
+    }
 }
@@ -1,32 +1,667 @@
 package co.cyte.agent.core.crypto;
 
-import java.io.InputStream;
-import java.io.OutputStream;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
- * TODO: Implementación simulada de EncryptionAlgorithm utilizando "AES".
+ * Implementación de EncryptionAlgorithm por segmentos autenticados (ver SegmentCipher).
+ *
+ * La suite con la que se cifran los archivos nuevos de cada alias la elige el CipherRegistry
+ * (por defecto, AES-256-GCM o AES-256-CTR+HMAC, la más rápida en este procesador); cada archivo
+ * se descifra con la suite indicada en su encabezado, cualquiera sea el alias.
+ *
+ * Los archivos se cifran en segmentos de 64 KiB autenticados por separado, lo que permite
+ * descifrar solo la parte que se lee (openReader) y, al guardar un archivo modificado, volver a
+ * cifrar solo los segmentos que cambiaron (reencrypt). Las claves se obtienen del KeyProvider
+ * según el alias.
+ *
+ * Como los segmentos son independientes, los archivos grandes se cifran y descifran en paralelo
+ * en un ForkJoinPool, por tandas que se escriben en orden: el resultado tiene exactamente el
+ * mismo formato que el procesamiento secuencial.
+ *
+ * Los segmentos se cifran entre ByteBuffer: sobre los buffers del llamador en las variantes con
+ * buffers, y sobre buffers directos reutilizados en las variantes con canales, de modo que el
+ * camino entre FileChannel, el Cipher y la memoria de la unidad no pasa por arreglos del heap.
+ *
+ * Con la compresión activada (setCompressionEnabled), los archivos nuevos se cifran con el
+ * formato de CompressedSegments: cada segmento se comprime antes de cifrarse, salvo los que no se
+ * reducen (datos ya comprimidos, detectados con una muestra). Los archivos se descifran con el
+ * formato indicado en su encabezado, esté o no activada la compresión.
  */
 public class AESCipher implements EncryptionAlgorithm {
 
+    /** Umbral por defecto a partir del cual se cifra y descifra en paralelo: 4 MiB. */
+    public static final long DEFAULT_PARALLEL_THRESHOLD = 4L * 1024 * 1024;
+    // Archivos cuyo cifrado (clave derivada) se conserva entre aperturas
+    private static final int CACHED_FILE_CIPHERS = 1024;
+    // Buffers de segmento libres que se conservan para las siguientes transformaciones
+    private static final int SPARE_BUFFERS = 64;
+
+    private final KeyProvider keyProvider;
+    private final CipherRegistry registry;
+    // Bytes procesados de un archivo a partir de los cuales sus segmentos se procesan en paralelo
+    private final long parallelThresholdBytes;
+    private final ForkJoinPool pool;
+    // Segmentos que se leen y se procesan juntos en cada tanda
+    private final int batchSegments;
+    private final FileCipherCache fileCiphers;
+    private final SegmentBuffers buffers = new SegmentBuffers(SPARE_BUFFERS);
+    private volatile boolean compressionEnabled;
+
+    /**
+     * Constructor de AESCipher con el registro de suites por defecto y el umbral de paralelismo
+     * por defecto, sobre el pool común.
+     *
+     * @param keyProvider Proveedor de las claves de la bóveda.
+     */
+    public AESCipher(KeyProvider keyProvider) {
+        this(keyProvider, DEFAULT_PARALLEL_THRESHOLD, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor de AESCipher con el registro de suites por defecto.
+     *
+     * @param keyProvider Proveedor de las claves de la bóveda.
+     * @param parallelThresholdBytes Una vez procesados estos bytes de un archivo, el resto se cifra
+     *                               o descifra en paralelo; Long.MAX_VALUE lo desactiva.
+     * @param pool Pool donde se procesan los segmentos en paralelo.
+     */
+    public AESCipher(KeyProvider keyProvider, long parallelThresholdBytes, ForkJoinPool pool) {
+        this(keyProvider, CipherRegistry.getDefault(), parallelThresholdBytes, pool);
+    }
+
+    /**
+     * Constructor de AESCipher.
+     *
+     * @param keyProvider Proveedor de las claves de la bóveda.
+     * @param registry Registro de las suites de cifrado por alias.
+     * @param parallelThresholdBytes Una vez procesados estos bytes de un archivo, el resto se cifra
+     *                               o descifra en paralelo; Long.MAX_VALUE lo desactiva.
+     * @param pool Pool donde se procesan los segmentos en paralelo.
+     */
+    public AESCipher(KeyProvider keyProvider, CipherRegistry registry, long parallelThresholdBytes, ForkJoinPool pool) {
+        this.keyProvider = keyProvider;
+        this.registry = registry;
+        this.fileCiphers = new FileCipherCache(CACHED_FILE_CIPHERS, registry);
+        this.parallelThresholdBytes = parallelThresholdBytes;
+        this.pool = pool;
+        this.batchSegments = Math.max(2, pool.getParallelism() * 4);
+        keyProvider.addLockListener(this::clearKeyCache);
+    }
+
+    /**
+     * Indica si los archivos nuevos se comprimen antes de cifrarse.
+     *
+     * @return true si la compresión está activada.
+     */
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    /**
+     * Activa o desactiva la compresión de los archivos nuevos. Los archivos existentes conservan
+     * su formato hasta que se vuelven a cifrar por completo.
+     *
+     * @param compressionEnabled true para comprimir los segmentos antes de cifrarlos.
+     */
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    /**
+     * Cifra el buffer completo: cada segmento se cifra directamente desde su porción de src hacia
+     * su porción de dst, sin copias intermedias. Superado el umbral, los segmentos se cifran en
+     * paralelo en el pool.
+     */
+    @Override
+    public void encrypt(ByteBuffer src, String alias, ByteBuffer dst) throws Exception {
+        if (compressionEnabled) {
+            encryptCompressed(src, alias, dst);
+            return;
+        }
+        long plainSize = src.remaining();
+        long encryptedSize = SegmentCipher.encryptedSize(plainSize);
+        if (dst.remaining() < encryptedSize) {
+            throw new BufferOverflowException();
+        }
+        SegmentCipher cipher = fileCiphers.create(registry.select(alias), keyProvider.getKey(alias), false);
+        dst.put(cipher.header());
+        long segments = SegmentCipher.segmentCount(plainSize);
+        int srcStart = src.position();
+        int dstStart = dst.position();
+        forEachSegment((int) segments, plainSize >= parallelThresholdBytes, slot -> {
+            int length = SegmentCipher.segmentLength(plainSize, slot);
+            ByteBuffer input = src.duplicate();
+            input.limit(srcStart + slot * SegmentCipher.SEGMENT_SIZE + length)
+                    .position(srcStart + slot * SegmentCipher.SEGMENT_SIZE);
+            ByteBuffer output = dst.duplicate();
+            output.position(dstStart + slot * SegmentCipher.ENCRYPTED_SEGMENT_SIZE);
+            cipher.encryptSegment(slot, slot == segments - 1, input, output);
+        });
+        src.position(src.limit());
+        dst.position((int) (dstStart + encryptedSize - SegmentCipher.HEADER_SIZE));
+    }
+
+    /**
+     * Cifra el buffer con el formato comprimido. Cada segmento ocupa lo que resulte de
+     * comprimirlo, de modo que se escriben en orden, en el hilo que llama.
+     */
+    private void encryptCompressed(ByteBuffer src, String alias, ByteBuffer dst) throws Exception {
+        long plainSize = src.remaining();
+        if (dst.remaining() < CompressedSegments.maxEncryptedSize(plainSize)) {
+            throw new BufferOverflowException();
+        }
+        SegmentCipher cipher = fileCiphers.create(registry.select(alias), keyProvider.getKey(alias), true);
+        dst.put(cipher.header());
+        CompressedSegments.IndexBuilder index = new CompressedSegments.IndexBuilder();
+        long segments = SegmentCipher.segmentCount(plainSize);
+        for (long segment = 0; segment < segments; segment++) {
+            int length = SegmentCipher.segmentLength(plainSize, segment);
+            ByteBuffer input = src.duplicate();
+            input.limit(input.position() + length);
+            index.add(segment, CompressedSegments.seal(cipher, segment, segment == segments - 1, input, dst), length);
+            src.position(src.position() + length);
+        }
+        dst.put(index.trailer());
+    }
+
+    /**
+     * Descifra el buffer completo, segmento a segmento, directamente hacia dst (ver encrypt).
+     */
     @Override
-    public void encrypt(InputStream in, String alias, OutputStream out) throws Exception {
-        // Simulación: se copia el contenido sin transformar.
-        byte[] buffer = new byte[4096];
-        int bytesRead;
-        while ((bytesRead = in.read(buffer)) != -1) {
-            out.write(buffer, 0, bytesRead);
+    public void decrypt(ByteBuffer src, String alias, ByteBuffer dst) throws Exception {
+        if (src.remaining() < SegmentCipher.HEADER_SIZE) {
+            throw new EOFException("El archivo cifrado está truncado");
+        }
+        byte[] header = new byte[SegmentCipher.HEADER_SIZE];
+        src.duplicate().get(header);
+        SegmentCipher cipher = fileCiphers.open(header, keyProvider.getKey(alias));
+        if (cipher.isCompressed()) {
+            decryptCompressed(src, cipher, dst);
+            return;
+        }
+        long plainSize = SegmentCipher.decryptedSize(src.remaining());
+        if (dst.remaining() < plainSize) {
+            throw new BufferOverflowException();
+        }
+        src.position(src.position() + SegmentCipher.HEADER_SIZE);
+        long segments = SegmentCipher.segmentCount(plainSize);
+        int srcStart = src.position();
+        int dstStart = dst.position();
+        int srcEnd = src.limit();
+        forEachSegment((int) segments, plainSize >= parallelThresholdBytes, slot -> {
+            int from = srcStart + slot * SegmentCipher.ENCRYPTED_SEGMENT_SIZE;
+            ByteBuffer input = src.duplicate();
+            input.limit(Math.min(srcEnd, from + SegmentCipher.ENCRYPTED_SEGMENT_SIZE)).position(from);
+            ByteBuffer output = dst.duplicate();
+            output.position(dstStart + slot * SegmentCipher.SEGMENT_SIZE);
+            cipher.decryptSegment(slot, slot == segments - 1, input, output);
+        });
+        src.position(srcEnd);
+        dst.position((int) (dstStart + plainSize));
+    }
+
+    /**
+     * Descifra un buffer con el formato comprimido: el índice del final ubica cada segmento, de
+     * modo que se descifran en paralelo como los de tamaño fijo.
+     */
+    private void decryptCompressed(ByteBuffer src, SegmentCipher cipher, ByteBuffer dst) throws Exception {
+        CompressedSegments.Index index = CompressedSegments.Index.read(src);
+        long plainSize = index.plainSize();
+        if (dst.remaining() < plainSize) {
+            throw new BufferOverflowException();
         }
-        out.flush();
+        int srcStart = src.position();
+        int dstStart = dst.position();
+        forEachSegment((int) index.segments(), plainSize >= parallelThresholdBytes, slot -> {
+            int from = (int) (srcStart + index.offset(slot));
+            ByteBuffer input = src.duplicate();
+            input.limit(from + index.length(slot)).position(from);
+            ByteBuffer output = dst.duplicate();
+            output.position(dstStart + slot * SegmentCipher.SEGMENT_SIZE);
+            CompressedSegments.open(cipher, index, slot, input, output);
+        });
+        src.position(src.limit());
+        dst.position((int) (dstStart + plainSize));
     }
 
+    /**
+     * Cifra el canal por tandas de segmentos. Los archivos pequeños se cifran en el hilo que
+     * llama; superado el umbral, los segmentos de cada tanda se cifran en paralelo en el pool y
+     * se escriben en orden, con el mismo formato que el cifrado secuencial.
+     */
     @Override
-    public void decrypt(InputStream in, String alias, OutputStream out) throws Exception {
-        // Simulación: se copia el contenido sin transformar.
-        byte[] buffer = new byte[4096];
-        int bytesRead;
-        while ((bytesRead = in.read(buffer)) != -1) {
-            out.write(buffer, 0, bytesRead);
+    public void encrypt(ReadableByteChannel in, String alias, WritableByteChannel out) throws Exception {
+        boolean compressed = compressionEnabled;
+        SegmentCipher cipher = fileCiphers.create(registry.select(alias), keyProvider.getKey(alias), compressed);
+        writeFully(out, ByteBuffer.wrap(cipher.header()));
+        if (!compressed) {
+            transform(in, out, SegmentCipher.SEGMENT_SIZE,
+                    (index, last, input, output) -> cipher.encryptSegment(index, last, input, output));
+            return;
+        }
+        // Los segmentos se comprimen y cifran en paralelo igual que sin compresión, y el índice va al final
+        CompressedSegments.IndexBuilder segments = new CompressedSegments.IndexBuilder();
+        transform(in, out, SegmentCipher.SEGMENT_SIZE, (index, last, input, output) ->
+                segments.add(index, CompressedSegments.seal(cipher, index, last, input, output), input.limit()));
+        writeFully(out, segments.trailer());
+    }
+
+    /**
+     * Descifra el canal por tandas de segmentos; superado el umbral, en paralelo (ver encrypt).
+     */
+    @Override
+    public void decrypt(ReadableByteChannel in, String alias, WritableByteChannel out) throws Exception {
+        ByteBuffer header = ByteBuffer.allocate(SegmentCipher.HEADER_SIZE);
+        if (readFully(in, header) != SegmentCipher.HEADER_SIZE) {
+            throw new EOFException("El archivo cifrado está truncado");
+        }
+        SegmentCipher cipher = fileCiphers.open(header.array(), keyProvider.getKey(alias));
+        if (cipher.isCompressed()) {
+            decryptCompressed(in, cipher, out);
+            return;
+        }
+        transform(in, out, SegmentCipher.ENCRYPTED_SEGMENT_SIZE,
+                (index, last, input, output) -> cipher.decryptSegment(index, last, input, output));
+    }
+
+    /**
+     * Descifra como stream un archivo con el formato comprimido, en el hilo que llama: el prefijo
+     * de cada registro indica la longitud del segmento, y el prefijo siguiente, si es el último.
+     * Al terminar se verifica que el índice del final corresponda a lo descifrado.
+     */
+    private void decryptCompressed(ReadableByteChannel in, SegmentCipher cipher, WritableByteChannel out) throws Exception {
+        ByteBuffer record = buffers.take();
+        ByteBuffer plain = buffers.take();
+        try {
+            CompressedSegments.IndexBuilder expected = new CompressedSegments.IndexBuilder();
+            int prefix = readPrefix(in);
+            long index = 0;
+            while (!CompressedSegments.isEnd(prefix)) {
+                int length = CompressedSegments.recordLength(prefix);
+                if (length > SegmentCipher.ENCRYPTED_SEGMENT_SIZE) {
+                    throw new DamagedDataException("El segmento " + index + " está dañado");
+                }
+                record.clear().limit(length);
+                if (readFully(in, record) != length) {
+                    throw new EOFException("El archivo cifrado está truncado");
+                }
+                record.flip();
+                int next = readPrefix(in);
+                boolean last = CompressedSegments.isEnd(next);
+                plain.clear();
+                int n = CompressedSegments.open(cipher, index, last, prefix, record, plain);
+                if (!last && n != SegmentCipher.SEGMENT_SIZE) {
+                    throw new DamagedDataException("El segmento " + index + " está incompleto");
+                }
+                plain.flip();
+                writeFully(out, plain);
+                expected.add(index, prefix, n);
+                index++;
+                prefix = next;
+            }
+            if (index == 0) {
+                throw new DamagedDataException("El archivo cifrado no tiene segmentos");
+            }
+            ByteBuffer trailer = expected.trailer();
+            trailer.position(CompressedSegments.PREFIX_SIZE);
+            ByteBuffer actual = ByteBuffer.allocate(trailer.remaining() + 1);
+            if (readFully(in, actual) != trailer.remaining()
+                    || !Arrays.equals(Arrays.copyOf(actual.array(), trailer.remaining()),
+                    Arrays.copyOfRange(trailer.array(), trailer.position(), trailer.limit()))) {
+                throw new DamagedDataException("El índice del archivo comprimido no corresponde a sus segmentos");
+            }
+        } finally {
+            buffers.release(record);
+            buffers.release(plain);
+        }
+    }
+
+    private static int readPrefix(ReadableByteChannel in) throws IOException {
+        ByteBuffer prefix = ByteBuffer.allocate(CompressedSegments.PREFIX_SIZE);
+        if (readFully(in, prefix) != CompressedSegments.PREFIX_SIZE) {
+            throw new EOFException("El archivo cifrado está truncado");
+        }
+        return prefix.getInt(0);
+    }
+
+    /**
+     * Transformación de un segmento (cifrado o descifrado).
+     */
+    @FunctionalInterface
+    private interface SegmentTransform {
+        void apply(long index, boolean last, ByteBuffer input, ByteBuffer output) throws Exception;
+    }
+
+    /**
+     * Lee el canal en segmentos de inputSegmentSize bytes, los transforma por tandas y escribe los
+     * resultados en orden. Se lee un segmento por adelantado para saber cuál es el último.
+     *
+     * Los buffers (directos) se toman a medida que se usan, de modo que un archivo pequeño solo
+     * necesita uno de entrada y uno de salida, y se devuelven al terminar: cifrar muchos archivos
+     * pequeños no reserva memoria en cada uno.
+     */
+    private void transform(ReadableByteChannel in, WritableByteChannel out, int inputSegmentSize,
+                           SegmentTransform transform) throws Exception {
+        ByteBuffer[] inputs = new ByteBuffer[batchSegments + 1];
+        ByteBuffer[] outputs = new ByteBuffer[batchSegments + 1];
+        try {
+            transform(in, out, inputSegmentSize, transform, inputs, outputs);
+        } finally {
+            for (int slot = 0; slot < inputs.length; slot++) {
+                buffers.release(inputs[slot]);
+                buffers.release(outputs[slot]);
+            }
+        }
+    }
+
+    private void transform(ReadableByteChannel in, WritableByteChannel out, int inputSegmentSize,
+                           SegmentTransform transform, ByteBuffer[] inputs, ByteBuffer[] outputs) throws Exception {
+        long index = 0;
+        long processed = 0;
+        int count = 0;
+        boolean eof = false;
+        while (true) {
+            while (count < inputs.length && !eof) {
+                if (inputs[count] == null) {
+                    inputs[count] = buffers.take();
+                    outputs[count] = buffers.take();
+                }
+                inputs[count].clear().limit(inputSegmentSize);
+                int n = readFully(in, inputs[count]);
+                if (n == 0 && (count > 0 || index > 0)) {
+                    // El segmento anterior (completo) era el último
+                    eof = true;
+                    break;
+                }
+                inputs[count].flip();
+                count++;
+                eof = n < inputSegmentSize;
+            }
+            // Sin llegar al final, el último segmento leído se conserva para la siguiente tanda.
+            int batch = eof ? count : count - 1;
+            long first = index;
+            boolean lastBatch = eof;
+            forEachSegment(batch, processed >= parallelThresholdBytes, slot -> {
+                outputs[slot].clear();
+                transform.apply(first + slot, lastBatch && slot == batch - 1, inputs[slot], outputs[slot]);
+            });
+            for (int slot = 0; slot < batch; slot++) {
+                outputs[slot].flip();
+                processed += inputs[slot].limit();
+                writeFully(out, outputs[slot]);
+            }
+            index += batch;
+            if (eof) {
+                break;
+            }
+            ByteBuffer lookahead = inputs[count - 1];
+            inputs[count - 1] = inputs[0];
+            inputs[0] = lookahead;
+            count = 1;
+        }
+    }
+
+    /**
+     * Tarea sobre un segmento de la tanda.
+     */
+    @FunctionalInterface
+    private interface SegmentJob {
+        void run(int slot) throws Exception;
+    }
+
+    /**
+     * Ejecuta la tarea para cada segmento de la tanda, en paralelo en el pool si se indica.
+     */
+    private void forEachSegment(int count, boolean parallel, SegmentJob job) throws Exception {
+        if (!parallel || count < 2) {
+            for (int slot = 0; slot < count; slot++) {
+                job.run(slot);
+            }
+            return;
+        }
+        try {
+            pool.invoke(new SegmentTask(job, 0, count));
+        } catch (CompletionException e) {
+            Throwable cause = e;
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Divide la tanda en mitades hasta llegar a un segmento por tarea.
+     */
+    private static class SegmentTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final SegmentJob job;
+        private final int from;
+        private final int to;
+
+        SegmentTask(SegmentJob job, int from, int to) {
+            this.job = job;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                try {
+                    job.run(from);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new SegmentTask(job, from, middle), new SegmentTask(job, middle, to));
+        }
+    }
+
+    /**
+     * Con la compresión activada retorna el tamaño máximo, el de un archivo que no se reduce.
+     */
+    @Override
+    public long encryptedSize(long plainSize, String alias) {
+        return compressionEnabled ? CompressedSegments.maxEncryptedSize(plainSize) : SegmentCipher.encryptedSize(plainSize);
+    }
+
+    @Override
+    public long decryptedSize(long encryptedSize, String alias) {
+        return SegmentCipher.decryptedSize(encryptedSize);
+    }
+
+    /**
+     * Lee el encabezado del archivo y, si está comprimido, el tamaño guardado en su índice.
+     */
+    @Override
+    public long decryptedSize(Path file, String alias) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < SegmentCipher.HEADER_SIZE) {
+                return 0;
+            }
+            ByteBuffer header = ByteBuffer.allocate(SegmentCipher.HEADER_SIZE);
+            readFully(channel, header, 0);
+            if (SegmentCipher.isCompressed(header.array())) {
+                return CompressedSegments.plainSize(channel);
+            }
+            return SegmentCipher.decryptedSize(channel.size());
+        }
+    }
+
+    @Override
+    public int segmentSize(String alias) {
+        return SegmentCipher.SEGMENT_SIZE;
+    }
+
+    @Override
+    public void clearKeyCache() {
+        fileCiphers.clear();
+    }
+
+    @Override
+    public SecretKey deriveKey(String alias, String purpose) throws Exception {
+        byte[] vaultKey = keyProvider.getKey(alias).getEncoded();
+        byte[] derived = CryptoUtils.hkdfSha256(vaultKey, new byte[0],
+                ("cyte-vault " + purpose).getBytes(StandardCharsets.UTF_8), 32);
+        try {
+            return new SecretKeySpec(derived, "HmacSHA256");
+        } finally {
+            Arrays.fill(vaultKey, (byte) 0);
+            Arrays.fill(derived, (byte) 0);
+        }
+    }
+
+    @Override
+    public RandomAccessDecryptor openReader(Path file, String alias) throws Exception {
+        return new SegmentReader(file, keyProvider.getKey(alias), fileCiphers, buffers);
+    }
+
+    @Override
+    public void reencrypt(Path origin, PositionalReader plaintext, long size, BitSet changedSegments,
+                          String alias, WritableByteChannel out) throws Exception {
+        SecretKey key = keyProvider.getKey(alias);
+        ByteBuffer segment = buffers.take();
+        ByteBuffer plain = buffers.take();
+        try (FileChannel source = FileChannel.open(origin, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(SegmentCipher.HEADER_SIZE);
+            readFully(source, header, 0);
+            // Se conserva el encabezado (y con él la clave del archivo) para reutilizar sus segmentos.
+            SegmentCipher cipher = fileCiphers.open(header.array(), key);
+            header.flip();
+            writeFully(out, header);
+            if (cipher.isCompressed()) {
+                reencryptCompressed(source, cipher, plaintext, size, changedSegments, out, segment, plain);
+                return;
+            }
+            long originSize = SegmentCipher.decryptedSize(source.size());
+            long originSegments = SegmentCipher.segmentCount(originSize);
+            long segments = SegmentCipher.segmentCount(size);
+
+            for (long index = 0; index < segments; index++) {
+                boolean last = index == segments - 1;
+                int length = SegmentCipher.segmentLength(size, index);
+                segment.clear();
+                boolean reusable = index < originSegments
+                        && !changedSegments.get((int) index)
+                        && last == (index == originSegments - 1)
+                        && length == SegmentCipher.segmentLength(originSize, index);
+                if (reusable) {
+                    segment.limit(length + SegmentCipher.SEGMENT_OVERHEAD);
+                    readFully(source, segment, SegmentCipher.segmentOffset(index));
+                } else {
+                    plain.clear().limit(length);
+                    readFully(plaintext, plain, index * SegmentCipher.SEGMENT_SIZE);
+                    plain.flip();
+                    cipher.encryptSegment(index, last, plain, segment);
+                }
+                segment.flip();
+                writeFully(out, segment);
+            }
+        } finally {
+            buffers.release(segment);
+            buffers.release(plain);
+        }
+    }
+
+    /**
+     * reencrypt sobre un archivo comprimido: los registros sin cambios (con su prefijo) se copian
+     * tal cual, ubicados con el índice del origen, y al final se escribe el índice nuevo.
+     */
+    private void reencryptCompressed(FileChannel source, SegmentCipher cipher, PositionalReader plaintext, long size,
+                                     BitSet changedSegments, WritableByteChannel out, ByteBuffer segment,
+                                     ByteBuffer plain) throws Exception {
+        CompressedSegments.Index origin = CompressedSegments.Index.read(source);
+        CompressedSegments.IndexBuilder index = new CompressedSegments.IndexBuilder();
+        long segments = SegmentCipher.segmentCount(size);
+        for (long i = 0; i < segments; i++) {
+            boolean last = i == segments - 1;
+            int length = SegmentCipher.segmentLength(size, i);
+            segment.clear();
+            boolean reusable = i < origin.segments()
+                    && !changedSegments.get((int) i)
+                    && last == (i == origin.segments() - 1)
+                    && length == SegmentCipher.segmentLength(origin.plainSize(), i);
+            int prefix;
+            if (reusable) {
+                prefix = origin.prefix(i);
+                segment.limit(CompressedSegments.PREFIX_SIZE + origin.length(i));
+                readFully(source, segment, origin.offset(i) - CompressedSegments.PREFIX_SIZE);
+            } else {
+                plain.clear().limit(length);
+                readFully(plaintext, plain, i * SegmentCipher.SEGMENT_SIZE);
+                plain.flip();
+                prefix = CompressedSegments.seal(cipher, i, last, plain, segment);
+            }
+            index.add(i, prefix, length);
+            segment.flip();
+            writeFully(out, segment);
+        }
+        writeFully(out, index.trailer());
+    }
+
+    /**
+     * Lee del canal hasta llenar el buffer o alcanzar el final.
+     *
+     * @return Bytes leídos.
+     */
+    private static int readFully(ReadableByteChannel in, ByteBuffer dst) throws IOException {
+        int total = 0;
+        while (dst.hasRemaining()) {
+            int n = in.read(dst);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            out.write(src);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position);
+            if (n < 0) {
+                throw new EOFException("El archivo cifrado está truncado");
+            }
+            position += n;
+        }
+    }
+
+    private static void readFully(PositionalReader reader, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = reader.read(position, dst);
+            if (n < 0) {
+                throw new EOFException("El contenido terminó antes de lo esperado");
+            }
+            position += n;
         }
-        out.flush();
     }
 }
@@ -0,0 +1,123 @@
+package co.cyte.agent.core.crypto;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * CipherSuite AES-256-CTR + HMAC-SHA256 (encrypt-then-MAC).
+ *
+ * La clave del archivo tiene 64 bytes: los primeros 32 cifran y los últimos 32 autentican. El
+ * contador de cada segmento inicia en el nonce seguido de cuatro bytes en cero, y la etiqueta
+ * son los primeros 16 bytes del HMAC de los datos autenticados, el nonce y el texto cifrado; al
+ * descifrar, la etiqueta se verifica antes de descifrar.
+ */
+final class AesCtrHmacSuite extends CipherSuite {
+
+    private static final String TRANSFORMATION = "AES/CTR/NoPadding";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-CTR no está disponible", e);
+        }
+    });
+    private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance(MAC_ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 no está disponible", e);
+        }
+    });
+
+    AesCtrHmacSuite() {
+        super(AES_CTR_HMAC, "AES-256-CTR+HMAC-SHA256");
+    }
+
+    @Override
+    public String getProvider() {
+        try {
+            return Cipher.getInstance(TRANSFORMATION).getProvider().getName();
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean isAvailable() {
+        try {
+            Cipher.getInstance(TRANSFORMATION);
+            Mac.getInstance(MAC_ALGORITHM);
+            return true;
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public int getKeySize() {
+        return 2 * KeyGenerator.AES_KEY_SIZE;
+    }
+
+    @Override
+    public SegmentAead forKey(byte[] keyMaterial) {
+        SecretKey encryptionKey = new SecretKeySpec(keyMaterial, 0, KeyGenerator.AES_KEY_SIZE, "AES");
+        SecretKey macKey = new SecretKeySpec(keyMaterial, KeyGenerator.AES_KEY_SIZE, KeyGenerator.AES_KEY_SIZE, MAC_ALGORITHM);
+        return new SegmentAead() {
+            @Override
+            public void seal(byte[] nonce, byte[] aad, int aadLength, ByteBuffer plaintext, ByteBuffer out)
+                    throws GeneralSecurityException {
+                int start = out.position();
+                Cipher cipher = ciphers.get();
+                cipher.init(Cipher.ENCRYPT_MODE, encryptionKey, counter(nonce));
+                cipher.doFinal(plaintext, out);
+                ByteBuffer ciphertext = out.duplicate();
+                ciphertext.limit(out.position()).position(start);
+                out.put(tag(macKey, nonce, aad, aadLength, ciphertext), 0, TAG_SIZE);
+            }
+
+            @Override
+            public void open(byte[] nonce, byte[] aad, int aadLength, ByteBuffer ciphertext, ByteBuffer out)
+                    throws GeneralSecurityException {
+                if (ciphertext.remaining() < TAG_SIZE) {
+                    throw new AEADBadTagException("Segmento sin etiqueta");
+                }
+                ByteBuffer body = ciphertext.duplicate();
+                body.limit(ciphertext.limit() - TAG_SIZE);
+                byte[] expected = tag(macKey, nonce, aad, aadLength, body.duplicate());
+                byte[] actual = new byte[TAG_SIZE];
+                ciphertext.position(body.limit());
+                ciphertext.get(actual);
+                if (!MessageDigest.isEqual(Arrays.copyOf(expected, TAG_SIZE), actual)) {
+                    throw new AEADBadTagException("La etiqueta del segmento no coincide");
+                }
+                Cipher cipher = ciphers.get();
+                cipher.init(Cipher.DECRYPT_MODE, encryptionKey, counter(nonce));
+                cipher.doFinal(body, out);
+            }
+        };
+    }
+
+    private byte[] tag(SecretKey macKey, byte[] nonce, byte[] aad, int aadLength, ByteBuffer ciphertext)
+            throws GeneralSecurityException {
+        Mac mac = macs.get();
+        mac.init(macKey);
+        mac.update(aad, 0, aadLength);
+        mac.update(nonce);
+        mac.update(ciphertext);
+        return mac.doFinal();
+    }
+
+    private static IvParameterSpec counter(byte[] nonce) {
+        return new IvParameterSpec(Arrays.copyOf(nonce, 16));
+    }
+}
@@ -0,0 +1,251 @@
+package co.cyte.agent.core.crypto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registro de las suites de cifrado disponibles, por alias.
+ *
+ * Cada alias puede resolverse a varias implementaciones. benchmark() (o benchmarkInBackground(),
+ * al iniciar el backend) mide el rendimiento de cada una en este procesador, y a partir de ese
+ * momento los archivos nuevos se cifran con la más rápida del alias: por ejemplo, AES-GCM de la
+ * JVM si el procesador tiene AES-NI, o ChaCha20-Poly1305 si no. Mientras no haya mediciones se usa
+ * la primera registrada. Para descifrar no se usa el alias sino la suite guardada en el
+ * encabezado de cada archivo, de modo que una bóveda con archivos cifrados por suites distintas
+ * se sigue leyendo.
+ *
+ * La medición incluye un calentamiento largo: las implementaciones de JCE solo alcanzan su
+ * rendimiento real (por ejemplo, las instrucciones AES-NI) cuando el JIT las compila.
+ *
+ * Alias por defecto:
+ * - "AES": AES-256-GCM (de la JVM y de BouncyCastle, si está instalado) y AES-256-CTR+HMAC.
+ * - "AES-GCM", "AES-CTR-HMAC" y "CHACHA20": una sola suite.
+ * - "AUTO": todas las suites disponibles.
+ */
+public class CipherRegistry {
+
+    /** Alias que agrupa todas las suites registradas. */
+    public static final String AUTO = "AUTO";
+
+    // Calentamiento (para que el JIT compile el camino del cifrado) y medición de cada suite
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final long BENCHMARK_NANOS = 200_000_000L;
+
+    private static final CipherRegistry DEFAULT = withDefaults();
+
+    private final Map<String, List<CipherSuite>> aliases = new LinkedHashMap<>();
+    private final List<CipherSuite> suites = new ArrayList<>();
+    // Rendimiento medido de cada suite, en bytes por segundo
+    private final Map<CipherSuite, Long> throughput = new IdentityHashMap<>();
+    private final Map<String, CipherSuite> selected = new LinkedHashMap<>();
+    private final Map<Integer, CipherSuite> selectedById = new LinkedHashMap<>();
+
+    /**
+     * Retorna el registro compartido, con las suites por defecto.
+     *
+     * @return Registro por defecto.
+     */
+    public static CipherRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Crea un registro con las suites por defecto.
+     *
+     * @return Registro nuevo.
+     */
+    public static CipherRegistry withDefaults() {
+        CipherRegistry registry = new CipherRegistry();
+        CipherSuite jceGcm = JceAeadSuite.aesGcm(null);
+        CipherSuite ctrHmac = new AesCtrHmacSuite();
+        registry.register("AES", jceGcm);
+        registry.register("AES-GCM", jceGcm);
+        if (Security.getProvider("BC") != null) {
+            CipherSuite bcGcm = JceAeadSuite.aesGcm("BC");
+            registry.register("AES", bcGcm);
+            registry.register("AES-GCM", bcGcm);
+        }
+        registry.register("AES", ctrHmac);
+        registry.register("AES-CTR-HMAC", ctrHmac);
+        registry.register("CHACHA20", JceAeadSuite.chaCha20Poly1305());
+        return registry;
+    }
+
+    /**
+     * Registra una implementación para el alias (y para AUTO). Las suites no disponibles en
+     * esta JVM se registran igual, pero nunca se eligen.
+     *
+     * @param alias Alias con el que se pide la suite.
+     * @param suite Implementación de la suite.
+     */
+    public synchronized void register(String alias, CipherSuite suite) {
+        addTo(alias, suite);
+        addTo(AUTO, suite);
+        if (!suites.contains(suite)) {
+            suites.add(suite);
+        }
+        selected.clear();
+        selectedById.clear();
+    }
+
+    private void addTo(String alias, CipherSuite suite) {
+        List<CipherSuite> candidates = aliases.computeIfAbsent(alias, key -> new ArrayList<>());
+        if (!candidates.contains(suite)) {
+            candidates.add(suite);
+        }
+    }
+
+    /**
+     * Retorna la suite con la que se cifran los archivos nuevos del alias: la más rápida de
+     * las disponibles.
+     *
+     * @param alias Alias de la bóveda (por ejemplo, "AES").
+     * @return Suite elegida.
+     * @throws IllegalArgumentException Si el alias no existe o ninguna de sus suites está disponible.
+     */
+    public synchronized CipherSuite select(String alias) {
+        CipherSuite suite = selected.get(alias);
+        if (suite == null) {
+            List<CipherSuite> candidates = aliases.get(alias);
+            if (candidates == null) {
+                throw new IllegalArgumentException("Alias de cifrado desconocido: " + alias);
+            }
+            suite = fastest(candidates);
+            if (suite == null) {
+                throw new IllegalArgumentException("Ninguna suite del alias " + alias + " está disponible");
+            }
+            selected.put(alias, suite);
+        }
+        return suite;
+    }
+
+    /**
+     * Retorna una implementación de la suite guardada en el encabezado de un archivo: la más
+     * rápida de las registradas con ese identificador.
+     *
+     * @param id Identificador de la suite.
+     * @return Suite con ese identificador.
+     * @throws IOException Si ninguna implementación de la suite está disponible.
+     */
+    public synchronized CipherSuite forId(int id) throws IOException {
+        CipherSuite suite = selectedById.get(id);
+        if (suite == null) {
+            List<CipherSuite> candidates = new ArrayList<>();
+            for (CipherSuite candidate : suites) {
+                if (candidate.getId() == id) {
+                    candidates.add(candidate);
+                }
+            }
+            suite = fastest(candidates);
+            if (suite == null) {
+                throw new IOException("El archivo usa una suite de cifrado no disponible: " + id);
+            }
+            selectedById.put(id, suite);
+        }
+        return suite;
+    }
+
+    /**
+     * Mide el rendimiento de las suites disponibles que aún no se midieron y lo informa.
+     *
+     * @return Rendimiento de cada suite medida, en bytes por segundo.
+     */
+    public Map<CipherSuite, Long> benchmark() {
+        List<CipherSuite> pending = new ArrayList<>();
+        synchronized (this) {
+            for (CipherSuite suite : suites) {
+                if (!throughput.containsKey(suite) && suite.isAvailable()) {
+                    pending.add(suite);
+                }
+            }
+        }
+        // Se mide sin retener el registro, para no demorar a quienes cifran mientras tanto
+        for (CipherSuite suite : pending) {
+            long bytesPerSecond = measure(suite);
+            System.out.println("Rendimiento de " + suite + ": " + bytesPerSecond / (1024 * 1024) + " MiB/s");
+            synchronized (this) {
+                throughput.put(suite, bytesPerSecond);
+                selected.clear();
+                selectedById.clear();
+            }
+        }
+        synchronized (this) {
+            return Collections.unmodifiableMap(new IdentityHashMap<>(throughput));
+        }
+    }
+
+    /**
+     * Inicia benchmark() en un hilo de baja prioridad.
+     */
+    public void benchmarkInBackground() {
+        Thread thread = new Thread(this::benchmark, "cipher-benchmark");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Elige la suite disponible más rápida según las mediciones; sin ellas, la primera.
+     */
+    private CipherSuite fastest(List<CipherSuite> candidates) {
+        List<CipherSuite> available = new ArrayList<>();
+        for (CipherSuite suite : candidates) {
+            if (suite.isAvailable()) {
+                available.add(suite);
+            }
+        }
+        if (available.isEmpty()) {
+            return null;
+        }
+        CipherSuite best = available.get(0);
+        for (CipherSuite suite : available) {
+            if (throughput.getOrDefault(suite, 0L) > throughput.getOrDefault(best, 0L)) {
+                best = suite;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Cifra segmentos completos durante BENCHMARK_NANOS y retorna los bytes por segundo.
+     */
+    private static long measure(CipherSuite suite) {
+        try {
+            SegmentAead aead = suite.forKey(KeyGenerator.randomBytes(suite.getKeySize()));
+            byte[] nonce = new byte[CipherSuite.NONCE_SIZE];
+            byte[] aad = new byte[SegmentCipher.HEADER_SIZE + 9];
+            ByteBuffer plaintext = ByteBuffer.allocateDirect(SegmentCipher.SEGMENT_SIZE);
+            ByteBuffer out = ByteBuffer.allocateDirect(SegmentCipher.ENCRYPTED_SEGMENT_SIZE);
+            run(aead, nonce, aad, plaintext, out, WARMUP_NANOS);
+            long start = System.nanoTime();
+            long bytes = run(aead, nonce, aad, plaintext, out, BENCHMARK_NANOS);
+            return bytes * 1_000_000_000L / Math.max(1, System.nanoTime() - start);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            System.out.println("No se pudo medir " + suite.getName() + ": " + e.getMessage());
+            return 0;
+        }
+    }
+
+    private static long run(SegmentAead aead, byte[] nonce, byte[] aad, ByteBuffer plaintext, ByteBuffer out,
+                            long nanos) throws GeneralSecurityException {
+        long bytes = 0;
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            // Un nonce nuevo en cada vuelta, como al cifrar: las implementaciones rechazan repetirlo
+            KeyGenerator.randomBytes(nonce);
+            plaintext.clear();
+            out.clear();
+            aead.seal(nonce, aad, aad.length, plaintext, out);
+            bytes += SegmentCipher.SEGMENT_SIZE;
+        }
+        return bytes;
+    }
+}
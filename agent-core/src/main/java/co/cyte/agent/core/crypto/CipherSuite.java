@@ -0,0 +1,91 @@
+package co.cyte.agent.core.crypto;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * Cifrado autenticado con el que se protegen los segmentos de un archivo (ver SegmentCipher).
+ *
+ * Todas las suites usan un nonce de 12 bytes y una etiqueta de 16, de modo que el formato del
+ * archivo es el mismo para cualquiera de ellas; el identificador de la suite se guarda en el
+ * encabezado de cada archivo, y así una bóveda puede mezclar archivos cifrados con suites
+ * distintas. Una misma suite puede tener varias implementaciones (por ejemplo, AES-GCM de
+ * SunJCE o de BouncyCastle): producen archivos compatibles y CipherRegistry elige la más rápida.
+ */
+public abstract class CipherSuite {
+
+    /** AES-256-GCM: el formato original de la bóveda. */
+    public static final int AES_GCM = 1;
+    /** ChaCha20-Poly1305: más rápido que AES en procesadores sin instrucciones AES. */
+    public static final int CHACHA20_POLY1305 = 2;
+    /** AES-256-CTR con HMAC-SHA256 (truncado a 16 bytes) sobre el segmento cifrado. */
+    public static final int AES_CTR_HMAC = 3;
+
+    /** Tamaño del nonce de cada segmento. */
+    public static final int NONCE_SIZE = 12;
+    /** Tamaño de la etiqueta de autenticación de cada segmento. */
+    public static final int TAG_SIZE = 16;
+
+    private final int id;
+    private final String name;
+
+    protected CipherSuite(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    /**
+     * Retorna el identificador que se guarda en el encabezado de los archivos (1 a 255).
+     *
+     * @return Identificador de la suite.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Retorna el nombre de la suite (por ejemplo, "AES-256-GCM").
+     *
+     * @return Nombre de la suite.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Retorna el nombre del proveedor que implementa la suite.
+     *
+     * @return Nombre del proveedor, o null si la suite no está disponible.
+     */
+    public abstract String getProvider();
+
+    /**
+     * Indica si la suite puede usarse en esta JVM (por ejemplo, ChaCha20-Poly1305 requiere Java 11
+     * y BouncyCastle, que su proveedor esté instalado).
+     *
+     * @return true si está disponible.
+     */
+    public abstract boolean isAvailable();
+
+    /**
+     * Retorna los bytes de clave que necesita la suite, derivados de la clave de la bóveda.
+     *
+     * @return Tamaño del material de clave.
+     */
+    public int getKeySize() {
+        return KeyGenerator.AES_KEY_SIZE;
+    }
+
+    /**
+     * Prepara el cifrado de los segmentos de un archivo con su clave.
+     *
+     * @param keyMaterial getKeySize() bytes de clave del archivo.
+     * @return Cifrado de segmentos.
+     * @throws GeneralSecurityException Si la clave no es válida para la suite.
+     */
+    public abstract SegmentAead forKey(byte[] keyMaterial) throws GeneralSecurityException;
+
+    @Override
+    public String toString() {
+        return name + " (" + getProvider() + ")";
+    }
+}
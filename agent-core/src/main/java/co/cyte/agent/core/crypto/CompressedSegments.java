@@ -0,0 +1,397 @@
+package co.cyte.agent.core.crypto;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Formato comprimido de los archivos cifrados: cada segmento se comprime con Deflate (en su
+ * nivel más rápido) antes de cifrarse, salvo que no valga la pena.
+ *
+ * Formato del archivo:
+ * - Encabezado de SegmentCipher, con COMPRESSED_FLAG en el byte de la suite.
+ * - Registros: prefijo (4: longitud del segmento cifrado, con el bit alto si está comprimido) y
+ *   el segmento cifrado (nonce | datos | etiqueta).
+ * - Fin: un prefijo 0, el prefijo de cada registro (4 cada uno), el tamaño del texto plano (8),
+ *   la cantidad de segmentos (4) y "CYVZ".
+ *
+ * Los prefijos permiten descifrar el archivo como un stream, y el índice del final, ubicar
+ * cualquier segmento (openReader, reencrypt) y conocer el tamaño descifrado sin recorrerlo. Si un
+ * segmento está comprimido queda autenticado con el segmento (ver SegmentCipher), y al descifrar
+ * se verifica que cada segmento tenga la longitud que indica el índice.
+ *
+ * Antes de comprimir se estima la entropía de una muestra de bytes del segmento: los datos ya
+ * comprimidos o cifrados (JPEG, ZIP, video) se guardan tal cual sin pasar por Deflate, y los
+ * segmentos que no se reducen al menos MIN_SAVING_DIVISOR-ésimo también.
+ */
+final class CompressedSegments {
+
+    /** Bytes del prefijo de cada registro. */
+    static final int PREFIX_SIZE = 4;
+    /** Tamaño máximo de un registro: prefijo y segmento cifrado sin comprimir. */
+    static final int MAX_RECORD_SIZE = PREFIX_SIZE + SegmentCipher.ENCRYPTED_SEGMENT_SIZE;
+
+    private static final int DEFLATED = 0x80000000;
+    private static final int END = 0;
+    private static final int MAGIC = ('C' << 24) | ('Y' << 16) | ('V' << 8) | 'Z';
+    private static final int TAIL_SIZE = 8 + 4 + 4;
+    // Bytes que se muestrean para estimar la entropía, y el máximo (en bits por byte) que se comprime
+    private static final int ENTROPY_SAMPLES = 4096;
+    private static final double MAX_ENTROPY_BITS = 7.5;
+    // Segmentos más cortos no se comprimen; los comprimidos deben ahorrar al menos 1/16
+    private static final int MIN_COMPRESSIBLE = 512;
+    private static final int MIN_SAVING_DIVISOR = 16;
+    private static final ThreadLocal<Codec> CODECS = ThreadLocal.withInitial(Codec::new);
+
+    private CompressedSegments() {
+    }
+
+    /**
+     * Retorna el tamaño máximo de un archivo comprimido, si ningún segmento se reduce.
+     */
+    static long maxEncryptedSize(long plainSize) {
+        long segments = SegmentCipher.segmentCount(plainSize);
+        return SegmentCipher.encryptedSize(plainSize) + segments * PREFIX_SIZE + trailerSize(segments);
+    }
+
+    private static long trailerSize(long segments) {
+        return PREFIX_SIZE + segments * PREFIX_SIZE + TAIL_SIZE;
+    }
+
+    /**
+     * Retorna la longitud del segmento cifrado de un registro.
+     */
+    static int recordLength(int prefix) {
+        return prefix & ~DEFLATED;
+    }
+
+    /**
+     * Indica si el prefijo es el fin de los registros.
+     */
+    static boolean isEnd(int prefix) {
+        return prefix == END;
+    }
+
+    /**
+     * Comprime (si vale la pena) y cifra un segmento, y escribe en out su prefijo y el segmento
+     * cifrado. Consume plaintext.
+     *
+     * @return Prefijo del registro.
+     */
+    static int seal(SegmentCipher cipher, long index, boolean last, ByteBuffer plaintext, ByteBuffer out)
+            throws GeneralSecurityException {
+        int start = out.position();
+        out.position(start + PREFIX_SIZE);
+        ByteBuffer deflated = CODECS.get().deflate(plaintext);
+        if (deflated != null) {
+            cipher.encryptSegment(index, last, true, deflated, out);
+            plaintext.position(plaintext.limit());
+        } else {
+            cipher.encryptSegment(index, last, false, plaintext, out);
+        }
+        int prefix = (out.position() - start - PREFIX_SIZE) | (deflated != null ? DEFLATED : 0);
+        out.putInt(start, prefix);
+        return prefix;
+    }
+
+    /**
+     * Descifra (y descomprime, si corresponde) el segmento cifrado de un registro y escribe el
+     * texto plano en out.
+     *
+     * @param prefix Prefijo del registro.
+     * @param record Segmento cifrado, sin el prefijo; se consume.
+     * @return Bytes de texto plano escritos.
+     * @throws IOException Si el segmento está dañado o fue alterado.
+     */
+    static int open(SegmentCipher cipher, long index, boolean last, int prefix, ByteBuffer record, ByteBuffer out)
+            throws IOException, GeneralSecurityException {
+        if ((prefix & DEFLATED) == 0) {
+            int start = out.position();
+            cipher.decryptSegment(index, last, false, record, out);
+            return out.position() - start;
+        }
+        return CODECS.get().inflate(cipher, index, last, record, out);
+    }
+
+    /**
+     * Descifra el registro indicado del índice y verifica que tenga la longitud esperada.
+     */
+    static void open(SegmentCipher cipher, Index index, long segment, ByteBuffer record, ByteBuffer out)
+            throws IOException, GeneralSecurityException {
+        int expected = SegmentCipher.segmentLength(index.plainSize(), segment);
+        // Se escribe solo en la porción del segmento: un segmento más largo no sobrescribe el resto de out
+        ByteBuffer target = out.duplicate();
+        target.limit(target.position() + expected);
+        int n = open(cipher, segment, segment == index.segments() - 1, index.prefix(segment), record, target);
+        if (n != expected) {
+            throw new DamagedDataException("El segmento " + segment + " no tiene la longitud del índice");
+        }
+        out.position(target.position());
+    }
+
+    /**
+     * Lee solo el tamaño del texto plano, del final del archivo.
+     */
+    static long plainSize(FileChannel channel) throws IOException {
+        if (channel.size() < SegmentCipher.HEADER_SIZE + trailerSize(1)) {
+            throw new EOFException("El archivo cifrado está truncado");
+        }
+        ByteBuffer tail = ByteBuffer.allocate(TAIL_SIZE);
+        readFully(channel, tail, channel.size() - TAIL_SIZE);
+        tail.flip();
+        long plainSize = tail.getLong();
+        tail.getInt();
+        if (tail.getInt() != MAGIC) {
+            throw new DamagedDataException("El índice del archivo comprimido está dañado");
+        }
+        return plainSize;
+    }
+
+    /**
+     * Retorna los bytes del texto plano, la cantidad de segmentos y la ubicación de cada
+     * registro de un archivo comprimido.
+     */
+    static final class Index {
+
+        private final long plainSize;
+        private final int[] prefixes;
+        private final long[] offsets;
+
+        private Index(long plainSize, int[] prefixes) {
+            this.plainSize = plainSize;
+            this.prefixes = prefixes;
+            this.offsets = new long[prefixes.length];
+            long offset = SegmentCipher.HEADER_SIZE;
+            for (int i = 0; i < prefixes.length; i++) {
+                offsets[i] = offset + PREFIX_SIZE;
+                offset += PREFIX_SIZE + recordLength(prefixes[i]);
+            }
+        }
+
+        long plainSize() {
+            return plainSize;
+        }
+
+        long segments() {
+            return prefixes.length;
+        }
+
+        int prefix(long segment) {
+            return prefixes[(int) segment];
+        }
+
+        /** Posición del segmento cifrado (después del prefijo) dentro del archivo. */
+        long offset(long segment) {
+            return offsets[(int) segment];
+        }
+
+        /** Longitud del segmento cifrado. */
+        int length(long segment) {
+            return recordLength(prefixes[(int) segment]);
+        }
+
+        /**
+         * Lee el índice del final de un archivo.
+         */
+        static Index read(FileChannel channel) throws IOException {
+            long fileSize = channel.size();
+            if (fileSize < SegmentCipher.HEADER_SIZE + trailerSize(1)) {
+                throw new EOFException("El archivo cifrado está truncado");
+            }
+            ByteBuffer tail = ByteBuffer.allocate(TAIL_SIZE);
+            readFully(channel, tail, fileSize - TAIL_SIZE);
+            tail.flip();
+            long trailerStart = fileSize - trailerSize(checkedCount(tail, fileSize));
+            ByteBuffer trailer = ByteBuffer.allocate((int) (fileSize - trailerStart));
+            readFully(channel, trailer, trailerStart);
+            trailer.flip();
+            return parse(trailer, trailerStart);
+        }
+
+        /**
+         * Lee el índice de un archivo completo en memoria (desde la posición del buffer).
+         */
+        static Index read(ByteBuffer file) throws IOException {
+            long fileSize = file.remaining();
+            if (fileSize < SegmentCipher.HEADER_SIZE + trailerSize(1)) {
+                throw new EOFException("El archivo cifrado está truncado");
+            }
+            ByteBuffer tail = file.duplicate();
+            tail.position(file.limit() - TAIL_SIZE);
+            long trailerStart = fileSize - trailerSize(checkedCount(tail.slice(), fileSize));
+            ByteBuffer trailer = file.duplicate();
+            trailer.position((int) (file.position() + trailerStart));
+            return parse(trailer.slice(), trailerStart);
+        }
+
+        private static int checkedCount(ByteBuffer tail, long fileSize) throws IOException {
+            long plainSize = tail.getLong();
+            int count = tail.getInt();
+            if (tail.getInt() != MAGIC || count < 1 || count != SegmentCipher.segmentCount(plainSize)
+                    || SegmentCipher.HEADER_SIZE + trailerSize(count) > fileSize) {
+                throw new DamagedDataException("El índice del archivo comprimido está dañado");
+            }
+            return count;
+        }
+
+        /**
+         * Interpreta el fin del archivo y verifica que los registros ocupen exactamente el espacio
+         * entre el encabezado y el índice.
+         */
+        private static Index parse(ByteBuffer trailer, long trailerStart) throws IOException {
+            if (trailer.getInt() != END) {
+                throw new DamagedDataException("El índice del archivo comprimido está dañado");
+            }
+            int count = (trailer.remaining() - TAIL_SIZE) / PREFIX_SIZE;
+            int[] prefixes = new int[count];
+            long records = SegmentCipher.HEADER_SIZE;
+            for (int i = 0; i < count; i++) {
+                prefixes[i] = trailer.getInt();
+                int length = recordLength(prefixes[i]);
+                if (length < SegmentCipher.SEGMENT_OVERHEAD || length > SegmentCipher.ENCRYPTED_SEGMENT_SIZE) {
+                    throw new DamagedDataException("El índice del archivo comprimido está dañado");
+                }
+                records += PREFIX_SIZE + length;
+            }
+            if (records != trailerStart) {
+                throw new DamagedDataException("El índice del archivo comprimido no corresponde a sus segmentos");
+            }
+            return new Index(trailer.getLong(), prefixes);
+        }
+    }
+
+    /**
+     * Acumula los prefijos de los registros que se escriben (en cualquier orden) para armar el
+     * índice del final.
+     */
+    static final class IndexBuilder {
+
+        private int[] prefixes = new int[16];
+        private int count;
+        private long plainSize;
+
+        synchronized void add(long segment, int prefix, int plainLength) {
+            if (segment >= prefixes.length) {
+                prefixes = Arrays.copyOf(prefixes, (int) Math.max(segment + 1, prefixes.length * 2L));
+            }
+            prefixes[(int) segment] = prefix;
+            count = (int) Math.max(count, segment + 1);
+            plainSize += plainLength;
+        }
+
+        /**
+         * Retorna el fin del archivo: el prefijo 0 y el índice.
+         */
+        synchronized ByteBuffer trailer() {
+            ByteBuffer trailer = ByteBuffer.allocate((int) trailerSize(count));
+            trailer.putInt(END);
+            for (int i = 0; i < count; i++) {
+                trailer.putInt(prefixes[i]);
+            }
+            trailer.putLong(plainSize).putInt(count).putInt(MAGIC);
+            trailer.flip();
+            return trailer;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position);
+            if (n < 0) {
+                throw new EOFException("El archivo cifrado está truncado");
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * Deflater, Inflater y arreglos de un hilo, que se reutilizan en cada segmento. Deflater e
+     * Inflater trabajan sobre arreglos en Java 8, de modo que el segmento se copia una vez.
+     */
+    private static final class Codec {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        final Inflater inflater = new Inflater();
+        final byte[] input = new byte[SegmentCipher.SEGMENT_SIZE];
+        // Un byte más que un segmento, para detectar los que se descomprimen de más
+        final byte[] output = new byte[SegmentCipher.SEGMENT_SIZE + 1];
+        final ByteBuffer decrypted = ByteBuffer.allocate(SegmentCipher.SEGMENT_SIZE);
+        final int[] histogram = new int[256];
+
+        /**
+         * Comprime el segmento sin consumirlo.
+         *
+         * @return El segmento comprimido (válido hasta la siguiente llamada del hilo), o null si
+         *         no vale la pena comprimirlo.
+         */
+        ByteBuffer deflate(ByteBuffer plaintext) {
+            int length = plaintext.remaining();
+            if (length < MIN_COMPRESSIBLE || entropy(plaintext) > MAX_ENTROPY_BITS) {
+                return null;
+            }
+            plaintext.duplicate().get(input, 0, length);
+            deflater.reset();
+            deflater.setInput(input, 0, length);
+            deflater.finish();
+            int limit = length - length / MIN_SAVING_DIVISOR;
+            int n = 0;
+            while (!deflater.finished() && n < limit) {
+                n += deflater.deflate(output, n, limit - n);
+            }
+            return deflater.finished() ? ByteBuffer.wrap(output, 0, n) : null;
+        }
+
+        /**
+         * Estima la entropía, en bits por byte, de hasta ENTROPY_SAMPLES bytes distribuidos en el segmento.
+         */
+        double entropy(ByteBuffer plaintext) {
+            Arrays.fill(histogram, 0);
+            int start = plaintext.position();
+            int length = plaintext.remaining();
+            int stride = Math.max(1, length / ENTROPY_SAMPLES);
+            int samples = 0;
+            for (int i = 0; i < length; i += stride) {
+                histogram[plaintext.get(start + i) & 0xFF]++;
+                samples++;
+            }
+            double bits = 0;
+            for (int count : histogram) {
+                if (count > 0) {
+                    double p = (double) count / samples;
+                    bits -= p * Math.log(p);
+                }
+            }
+            return bits / Math.log(2);
+        }
+
+        int inflate(SegmentCipher cipher, long index, boolean last, ByteBuffer record, ByteBuffer out)
+                throws IOException, GeneralSecurityException {
+            decrypted.clear();
+            cipher.decryptSegment(index, last, true, record, decrypted);
+            inflater.reset();
+            inflater.setInput(decrypted.array(), 0, decrypted.position());
+            try {
+                int n = 0;
+                while (!inflater.finished() && n < output.length) {
+                    int inflated = inflater.inflate(output, n, output.length - n);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    n += inflated;
+                }
+                if (!inflater.finished() || n > SegmentCipher.SEGMENT_SIZE || n > out.remaining()) {
+                    throw new DamagedDataException("El segmento " + index + " comprimido está dañado");
+                }
+                out.put(output, 0, n);
+                return n;
+            } catch (DataFormatException e) {
+                throw new DamagedDataException("El segmento " + index + " comprimido está dañado", e);
+            }
+        }
+    }
+}
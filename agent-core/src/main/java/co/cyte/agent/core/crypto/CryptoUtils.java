@@ -1,4 +1,120 @@
 package co.cyte.agent.core.crypto;
 
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * Utilidades criptográficas comunes.
+ */
 public class CryptoUtils {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final int HMAC_LENGTH = 32;
+    private static final String WRAP_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int WRAP_NONCE_SIZE = 12;
+    private static final int WRAP_TAG_BITS = 128;
+    // Una instancia de Mac por hilo: se reinicializa en cada derivación
+    private static final ThreadLocal<Mac> MACS = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance(HMAC_ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 no está disponible", e);
+        }
+    });
+
+    /**
+     * Deriva una clave con HKDF-SHA256 (RFC 5869).
+     *
+     * @param inputKey Material de clave de entrada.
+     * @param salt Sal (puede ser vacía).
+     * @param info Contexto que separa las claves derivadas para distintos usos.
+     * @param length Bytes a derivar (como máximo 255 * 32).
+     * @return Clave derivada.
+     * @throws GeneralSecurityException Si HMAC-SHA256 no está disponible.
+     */
+    public static byte[] hkdfSha256(byte[] inputKey, byte[] salt, byte[] info, int length) throws GeneralSecurityException {
+        if (length <= 0 || length > 255 * HMAC_LENGTH) {
+            throw new IllegalArgumentException("Longitud de clave derivada no válida: " + length);
+        }
+        Mac mac = MACS.get();
+        mac.init(new SecretKeySpec(salt.length > 0 ? salt : new byte[HMAC_LENGTH], HMAC_ALGORITHM));
+        byte[] pseudoRandomKey = mac.doFinal(inputKey);
+
+        mac.init(new SecretKeySpec(pseudoRandomKey, HMAC_ALGORITHM));
+        byte[] output = new byte[length];
+        byte[] block = new byte[0];
+        int offset = 0;
+        for (int counter = 1; offset < length; counter++) {
+            mac.update(block);
+            mac.update(info);
+            mac.update((byte) counter);
+            block = mac.doFinal();
+            int n = Math.min(block.length, length - offset);
+            System.arraycopy(block, 0, output, offset, n);
+            offset += n;
+        }
+        return output;
+    }
+
+    /**
+     * Deriva una clave AES-256 de una contraseña con PBKDF2-HMAC-SHA256.
+     *
+     * @param password Contraseña.
+     * @param salt Sal aleatoria.
+     * @param iterations Iteraciones.
+     * @return Bytes de la clave derivada; el llamador debe borrarlos al terminar.
+     * @throws GeneralSecurityException Si PBKDF2 no está disponible.
+     */
+    public static byte[] pbkdf2Sha256(char[] password, byte[] salt, int iterations) throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, KeyGenerator.AES_KEY_SIZE * 8);
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * Envuelve (cifra) una clave con otra, con AES-GCM: nonce (12) | clave cifrada | etiqueta (16).
+     *
+     * @param wrappingKey Clave que envuelve.
+     * @param key Bytes de la clave a envolver.
+     * @param context Datos autenticados que atan la clave envuelta a su uso (por ejemplo, su alias).
+     * @return Clave envuelta.
+     * @throws GeneralSecurityException Si ocurre algún error de cifrado.
+     */
+    public static byte[] wrapKey(SecretKey wrappingKey, byte[] key, byte[] context) throws GeneralSecurityException {
+        byte[] nonce = KeyGenerator.randomBytes(WRAP_NONCE_SIZE);
+        Cipher cipher = Cipher.getInstance(WRAP_TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, wrappingKey, new GCMParameterSpec(WRAP_TAG_BITS, nonce));
+        cipher.updateAAD(context);
+        byte[] wrapped = cipher.doFinal(key);
+        return ByteBuffer.allocate(nonce.length + wrapped.length).put(nonce).put(wrapped).array();
+    }
+
+    /**
+     * Desenvuelve una clave envuelta con wrapKey.
+     *
+     * @param wrappingKey Clave que la envolvió.
+     * @param wrapped Clave envuelta.
+     * @param context Los mismos datos autenticados con que se envolvió.
+     * @return Bytes de la clave.
+     * @throws javax.crypto.AEADBadTagException Si la clave que envuelve o el contexto no coinciden.
+     * @throws GeneralSecurityException Si ocurre algún otro error de descifrado.
+     */
+    public static byte[] unwrapKey(SecretKey wrappingKey, byte[] wrapped, byte[] context) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(WRAP_TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, wrappingKey,
+                new GCMParameterSpec(WRAP_TAG_BITS, Arrays.copyOf(wrapped, WRAP_NONCE_SIZE)));
+        cipher.updateAAD(context);
+        return cipher.doFinal(wrapped, WRAP_NONCE_SIZE, wrapped.length - WRAP_NONCE_SIZE);
+    }
 }
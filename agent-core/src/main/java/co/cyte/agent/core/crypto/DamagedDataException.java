@@ -0,0 +1,32 @@
+package co.cyte.agent.core.crypto;
+
+import java.io.IOException;
+
+/**
+ * Se lanza cuando los datos cifrados no tienen el formato esperado o no superan la verificación:
+ * están truncados, dañados o fueron alterados. Los errores al obtener la clave o la suite de
+ * cifrado se informan con otras excepciones.
+ */
+public class DamagedDataException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Crea la excepción con el mensaje indicado.
+     *
+     * @param message Descripción del daño.
+     */
+    public DamagedDataException(String message) {
+        super(message);
+    }
+
+    /**
+     * Crea la excepción con el mensaje y la causa indicados.
+     *
+     * @param message Descripción del daño.
+     * @param cause Error original.
+     */
+    public DamagedDataException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
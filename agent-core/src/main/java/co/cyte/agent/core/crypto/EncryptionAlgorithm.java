@@ -1,29 +1,185 @@
 package co.cyte.agent.core.crypto;
 
+import javax.crypto.SecretKey;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
 
 /**
  * Interfaz que define el contrato para los algoritmos de cifrado/descifrado.
+ *
+ * Los algoritmos que cifran por segmentos independientes (segmentSize() mayor que 0) permiten
+ * además descifrar una parte de un archivo sin recorrerlo completo y volver a cifrar solo los
+ * segmentos modificados.
+ *
+ * Las operaciones trabajan sobre ByteBuffer y canales, que pueden ser directos de punta a punta
+ * (FileChannel, memoria fuera del heap, los buffers de Dokan); las variantes con streams son
+ * adaptadores sobre los canales.
  */
 public interface EncryptionAlgorithm {
     /**
-     * TODO: Simula el cifrado copiando el contenido del stream de entrada al de salida.
+     * Cifra los bytes restantes de src y escribe el resultado completo (con su encabezado) en dst.
+     *
+     * @param src Datos originales; se consumen por completo.
+     * @param alias Alias que identifica el algoritmo (por ejemplo, "AES").
+     * @param dst Destino de los datos cifrados; necesita encryptedSize(src.remaining()) bytes libres.
+     * @throws Exception Si ocurre algún error durante la operación.
+     */
+    void encrypt(ByteBuffer src, String alias, ByteBuffer dst) throws Exception;
+
+    /**
+     * Descifra y verifica los bytes restantes de src y escribe el texto plano en dst.
+     *
+     * @param src Datos cifrados completos; se consumen por completo.
+     * @param alias Alias que identifica el algoritmo.
+     * @param dst Destino del texto plano; necesita decryptedSize(src.remaining()) bytes libres.
+     * @throws Exception Si ocurre algún error durante la operación o los datos fueron alterados.
+     */
+    void decrypt(ByteBuffer src, String alias, ByteBuffer dst) throws Exception;
+
+    /**
+     * Cifra el contenido del canal de entrada, segmento a segmento, y escribe el resultado en el
+     * de salida. Ninguno de los canales se cierra.
+     *
+     * @param in Canal con los datos originales.
+     * @param alias Alias que identifica el algoritmo.
+     * @param out Canal donde se escribirán los datos cifrados.
+     * @throws Exception Si ocurre algún error durante la operación.
+     */
+    void encrypt(ReadableByteChannel in, String alias, WritableByteChannel out) throws Exception;
+
+    /**
+     * Descifra y verifica el contenido del canal de entrada, segmento a segmento, y escribe el
+     * resultado en el de salida. Ninguno de los canales se cierra.
+     *
+     * @param in Canal con los datos cifrados.
+     * @param alias Alias que identifica el algoritmo.
+     * @param out Canal donde se escribirán los datos descifrados.
+     * @throws Exception Si ocurre algún error durante la operación o los datos fueron alterados.
+     */
+    void decrypt(ReadableByteChannel in, String alias, WritableByteChannel out) throws Exception;
+
+    /**
+     * Cifra el contenido del stream de entrada y escribe el resultado en el de salida.
+     * Adaptador sobre la variante con canales.
      *
      * @param in El InputStream con los datos originales.
      * @param alias Alias que identifica el algoritmo (por ejemplo, "AES").
-     * @param out El OutputStream donde se escribirán los datos "cifrados".
+     * @param out El OutputStream donde se escribirán los datos cifrados.
      * @throws Exception Si ocurre algún error durante la operación.
      */
-    void encrypt(InputStream in, String alias, OutputStream out) throws Exception;
+    default void encrypt(InputStream in, String alias, OutputStream out) throws Exception {
+        encrypt(Channels.newChannel(in), alias, Channels.newChannel(out));
+        out.flush();
+    }
 
     /**
-     * TODO: Simula el descifrado copiando el contenido del stream de entrada al de salida.
+     * Descifra y verifica el contenido del stream de entrada y escribe el resultado en el de salida.
+     * Adaptador sobre la variante con canales.
      *
-     * @param in El InputStream con los datos "cifrados".
+     * @param in El InputStream con los datos cifrados.
      * @param alias Alias que identifica el algoritmo.
-     * @param out El OutputStream donde se escribirán los datos "descifrados".
+     * @param out El OutputStream donde se escribirán los datos descifrados.
+     * @throws Exception Si ocurre algún error durante la operación o los datos fueron alterados.
+     */
+    default void decrypt(InputStream in, String alias, OutputStream out) throws Exception {
+        decrypt(Channels.newChannel(in), alias, Channels.newChannel(out));
+        out.flush();
+    }
+
+    /**
+     * Calcula el tamaño que tendrán los datos una vez cifrados.
+     *
+     * @param plainSize Tamaño de los datos originales, en bytes.
+     * @param alias Alias que identifica el algoritmo.
+     * @return Tamaño de los datos cifrados, en bytes.
+     */
+    default long encryptedSize(long plainSize, String alias) {
+        return plainSize;
+    }
+
+    /**
+     * Calcula el tamaño que tendrán los datos una vez descifrados, sin leerlos.
+     * Permite enumerar el contenido de una bóveda sin descifrar sus archivos.
+     *
+     * @param encryptedSize Tamaño de los datos cifrados, en bytes.
+     * @param alias Alias que identifica el algoritmo.
+     * @return Tamaño de los datos descifrados, en bytes.
+     */
+    default long decryptedSize(long encryptedSize, String alias) {
+        return encryptedSize;
+    }
+
+    /**
+     * Calcula el tamaño que tendrá un archivo cifrado una vez descifrado, sin descifrarlo. A
+     * diferencia de la variante con el tamaño, sirve también para formatos de longitud variable
+     * (por ejemplo, los archivos comprimidos), que guardan el tamaño en el archivo.
+     *
+     * @param file Archivo cifrado.
+     * @param alias Alias que identifica el algoritmo.
+     * @return Tamaño de los datos descifrados, en bytes.
+     * @throws IOException Si el archivo no se pudo leer.
+     */
+    default long decryptedSize(Path file, String alias) throws IOException {
+        return decryptedSize(Files.size(file), alias);
+    }
+
+    /**
+     * Retorna el tamaño de los segmentos que el algoritmo cifra por separado.
+     *
+     * @param alias Alias que identifica el algoritmo.
+     * @return Bytes de texto plano por segmento, o 0 si el algoritmo solo cifra archivos completos.
+     */
+    default int segmentSize(String alias) {
+        return 0;
+    }
+
+    /**
+     * Abre un archivo cifrado para leerlo en cualquier posición, descifrando solo lo que se lee.
+     *
+     * @param file Archivo cifrado.
+     * @param alias Alias que identifica el algoritmo.
+     * @return Lector del texto plano; el llamador debe cerrarlo.
+     * @throws Exception Si el archivo no se pudo abrir o no tiene un formato válido.
+     */
+    RandomAccessDecryptor openReader(Path file, String alias) throws Exception;
+
+    /**
+     * Cifra una nueva versión de un archivo a partir de su versión cifrada anterior: los segmentos
+     * que no cambiaron se copian tal cual y solo los modificados se vuelven a cifrar.
+     *
+     * @param origin Versión cifrada anterior del archivo.
+     * @param plaintext Contenido actual del archivo.
+     * @param size Tamaño actual del archivo.
+     * @param changedSegments Índices de los segmentos modificados respecto de origin.
+     * @param alias Alias que identifica el algoritmo.
+     * @param out Canal donde se escribirá la nueva versión cifrada.
      * @throws Exception Si ocurre algún error durante la operación.
      */
-    void decrypt(InputStream in, String alias, OutputStream out) throws Exception;
+    void reencrypt(Path origin, PositionalReader plaintext, long size, BitSet changedSegments,
+                   String alias, WritableByteChannel out) throws Exception;
+
+    /**
+     * Deriva de la clave del alias una clave independiente para otro uso (por ejemplo, calcular
+     * identificadores de contenido con HMAC), sin exponer la clave del alias.
+     *
+     * @param alias Alias que identifica el algoritmo y su clave.
+     * @param purpose Uso de la clave derivada; cada uso produce una clave distinta.
+     * @return Clave HMAC-SHA256 de 32 bytes.
+     * @throws Exception Si la clave del alias no se pudo obtener.
+     */
+    SecretKey deriveKey(String alias, String purpose) throws Exception;
+
+    /**
+     * Descarta las claves derivadas de cada archivo que el algoritmo conserve en caché; las
+     * siguientes operaciones vuelven a derivarlas de las claves del proveedor.
+     */
+    void clearKeyCache();
 }
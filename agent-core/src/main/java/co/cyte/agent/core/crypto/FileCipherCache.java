@@ -0,0 +1,98 @@
+package co.cyte.agent.core.crypto;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caché acotada de los SegmentCipher de los archivos usados recientemente.
+ *
+ * Derivar la clave de un archivo (HKDF) en cada apertura cuesta más que descifrar un segmento
+ * pequeño; como las lecturas directas y los guardados abren una y otra vez los mismos archivos,
+ * se conserva el cifrado de cada uno, identificado por la clave de la bóveda y su encabezado.
+ */
+class FileCipherCache {
+
+    private final int capacity;
+    private final CipherRegistry registry;
+    private final Map<FileId, SegmentCipher> ciphers;
+
+    FileCipherCache(int capacity, CipherRegistry registry) {
+        this.capacity = capacity;
+        this.registry = registry;
+        this.ciphers = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Retorna el cifrado del archivo con el encabezado indicado, derivándolo si no está en caché.
+     */
+    SegmentCipher open(byte[] header, SecretKey vaultKey) throws IOException, GeneralSecurityException {
+        FileId id = new FileId(vaultKey, header);
+        synchronized (ciphers) {
+            SegmentCipher cipher = ciphers.get(id);
+            if (cipher != null) {
+                return cipher;
+            }
+        }
+        SegmentCipher cipher = SegmentCipher.open(header, vaultKey, registry);
+        put(id, cipher);
+        return cipher;
+    }
+
+    /**
+     * Crea el cifrado de un archivo nuevo con la suite indicada y lo conserva para las siguientes aperturas.
+     */
+    SegmentCipher create(CipherSuite suite, SecretKey vaultKey, boolean compressed) throws GeneralSecurityException {
+        SegmentCipher cipher = SegmentCipher.create(suite, vaultKey, compressed);
+        put(new FileId(vaultKey, cipher.header()), cipher);
+        return cipher;
+    }
+
+    /**
+     * Descarta los cifrados conservados, y con ellos las claves derivadas de cada archivo y las
+     * referencias a las claves de la bóveda.
+     */
+    void clear() {
+        synchronized (ciphers) {
+            ciphers.clear();
+        }
+    }
+
+    private void put(FileId id, SegmentCipher cipher) {
+        synchronized (ciphers) {
+            ciphers.put(id, cipher);
+            if (ciphers.size() > capacity) {
+                ciphers.remove(ciphers.keySet().iterator().next());
+            }
+        }
+    }
+
+    /**
+     * Identifica un archivo por la clave de la bóveda y su encabezado (que incluye la sal).
+     */
+    private static final class FileId {
+        private final SecretKey vaultKey;
+        private final byte[] header;
+
+        FileId(SecretKey vaultKey, byte[] header) {
+            this.vaultKey = vaultKey;
+            this.header = header;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof FileId)) return false;
+            FileId other = (FileId) o;
+            return vaultKey.equals(other.vaultKey) && Arrays.equals(header, other.header);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(header);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package co.cyte.agent.core.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+
+/**
+ * CipherSuite implementada con un cifrado AEAD de JCE (AES-GCM o ChaCha20-Poly1305), del
+ * proveedor por defecto o de uno en particular. Cada hilo reutiliza su propia instancia de Cipher.
+ */
+final class JceAeadSuite extends CipherSuite {
+
+    private static final int TAG_BITS = CipherSuite.TAG_SIZE * 8;
+
+    private final String transformation;
+    private final String keyAlgorithm;
+    // Proveedor de JCE; null para el que elija la JVM
+    private final String providerName;
+    private final ThreadLocal<Cipher> ciphers;
+
+    private JceAeadSuite(int id, String name, String transformation, String keyAlgorithm, String providerName) {
+        super(id, name);
+        this.transformation = transformation;
+        this.keyAlgorithm = keyAlgorithm;
+        this.providerName = providerName;
+        this.ciphers = ThreadLocal.withInitial(() -> {
+            try {
+                return newCipher();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(name + " no está disponible", e);
+            }
+        });
+    }
+
+    /**
+     * AES-256-GCM del proveedor indicado.
+     *
+     * @param providerName Proveedor de JCE (por ejemplo, "BC"), o null para el de la JVM.
+     */
+    static JceAeadSuite aesGcm(String providerName) {
+        return new JceAeadSuite(AES_GCM, "AES-256-GCM", "AES/GCM/NoPadding", "AES", providerName);
+    }
+
+    /**
+     * ChaCha20-Poly1305 del proveedor de la JVM (disponible desde Java 11).
+     */
+    static JceAeadSuite chaCha20Poly1305() {
+        return new JceAeadSuite(CHACHA20_POLY1305, "ChaCha20-Poly1305", "ChaCha20-Poly1305", "ChaCha20", null);
+    }
+
+    private Cipher newCipher() throws GeneralSecurityException {
+        return providerName == null
+                ? Cipher.getInstance(transformation)
+                : Cipher.getInstance(transformation, providerName);
+    }
+
+    @Override
+    public String getProvider() {
+        if (providerName != null) {
+            return providerName;
+        }
+        try {
+            return newCipher().getProvider().getName();
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean isAvailable() {
+        try {
+            newCipher();
+            return true;
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public SegmentAead forKey(byte[] keyMaterial) {
+        SecretKey key = new SecretKeySpec(keyMaterial, keyAlgorithm);
+        return new SegmentAead() {
+            @Override
+            public void seal(byte[] nonce, byte[] aad, int aadLength, ByteBuffer plaintext, ByteBuffer out)
+                    throws GeneralSecurityException {
+                Cipher cipher = ciphers.get();
+                cipher.init(Cipher.ENCRYPT_MODE, key, parameters(nonce));
+                cipher.updateAAD(aad, 0, aadLength);
+                cipher.doFinal(plaintext, out);
+            }
+
+            @Override
+            public void open(byte[] nonce, byte[] aad, int aadLength, ByteBuffer ciphertext, ByteBuffer out)
+                    throws GeneralSecurityException {
+                Cipher cipher = ciphers.get();
+                cipher.init(Cipher.DECRYPT_MODE, key, parameters(nonce));
+                cipher.updateAAD(aad, 0, aadLength);
+                cipher.doFinal(ciphertext, out);
+            }
+        };
+    }
+
+    private AlgorithmParameterSpec parameters(byte[] nonce) {
+        return getId() == AES_GCM ? new GCMParameterSpec(TAG_BITS, nonce) : new IvParameterSpec(nonce);
+    }
+}
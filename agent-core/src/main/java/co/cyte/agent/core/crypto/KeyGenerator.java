@@ -1,4 +1,46 @@
 package co.cyte.agent.core.crypto;
 
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.SecureRandom;
+
+/**
+ * Genera claves y valores aleatorios para el cifrado de la bóveda.
+ */
 public class KeyGenerator {
+
+    /** Tamaño de las claves AES generadas: 256 bits. */
+    public static final int AES_KEY_SIZE = 32;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Genera una clave AES-256 aleatoria.
+     *
+     * @return Clave nueva.
+     */
+    public static SecretKey generateAesKey() {
+        return new SecretKeySpec(randomBytes(AES_KEY_SIZE), "AES");
+    }
+
+    /**
+     * Genera bytes aleatorios criptográficamente seguros.
+     *
+     * @param length Cantidad de bytes.
+     * @return Bytes aleatorios.
+     */
+    public static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        RANDOM.nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Llena el arreglo con bytes aleatorios criptográficamente seguros.
+     *
+     * @param bytes Arreglo a llenar.
+     */
+    public static void randomBytes(byte[] bytes) {
+        RANDOM.nextBytes(bytes);
+    }
 }
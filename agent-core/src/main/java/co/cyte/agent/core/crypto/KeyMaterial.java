@@ -0,0 +1,70 @@
+package co.cyte.agent.core.crypto;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import javax.security.auth.Destroyable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Material de una clave derivada (por ejemplo, de la contraseña del usuario) que se conserva
+ * durante una sesión y se borra al cerrarla.
+ *
+ * Los bytes se guardan en un buffer directo, fuera del heap: el recolector de basura no los
+ * copia al compactar, de modo que destroy() los borra de la única copia de larga duración. Java
+ * no permite bloquear páginas en memoria (mlock) sin código nativo, así que pueden llegar al
+ * archivo de intercambio si el sistema lo usa. Las copias que JCE hace en cada operación
+ * (toSecretKey()) son de corta duración.
+ */
+public final class KeyMaterial implements Destroyable {
+
+    private final ByteBuffer buffer;
+    private volatile boolean destroyed;
+
+    /**
+     * Toma los bytes de la clave; el arreglo recibido se pone en cero.
+     *
+     * @param key Bytes de la clave.
+     */
+    public KeyMaterial(byte[] key) {
+        buffer = ByteBuffer.allocateDirect(key.length);
+        buffer.put(key).flip();
+        Arrays.fill(key, (byte) 0);
+    }
+
+    /**
+     * Retorna la clave para usarla en una operación.
+     *
+     * @param algorithm Algoritmo de la clave (por ejemplo, "AES").
+     * @return Clave secreta.
+     * @throws IllegalStateException Si el material ya se destruyó.
+     */
+    public synchronized SecretKey toSecretKey(String algorithm) {
+        if (destroyed) {
+            throw new IllegalStateException("El material de la clave ya se destruyó");
+        }
+        byte[] key = new byte[buffer.remaining()];
+        buffer.duplicate().get(key);
+        try {
+            return new SecretKeySpec(key, algorithm);
+        } finally {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    /**
+     * Pone en cero los bytes de la clave.
+     */
+    @Override
+    public synchronized void destroy() {
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buffer.put(i, (byte) 0);
+        }
+        destroyed = true;
+    }
+
+    @Override
+    public boolean isDestroyed() {
+        return destroyed;
+    }
+}
@@ -0,0 +1,28 @@
+package co.cyte.agent.core.crypto;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Entrega las claves con las que los algoritmos de cifrado protegen los archivos de la bóveda.
+ */
+public interface KeyProvider {
+
+    /**
+     * Retorna la clave asociada al alias indicado.
+     *
+     * @param alias Alias que identifica el algoritmo o la clave (por ejemplo, "AES").
+     * @return Clave secreta.
+     * @throws Exception Si la clave no se pudo obtener.
+     */
+    SecretKey getKey(String alias) throws Exception;
+
+    /**
+     * Registra una acción que se ejecuta cada vez que se bloquean las claves, para que quien
+     * conserve material derivado de ellas lo descarte. Los proveedores cuyas claves no se bloquean
+     * no necesitan hacer nada.
+     *
+     * @param listener Acción a ejecutar al bloquear las claves.
+     */
+    default void addLockListener(Runnable listener) {
+    }
+}
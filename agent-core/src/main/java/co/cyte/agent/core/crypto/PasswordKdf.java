@@ -0,0 +1,82 @@
+package co.cyte.agent.core.crypto;
+
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Derivación de claves a partir de contraseñas (PBKDF2-HMAC-SHA256), con un costo calibrado
+ * para este equipo.
+ *
+ * calibrate() mide cuánto tarda una derivación y elige las iteraciones con que tarda
+ * aproximadamente la latencia indicada, sin bajar de MIN_ITERATIONS: así una contraseña nueva
+ * queda tan protegida como el equipo permite sin que el inicio de sesión se vuelva lento. Las
+ * iteraciones elegidas se guardan junto a la sal, de modo que una contraseña se sigue
+ * verificando igual aunque después se calibre otro valor.
+ */
+public final class PasswordKdf {
+
+    /** Latencia por defecto de una derivación, en milisegundos. */
+    public static final long DEFAULT_TARGET_MILLIS = 500;
+    /** Iteraciones mínimas, aunque el equipo sea lento. */
+    public static final int MIN_ITERATIONS = 100_000;
+
+    // Iteraciones con que se mide el costo, y redondeo del resultado
+    private static final int PROBE_ITERATIONS = 20_000;
+    private static final int ROUNDING = 10_000;
+
+    private static final Map<Long, Integer> CALIBRATED = new ConcurrentHashMap<>();
+
+    private PasswordKdf() {
+    }
+
+    /**
+     * Deriva la clave de una contraseña.
+     *
+     * @param password Contraseña.
+     * @param salt Sal aleatoria.
+     * @param iterations Iteraciones de PBKDF2.
+     * @return Material de la clave derivada.
+     * @throws GeneralSecurityException Si PBKDF2 no está disponible.
+     */
+    public static KeyMaterial derive(char[] password, byte[] salt, int iterations) throws GeneralSecurityException {
+        return new KeyMaterial(CryptoUtils.pbkdf2Sha256(password, salt, iterations));
+    }
+
+    /**
+     * Retorna las iteraciones con que una derivación tarda aproximadamente targetMillis en este
+     * equipo. La medición se hace una vez por latencia.
+     *
+     * @param targetMillis Latencia buscada, en milisegundos.
+     * @return Iteraciones (al menos MIN_ITERATIONS).
+     * @throws GeneralSecurityException Si PBKDF2 no está disponible.
+     */
+    public static int calibrate(long targetMillis) throws GeneralSecurityException {
+        Integer iterations = CALIBRATED.get(targetMillis);
+        if (iterations == null) {
+            // Una primera medición para que el JIT compile HMAC-SHA256; se usa la segunda
+            measure(PROBE_ITERATIONS);
+            long nanos = Math.max(1, measure(PROBE_ITERATIONS));
+            long scaled = PROBE_ITERATIONS * targetMillis * 1_000_000L / nanos;
+            iterations = (int) Math.min(Integer.MAX_VALUE - ROUNDING, Math.max(MIN_ITERATIONS, scaled / ROUNDING * ROUNDING));
+            CALIBRATED.put(targetMillis, iterations);
+            System.out.println("PBKDF2 calibrado: " + iterations + " iteraciones para " + targetMillis + " ms");
+        }
+        return iterations;
+    }
+
+    /**
+     * Mide una derivación con las iteraciones indicadas.
+     *
+     * @param iterations Iteraciones de PBKDF2.
+     * @return Duración en nanosegundos.
+     * @throws GeneralSecurityException Si PBKDF2 no está disponible.
+     */
+    public static long measure(int iterations) throws GeneralSecurityException {
+        char[] password = "calibracion".toCharArray();
+        byte[] salt = KeyGenerator.randomBytes(16);
+        long start = System.nanoTime();
+        derive(password, salt, iterations).destroy();
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,22 @@
+package co.cyte.agent.core.crypto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Fuente de datos que se puede leer a partir de cualquier posición.
+ */
+@FunctionalInterface
+public interface PositionalReader {
+
+    /**
+     * Copia en dst los bytes que inician en la posición indicada, hasta llenar el buffer
+     * o alcanzar el final de los datos.
+     *
+     * @param position Posición inicial.
+     * @param dst Buffer de destino; se avanza su posición en la cantidad de bytes leídos.
+     * @return Cantidad de bytes leídos, o -1 si la posición está en o después del final.
+     * @throws IOException Si ocurre algún error de lectura.
+     */
+    int read(long position, ByteBuffer dst) throws IOException;
+}
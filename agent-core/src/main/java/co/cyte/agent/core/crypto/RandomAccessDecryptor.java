@@ -0,0 +1,17 @@
+package co.cyte.agent.core.crypto;
+
+import java.io.Closeable;
+
+/**
+ * Lector de un archivo cifrado que descifra solo la parte que se lee, sin recorrer el archivo
+ * desde el inicio.
+ */
+public interface RandomAccessDecryptor extends PositionalReader, Closeable {
+
+    /**
+     * Retorna el tamaño de los datos descifrados.
+     *
+     * @return Tamaño en bytes.
+     */
+    long size();
+}
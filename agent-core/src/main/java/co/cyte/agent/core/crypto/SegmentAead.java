@@ -0,0 +1,39 @@
+package co.cyte.agent.core.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * Cifrado autenticado de segmentos con la clave de un archivo, obtenido de una CipherSuite.
+ *
+ * Las implementaciones deben poder usarse desde varios hilos a la vez.
+ */
+public interface SegmentAead {
+
+    /**
+     * Cifra el segmento y escribe en out el texto cifrado seguido de la etiqueta.
+     *
+     * @param nonce Nonce del segmento (CipherSuite.NONCE_SIZE bytes).
+     * @param aad Arreglo con los datos autenticados.
+     * @param aadLength Bytes de aad que se autentican.
+     * @param plaintext Texto plano; se consume.
+     * @param out Destino; necesita plaintext.remaining() + CipherSuite.TAG_SIZE bytes.
+     * @throws GeneralSecurityException Si ocurre algún error de cifrado.
+     */
+    void seal(byte[] nonce, byte[] aad, int aadLength, ByteBuffer plaintext, ByteBuffer out)
+            throws GeneralSecurityException;
+
+    /**
+     * Verifica la etiqueta y descifra el segmento.
+     *
+     * @param nonce Nonce del segmento.
+     * @param aad Arreglo con los datos autenticados.
+     * @param aadLength Bytes de aad que se autentican.
+     * @param ciphertext Texto cifrado seguido de la etiqueta; se consume.
+     * @param out Destino del texto plano.
+     * @throws javax.crypto.AEADBadTagException Si la etiqueta no coincide.
+     * @throws GeneralSecurityException Si ocurre algún otro error de descifrado.
+     */
+    void open(byte[] nonce, byte[] aad, int aadLength, ByteBuffer ciphertext, ByteBuffer out)
+            throws GeneralSecurityException;
+}
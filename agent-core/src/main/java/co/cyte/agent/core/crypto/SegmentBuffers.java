@@ -0,0 +1,47 @@
+package co.cyte.agent.core.crypto;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Buffers directos del tamaño de un segmento cifrado (con el prefijo del formato comprimido),
+ * que se reutilizan entre operaciones.
+ *
+ * Son directos para que la lectura y la escritura de los FileChannel no pasen por una copia
+ * intermedia, y se conservan para que cifrar o leer un archivo no reserve (ni ponga en cero)
+ * memoria nueva en cada llamada.
+ */
+class SegmentBuffers {
+
+    private final int capacity;
+    private final ConcurrentLinkedQueue<ByteBuffer> spare = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param capacity Buffers libres que se conservan como máximo.
+     */
+    SegmentBuffers(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Retorna un buffer vacío de MAX_RECORD_SIZE bytes (el mayor de entrada o de salida).
+     */
+    ByteBuffer take() {
+        ByteBuffer buffer = spare.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(CompressedSegments.MAX_RECORD_SIZE);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Devuelve un buffer para reutilizarlo; no debe usarse después.
+     */
+    void release(ByteBuffer buffer) {
+        // El tamaño es aproximado: no importa conservar alguno de más o de menos
+        if (buffer != null && spare.size() < capacity) {
+            spare.offer(buffer);
+        }
+    }
+}
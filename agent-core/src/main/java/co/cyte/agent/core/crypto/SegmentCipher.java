@@ -0,0 +1,300 @@
+package co.cyte.agent.core.crypto;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * Cifrado por segmentos de un archivo de la bóveda, con la CipherSuite indicada en su encabezado.
+ *
+ * Formato del archivo:
+ * - Encabezado (24 bytes): "CYV" y la suite (4), tamaño de segmento (4) y sal (16). La suite 1
+ *   (AES-256-GCM) era la "versión 1" del formato, de modo que los archivos anteriores se leen igual.
+ * - Segmentos: nonce (12) | datos cifrados (hasta SEGMENT_SIZE) | etiqueta (16).
+ *
+ * Si el bit COMPRESSED_FLAG del byte de la suite está activo, los segmentos tienen longitud
+ * variable y el archivo termina con un índice (ver CompressedSegments).
+ *
+ * Cada archivo usa una clave propia, derivada con HKDF-SHA256 de la clave de la bóveda y de su
+ * sal, y cada segmento un nonce aleatorio, de modo que un segmento puede volver a cifrarse sin
+ * reutilizar nonces. Los datos autenticados de cada segmento incluyen el encabezado, su índice y
+ * si es el último: un segmento no puede reordenarse ni copiarse desde otro archivo, y el archivo
+ * no puede truncarse ni extenderse sin que el descifrado falle. Un archivo vacío tiene un único
+ * segmento final vacío.
+ *
+ * Cada hilo reutiliza su propia instancia de Cipher (ver las CipherSuite): se reinicializa en
+ * cada segmento con un nonce nuevo (o con el del segmento que se descifra), y el proveedor
+ * conserva la expansión de la clave mientras se siga usando la misma, de modo que cifrar muchos
+ * archivos pequeños no paga por cada uno la creación del Cipher. El nonce y los datos
+ * autenticados también se arman en arreglos del hilo, y los segmentos se leen y escriben en los ByteBuffer del llamador (que
+ * pueden ser directos), sin copias intermedias.
+ */
+public final class SegmentCipher {
+
+    /** Bytes de texto plano por segmento: 64 KiB, como las páginas de la bóveda. */
+    public static final int SEGMENT_SIZE = 64 * 1024;
+    /** Tamaño del encabezado del archivo. */
+    public static final int HEADER_SIZE = 24;
+    /** Bytes que cada segmento agrega al texto plano: nonce y etiqueta. */
+    public static final int SEGMENT_OVERHEAD = CipherSuite.NONCE_SIZE + CipherSuite.TAG_SIZE;
+    /** Tamaño en disco de un segmento completo. */
+    public static final int ENCRYPTED_SEGMENT_SIZE = SEGMENT_SIZE + SEGMENT_OVERHEAD;
+
+    /** Bit del byte de la suite que indica el formato comprimido. */
+    static final int COMPRESSED_FLAG = 0x80;
+
+    private static final byte[] MAGIC = {'C', 'Y', 'V'};
+    private static final int SALT_SIZE = 16;
+    private static final byte[] KEY_INFO = "cyte-vault segment key".getBytes(StandardCharsets.UTF_8);
+    private static final int AAD_SIZE = HEADER_SIZE + 9;
+    private static final ThreadLocal<Context> CONTEXTS = ThreadLocal.withInitial(Context::new);
+
+    private final byte[] header;
+    private final CipherSuite suite;
+    private final SegmentAead aead;
+    private final boolean compressed;
+
+    private SegmentCipher(byte[] header, CipherSuite suite, SegmentAead aead) {
+        this.header = header;
+        this.suite = suite;
+        this.aead = aead;
+        this.compressed = isCompressed(header);
+    }
+
+    /**
+     * Indica si el encabezado corresponde al formato comprimido.
+     */
+    static boolean isCompressed(byte[] header) {
+        return (header[MAGIC.length] & COMPRESSED_FLAG) != 0;
+    }
+
+    /**
+     * Prepara el cifrado de un archivo nuevo con la suite indicada, con una sal aleatoria.
+     *
+     * @param suite Suite con la que se cifran los segmentos.
+     * @param vaultKey Clave de la bóveda.
+     * @return Cifrado del archivo.
+     * @throws GeneralSecurityException Si la clave del archivo no se pudo derivar.
+     */
+    public static SegmentCipher create(CipherSuite suite, SecretKey vaultKey) throws GeneralSecurityException {
+        return create(suite, vaultKey, false);
+    }
+
+    /**
+     * Prepara el cifrado de un archivo nuevo, con o sin el formato comprimido.
+     *
+     * @param suite Suite con la que se cifran los segmentos.
+     * @param vaultKey Clave de la bóveda.
+     * @param compressed Indica si los segmentos se guardan con el formato de CompressedSegments.
+     * @return Cifrado del archivo.
+     * @throws GeneralSecurityException Si la clave del archivo no se pudo derivar.
+     */
+    static SegmentCipher create(CipherSuite suite, SecretKey vaultKey, boolean compressed) throws GeneralSecurityException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(MAGIC).put((byte) (suite.getId() | (compressed ? COMPRESSED_FLAG : 0)))
+                .putInt(SEGMENT_SIZE).put(KeyGenerator.randomBytes(SALT_SIZE));
+        return withHeader(header.array(), suite, vaultKey);
+    }
+
+    /**
+     * Prepara el descifrado (o la modificación) de un archivo existente a partir de su encabezado.
+     *
+     * @param header Los HEADER_SIZE bytes iniciales del archivo.
+     * @param vaultKey Clave de la bóveda.
+     * @param registry Registro donde se busca la suite indicada en el encabezado.
+     * @return Cifrado del archivo.
+     * @throws IOException Si el encabezado no corresponde a este formato (DamagedDataException) o su
+     *                     suite no está disponible.
+     * @throws GeneralSecurityException Si la clave del archivo no se pudo derivar.
+     */
+    public static SegmentCipher open(byte[] header, SecretKey vaultKey, CipherRegistry registry)
+            throws IOException, GeneralSecurityException {
+        if (header.length != HEADER_SIZE || !Arrays.equals(MAGIC, Arrays.copyOf(header, MAGIC.length))) {
+            throw new DamagedDataException("El archivo no tiene el formato cifrado de la bóveda");
+        }
+        int segmentSize = ByteBuffer.wrap(header, MAGIC.length + 1, 4).getInt();
+        if (segmentSize != SEGMENT_SIZE) {
+            throw new DamagedDataException("Tamaño de segmento no soportado: " + segmentSize);
+        }
+        CipherSuite suite = registry.forId(header[MAGIC.length] & ~COMPRESSED_FLAG & 0xFF);
+        return withHeader(header.clone(), suite, vaultKey);
+    }
+
+    private static SegmentCipher withHeader(byte[] header, CipherSuite suite, SecretKey vaultKey)
+            throws GeneralSecurityException {
+        byte[] salt = Arrays.copyOfRange(header, HEADER_SIZE - SALT_SIZE, HEADER_SIZE);
+        byte[] key = CryptoUtils.hkdfSha256(vaultKey.getEncoded(), salt, KEY_INFO, suite.getKeySize());
+        return new SegmentCipher(header, suite, suite.forKey(key));
+    }
+
+    /**
+     * Retorna una copia del encabezado del archivo.
+     *
+     * @return Bytes del encabezado.
+     */
+    public byte[] header() {
+        return header.clone();
+    }
+
+    /**
+     * Retorna la suite con la que se cifran los segmentos del archivo.
+     *
+     * @return Suite del archivo.
+     */
+    public CipherSuite getSuite() {
+        return suite;
+    }
+
+    /**
+     * Indica si el archivo usa el formato comprimido, de segmentos de longitud variable.
+     *
+     * @return true si el archivo está comprimido.
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Cifra un segmento con un nonce nuevo.
+     *
+     * @param index Índice del segmento dentro del archivo.
+     * @param last Indica si es el último segmento del archivo.
+     * @param plaintext Texto plano del segmento (hasta SEGMENT_SIZE bytes); se consume.
+     * @param out Destino del segmento cifrado; necesita plaintext.remaining() + SEGMENT_OVERHEAD bytes.
+     * @throws GeneralSecurityException Si ocurre algún error de cifrado.
+     */
+    public void encryptSegment(long index, boolean last, ByteBuffer plaintext, ByteBuffer out) throws GeneralSecurityException {
+        encryptSegment(index, last, false, plaintext, out);
+    }
+
+    /**
+     * Cifra un segmento indicando si su contenido está comprimido; la marca queda autenticada.
+     */
+    void encryptSegment(long index, boolean last, boolean deflated, ByteBuffer plaintext, ByteBuffer out)
+            throws GeneralSecurityException {
+        if (plaintext.remaining() > SEGMENT_SIZE) {
+            throw new IllegalArgumentException("El segmento excede " + SEGMENT_SIZE + " bytes");
+        }
+        Context context = CONTEXTS.get();
+        KeyGenerator.randomBytes(context.nonce);
+        out.put(context.nonce);
+        aead.seal(context.nonce, context.associatedData(header, index, last, deflated), AAD_SIZE, plaintext, out);
+    }
+
+    /**
+     * Descifra y verifica un segmento.
+     *
+     * @param index Índice del segmento dentro del archivo.
+     * @param last Indica si es el último segmento del archivo.
+     * @param encrypted Segmento cifrado completo (nonce, datos y etiqueta); se consume.
+     * @param out Destino del texto plano.
+     * @throws DamagedDataException Si el segmento está dañado, fue alterado o no corresponde a esa posición.
+     * @throws GeneralSecurityException Si ocurre algún otro error de descifrado.
+     */
+    public void decryptSegment(long index, boolean last, ByteBuffer encrypted, ByteBuffer out) throws IOException, GeneralSecurityException {
+        decryptSegment(index, last, false, encrypted, out);
+    }
+
+    /**
+     * Descifra un segmento con la marca de compresión con que se cifró.
+     */
+    void decryptSegment(long index, boolean last, boolean deflated, ByteBuffer encrypted, ByteBuffer out)
+            throws IOException, GeneralSecurityException {
+        if (encrypted.remaining() < SEGMENT_OVERHEAD) {
+            throw new DamagedDataException("Segmento " + index + " incompleto: el archivo está truncado");
+        }
+        Context context = CONTEXTS.get();
+        encrypted.get(context.nonce);
+        try {
+            aead.open(context.nonce, context.associatedData(header, index, last, deflated), AAD_SIZE, encrypted, out);
+        } catch (AEADBadTagException e) {
+            throw new DamagedDataException("El segmento " + index + " no supera la verificación: el archivo está dañado o fue alterado", e);
+        }
+    }
+
+    /**
+     * Nonce y datos autenticados de un hilo, que se reutilizan en cada segmento.
+     */
+    private static final class Context {
+        final byte[] nonce = new byte[CipherSuite.NONCE_SIZE];
+        final byte[] aad = new byte[AAD_SIZE];
+
+        /**
+         * Arma los datos autenticados del segmento: encabezado, índice (big-endian) y un byte con
+         * si es el último (bit 0) y si está comprimido (bit 1).
+         */
+        byte[] associatedData(byte[] header, long index, boolean last, boolean deflated) {
+            System.arraycopy(header, 0, aad, 0, HEADER_SIZE);
+            for (int i = 0; i < 8; i++) {
+                aad[HEADER_SIZE + i] = (byte) (index >>> (56 - 8 * i));
+            }
+            aad[HEADER_SIZE + 8] = (byte) ((last ? 1 : 0) | (deflated ? 2 : 0));
+            return aad;
+        }
+    }
+
+    /**
+     * Retorna la cantidad de segmentos de un archivo con el tamaño de texto plano indicado.
+     *
+     * @param plainSize Tamaño del texto plano.
+     * @return Cantidad de segmentos (al menos uno).
+     */
+    public static long segmentCount(long plainSize) {
+        return Math.max(1, (plainSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+    }
+
+    /**
+     * Retorna los bytes de texto plano del segmento indicado.
+     *
+     * @param plainSize Tamaño del texto plano del archivo.
+     * @param index Índice del segmento.
+     * @return Longitud del segmento.
+     */
+    public static int segmentLength(long plainSize, long index) {
+        return (int) Math.max(0, Math.min(SEGMENT_SIZE, plainSize - index * SEGMENT_SIZE));
+    }
+
+    /**
+     * Retorna la posición del segmento indicado dentro del archivo cifrado.
+     *
+     * @param index Índice del segmento.
+     * @return Posición en bytes.
+     */
+    public static long segmentOffset(long index) {
+        return HEADER_SIZE + index * ENCRYPTED_SEGMENT_SIZE;
+    }
+
+    /**
+     * Calcula el tamaño del archivo cifrado a partir del tamaño del texto plano.
+     *
+     * @param plainSize Tamaño del texto plano.
+     * @return Tamaño cifrado en bytes.
+     */
+    public static long encryptedSize(long plainSize) {
+        return HEADER_SIZE + segmentCount(plainSize) * SEGMENT_OVERHEAD + plainSize;
+    }
+
+    /**
+     * Calcula el tamaño del texto plano a partir del tamaño del archivo cifrado.
+     *
+     * @param encryptedSize Tamaño del archivo cifrado.
+     * @return Tamaño del texto plano, o 0 si el archivo es demasiado corto para este formato.
+     */
+    public static long decryptedSize(long encryptedSize) {
+        long body = encryptedSize - HEADER_SIZE;
+        if (body < SEGMENT_OVERHEAD) {
+            return 0;
+        }
+        long fullSegments = body / ENCRYPTED_SEGMENT_SIZE;
+        long remainder = body % ENCRYPTED_SEGMENT_SIZE;
+        long plain = fullSegments * SEGMENT_SIZE;
+        if (remainder > 0) {
+            plain += Math.max(0, remainder - SEGMENT_OVERHEAD);
+        }
+        return plain;
+    }
+}
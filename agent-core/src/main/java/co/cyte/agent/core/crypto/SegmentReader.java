@@ -0,0 +1,142 @@
+package co.cyte.agent.core.crypto;
+
+import javax.crypto.SecretKey;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+
+/**
+ * Lector de acceso aleatorio para archivos con el formato de SegmentCipher: cada lectura
+ * descifra únicamente los segmentos que cubre. Conserva el último segmento descifrado, para que
+ * las lecturas consecutivas dentro del mismo segmento no lo descifren de nuevo.
+ *
+ * Una lectura que cubre un segmento completo se descifra directamente en el buffer del llamador
+ * (por ejemplo, el buffer de Dokan), sin pasar por el segmento conservado. Los buffers internos
+ * son directos y se toman de SegmentBuffers al abrir y se devuelven al cerrar.
+ *
+ * En los archivos comprimidos, los segmentos se ubican con el índice del final del archivo (ver
+ * CompressedSegments), que se lee al abrir.
+ */
+class SegmentReader implements RandomAccessDecryptor {
+
+    private final FileChannel channel;
+    private final SegmentCipher cipher;
+    // Índice de los segmentos de un archivo comprimido; null si tienen tamaño fijo
+    private final CompressedSegments.Index index;
+    private final long size;
+    private final long lastSegment;
+    private final SegmentBuffers buffers;
+    private final ByteBuffer encrypted;
+    private ByteBuffer plaintext;
+    private long cachedSegment = -1;
+
+    SegmentReader(Path file, SecretKey vaultKey, FileCipherCache ciphers, SegmentBuffers buffers)
+            throws IOException, GeneralSecurityException {
+        this.buffers = buffers;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(SegmentCipher.HEADER_SIZE);
+            readFully(header, 0);
+            this.cipher = ciphers.open(header.array(), vaultKey);
+            this.index = cipher.isCompressed() ? CompressedSegments.Index.read(channel) : null;
+            this.size = index != null ? index.plainSize() : SegmentCipher.decryptedSize(channel.size());
+            this.lastSegment = SegmentCipher.segmentCount(size) - 1;
+            this.encrypted = buffers.take();
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized int read(long position, ByteBuffer dst) throws IOException {
+        if (position >= size) {
+            return -1;
+        }
+        int total = 0;
+        while (dst.hasRemaining() && position < size) {
+            long index = position / SegmentCipher.SEGMENT_SIZE;
+            int offset = (int) (position % SegmentCipher.SEGMENT_SIZE);
+            int length = SegmentCipher.segmentLength(size, index);
+            if (offset == 0 && dst.remaining() >= length && index != cachedSegment) {
+                decrypt(index, dst);
+                position += length;
+                total += length;
+                continue;
+            }
+            ByteBuffer segment = segment(index);
+            int n = Math.min(dst.remaining(), segment.limit() - offset);
+            ByteBuffer view = segment.duplicate();
+            view.limit(offset + n).position(offset);
+            dst.put(view);
+            position += n;
+            total += n;
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        channel.close();
+        buffers.release(encrypted);
+        buffers.release(plaintext);
+        plaintext = null;
+    }
+
+    private ByteBuffer segment(long index) throws IOException {
+        if (cachedSegment != index) {
+            cachedSegment = -1;
+            if (plaintext == null) {
+                plaintext = buffers.take();
+            }
+            plaintext.clear();
+            decrypt(index, plaintext);
+            plaintext.flip();
+            cachedSegment = index;
+        }
+        return plaintext;
+    }
+
+    /**
+     * Lee y descifra el segmento indicado, escribiendo el texto plano en out.
+     */
+    private void decrypt(long segment, ByteBuffer out) throws IOException {
+        try {
+            if (index != null) {
+                encrypted.clear().limit(index.length(segment));
+                readFully(encrypted, index.offset(segment));
+                encrypted.flip();
+                CompressedSegments.open(cipher, index, segment, encrypted, out);
+                return;
+            }
+            encrypted.clear().limit(SegmentCipher.segmentLength(size, segment) + SegmentCipher.SEGMENT_OVERHEAD);
+            readFully(encrypted, SegmentCipher.segmentOffset(segment));
+            encrypted.flip();
+            cipher.decryptSegment(segment, segment == lastSegment, encrypted, out);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Error descifrando el segmento " + segment, e);
+        }
+    }
+
+    private void readFully(ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position);
+            if (n < 0) {
+                throw new EOFException("El archivo cifrado está truncado");
+            }
+            position += n;
+        }
+    }
+}
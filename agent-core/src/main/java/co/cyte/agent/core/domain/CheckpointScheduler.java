@@ -0,0 +1,143 @@
+package co.cyte.agent.core.domain;
+
+import co.cyte.agent.core.storage.FileContent;
+import co.cyte.agent.core.storage.LazyFileContent;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Programa los checkpoints en segundo plano de una bóveda desbloqueada.
+ *
+ * Cada intervalo se cifran y se guardan los archivos modificados, en un único hilo de baja
+ * prioridad y con un ritmo máximo de escritura, para no competir con las operaciones de la
+ * unidad virtual. Los cambios se agrupan: un archivo solo se guarda cuando no cambió durante
+ * un intervalo completo, de modo que una ráfaga de escrituras (por ejemplo, un guardado de
+ * Office) produce un solo cifrado en lugar de uno por escritura.
+ */
+class CheckpointScheduler {
+
+    private final Vault vault;
+    private final long intervalMillis;
+    private final long maxBytesPerSecond;
+    private ScheduledExecutorService executor;
+    // Checkpoint en curso, para poder cancelarlo al bloquear
+    private volatile CheckpointListener running;
+    // Generación de cada archivo sucio en el checkpoint anterior (solo se usa desde el hilo del programador)
+    private Map<LazyFileContent, Long> seenGenerations = new IdentityHashMap<>();
+
+    CheckpointScheduler(Vault vault, long intervalMillis, long maxBytesPerSecond) {
+        this.vault = vault;
+        this.intervalMillis = intervalMillis;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    /**
+     * Inicia los checkpoints periódicos, si están habilitados y no se iniciaron ya.
+     */
+    synchronized void start() {
+        if (intervalMillis <= 0 || executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "vault-checkpoint");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::tick, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Detiene los checkpoints periódicos, cancela el que esté en curso y espera a que termine.
+     *
+     * @return true si estaban iniciados.
+     */
+    synchronized boolean stop() {
+        if (executor == null) {
+            return false;
+        }
+        executor.shutdown();
+        CheckpointListener current = running;
+        if (current != null) {
+            current.cancel();
+        }
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+        return true;
+    }
+
+    private void tick() {
+        // Se registran las generaciones actuales; solo se guardan los archivos que ya estaban
+        // sucios en el checkpoint anterior y no cambiaron desde entonces.
+        Map<LazyFileContent, Long> current = new IdentityHashMap<>();
+        for (FileContent content : vault.getDecryptedFiles().values()) {
+            if (content instanceof LazyFileContent && ((LazyFileContent) content).isDirty()) {
+                LazyFileContent lazy = (LazyFileContent) content;
+                current.put(lazy, lazy.getGeneration());
+            }
+        }
+        Map<LazyFileContent, Long> previous = seenGenerations;
+        seenGenerations = current;
+
+        CheckpointListener listener = new CheckpointListener(maxBytesPerSecond);
+        running = listener;
+        try {
+            vault.checkpoint(listener, content -> current.containsKey(content)
+                    && current.get(content).equals(previous.get(content)));
+            if (listener.getLockedFiles() > 0 || listener.getFailedFiles() > 0) {
+                System.out.println("Checkpoint de la bóveda " + vault.getVaultPath() + ": " + listener);
+            }
+        } catch (CancellationException e) {
+            System.out.println("Checkpoint cancelado: " + vault.getVaultPath());
+        } catch (Exception e) {
+            System.out.println("Error en el checkpoint de la bóveda " + vault.getVaultPath() + ": " + e.getMessage());
+        } finally {
+            running = null;
+        }
+    }
+
+    /**
+     * LockProgress que limita el ritmo de escritura: si el checkpoint va más rápido que el
+     * máximo permitido, el hilo que cifra espera antes de seguir leyendo.
+     */
+    private static class CheckpointListener extends LockProgress {
+
+        private final long maxBytesPerSecond;
+        private final long startNanos = System.nanoTime();
+        private long bytes;
+
+        CheckpointListener(long maxBytesPerSecond) {
+            this.maxBytesPerSecond = maxBytesPerSecond;
+        }
+
+        @Override
+        public void onProgress(long read) {
+            if (maxBytesPerSecond <= 0) {
+                return;
+            }
+            long expectedNanos;
+            synchronized (this) {
+                bytes += read;
+                expectedNanos = bytes * 1_000_000_000L / maxBytesPerSecond;
+            }
+            long aheadMillis = (expectedNanos - (System.nanoTime() - startNanos)) / 1_000_000;
+            if (aheadMillis > 0) {
+                try {
+                    Thread.sleep(aheadMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancel();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,512 @@
+package co.cyte.agent.core.domain;
+
+import co.cyte.agent.core.services.EncryptionService;
+import co.cyte.agent.core.storage.ContentDefinedChunker;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Almacén de fragmentos deduplicados de una bóveda.
+ *
+ * Cada archivo se divide en fragmentos definidos por el contenido (ContentDefinedChunker) y se
+ * guarda como una receta: la lista de los fragmentos que lo componen. Cada fragmento se identifica
+ * con el HMAC-SHA256 de su contenido, con una clave derivada de la de la bóveda, y se cifra y
+ * escribe una sola vez en el directorio de fragmentos, aunque aparezca en muchos archivos o en
+ * muchas versiones del mismo archivo. Guardar una versión nueva solo escribe los fragmentos que
+ * cambiaron.
+ *
+ * Los fragmentos y las recetas se cifran con el formato de EncryptionService. Al leer un fragmento
+ * se verifica que su contenido corresponda a su identificador, de modo que no se pueden
+ * intercambiar los archivos de dos fragmentos. La clave de los identificadores y la semilla de los
+ * cortes se derivan al primer uso, cuando la clave de la bóveda ya está disponible.
+ *
+ * Un fragmento se confirma en disco antes que la receta que lo usa; los que ninguna receta usa
+ * (archivos eliminados o bloqueos interrumpidos) se eliminan con collectGarbage().
+ */
+final class ChunkStore {
+
+    // Directorio de los fragmentos, dentro de la bóveda
+    static final String DIRECTORY = ".cyte-chunks";
+    // Extensión de las recetas, junto a los archivos .cv
+    static final String RECIPE_EXTENSION = ".cvc";
+
+    private static final int RECIPE_MAGIC = 0x43595652; // "CYVR"
+    private static final int ID_SIZE = 32;
+    private static final int RECIPE_HEADER_SIZE = 4 + 8 + 4;
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path directory;
+    private final EncryptionService encryptionService;
+    private final String alias;
+    // Lee las recetas cifradas (de un archivo o de un registro de un paquete)
+    private final RecipeReader recipeReader;
+    // Clave de los identificadores y divisor con su semilla; se derivan al primer uso
+    private volatile SecretKey idKey;
+    private volatile ContentDefinedChunker chunker;
+    // Fragmentos que se sabe que están en disco
+    private final Set<String> stored = ConcurrentHashMap.newKeySet();
+    // Recetas ya leídas o escritas, por ruta
+    private final Map<Path, Recipe> recipes = new ConcurrentHashMap<>();
+    // Último fragmento descifrado por una lectura directa (las lecturas suelen ser secuenciales)
+    private volatile CachedChunk lastRead;
+    private final AtomicLong writtenChunks = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private final AtomicLong reusedChunks = new AtomicLong();
+
+    /**
+     * @param vaultPath Ruta de la bóveda.
+     * @param encryptionService Servicio con el que se cifran fragmentos y recetas.
+     * @param alias Alias de cifrado de la bóveda.
+     * @param recipeReader Lee el contenido cifrado de una receta.
+     */
+    ChunkStore(Path vaultPath, EncryptionService encryptionService, String alias, RecipeReader recipeReader) {
+        this.directory = vaultPath.resolve(DIRECTORY);
+        this.encryptionService = encryptionService;
+        this.alias = alias;
+        this.recipeReader = recipeReader;
+    }
+
+    /**
+     * Indica si la ruta es la receta de un archivo deduplicado.
+     */
+    static boolean isRecipe(Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(RECIPE_EXTENSION);
+    }
+
+    /**
+     * Divide el contenido en fragmentos, escribe los que todavía no están en el almacén y escribe
+     * la receta cifrada en el canal de salida.
+     *
+     * @param in Contenido del archivo.
+     * @param recipeOut Canal donde se escribe la receta; no se cierra.
+     * @return Receta escrita.
+     * @throws Exception Si ocurre algún error al leer, cifrar o escribir.
+     */
+    Recipe write(ReadableByteChannel in, WritableByteChannel recipeOut) throws Exception {
+        ContentDefinedChunker chunker = chunker();
+        Mac mac = newMac();
+        RecipeBuilder builder = new RecipeBuilder();
+        // Ventana de lectura en modo lectura; se rellena hasta tener un fragmento máximo disponible
+        ByteBuffer window = ByteBuffer.allocate(2 * ContentDefinedChunker.MAX_SIZE);
+        window.flip();
+        boolean eof = false;
+        try {
+            while (true) {
+                if (!eof && window.remaining() < ContentDefinedChunker.MAX_SIZE) {
+                    window.compact();
+                    while (window.hasRemaining() && !eof) {
+                        eof = in.read(window) < 0;
+                    }
+                    window.flip();
+                }
+                int length = chunker.nextChunkLength(window);
+                if (length == 0) {
+                    break;
+                }
+                ByteBuffer chunk = window.slice();
+                chunk.limit(length);
+                builder.add(store(chunk, mac), length);
+                window.position(window.position() + length);
+            }
+        } finally {
+            Arrays.fill(window.array(), (byte) 0);
+        }
+        Recipe recipe = builder.build();
+        writeRecipe(recipe, recipeOut);
+        return recipe;
+    }
+
+    /**
+     * Registra la receta confirmada en la ruta indicada, para no volver a leerla.
+     */
+    void remember(Path recipeFile, Recipe recipe) {
+        recipes.put(recipeFile, recipe);
+    }
+
+    /**
+     * Lee la receta de un archivo deduplicado.
+     *
+     * @param recipeFile Ruta de la receta.
+     * @return Receta.
+     * @throws IOException Si no se pudo leer o descifrar, o no tiene un formato válido.
+     */
+    Recipe recipe(Path recipeFile) throws IOException {
+        Recipe recipe = recipes.get(recipeFile);
+        if (recipe != null) {
+            return recipe;
+        }
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        try {
+            encryptionService.decrypt(PackStore.readChannel(recipeReader.read(recipeFile)), alias,
+                    Channels.newChannel(plain));
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("No se pudo descifrar la receta " + recipeFile + ": " + e.getMessage(), e);
+        }
+        recipe = Recipe.parse(ByteBuffer.wrap(plain.toByteArray()), recipeFile);
+        recipes.put(recipeFile, recipe);
+        return recipe;
+    }
+
+    /**
+     * Descifra todos los fragmentos de la receta, en orden, en el canal de salida.
+     *
+     * @param recipe Receta del archivo.
+     * @param out Canal de destino; no se cierra.
+     * @throws Exception Si falta un fragmento, fue alterado o no se pudo escribir.
+     */
+    void copyTo(Recipe recipe, WritableByteChannel out) throws Exception {
+        for (int i = 0; i < recipe.count(); i++) {
+            byte[] chunk = readChunk(recipe, i);
+            try {
+                ByteBuffer src = ByteBuffer.wrap(chunk);
+                while (src.hasRemaining()) {
+                    out.write(src);
+                }
+            } finally {
+                Arrays.fill(chunk, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Lee una parte de un archivo deduplicado descifrando solo el fragmento que la contiene.
+     *
+     * @param recipe Receta del archivo.
+     * @param position Posición dentro del texto plano.
+     * @param dst Buffer de destino.
+     * @return Bytes leídos (como máximo, hasta el final del fragmento), o -1 en el final del archivo.
+     * @throws Exception Si falta el fragmento o fue alterado.
+     */
+    int read(Recipe recipe, long position, ByteBuffer dst) throws Exception {
+        if (position >= recipe.size()) {
+            return -1;
+        }
+        int index = recipe.indexOf(position);
+        String id = recipe.id(index);
+        CachedChunk cached = lastRead;
+        byte[] chunk;
+        if (cached != null && cached.id.equals(id)) {
+            chunk = cached.data;
+        } else {
+            chunk = readChunk(recipe, index);
+            lastRead = new CachedChunk(id, chunk);
+        }
+        int offset = (int) (position - recipe.offset(index));
+        int n = Math.min(dst.remaining(), chunk.length - offset);
+        dst.put(chunk, offset, n);
+        return n;
+    }
+
+    /**
+     * Elimina los fragmentos que ninguna de las recetas indicadas usa, y los temporales que haya
+     * dejado un bloqueo interrumpido.
+     *
+     * @param live Recetas de todos los archivos de la bóveda.
+     * @throws IOException Si no se pudo recorrer el directorio de fragmentos.
+     */
+    void collectGarbage(Collection<Recipe> live) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        Set<String> referenced = new HashSet<>();
+        for (Recipe recipe : live) {
+            for (int i = 0; i < recipe.count(); i++) {
+                referenced.add(recipe.id(i));
+            }
+        }
+        int deleted = 0;
+        try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(directory)) {
+            for (Path prefix : prefixes) {
+                if (!Files.isDirectory(prefix)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> chunks = Files.newDirectoryStream(prefix)) {
+                    for (Path chunk : chunks) {
+                        String name = chunk.getFileName().toString();
+                        if (!referenced.contains(name)) {
+                            Files.deleteIfExists(chunk);
+                            stored.remove(name);
+                            deleted++;
+                        }
+                    }
+                }
+            }
+        }
+        System.out.println("Fragmentos: " + writtenChunks.getAndSet(0) + " nuevos (" + writtenBytes.getAndSet(0)
+                + " bytes), " + reusedChunks.getAndSet(0) + " reutilizados, " + deleted + " eliminados");
+    }
+
+    /**
+     * Descarta las claves derivadas, las recetas conocidas y el fragmento descifrado en caché.
+     */
+    void clear() {
+        CachedChunk cached = lastRead;
+        lastRead = null;
+        if (cached != null) {
+            Arrays.fill(cached.data, (byte) 0);
+        }
+        recipes.clear();
+        stored.clear();
+        idKey = null;
+        chunker = null;
+    }
+
+    /**
+     * Guarda un fragmento si todavía no está en el almacén.
+     *
+     * @return Identificador del fragmento.
+     */
+    private byte[] store(ByteBuffer chunk, Mac mac) throws Exception {
+        mac.update(chunk.duplicate());
+        byte[] id = mac.doFinal();
+        String name = toHex(id);
+        if (stored.contains(name)) {
+            reusedChunks.incrementAndGet();
+            return id;
+        }
+        Path file = chunkPath(name);
+        if (Files.exists(file)) {
+            stored.add(name);
+            reusedChunks.incrementAndGet();
+            return id;
+        }
+        int length = chunk.remaining();
+        ByteBuffer encrypted = ByteBuffer.allocate((int) encryptionService.encryptedSize(length, alias));
+        encryptionService.encrypt(chunk.duplicate(), alias, encrypted);
+        encrypted.flip();
+        Path parent = Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(parent, name, TEMP_SUFFIX);
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (encrypted.hasRemaining()) {
+                    channel.write(encrypted);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        stored.add(name);
+        writtenChunks.incrementAndGet();
+        writtenBytes.addAndGet(length);
+        return id;
+    }
+
+    /**
+     * Descifra un fragmento de la receta y verifica que corresponda a su identificador.
+     */
+    private byte[] readChunk(Recipe recipe, int index) throws Exception {
+        String name = recipe.id(index);
+        byte[] encrypted;
+        try {
+            encrypted = Files.readAllBytes(chunkPath(name));
+        } catch (IOException e) {
+            throw new IOException("Falta el fragmento " + name + " de la bóveda", e);
+        }
+        ByteBuffer plain = ByteBuffer.allocate(recipe.length(index));
+        encryptionService.decrypt(ByteBuffer.wrap(encrypted), alias, plain);
+        Mac mac = newMac();
+        mac.update(plain.array());
+        if (plain.hasRemaining() || !MessageDigest.isEqual(mac.doFinal(), recipe.idBytes(index))) {
+            Arrays.fill(plain.array(), (byte) 0);
+            throw new IOException("El fragmento " + name + " no corresponde a su identificador");
+        }
+        return plain.array();
+    }
+
+    private void writeRecipe(Recipe recipe, WritableByteChannel out) throws Exception {
+        ByteBuffer plain = recipe.serialize();
+        ByteBuffer encrypted = ByteBuffer.allocate((int) encryptionService.encryptedSize(plain.remaining(), alias));
+        encryptionService.encrypt(plain, alias, encrypted);
+        encrypted.flip();
+        while (encrypted.hasRemaining()) {
+            out.write(encrypted);
+        }
+    }
+
+    private Path chunkPath(String name) {
+        return directory.resolve(name.substring(0, 2)).resolve(name);
+    }
+
+    private Mac newMac() throws Exception {
+        SecretKey key = idKey;
+        if (key == null) {
+            key = encryptionService.deriveKey(alias, "chunk id");
+            idKey = key;
+        }
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(key);
+        return mac;
+    }
+
+    private ContentDefinedChunker chunker() throws Exception {
+        ContentDefinedChunker current = chunker;
+        if (current == null) {
+            byte[] seed = encryptionService.deriveKey(alias, "chunk boundaries").getEncoded();
+            current = new ContentDefinedChunker(seed);
+            Arrays.fill(seed, (byte) 0);
+            chunker = current;
+        }
+        return current;
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Lectura del contenido cifrado completo de una receta.
+     */
+    interface RecipeReader {
+        ByteBuffer read(Path recipeFile) throws IOException;
+    }
+
+    /**
+     * Lista de los fragmentos de un archivo, con sus longitudes.
+     *
+     * Formato (antes de cifrarse): int mágico, long tamaño, int cantidad y, por fragmento, su
+     * identificador de 32 bytes y un int con su longitud.
+     */
+    static final class Recipe {
+        private final byte[] ids;
+        // offsets[i] es la posición del fragmento i; offsets[count] es el tamaño del archivo
+        private final long[] offsets;
+
+        private Recipe(byte[] ids, long[] offsets) {
+            this.ids = ids;
+            this.offsets = offsets;
+        }
+
+        long size() {
+            return offsets[offsets.length - 1];
+        }
+
+        int count() {
+            return offsets.length - 1;
+        }
+
+        String id(int index) {
+            return toHex(idBytes(index));
+        }
+
+        byte[] idBytes(int index) {
+            return Arrays.copyOfRange(ids, index * ID_SIZE, (index + 1) * ID_SIZE);
+        }
+
+        long offset(int index) {
+            return offsets[index];
+        }
+
+        int length(int index) {
+            return (int) (offsets[index + 1] - offsets[index]);
+        }
+
+        /**
+         * Retorna el índice del fragmento que contiene la posición indicada.
+         */
+        int indexOf(long position) {
+            int found = Arrays.binarySearch(offsets, 0, count(), position);
+            return found >= 0 ? found : -found - 2;
+        }
+
+        private ByteBuffer serialize() {
+            ByteBuffer buffer = ByteBuffer.allocate(RECIPE_HEADER_SIZE + count() * (ID_SIZE + 4));
+            buffer.putInt(RECIPE_MAGIC).putLong(size()).putInt(count());
+            for (int i = 0; i < count(); i++) {
+                buffer.put(ids, i * ID_SIZE, ID_SIZE).putInt(length(i));
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        private static Recipe parse(ByteBuffer buffer, Path source) throws IOException {
+            if (buffer.remaining() < RECIPE_HEADER_SIZE || buffer.getInt() != RECIPE_MAGIC) {
+                throw new IOException("Receta de fragmentos no válida: " + source);
+            }
+            long size = buffer.getLong();
+            int count = buffer.getInt();
+            if (count < 0 || buffer.remaining() != (long) count * (ID_SIZE + 4)) {
+                throw new IOException("Receta de fragmentos no válida: " + source);
+            }
+            RecipeBuilder builder = new RecipeBuilder();
+            byte[] id = new byte[ID_SIZE];
+            for (int i = 0; i < count; i++) {
+                buffer.get(id);
+                int length = buffer.getInt();
+                if (length <= 0) {
+                    throw new IOException("Receta de fragmentos no válida: " + source);
+                }
+                builder.add(id.clone(), length);
+            }
+            Recipe recipe = builder.build();
+            if (recipe.size() != size) {
+                throw new IOException("Receta de fragmentos no válida: " + source);
+            }
+            return recipe;
+        }
+    }
+
+    private static final class RecipeBuilder {
+        private final ByteArrayOutputStream ids = new ByteArrayOutputStream();
+        private long[] offsets = new long[16];
+        private int count;
+
+        void add(byte[] id, int length) {
+            if (count + 1 == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            ids.write(id, 0, ID_SIZE);
+            offsets[count + 1] = offsets[count] + length;
+            count++;
+        }
+
+        Recipe build() {
+            return new Recipe(ids.toByteArray(), Arrays.copyOf(offsets, count + 1));
+        }
+    }
+
+    private static final class CachedChunk {
+        final String id;
+        final byte[] data;
+
+        CachedChunk(String id, byte[] data) {
+            this.id = id;
+            this.data = data;
+        }
+    }
+}
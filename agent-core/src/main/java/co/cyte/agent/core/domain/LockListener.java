@@ -0,0 +1,63 @@
+package co.cyte.agent.core.domain;
+
+/**
+ * Recibe el avance del bloqueo de una bóveda y decide si debe cancelarse.
+ *
+ * Los archivos se cifran en paralelo, por lo que los métodos pueden invocarse desde
+ * distintos hilos y en cualquier orden; las implementaciones deben ser seguras ante ello.
+ */
+public interface LockListener {
+
+    /**
+     * Se invoca antes de cifrar, con los archivos que deben escribirse.
+     *
+     * @param totalFiles Cantidad de archivos nuevos o modificados.
+     * @param totalBytes Tamaño total de esos archivos, sin cifrar.
+     */
+    default void onStart(int totalFiles, long totalBytes) {
+    }
+
+    /**
+     * Se invoca a medida que se leen bytes sin cifrar de un archivo para cifrarlos; permite
+     * medir o limitar el ritmo de escritura.
+     *
+     * @param bytes Bytes leídos desde la invocación anterior.
+     */
+    default void onProgress(long bytes) {
+    }
+
+    /**
+     * Se invoca cuando un archivo quedó escrito y confirmado en disco.
+     *
+     * @param fileName Nombre del archivo (sin la extensión de cifrado).
+     * @param bytes Tamaño del archivo sin cifrar.
+     */
+    default void onFileLocked(String fileName, long bytes) {
+    }
+
+    /**
+     * Se invoca cuando un archivo no se pudo cifrar o escribir; su versión anterior en disco
+     * se conserva intacta.
+     *
+     * @param fileName Nombre del archivo (sin la extensión de cifrado).
+     * @param error Causa del fallo.
+     */
+    default void onFileFailed(String fileName, Exception error) {
+    }
+
+    /**
+     * Se invoca al terminar de procesar todos los archivos, se haya completado o no el bloqueo.
+     */
+    default void onFinish() {
+    }
+
+    /**
+     * Se consulta durante el bloqueo; si retorna true, se detiene lo antes posible y la bóveda
+     * queda desbloqueada.
+     *
+     * @return true si el bloqueo debe cancelarse.
+     */
+    default boolean isCancelled() {
+        return false;
+    }
+}
@@ -0,0 +1,145 @@
+package co.cyte.agent.core.domain;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LockListener que acumula el avance y el rendimiento del último bloqueo (o de la importación
+ * inicial de una bóveda), y permite cancelarlo desde otro hilo.
+ */
+public class LockProgress implements LockListener {
+
+    private volatile int totalFiles;
+    private volatile long totalBytes;
+    private final AtomicInteger lockedFiles = new AtomicInteger();
+    private final AtomicLong lockedBytes = new AtomicLong();
+    private final AtomicLong processedBytes = new AtomicLong();
+    private final Map<String, String> errors = new ConcurrentHashMap<>();
+    private volatile long startNanos;
+    private volatile long finishNanos;
+    private volatile boolean finished;
+    private volatile boolean cancelled;
+
+    @Override
+    public void onStart(int totalFiles, long totalBytes) {
+        this.totalFiles = totalFiles;
+        this.totalBytes = totalBytes;
+        this.startNanos = System.nanoTime();
+    }
+
+    @Override
+    public void onProgress(long bytes) {
+        processedBytes.addAndGet(bytes);
+    }
+
+    @Override
+    public void onFileLocked(String fileName, long bytes) {
+        lockedFiles.incrementAndGet();
+        lockedBytes.addAndGet(bytes);
+    }
+
+    @Override
+    public void onFileFailed(String fileName, Exception error) {
+        errors.put(fileName, String.valueOf(error.getMessage()));
+    }
+
+    @Override
+    public void onFinish() {
+        finishNanos = System.nanoTime();
+        finished = true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Solicita cancelar el bloqueo en curso.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public int getTotalFiles() {
+        return totalFiles;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public int getLockedFiles() {
+        return lockedFiles.get();
+    }
+
+    public long getLockedBytes() {
+        return lockedBytes.get();
+    }
+
+    /**
+     * Retorna los bytes sin cifrar leídos hasta ahora, incluidos los de los archivos en curso.
+     *
+     * @return Bytes procesados.
+     */
+    public long getProcessedBytes() {
+        return processedBytes.get();
+    }
+
+    public int getFailedFiles() {
+        return errors.size();
+    }
+
+    /**
+     * Retorna los archivos que no se pudieron cifrar, con el mensaje de error de cada uno.
+     *
+     * @return Mapa nombre de archivo → mensaje de error.
+     */
+    public Map<String, String> getErrors() {
+        return Collections.unmodifiableMap(errors);
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Retorna el tiempo transcurrido desde el inicio del cifrado (hasta el final, si ya terminó).
+     *
+     * @return Milisegundos transcurridos.
+     */
+    public long getElapsedMillis() {
+        if (startNanos == 0) {
+            return 0;
+        }
+        long end = finished ? finishNanos : System.nanoTime();
+        return (end - startNanos) / 1_000_000;
+    }
+
+    /**
+     * Retorna el rendimiento del cifrado: bytes sin cifrar procesados por segundo. Mientras el
+     * cifrado está en curso cuenta también los archivos que aún no terminaron.
+     *
+     * @return Bytes por segundo, o 0 si aún no hay datos.
+     */
+    public long getThroughputBytesPerSecond() {
+        long elapsed = getElapsedMillis();
+        return elapsed > 0 ? Math.max(lockedBytes.get(), processedBytes.get()) * 1000 / elapsed : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "LockProgress{" +
+                "totalFiles=" + totalFiles +
+                ", lockedFiles=" + lockedFiles.get() +
+                ", lockedBytes=" + lockedBytes.get() +
+                ", processedBytes=" + processedBytes.get() +
+                ", failedFiles=" + errors.size() +
+                ", elapsedMillis=" + getElapsedMillis() +
+                ", cancelled=" + cancelled +
+                '}';
+    }
+}
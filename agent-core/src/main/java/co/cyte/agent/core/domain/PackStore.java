@@ -0,0 +1,279 @@
+package co.cyte.agent.core.domain;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Archivos de paquete de una bóveda: unos pocos archivos grandes donde se agregan, uno detrás de
+ * otro, los blobs cifrados de los archivos pequeños.
+ *
+ * Guardar cada archivo pequeño en un blob propio cuesta una creación, una sincronización y una
+ * eliminación por archivo. En un paquete, cada versión nueva se agrega al final del paquete activo
+ * y todas las de una misma operación se confirman con una sola sincronización (force()) antes de
+ * reemplazar el manifiesto, que es el índice de los paquetes: registra el paquete, la posición y
+ * el tamaño de cada registro. Los registros se leen mapeando su región del paquete.
+ *
+ * Un paquete nunca se modifica en el lugar: las versiones reemplazadas y lo que haya quedado de
+ * una escritura interrumpida (registros que el manifiesto no llegó a incluir) son espacio muerto,
+ * que la bóveda recupera copiando los registros vivos a un paquete nuevo (Vault.compactPacks()).
+ *
+ * Cada registro se identifica con una ruta que no existe en disco, el nombre de su blob dentro del
+ * paquete (recordPath()), para que el resto de la bóveda lo trate como a cualquier blob.
+ */
+final class PackStore {
+
+    // Directorio de los paquetes, dentro de la bóveda, y extensión de cada paquete
+    static final String DIRECTORY = ".cyte-packs";
+    static final String EXTENSION = ".cvp";
+    // Tamaño desde el que se deja de agregar a un paquete y se inicia otro
+    static final long MAX_PACK_SIZE = 256L * 1024 * 1024;
+
+    private final Path directory;
+    // Paquete donde se agregan los registros; se elige al agregar el primero
+    private String activeName;
+    private FileChannel active;
+    // El paquete activo tiene registros que todavía no se sincronizaron a disco
+    private boolean unsynced;
+    // Canales de lectura de los paquetes, para mapear sus registros
+    private final Map<String, FileChannel> readers = new ConcurrentHashMap<>();
+
+    /**
+     * @param vaultPath Ruta de la bóveda.
+     */
+    PackStore(Path vaultPath) {
+        this.directory = vaultPath.resolve(DIRECTORY);
+    }
+
+    /**
+     * Retorna el directorio de los paquetes.
+     */
+    Path directory() {
+        return directory;
+    }
+
+    /**
+     * Retorna la ruta con que se identifica un registro: el nombre de su blob dentro del paquete.
+     */
+    Path recordPath(String pack, String blob) {
+        return directory.resolve(pack).resolve(blob);
+    }
+
+    /**
+     * Indica si la ruta identifica un registro de un paquete.
+     */
+    boolean isRecord(Path file) {
+        Path pack = file.getParent();
+        return pack != null && directory.equals(pack.getParent());
+    }
+
+    /**
+     * Agrega un registro al final del paquete activo. El registro no es durable hasta el siguiente
+     * force().
+     *
+     * @param record Contenido cifrado del registro; se consume.
+     * @return Paquete y posición del registro.
+     * @throws IOException Si no se pudo escribir.
+     */
+    synchronized Location append(ByteBuffer record) throws IOException {
+        if (active == null || active.size() >= MAX_PACK_SIZE) {
+            openActive(false);
+        }
+        long offset = active.size();
+        long position = offset;
+        unsynced = true;
+        while (record.hasRemaining()) {
+            position += active.write(record, position);
+        }
+        return new Location(activeName, offset);
+    }
+
+    /**
+     * Deja de agregar registros al paquete activo: los siguientes van a un paquete nuevo.
+     *
+     * @throws IOException Si el paquete activo no se pudo sincronizar.
+     */
+    synchronized void startNewPack() throws IOException {
+        openActive(true);
+    }
+
+    /**
+     * Sincroniza a disco los registros agregados desde la última vez.
+     *
+     * @throws IOException Si no se pudieron sincronizar.
+     */
+    synchronized void force() throws IOException {
+        if (active != null && unsynced) {
+            active.force(true);
+            unsynced = false;
+        }
+    }
+
+    /**
+     * Mapea en memoria la región de un registro.
+     *
+     * @param pack Paquete del registro.
+     * @param offset Posición del registro en el paquete.
+     * @param length Tamaño del registro.
+     * @return Buffer de solo lectura con el registro.
+     * @throws IOException Si el paquete no existe o el registro no está completo.
+     */
+    ByteBuffer map(String pack, long offset, long length) throws IOException {
+        FileChannel channel = readers.get(pack);
+        if (channel == null) {
+            synchronized (readers) {
+                channel = readers.get(pack);
+                if (channel == null) {
+                    channel = FileChannel.open(directory.resolve(pack), StandardOpenOption.READ);
+                    readers.put(pack, channel);
+                }
+            }
+        }
+        if (length > Integer.MAX_VALUE || offset + length > channel.size()) {
+            throw new IOException("Registro incompleto en el paquete " + pack + " (posición " + offset + ")");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+
+    /**
+     * Retorna el tamaño de cada paquete de la bóveda, por nombre.
+     *
+     * @throws IOException Si no se pudo enumerar el directorio.
+     */
+    Map<String, Long> packSizes() throws IOException {
+        Map<String, Long> sizes = new LinkedHashMap<>();
+        if (!Files.isDirectory(directory)) {
+            return sizes;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path pack : stream) {
+                sizes.put(pack.getFileName().toString(), Files.size(pack));
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Elimina un paquete que ya no tiene registros en uso. En Windows no se puede eliminar mientras
+     * quede mapeado; en ese caso se deja para la siguiente compactación.
+     */
+    void delete(String pack) {
+        closeReader(pack);
+        try {
+            Files.deleteIfExists(directory.resolve(pack));
+        } catch (IOException e) {
+            System.out.println("No se pudo eliminar el paquete " + pack + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Cierra el paquete activo y los canales de lectura (al bloquear y después de compactar).
+     */
+    synchronized void close() {
+        if (active != null) {
+            try {
+                force();
+                active.close();
+            } catch (IOException e) {
+                System.out.println("Error cerrando el paquete " + activeName + ": " + e.getMessage());
+            }
+        }
+        active = null;
+        activeName = null;
+        for (String pack : readers.keySet()) {
+            closeReader(pack);
+        }
+    }
+
+    /**
+     * Crea un canal de lectura sobre un registro ya leído o mapeado.
+     */
+    static ReadableByteChannel readChannel(ByteBuffer record) {
+        ByteBuffer source = record.duplicate();
+        return new ReadableByteChannel() {
+            private boolean open = true;
+
+            @Override
+            public int read(ByteBuffer dst) {
+                if (!source.hasRemaining()) {
+                    return -1;
+                }
+                int n = Math.min(dst.remaining(), source.remaining());
+                ByteBuffer slice = source.slice();
+                slice.limit(n);
+                dst.put(slice);
+                source.position(source.position() + n);
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return open;
+            }
+
+            @Override
+            public void close() {
+                open = false;
+            }
+        };
+    }
+
+    /**
+     * Abre el paquete donde se agregarán los registros: uno existente con espacio o, si no hay (o
+     * se pidió uno nuevo), uno nuevo con un nombre aleatorio.
+     */
+    private void openActive(boolean fresh) throws IOException {
+        if (active != null) {
+            force();
+            active.close();
+            active = null;
+        }
+        Files.createDirectories(directory);
+        String name = null;
+        if (!fresh && activeName == null) {
+            for (Map.Entry<String, Long> pack : packSizes().entrySet()) {
+                if (pack.getValue() < MAX_PACK_SIZE) {
+                    name = pack.getKey();
+                    break;
+                }
+            }
+        }
+        if (name == null) {
+            name = VaultManifest.newBlobName(EXTENSION);
+        }
+        active = FileChannel.open(directory.resolve(name), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        activeName = name;
+    }
+
+    private void closeReader(String pack) {
+        FileChannel channel = readers.remove(pack);
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("Error cerrando el paquete " + pack + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Ubicación de un registro: su paquete y su posición.
+     */
+    static final class Location {
+        final String pack;
+        final long offset;
+
+        Location(String pack, long offset) {
+            this.pack = pack;
+            this.offset = offset;
+        }
+    }
+}
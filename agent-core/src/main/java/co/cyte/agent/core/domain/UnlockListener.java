@@ -0,0 +1,41 @@
+package co.cyte.agent.core.domain;
+
+/**
+ * Recibe el avance del desbloqueo de una bóveda.
+ *
+ * Los archivos se descifran en paralelo, por lo que los métodos pueden invocarse desde
+ * distintos hilos y en cualquier orden; las implementaciones deben ser seguras ante ello.
+ */
+public interface UnlockListener {
+
+    /**
+     * Se invoca una vez enumerados los archivos cifrados, antes de procesarlos.
+     *
+     * @param totalFiles Cantidad de archivos a desbloquear.
+     */
+    default void onStart(int totalFiles) {
+    }
+
+    /**
+     * Se invoca cuando un archivo quedó disponible en la unidad virtual.
+     *
+     * @param fileName Nombre del archivo (sin la extensión de cifrado).
+     */
+    default void onFileUnlocked(String fileName) {
+    }
+
+    /**
+     * Se invoca cuando un archivo no se pudo descifrar; el resto del desbloqueo continúa.
+     *
+     * @param fileName Nombre del archivo (sin la extensión de cifrado).
+     * @param error Causa del fallo.
+     */
+    default void onFileFailed(String fileName, Exception error) {
+    }
+
+    /**
+     * Se invoca al terminar de procesar todos los archivos.
+     */
+    default void onFinish() {
+    }
+}
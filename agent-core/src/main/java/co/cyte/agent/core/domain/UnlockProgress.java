@@ -0,0 +1,73 @@
+package co.cyte.agent.core.domain;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * UnlockListener que acumula el avance del último desbloqueo para poder consultarlo
+ * (por ejemplo, desde la API mientras el desbloqueo está en curso).
+ */
+public class UnlockProgress implements UnlockListener {
+
+    private volatile int totalFiles;
+    private final AtomicInteger unlockedFiles = new AtomicInteger();
+    private final Map<String, String> errors = new ConcurrentHashMap<>();
+    private volatile boolean finished;
+
+    @Override
+    public void onStart(int totalFiles) {
+        this.totalFiles = totalFiles;
+    }
+
+    @Override
+    public void onFileUnlocked(String fileName) {
+        unlockedFiles.incrementAndGet();
+    }
+
+    @Override
+    public void onFileFailed(String fileName, Exception error) {
+        errors.put(fileName, String.valueOf(error.getMessage()));
+    }
+
+    @Override
+    public void onFinish() {
+        finished = true;
+    }
+
+    public int getTotalFiles() {
+        return totalFiles;
+    }
+
+    public int getUnlockedFiles() {
+        return unlockedFiles.get();
+    }
+
+    public int getFailedFiles() {
+        return errors.size();
+    }
+
+    /**
+     * Retorna los archivos que no se pudieron descifrar, con el mensaje de error de cada uno.
+     *
+     * @return Mapa nombre de archivo → mensaje de error.
+     */
+    public Map<String, String> getErrors() {
+        return Collections.unmodifiableMap(errors);
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public String toString() {
+        return "UnlockProgress{" +
+                "totalFiles=" + totalFiles +
+                ", unlockedFiles=" + unlockedFiles.get() +
+                ", failedFiles=" + errors.size() +
+                ", finished=" + finished +
+                '}';
+    }
+}
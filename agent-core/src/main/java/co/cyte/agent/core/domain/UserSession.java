@@ -1,12 +1,18 @@
 package co.cyte.agent.core.domain;
 
+import co.cyte.agent.core.crypto.KeyMaterial;
+
 /**
  * UserSession representa la sesión de un usuario autenticado.
+ *
+ * Conserva la clave derivada de la contraseña (si las claves están protegidas con una) hasta el
+ * cierre de la sesión, para desbloquear las claves sin volver a derivarla.
  */
 public class UserSession {
     private String username;
     private boolean authenticated;
     private String token;
+    private KeyMaterial keyMaterial;
 
     // Getters y setters
 
@@ -34,6 +40,14 @@ public class UserSession {
         this.token = token;
     }
 
+    public KeyMaterial getKeyMaterial() {
+        return keyMaterial;
+    }
+
+    public void setKeyMaterial(KeyMaterial keyMaterial) {
+        this.keyMaterial = keyMaterial;
+    }
+
     @Override
     public String toString() {
         return "UserSession{" +
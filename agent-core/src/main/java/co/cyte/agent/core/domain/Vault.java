@@ -1,16 +1,53 @@
 package co.cyte.agent.core.domain;
 
+import co.cyte.agent.core.crypto.RandomAccessDecryptor;
 import co.cyte.agent.core.services.EncryptionService;
+import co.cyte.agent.core.storage.BackingStore;
+import co.cyte.agent.core.storage.FileContent;
+import co.cyte.agent.core.storage.FileTree;
+import co.cyte.agent.core.storage.HeapPageAllocator;
+import co.cyte.agent.core.storage.LazyFileContent;
+import co.cyte.agent.core.storage.ChunkedFileContent;
+import co.cyte.agent.core.storage.MappedFileInputStream;
+import co.cyte.agent.core.storage.OffHeapPageAllocator;
+import co.cyte.agent.core.storage.PageAllocator;
+import co.cyte.agent.core.storage.ResidencyManager;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
 /**
  * La clase Vault representa la bóveda cifrada en disco.
@@ -23,51 +60,221 @@ import java.util.concurrent.ConcurrentHashMap;
  *
  * Además, al implementar VirtualDrive, expone el mapa de archivos descifrados para que
  * componentes externos (por ejemplo, DokanFileSystem) puedan operar sobre él.
+ *
+ * El contenido descifrado se guarda en páginas entregadas por un PageAllocator propio de la
+ * bóveda (en memoria nativa por defecto), limitado por el presupuesto de VaultOptions.
+ * Cuando la memoria en uso supera el umbral de desalojo, los archivos menos usados
+ * recientemente se liberan (si no cambiaron) o se cifran en un área de desalojo dentro de
+ * la bóveda, y se vuelven a cargar al siguiente acceso.
+ *
+ * Los archivos sin cifrar que haya en la carpeta al crear la Vault se importan en segundo plano
+ * (VaultImport): se cifran en paralelo y cada original se elimina cuando su versión cifrada ya es
+ * durable. El desbloqueo espera a que la importación termine.
+ *
+ * El formato cifrado es por segmentos: un archivo grande que no está en memoria se lee
+ * descifrando solo los segmentos que cubre cada lectura, y al guardar un archivo modificado en
+ * el lugar solo se vuelven a cifrar los segmentos que cambiaron.
+ *
+ * Mientras la bóveda está desbloqueada, un CheckpointScheduler guarda periódicamente en disco
+ * los archivos modificados, de modo que una caída no pierde más que los últimos cambios y el
+ * bloqueo final solo escribe lo que quedó pendiente.
+ *
+ * Con la deduplicación activada (VaultOptions.isDeduplication()), los archivos se guardan en un
+ * ChunkStore: cada uno como una receta ".cvc" con la lista de sus fragmentos, y cada fragmento
+ * distinto una sola vez, aunque se repita en varias versiones de un documento. Las bóvedas pueden
+ * mezclar ambos formatos; cada archivo se lee con el suyo.
+ *
+ * Con el manifiesto activado (VaultOptions.isManifest()), o si la bóveda ya tiene uno, la lista de
+ * archivos se guarda en un VaultManifest cifrado y cada versión de un archivo en un blob con un
+ * nombre aleatorio: desbloquear lee un solo archivo, renombrar no escribe nada más que el
+ * manifiesto y en disco no quedan los nombres. Los archivos ".cv" y ".cvc" con nombre (de una
+ * bóveda anterior o agregados después) se siguen leyendo y pasan a blobs al guardarse.
+ *
+ * Con los paquetes activados (VaultOptions.isPackFiles()), los archivos pequeños se guardan como
+ * registros de unos pocos archivos de paquete (PackStore) en lugar de un blob cada uno, y se leen
+ * mapeados en memoria. Al guardar, los archivos sin cambios que están en el otro formato se copian
+ * (sin volver a cifrarse), de modo que la bóveda cambia de formato en su siguiente bloqueo. El
+ * espacio de las versiones reemplazadas se recupera en segundo plano después de bloquear.
+ *
+ * Con el diario activado (VaultOptions.isJournal()), la unidad virtual registra cada modificación
+ * en un VaultJournal antes de confirmarla, y los checkpoints solo cifran los archivos en segundo
+ * plano. Si la bóveda se interrumpe, el siguiente desbloqueo vuelve a aplicar el diario.
  */
 public class Vault implements VirtualDrive {
 
-    private static final String ENCRYPTED_EXTENSION = ".cv";
+    static final String ENCRYPTED_EXTENSION = ".cv";
+    // Directorio de trabajo, dentro de la bóveda, para los archivos desalojados de memoria
+    private static final String SPILL_DIRECTORY = ".cyte-spill";
+    // Prefijo de los archivos y directorios de uso interno de la bóveda
+    private static final String INTERNAL_PREFIX = ".cyte-";
+    // Extensión de los temporales donde se preparan los archivos cifrados antes de confirmarlos
+    static final String STAGING_EXTENSION = ".tmp";
+    // Los archivos cifrados desde este tamaño se leen mapeados en memoria
+    private static final long MAPPED_READ_THRESHOLD = 1024 * 1024;
+    // Con paquetes, los archivos hasta este tamaño se guardan como registros de un paquete
+    private static final long PACKED_FILE_THRESHOLD = 1024 * 1024;
+    // Tamaño de los bloques con que se copian los archivos de la unidad a un canal (readFile())
+    private static final int COPY_BUFFER_SIZE = 1024 * 1024;
 
     private final Path vaultPath;
     private final EncryptionService encryptionService;
     // Mapa que almacena en memoria los archivos descifrados.
-    private final Map<String, ByteArrayOutputStream> decryptedFiles;
+    private final FileTree decryptedFiles;
     private final String alias; // Alias del algoritmo de cifrado (por ejemplo, "AES")
+    // Asignador de páginas para el contenido descifrado de esta bóveda
+    private final PageAllocator pageAllocator;
+    // Descifrar cada archivo bajo demanda en lugar de hacerlo al desbloquear
+    private final boolean lazyUnlock;
+    // Orden LRU de los archivos en memoria y desalojo al superar el umbral
+    private final ResidencyManager residencyManager;
+    // Operaciones que usan los contenidos diferidos para cargarse y desalojarse
+    private final BackingStore backingStore = new VaultBackingStore();
+    // Hilos para descifrar en paralelo al desbloquear
+    private final int unlockThreads;
+    // Avance del último desbloqueo
+    private volatile UnlockProgress unlockProgress = new UnlockProgress();
+    // Hilos para cifrar en paralelo al bloquear
+    private final int lockThreads;
+    // Avance del último bloqueo
+    private volatile LockProgress lockProgress = new LockProgress();
+    // Guarda los archivos modificados en segundo plano mientras la bóveda está desbloqueada
+    private final CheckpointScheduler checkpointScheduler;
+    // Evita que un checkpoint y un bloqueo escriban a la vez
+    private final Object persistLock = new Object();
+    // Tamaño desde el que los archivos no cargados se leen descifrando solo lo que se lee
+    private final long directReadThresholdBytes;
+    // Guardar los archivos nuevos o modificados como recetas de fragmentos deduplicados
+    private final boolean deduplication;
+    // Fragmentos y recetas de los archivos deduplicados
+    private final ChunkStore chunkStore;
+    // Guardar la lista de archivos en un manifiesto cifrado y cada versión en un blob con nombre aleatorio
+    private final boolean manifestEnabled;
+    // Manifiesto de la bóveda desbloqueada; null si no usa manifiesto
+    private volatile VaultManifest manifest;
+    // Entradas de los blobs leídos del manifiesto o escritos desde que se desbloqueó, por nombre del blob
+    private final Map<String, VaultManifest.Entry> blobEntries = new ConcurrentHashMap<>();
+    // Guardar los archivos pequeños como registros de archivos de paquete
+    private final boolean packFiles;
+    // Paquetes de la bóveda
+    private final PackStore packStore;
+    // Registrar las modificaciones de la unidad en un diario antes de confirmarlas
+    private final boolean journalEnabled;
+    // Diario de la bóveda desbloqueada; null si no tiene
+    private volatile VaultJournal journal;
+    // La bóveda está desbloqueada (su unidad tiene los archivos)
+    private volatile boolean unlocked;
+    // Avance de la importación de los archivos sin cifrar de la carpeta
+    private final LockProgress importProgress = new LockProgress();
+    // Hilo de la importación; null si no había nada que importar
+    private final Thread importThread;
 
     /**
-     * Constructor de Vault.
+     * Constructor de Vault con las opciones por defecto.
      *
      * @param vaultPath Ruta de la bóveda en disco.
      * @param encryptionService Servicio para realizar operaciones de cifrado y descifrado.
      */
     public Vault(Path vaultPath, EncryptionService encryptionService) {
+        this(vaultPath, encryptionService, new VaultOptions());
+    }
+
+    /**
+     * Constructor de Vault.
+     *
+     * @param vaultPath Ruta de la bóveda en disco.
+     * @param encryptionService Servicio para realizar operaciones de cifrado y descifrado.
+     * @param options Opciones de la bóveda (memoria, presupuesto, etc.).
+     */
+    public Vault(Path vaultPath, EncryptionService encryptionService, VaultOptions options) {
         this.vaultPath = vaultPath;
         this.encryptionService = encryptionService;
-        this.decryptedFiles = new ConcurrentHashMap<>();
-        this.alias = "AES";
+        this.decryptedFiles = new FileTree();
+        this.alias = options.getCipherAlias();
+        this.pageAllocator = options.isOffHeap()
+                ? new OffHeapPageAllocator(options.getPageSize(), options.getMemoryBudgetBytes())
+                : new HeapPageAllocator(options.getPageSize(), options.getMemoryBudgetBytes());
+        this.lazyUnlock = options.isLazyUnlock();
+        this.residencyManager = new ResidencyManager(pageAllocator, options.getSpillThresholdBytes());
+        this.pageAllocator.setPressureHandler(residencyManager);
+        this.unlockThreads = options.getUnlockThreads() > 0
+                ? options.getUnlockThreads()
+                : Runtime.getRuntime().availableProcessors();
+        this.lockThreads = options.getLockThreads() > 0
+                ? options.getLockThreads()
+                : Runtime.getRuntime().availableProcessors();
+        this.directReadThresholdBytes = options.getDirectReadThresholdBytes();
+        this.deduplication = options.isDeduplication();
+        this.chunkStore = new ChunkStore(vaultPath, encryptionService, alias, this::readBlob);
+        this.packFiles = options.isPackFiles();
+        this.journalEnabled = options.isJournal();
+        this.manifestEnabled = options.isManifest() || packFiles || journalEnabled;
+        this.packStore = new PackStore(vaultPath);
+        this.checkpointScheduler = new CheckpointScheduler(this, options.getCheckpointIntervalMillis(),
+                options.getCheckpointMaxBytesPerSecond());
+
+        // Si hay archivos sin cifrar en el árbol de la bóveda (o una importación interrumpida), se
+        // cifran en segundo plano; el recorrido también se hace en ese hilo.
+        if (Files.isDirectory(vaultPath)) {
+            VaultImport job = new VaultImport(vaultPath, encryptionService, alias, lockThreads, importProgress);
+            importThread = newWorkerThreadFactory("vault-import-").newThread(() -> runImport(job));
+            importThread.start();
+        } else {
+            importThread = null;
+            importProgress.onStart(0, 0);
+            importProgress.onFinish();
+        }
+    }
 
-        // TODO: Si hay archivos sin cifrar, se cifran al inicializar la Vault
+    private void runImport(VaultImport job) {
         try {
-            if (Files.exists(vaultPath) && Files.isDirectory(vaultPath)) {
-                try (DirectoryStream<Path> stream = Files.newDirectoryStream(vaultPath)) {
-                    for (Path file : stream) {
-                        String fileName = file.getFileName().toString();
-                        if (!fileName.endsWith(ENCRYPTED_EXTENSION) && Files.isRegularFile(file)) {
-                            // Cifrar el archivo
-                            Path encryptedFile = vaultPath.resolve(fileName + ENCRYPTED_EXTENSION);
-                            try (InputStream in = Files.newInputStream(file);
-                                 OutputStream out = Files.newOutputStream(encryptedFile)) {
-                                encryptionService.encrypt(in, alias, out);
-                            }
-
-                            // Eliminar el archivo original
-                            Files.delete(file);
-                        }
-                    }
-                }
+            List<String> errores = job.run();
+            if (importProgress.getTotalFiles() > 0) {
+                System.out.println("Importación de la bóveda terminada: " + importProgress);
+            }
+            if (!errores.isEmpty()) {
+                System.out.println("Archivos que no se pudieron importar: " + String.join("; ", errores));
             }
+        } catch (CancellationException e) {
+            System.out.println("Importación de la bóveda cancelada: " + importProgress);
         } catch (Exception e) {
-            throw new RuntimeException("Error al cifrar los archivos no cifrados presentes en la bóveda.", e);
+            importProgress.onFileFailed(VaultImport.CHECKPOINT_FILE, e);
+            System.out.println("Error importando los archivos de la bóveda: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Retorna el avance de la importación de los archivos sin cifrar que había en la carpeta al
+     * crear la Vault, con su rendimiento. Puede consultarse mientras la importación está en curso.
+     *
+     * @return Archivos y bytes importados, errores y tiempo transcurrido.
+     */
+    public LockProgress getImportProgress() {
+        return importProgress;
+    }
+
+    /**
+     * Indica si la importación de los archivos sin cifrar sigue en curso.
+     */
+    public boolean isImporting() {
+        return importThread != null && importThread.isAlive();
+    }
+
+    /**
+     * Solicita cancelar la importación en curso. Los archivos ya importados se conservan y el
+     * resto se importa al volver a crear la Vault.
+     */
+    public void cancelImport() {
+        importProgress.cancel();
+    }
+
+    /**
+     * Espera a que termine la importación de los archivos sin cifrar.
+     *
+     * @throws InterruptedException Si el hilo se interrumpió mientras esperaba.
+     */
+    public void awaitImport() throws InterruptedException {
+        if (importThread != null) {
+            importThread.join();
         }
     }
 
@@ -85,47 +292,491 @@ public class Vault implements VirtualDrive {
      * Retorna el mapa de archivos descifrados en memoria.
      * Esta implementación forma parte del contrato de VirtualDrive.
      *
-     * @return Map que asocia el nombre del archivo con su contenido en memoria.
+     * @return Árbol que asocia la ruta del archivo con su contenido en memoria.
      */
     @Override
-    public Map<String, ByteArrayOutputStream> getDecryptedFiles() {
+    public FileTree getDecryptedFiles() {
         return decryptedFiles;
     }
 
     /**
-     * Desbloquea la bóveda.
+     * Crea un contenido vacío cuyas páginas se obtienen del asignador de la bóveda
+     * y que puede desalojarse a disco cuando falta memoria.
+     *
+     * @return Contenido vacío sujeto al presupuesto de memoria.
+     */
+    @Override
+    public FileContent newFileContent() {
+        return LazyFileContent.empty(backingStore);
+    }
+
+    /**
+     * Retorna el diario de la bóveda desbloqueada, o null si no tiene.
+     */
+    @Override
+    public VaultJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Indica si la bóveda está desbloqueada.
+     */
+    public boolean isUnlocked() {
+        return unlocked;
+    }
+
+    /**
+     * Guarda un archivo en la unidad desde un canal, sin pasarlo por memoria: se cifra por
+     * segmentos directamente a un archivo de la bóveda (un blob nuevo, con manifiesto) y la unidad
+     * lo lee desde allí, como a los demás archivos sin cambios. Reemplaza al archivo que tuviera la
+     * misma ruta. Es durable al retornar: con diario, un registro vincula la ruta al blob nuevo
+     * hasta el siguiente checkpoint o bloqueo; con manifiesto y sin diario, el manifiesto se
+     * reemplaza en el momento.
+     *
+     * @param path Ruta en la unidad (por ejemplo "sub\informe.docx").
+     * @param in Contenido sin cifrar.
+     * @return Tamaño del archivo guardado.
+     * @throws IllegalStateException Si la bóveda no está desbloqueada.
+     * @throws IllegalArgumentException Si la ruta no es válida o es una carpeta.
+     * @throws Exception Si no se pudo cifrar o escribir el archivo.
+     */
+    public long storeFile(String path, ReadableByteChannel in) throws Exception {
+        checkUnlocked();
+        if (!isValidDrivePath(path) || decryptedFiles.isDirectory(path)) {
+            throw new IllegalArgumentException("Ruta de archivo no válida: " + path);
+        }
+        boolean withManifest = manifest != null;
+        if (withManifest) {
+            Files.createDirectories(VaultManifest.blobDirectory(vaultPath));
+        }
+        Path target = withManifest ? newBlobPath(false) : outputPathOf(path, false);
+        Path staged = stagingPathOf(target);
+        // Cuenta los bytes sin cifrar leídos del canal
+        LockProgress counter = new LockProgress();
+        MessageDigest digest = withManifest ? VaultManifest.newDigest() : null;
+        try (FileChannel file = FileChannel.open(staged, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            WritableByteChannel channel = digest != null ? VaultManifest.hashWrites(file, digest) : file;
+            encryptionService.encrypt(cancellable(in, counter), alias, channel);
+            file.force(true);
+        } catch (Exception e) {
+            deleteQuietly(staged);
+            throw e;
+        }
+        long size = counter.getProcessedBytes();
+        // Un bloqueo o un checkpoint no deben ver la unidad a medio reemplazar
+        synchronized (persistLock) {
+            if (!unlocked) {
+                deleteQuietly(staged);
+                checkUnlocked();
+            }
+            commit(staged, target);
+            long blobSize = Files.size(target);
+            FileContent previous = decryptedFiles.get(path);
+            Map<String, VaultManifest.Entry> written = new HashMap<>();
+            if (withManifest) {
+                recordBlob(path, previous, target, null, blobSize, size, digest.digest(), written);
+            }
+            FileContent stored = new LazyFileContent(new EncryptedFile(path, target, blobSize), size, backingStore);
+            VaultJournal activeJournal = journal;
+            long logged = 0;
+            // Las escrituras de la unidad toman el monitor del contenido mientras escriben y se
+            // registran: ninguna puede quedar en el diario después del reemplazo si se aplicó al anterior
+            synchronized (previous != null ? previous : stored) {
+                if (activeJournal != null) {
+                    logged = activeJournal.logStore(written.get(path));
+                }
+                decryptedFiles.put(path, stored);
+            }
+            if (previous != null) {
+                previous.release();
+            }
+            if (activeJournal != null) {
+                activeJournal.sync(logged);
+            } else if (withManifest) {
+                List<String> errores = new ArrayList<>();
+                writeManifest(written, errores);
+                if (!errores.isEmpty()) {
+                    throw new IOException(String.join("; ", errores));
+                }
+            }
+        }
+        System.out.println("Archivo guardado en la unidad: " + path + " (" + size + " bytes)");
+        return size;
+    }
+
+    /**
+     * Copia a un canal un rango de un archivo de la unidad, por bloques. Los archivos grandes que
+     * no están en memoria se descifran solo en los segmentos que cubre el rango, de modo que la
+     * memoria usada no depende del tamaño del archivo.
+     *
+     * @param path Ruta en la unidad.
+     * @param offset Posición inicial del rango.
+     * @param length Bytes a copiar como máximo.
+     * @param out Canal de destino.
+     * @return Bytes copiados (menos que length si el archivo termina antes).
+     * @throws IllegalStateException Si la bóveda no está desbloqueada.
+     * @throws NoSuchFileException Si el archivo no existe en la unidad.
+     * @throws IOException Si no se pudo leer el archivo o escribir en el canal.
+     */
+    public long readFile(String path, long offset, long length, WritableByteChannel out) throws IOException {
+        checkUnlocked();
+        FileContent content = decryptedFiles.get(path);
+        if (content == null) {
+            throw new NoSuchFileException(path);
+        }
+        return readFile(content, offset, length, out);
+    }
+
+    /**
+     * Copia a un canal un rango de un contenido ya obtenido de la unidad, por bloques (ver
+     * readFile(String, long, long, WritableByteChannel)). Permite leer el mismo contenido cuyo
+     * tamaño se consultó aunque la ruta se reemplace mientras tanto.
+     *
+     * @param content Contenido de un archivo de la unidad.
+     * @param offset Posición inicial del rango.
+     * @param length Bytes a copiar como máximo.
+     * @param out Canal de destino.
+     * @return Bytes copiados (menos que length si el contenido termina antes).
+     * @throws IllegalStateException Si la bóveda no está desbloqueada.
+     * @throws IOException Si no se pudo leer el contenido o escribir en el canal.
+     */
+    public long readFile(FileContent content, long offset, long length, WritableByteChannel out) throws IOException {
+        checkUnlocked();
+        ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+        long position = offset;
+        long end = offset + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int n = content.read(position, buffer);
+            if (n <= 0) {
+                break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            position += n;
+        }
+        return position - offset;
+    }
+
+    private void checkUnlocked() {
+        if (!unlocked) {
+            throw new IllegalStateException("La bóveda no está desbloqueada");
+        }
+    }
+
+    /**
+     * Indica si la ruta es válida para un archivo de la unidad: relativa, sin componentes vacíos,
+     * "." ni "..", y sin nombres de uso interno de la bóveda.
+     */
+    private static boolean isValidDrivePath(String path) {
+        if (path == null || path.isEmpty()) {
+            return false;
+        }
+        for (String part : path.split(Pattern.quote(String.valueOf(FileTree.SEPARATOR)), -1)) {
+            if (part.isEmpty() || part.equals(".") || part.equals("..") || part.startsWith(INTERNAL_PREFIX)
+                    || part.indexOf('/') >= 0 || part.indexOf(':') >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Retorna los bytes de texto plano que la bóveda mantiene actualmente en memoria.
+     *
+     * @return Bytes en uso.
+     */
+    public long getMemoryUsedBytes() {
+        return pageAllocator.usedBytes();
+    }
+
+    /**
+     * Retorna el presupuesto de memoria de la bóveda, o Long.MAX_VALUE si no hay límite.
+     *
+     * @return Presupuesto en bytes.
+     */
+    public long getMemoryBudgetBytes() {
+        return pageAllocator.budgetBytes();
+    }
+
+    /**
+     * Retorna el avance del último desbloqueo (o del que está en curso).
      *
-     * Lee los archivos cifrados (se asume que tienen la extensión ".cv", de forma insensible a mayúsculas)
-     * de la ruta indicada, los descifra utilizando EncryptionService y los carga en el mapa de archivos descifrados.
+     * @return Archivos totales, desbloqueados y con error.
+     */
+    public UnlockProgress getUnlockProgress() {
+        return unlockProgress;
+    }
+
+    /**
+     * Desbloquea la bóveda registrando el avance en getUnlockProgress().
      *
      * @throws Exception Si ocurre algún error durante la lectura o el descifrado.
+     * @see #unlock(UnlockListener)
      */
     public void unlock() throws Exception {
+        UnlockProgress progress = new UnlockProgress();
+        this.unlockProgress = progress;
+        unlock(progress);
+    }
+
+    /**
+     * Desbloquea la bóveda.
+     *
+     * Lee los archivos cifrados (se asume que tienen la extensión ".cv", o ".cvc" si están
+     * deduplicados, de forma insensible a mayúsculas) de la ruta indicada, los descifra utilizando
+     * EncryptionService y los carga en el mapa de archivos descifrados.
+     * Los archivos se descifran en paralelo, en un grupo de hilos acotado
+     * (VaultOptions.getUnlockThreads()), y cada uno se publica en la unidad en cuanto termina. Los
+     * archivos grandes se leen mapeados en memoria.
+     *
+     * En modo diferido (VaultOptions.isLazyUnlock()) solo se registran el nombre y el tamaño de cada
+     * archivo; su contenido se descifra la primera vez que se lee o se escribe.
+     *
+     * Un archivo que no se puede descifrar no detiene el desbloqueo: se notifica al listener.
+     * Si quedó un diario de una sesión interrumpida, sus modificaciones se vuelven a aplicar.
+     * Si la importación inicial sigue en curso, se espera a que termine.
+     * Al terminar se inician los checkpoints en segundo plano
+     * (VaultOptions.getCheckpointIntervalMillis()).
+     *
+     * @param listener Recibe el avance y los errores por archivo.
+     * @throws Exception Si ocurre algún error al enumerar los archivos de la bóveda.
+     */
+    public void unlock(UnlockListener listener) throws Exception {
         // Validar que la ruta exista y sea un directorio.
         if (!Files.exists(vaultPath) || !Files.isDirectory(vaultPath)) {
             throw new IllegalArgumentException("La ruta de la bóveda no es válida: " + vaultPath);
         }
+        awaitImport();
 
-        // Utilizamos un DirectoryStream con un filtro para archivos que terminen en ".cv" (ignora mayúsculas/minúsculas)
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(vaultPath, entry -> {
-            String name = entry.getFileName().toString().toLowerCase();
-            return name.endsWith(ENCRYPTED_EXTENSION);
-        })) {
-            for (Path file : stream) {
-                String fileName = file.getFileName().toString();
-                // Eliminar la extensión de forma segura:
-                fileName = fileName.substring(0, fileName.length() - ENCRYPTED_EXTENSION.length());
+        // Descartar archivos de desalojo que hayan quedado de una sesión interrumpida
+        deleteSpillDirectory();
 
-                try (InputStream fis = Files.newInputStream(file);
-                     ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-                    encryptionService.decrypt(fis, alias, baos);
-                    decryptedFiles.put(fileName, baos);
-                    System.out.println("Archivo descifrado: " + fileName);
-                } catch (Exception e) {
-                    System.out.println( "Error al descifrar el archivo: " + file.getFileName());
+        // Los archivos del manifiesto se conocen sin abrirlos: nombre, blob y tamaños.
+        // Si una compactación de los paquetes está en curso, se espera a que reemplace el manifiesto.
+        Map<String, EncryptedFile> found = new LinkedHashMap<>();
+        synchronized (persistLock) {
+            blobEntries.clear();
+            VaultManifest current = null;
+            if (manifestEnabled || VaultManifest.exists(vaultPath)) {
+                current = VaultManifest.exists(vaultPath)
+                        ? VaultManifest.read(vaultPath, encryptionService, alias)
+                        : new VaultManifest(Collections.emptyList());
+                for (VaultManifest.Entry entry : current.entries()) {
+                    blobEntries.put(entry.blob, entry);
+                    found.put(entry.name, new EncryptedFile(entry.name, blobPathOf(entry), entry.blobSize));
                 }
             }
+            manifest = current;
+        }
+
+        // Se recorre en paralelo todo el árbol buscando archivos que terminen en ".cv" o ".cvc" (ignora mayúsculas/minúsculas).
+        // Con manifiesto, son los agregados a la bóveda desde fuera: reemplazan a la entrada del mismo nombre.
+        VaultWalker.Listing listing = VaultWalker.walk(vaultPath, entry -> baseNameOf(entry) != null, unlockThreads);
+        for (Map.Entry<Path, Long> file : listing.files().entrySet()) {
+            String name = driveNameOf(file.getKey());
+            found.put(name, new EncryptedFile(name, file.getKey(), file.getValue()));
+        }
+        // Las carpetas de la bóveda aparecen en la unidad aunque estén vacías
+        for (Path directory : listing.directoriesDeepestFirst()) {
+            decryptedFiles.createDirectory(drivePathOf(directory));
+        }
+        List<EncryptedFile> sources = new ArrayList<>(found.values());
+        listener.onStart(sources.size());
+
+        if (lazyUnlock) {
+            // Solo se enumeran los archivos; se descifrarán al primer acceso.
+            for (EncryptedFile source : sources) {
+                decryptedFiles.put(source.getOriginalName(), registerEncryptedFile(source));
+                listener.onFileUnlocked(source.getOriginalName());
+            }
+            openJournal();
+            unlocked = true;
+            checkpointScheduler.start();
+            listener.onFinish();
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(unlockThreads, Math.max(1, sources.size())),
+                newWorkerThreadFactory("vault-unlock-"));
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (EncryptedFile source : sources) {
+                tasks.add(pool.submit(() -> unlockFile(source, listener)));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        openJournal();
+        unlocked = true;
+        checkpointScheduler.start();
+        listener.onFinish();
+    }
+
+    /**
+     * Vuelve a aplicar el diario que haya quedado de una sesión interrumpida y, con el diario
+     * activado, lo abre para registrar las modificaciones de la unidad.
+     */
+    private void openJournal() throws IOException {
+        byte[] base = VaultManifest.fileHash(vaultPath);
+        if (VaultJournal.exists(vaultPath)) {
+            int applied = VaultJournal.replay(vaultPath, encryptionService, alias, base, decryptedFiles,
+                    this::newFileContent, this::storedContent);
+            if (applied >= 0) {
+                System.out.println("Diario de la bóveda aplicado: " + applied + " modificaciones recuperadas");
+            } else if (!journalEnabled) {
+                // Sus modificaciones ya están en el manifiesto
+                Files.delete(vaultPath.resolve(VaultJournal.FILE_NAME));
+            }
+        }
+        if (journalEnabled) {
+            journal = VaultJournal.open(vaultPath, encryptionService, alias, base);
+        }
+    }
+
+    /**
+     * Registra el blob de un archivo guardado con storeFile() que se recupera del diario, y crea
+     * su contenido diferido.
+     */
+    private FileContent storedContent(VaultManifest.Entry entry) {
+        blobEntries.put(entry.blob, entry);
+        return new LazyFileContent(new EncryptedFile(entry.name, blobPathOf(entry), entry.blobSize), entry.size,
+                backingStore);
+    }
+
+    /**
+     * Descifra un archivo y lo publica en la unidad virtual; los errores se notifican al listener.
+     *
+     * @param source Archivo cifrado.
+     * @param listener Receptor del avance.
+     */
+    private void unlockFile(EncryptedFile source, UnlockListener listener) {
+        LazyFileContent content = null;
+        try {
+            content = registerEncryptedFile(source);
+            content.preload();
+            decryptedFiles.put(source.getOriginalName(), content);
+            listener.onFileUnlocked(source.getOriginalName());
+        } catch (Exception e) {
+            if (content != null) {
+                content.release();
+            }
+            listener.onFileFailed(source.getOriginalName(), e);
+        }
+    }
+
+    /**
+     * Crea el contenido diferido de un archivo cifrado, con su tamaño descifrado (del tamaño del
+     * archivo o, si está comprimido, de su índice; de su receta si está deduplicado).
+     */
+    private LazyFileContent registerEncryptedFile(EncryptedFile source) throws IOException {
+        VaultManifest.Entry entry = entryOf(source.getFilePath());
+        long decryptedSize;
+        if (entry != null) {
+            decryptedSize = entry.size;
+        } else if (ChunkStore.isRecipe(source.getFilePath())) {
+            decryptedSize = chunkStore.recipe(source.getFilePath()).size();
+        } else {
+            decryptedSize = encryptionService.decryptedSize(source.getFilePath(), alias);
+        }
+        return new LazyFileContent(source, decryptedSize, backingStore);
+    }
+
+    /**
+     * Retorna la entrada del manifiesto del blob (o registro de un paquete) indicado, o null si el
+     * archivo no es un blob.
+     */
+    private VaultManifest.Entry entryOf(Path file) {
+        VaultManifest.Entry entry = blobEntries.get(file.getFileName().toString());
+        return entry != null && blobPathOf(entry).equals(file) ? entry : null;
+    }
+
+    /**
+     * Retorna la ruta del blob de una entrada del manifiesto: su archivo, o la ruta que identifica
+     * su registro si está en un paquete.
+     */
+    private Path blobPathOf(VaultManifest.Entry entry) {
+        return entry.isPacked()
+                ? packStore.recordPath(entry.pack, entry.blob)
+                : VaultManifest.blobDirectory(vaultPath).resolve(entry.blob);
+    }
+
+    /**
+     * Lee un blob cifrado completo; si es un registro de un paquete, se mapea su región.
+     */
+    private ByteBuffer readBlob(Path file) throws IOException {
+        VaultManifest.Entry entry = entryOf(file);
+        if (entry != null && entry.isPacked()) {
+            return packStore.map(entry.pack, entry.offset, entry.blobSize);
+        }
+        return ByteBuffer.wrap(Files.readAllBytes(file));
+    }
+
+    /**
+     * Indica si el archivo es de uso interno de la bóveda (manifiesto, blobs, fragmentos, desalojo).
+     */
+    static boolean isInternal(Path file) {
+        return file.getFileName().toString().startsWith(INTERNAL_PREFIX);
+    }
+
+    /**
+     * Retorna el nombre en la unidad de un archivo de la bóveda (sin ".cv" ni ".cvc"), o null si
+     * no es un archivo cifrado de la bóveda.
+     */
+    static String baseNameOf(Path file) {
+        String fileName = file.getFileName().toString();
+        String lower = fileName.toLowerCase();
+        for (String extension : new String[]{ENCRYPTED_EXTENSION, ChunkStore.RECIPE_EXTENSION}) {
+            if (lower.endsWith(extension)) {
+                return fileName.substring(0, fileName.length() - extension.length());
+            }
         }
+        return null;
+    }
+
+    static ThreadFactory newWorkerThreadFactory(String namePrefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Retorna el avance del último bloqueo (o del que está en curso), con su rendimiento.
+     *
+     * @return Archivos y bytes escritos, errores y tiempo transcurrido.
+     */
+    public LockProgress getLockProgress() {
+        return lockProgress;
+    }
+
+    /**
+     * Solicita cancelar el bloqueo en curso. Los archivos ya confirmados conservan su nueva
+     * versión, el resto conserva la anterior y la bóveda queda desbloqueada.
+     */
+    public void cancelLock() {
+        lockProgress.cancel();
+    }
+
+    /**
+     * Bloquea la bóveda registrando el avance en getLockProgress().
+     *
+     * @throws Exception Si ocurre algún error durante la encriptación o escritura en disco.
+     * @see #lock(LockListener)
+     */
+    public void lock() throws Exception {
+        LockProgress progress = new LockProgress();
+        this.lockProgress = progress;
+        lock(progress);
     }
 
     /**
@@ -133,70 +784,1085 @@ public class Vault implements VirtualDrive {
      *
      * Cifra cada archivo presente en el mapa de archivos descifrados utilizando EncryptionService,
      * persiste el resultado en disco (agregando la extensión ".cv") y limpia el mapa en memoria.
+     * Con la deduplicación activada, cada archivo se guarda como una receta ".cvc" y solo se
+     * escriben sus fragmentos nuevos; al final se eliminan los fragmentos que ya no se usan.
      *
+     * Solo se cifran los archivos nuevos o modificados: un archivo idéntico a su origen se deja
+     * intacto (o se copia cifrado si se renombró), uno desalojado se mueve desde el área de
+     * desalojo, y solo se eliminan los archivos .cv que ya no están en la unidad.
+     *
+     * Los archivos se cifran en paralelo (VaultOptions.getLockThreads()). Cada uno se escribe en
+     * un temporal que se sincroniza a disco y luego reemplaza de forma atómica al .cv anterior, de
+     * modo que una interrupción nunca deja un archivo a medio escribir. Los .cv sobrantes solo se
+     * eliminan cuando todas las escrituras se confirmaron sin errores.
+     *
+     * Antes de cifrar se detienen los checkpoints en segundo plano (cancelando el que esté en
+     * curso); si el bloqueo falla o se cancela, se reanudan. Como los checkpoints ya guardaron
+     * la mayoría de los cambios, normalmente solo quedan por escribir las últimas modificaciones.
+     *
+     * @param listener Recibe el avance y puede cancelar el bloqueo.
+     * @throws CancellationException Si el listener canceló el bloqueo; la bóveda sigue desbloqueada.
      * @throws Exception Si ocurre algún error durante la encriptación o escritura en disco.
      */
-    public void lock() throws Exception {
+    public void lock(LockListener listener) throws Exception {
+        // El bloqueo no debe competir con un checkpoint: se cancela el que esté en curso.
+        boolean checkpointsRunning = checkpointScheduler.stop();
+        boolean locked = false;
+        try {
+            synchronized (persistLock) {
+                lockLocked(listener);
+            }
+            locked = true;
+        } finally {
+            if (!locked && checkpointsRunning) {
+                checkpointScheduler.start();
+            }
+        }
+    }
+
+    private void lockLocked(LockListener listener) throws Exception {
         // Asegurar que la ruta de la bóveda exista.
         if (!Files.exists(vaultPath)) {
             Files.createDirectories(vaultPath);
         }
 
-        // Lista para acumular errores durante el procesamiento de archivos
-        List<String> errores = new ArrayList<>();
-
-        // Iterar sobre cada archivo descifrado en memoria y cifrarlo, sobreescribiendo el archivo original
-        for (Map.Entry<String, ByteArrayOutputStream> entry : decryptedFiles.entrySet()) {
-            String fileName = entry.getKey();
-            ByteArrayOutputStream baos = entry.getValue();
-            byte[] decryptedData = baos.toByteArray();
-
-            // Construir la ruta de salida para el archivo cifrado, agregando la extensión ".cv"
-            Path outputFile = vaultPath.resolve(fileName + ENCRYPTED_EXTENSION);
-
-            // Asegurarse de que el directorio destino existe
-            Path parentDir = outputFile.getParent();
-            if (parentDir != null && !Files.exists(parentDir)) {
-                Files.createDirectories(parentDir);
-            }
-
-            // Intentar cifrar y escribir el archivo
-            try (OutputStream fos = Files.newOutputStream(outputFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-                 ByteArrayInputStream bais = new ByteArrayInputStream(decryptedData)) {
-                encryptionService.encrypt(bais, alias, fos);
-                System.out.println("Archivo cifrado y guardado: " + outputFile);
-            } catch (Exception e) {
-                String errorMsg = "Error cifrando el archivo " + fileName + ": " + e.getMessage();
-                System.out.println(errorMsg);
-                errores.add(errorMsg);
-            }
-        }
+        List<String> errores = persist(listener, false, content -> true, lockThreads);
+        listener.onFinish();
 
         // Si se registraron errores, se lanza una excepción con todos ellos
         if (!errores.isEmpty()) {
             throw new Exception("Se produjeron errores durante el bloqueo de la Vault: " + String.join("; ", errores));
         }
 
-        // Eliminar los archivos cifrados en disco que no están presentes en decryptedFiles.
-        // Esto asegura que solo queden en disco los archivos que se cargaron en memoria.
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(vaultPath, "*" + ENCRYPTED_EXTENSION)) {
-            for (Path file : stream) {
-                String encryptedFileName = file.getFileName().toString();
-                // Extraer el nombre base quitando la extensión
-                if (encryptedFileName.endsWith(ENCRYPTED_EXTENSION)) {
-                    String baseName = encryptedFileName.substring(0, encryptedFileName.length() - ENCRYPTED_EXTENSION.length());
-                    if (!decryptedFiles.containsKey(baseName)) {
-                        Files.delete(file);
-                        System.out.println("Archivo eliminado (no presente en memoria): " + file);
-                    }
+        // Eliminar los archivos cifrados en disco que no están presentes en decryptedFiles, o que
+        // quedaron reemplazados por el otro formato (".cv" o ".cvc") del mismo archivo, en todo el
+        // árbol de la bóveda. Esto asegura que solo queden en disco los archivos que se cargaron en memoria.
+        List<Path> recipeFiles = new ArrayList<>();
+        try {
+            VaultWalker.Listing listing = VaultWalker.walk(vaultPath, entry -> baseNameOf(entry) != null, lockThreads);
+            for (Path file : listing.files().keySet()) {
+                FileContent content = decryptedFiles.get(driveNameOf(file));
+                boolean replaced = content instanceof LazyFileContent && ((LazyFileContent) content).getOrigin() != null
+                        && !((LazyFileContent) content).getOrigin().getFilePath().equals(file);
+                if (content == null || replaced) {
+                    Files.delete(file);
+                    System.out.println("Archivo eliminado (no presente en memoria): " + file);
+                } else if (ChunkStore.isRecipe(file)) {
+                    recipeFiles.add(file);
                 }
             }
+            syncDirectories(listing);
         } catch (IOException ioex) {
             System.out.println("Error eliminando archivos sobrantes: " + ioex.getMessage());
         }
+        VaultManifest current = manifest;
+        if (current != null) {
+            deleteUnreferencedBlobs(current);
+            for (VaultManifest.Entry entry : current.entries()) {
+                if (entry.blob.endsWith(ChunkStore.RECIPE_EXTENSION)) {
+                    recipeFiles.add(blobPathOf(entry));
+                }
+            }
+        }
+        collectChunks(recipeFiles);
 
-        // Limpiar la memoria una vez que se han procesado correctamente los archivos.
+        // Limpiar la memoria una vez que se han procesado correctamente los archivos:
+        // cada página se borra y se devuelve al asignador, que libera las que conserva.
+        for (FileContent content : decryptedFiles.values()) {
+            content.release();
+        }
         decryptedFiles.clear();
+        unlocked = false;
+        residencyManager.clear();
+        pageAllocator.clear();
+        deleteSpillDirectory();
+        chunkStore.clear();
+        blobEntries.clear();
+        manifest = null;
+        packStore.close();
+        // Todas las modificaciones están en el manifiesto: el diario ya no hace falta
+        VaultJournal finished = journal;
+        journal = null;
+        if (finished != null) {
+            finished.close(true);
+        } else {
+            Files.deleteIfExists(vaultPath.resolve(VaultJournal.FILE_NAME));
+        }
+
+        // El espacio muerto de los paquetes se recupera en segundo plano, con la bóveda bloqueada.
+        if (Files.isDirectory(packStore.directory())) {
+            Thread compaction = newWorkerThreadFactory("vault-compaction-").newThread(this::compactPacks);
+            compaction.setPriority(Thread.MIN_PRIORITY);
+            compaction.start();
+        }
+    }
+
+    /**
+     * Compacta los paquetes de la bóveda bloqueada: elimina los que ya no tienen registros en uso y
+     * copia los registros vivos de los que son al menos la mitad espacio muerto a un paquete nuevo,
+     * sin volver a cifrarlos. El manifiesto se reemplaza antes de eliminar los paquetes anteriores,
+     * de modo que una interrupción deja la bóveda intacta.
+     *
+     * Se ejecuta en segundo plano después de cada bloqueo; un desbloqueo espera a que termine. Si
+     * la bóveda está desbloqueada no hace nada.
+     *
+     * @return Bytes recuperados.
+     */
+    public long compactPacks() {
+        synchronized (persistLock) {
+            if (manifest != null || !Files.isDirectory(packStore.directory()) || !VaultManifest.exists(vaultPath)) {
+                return 0;
+            }
+            try {
+                VaultManifest current = VaultManifest.read(vaultPath, encryptionService, alias);
+                Map<String, Long> liveBytes = new HashMap<>();
+                for (VaultManifest.Entry entry : current.entries()) {
+                    if (entry.isPacked()) {
+                        liveBytes.merge(entry.pack, entry.blobSize, Long::sum);
+                    }
+                }
+                List<String> obsolete = new ArrayList<>();
+                Set<String> sparse = new HashSet<>();
+                long reclaimed = 0;
+                for (Map.Entry<String, Long> pack : packStore.packSizes().entrySet()) {
+                    long live = liveBytes.getOrDefault(pack.getKey(), 0L);
+                    long dead = pack.getValue() - live;
+                    if (live == 0) {
+                        obsolete.add(pack.getKey());
+                        reclaimed += dead;
+                    } else if (dead >= PACKED_FILE_THRESHOLD && dead * 2 >= pack.getValue()) {
+                        sparse.add(pack.getKey());
+                        reclaimed += dead;
+                    }
+                }
+                if (!sparse.isEmpty()) {
+                    packStore.startNewPack();
+                    List<VaultManifest.Entry> entries = new ArrayList<>();
+                    for (VaultManifest.Entry entry : current.entries()) {
+                        if (entry.isPacked() && sparse.contains(entry.pack)) {
+                            PackStore.Location location = packStore.append(
+                                    packStore.map(entry.pack, entry.offset, entry.blobSize));
+                            entry = entry.moved(location.pack, location.offset);
+                        }
+                        entries.add(entry);
+                    }
+                    packStore.force();
+                    new VaultManifest(entries).write(vaultPath, encryptionService, alias);
+                    obsolete.addAll(sparse);
+                }
+                packStore.close();
+                for (String pack : obsolete) {
+                    packStore.delete(pack);
+                }
+                if (reclaimed > 0) {
+                    System.out.println("Paquetes compactados: " + obsolete.size() + " reemplazados, "
+                            + reclaimed + " bytes recuperados");
+                }
+                return reclaimed;
+            } catch (Exception e) {
+                packStore.close();
+                System.out.println("Error compactando los paquetes de la bóveda: " + e.getMessage());
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Elimina los blobs que el manifiesto ya no usa: versiones reemplazadas, archivos eliminados y
+     * temporales de una escritura interrumpida.
+     */
+    private void deleteUnreferencedBlobs(VaultManifest current) {
+        Path blobDirectory = VaultManifest.blobDirectory(vaultPath);
+        if (!Files.isDirectory(blobDirectory)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(blobDirectory)) {
+            for (Path blob : stream) {
+                if (!current.references(blob.getFileName().toString())) {
+                    Files.delete(blob);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error eliminando blobs sin uso: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Elimina los fragmentos que no usa ninguna de las recetas de la bóveda. Si alguna receta no
+     * se puede leer no se elimina nada, para no perder fragmentos que podría usar.
+     */
+    private void collectChunks(List<Path> recipeFiles) {
+        try {
+            List<ChunkStore.Recipe> live = new ArrayList<>();
+            for (Path recipeFile : recipeFiles) {
+                live.add(chunkStore.recipe(recipeFile));
+            }
+            chunkStore.collectGarbage(live);
+        } catch (IOException e) {
+            System.out.println("Error eliminando fragmentos sin uso: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Guarda en disco, sin bloquear la bóveda, todos los archivos nuevos o modificados.
+     *
+     * La unidad sigue montada y utilizable mientras tanto: cada archivo se cifra en un temporal
+     * y se confirma de forma atómica, y pasa a ser el nuevo origen de su contenido, que queda
+     * limpio si no se modificó durante el cifrado. Así, un bloqueo posterior solo escribe lo que
+     * cambió después. Los archivos eliminados de la unidad recién se eliminan del disco al bloquear
+     * (con manifiesto, dejan de figurar en él, pero sus blobs se eliminan al bloquear).
+     *
+     * @return Avance del checkpoint: archivos y bytes escritos, y errores por archivo.
+     * @throws Exception Si ocurre algún error al preparar los archivos.
+     */
+    public LockProgress checkpoint() throws Exception {
+        LockProgress progress = new LockProgress();
+        checkpoint(progress, content -> true);
+        return progress;
+    }
+
+    /**
+     * Guarda en disco los archivos sucios que acepta el filtro, usando un solo hilo para no
+     * competir con la unidad virtual. Los errores se notifican al listener.
+     *
+     * @param listener Recibe el avance, limita el ritmo y puede cancelar el checkpoint.
+     * @param eligible Filtro de los archivos sucios a guardar.
+     * @throws CancellationException Si el listener canceló el checkpoint.
+     * @throws Exception Si ocurre algún error al preparar los archivos.
+     */
+    void checkpoint(LockListener listener, Predicate<LazyFileContent> eligible) throws Exception {
+        synchronized (persistLock) {
+            if (decryptedFiles.isEmpty() || !Files.isDirectory(vaultPath)) {
+                return;
+            }
+            persist(listener, true, eligible, 1);
+            listener.onFinish();
+        }
+    }
+
+    /**
+     * Cifra y confirma en disco los archivos nuevos o modificados de la unidad.
+     *
+     * Primero se copian los archivos sin cambios que se renombraron, a un temporal: su origen
+     * puede ser el destino de otro archivo que se escribirá a continuación. Si alguna copia falla,
+     * no se escribe nada más. Luego se cifran en paralelo los archivos sucios y, al final, las
+     * copias se llevan a su nombre definitivo.
+     *
+     * Con manifiesto, cada archivo se escribe en un blob nuevo (un archivo sin cambios que se
+     * renombró no se copia: solo cambia su entrada) y al final se reemplaza el manifiesto, aunque
+     * la operación haya fallado o se haya cancelado, para registrar lo que sí se escribió. Con
+     * diario, el manifiesto solo se reemplaza si se puede vaciar el diario a la vez
+     * (checkpointManifest()).
+     *
+     * @param listener Recibe el avance y puede cancelar la operación.
+     * @param checkpoint true si la unidad sigue montada (checkpoint); false al bloquear.
+     * @param eligible Filtro de los archivos sucios a escribir (en un checkpoint, solo contenidos diferidos).
+     * @param threads Hilos para cifrar en paralelo.
+     * @return Errores por archivo.
+     * @throws CancellationException Si el listener canceló la operación.
+     */
+    private List<String> persist(LockListener listener, boolean checkpoint, Predicate<LazyFileContent> eligible,
+                                 int threads) throws Exception {
+        // Lista para acumular errores durante el procesamiento de archivos
+        List<String> errores = Collections.synchronizedList(new ArrayList<>());
+        int unchanged = 0;
+
+        // Se toma una instantánea de las rutas: en un checkpoint la unidad puede cambiar mientras tanto.
+        List<StagedCopy> stagedCopies = new ArrayList<>();
+        List<Map.Entry<String, FileContent>> pending = new ArrayList<>();
+        long pendingBytes = 0;
+        // Con manifiesto, entradas de los archivos escritos por nombre
+        boolean withManifest = manifest != null;
+        Map<String, VaultManifest.Entry> written = new ConcurrentHashMap<>();
+        VaultJournal activeJournal = journal;
+        long journalStart = activeJournal != null ? activeJournal.position() : 0;
+        if (withManifest) {
+            Files.createDirectories(VaultManifest.blobDirectory(vaultPath));
+        }
+        for (Map.Entry<String, FileContent> entry : decryptedFiles.entrySet()) {
+            String fileName = entry.getKey();
+            FileContent content = entry.getValue();
+            if (!isUnchanged(content)) {
+                boolean lazy = content instanceof LazyFileContent;
+                if (lazy ? eligible.test((LazyFileContent) content) : !checkpoint) {
+                    pending.add(new AbstractMap.SimpleImmutableEntry<>(fileName, content));
+                    pendingBytes += content.size();
+                }
+                continue;
+            }
+            unchanged++;
+            LazyFileContent lazy = (LazyFileContent) content;
+            long generation = lazy.getGeneration();
+            Path originFile = lazy.getOrigin().getFilePath();
+            if (withManifest) {
+                VaultManifest.Entry originEntry = entryOf(originFile);
+                boolean toPack = packs(ChunkStore.isRecipe(originFile), lazy.size());
+                if (originEntry != null && originEntry.isPacked() == toPack) {
+                    // El manifiesto registra el nombre nuevo; el blob no cambia.
+                    continue;
+                }
+                if (toPack) {
+                    // Se agrega al paquete una copia del archivo cifrado, sin volver a cifrarlo.
+                    try {
+                        packCopy(fileName, lazy, generation, originFile, written);
+                    } catch (IOException e) {
+                        String errorMsg = "Error copiando el archivo " + fileName + ": " + e.getMessage();
+                        System.out.println(errorMsg);
+                        errores.add(errorMsg);
+                        listener.onFileFailed(fileName, e);
+                    }
+                    continue;
+                }
+            }
+            Path outputFile = withManifest
+                    ? newBlobPath(ChunkStore.isRecipe(originFile))
+                    : outputPathOf(fileName, ChunkStore.isRecipe(originFile));
+            if (!originFile.equals(outputFile)) {
+                Path staged = stagingPathOf(outputFile);
+                try {
+                    copyBlob(originFile, staged);
+                    fsync(staged);
+                    stagedCopies.add(new StagedCopy(fileName, lazy, generation, staged, outputFile));
+                } catch (IOException e) {
+                    Files.deleteIfExists(staged);
+                    String errorMsg = "Error copiando el archivo " + fileName + ": " + e.getMessage();
+                    System.out.println(errorMsg);
+                    errores.add(errorMsg);
+                    listener.onFileFailed(fileName, e);
+                }
+            }
+        }
+        if (!errores.isEmpty()) {
+            // Escribir otros archivos podría sobrescribir el origen de una copia fallida.
+            for (StagedCopy copy : stagedCopies) {
+                Files.deleteIfExists(copy.staged);
+            }
+            return errores;
+        }
+
+        // Cifrar en paralelo los archivos nuevos o modificados
+        listener.onStart(pending.size(), pendingBytes);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, pending.size())),
+                newWorkerThreadFactory(checkpoint ? "vault-checkpoint-" : "vault-lock-"));
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (Map.Entry<String, FileContent> entry : pending) {
+                tasks.add(pool.submit(() -> lockFile(entry.getKey(), entry.getValue(), listener, errores, checkpoint,
+                        withManifest ? written : null)));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (listener.isCancelled()) {
+            for (StagedCopy copy : stagedCopies) {
+                Files.deleteIfExists(copy.staged);
+            }
+            if (activeJournal != null) {
+                checkpointManifest(activeJournal, journalStart, written, errores, checkpoint);
+            } else if (withManifest) {
+                writeManifest(written, errores);
+            }
+            listener.onFinish();
+            throw new CancellationException("El bloqueo de la Vault se canceló; la bóveda sigue desbloqueada.");
+        }
+
+        // Llevar las copias a su nombre definitivo
+        for (StagedCopy copy : stagedCopies) {
+            try {
+                commit(copy.staged, copy.target);
+                if (withManifest) {
+                    recordBlob(copy.fileName, copy.content, copy.target, null, Files.size(copy.target),
+                            copy.content.size(), VaultManifest.hashOf(copy.target), written);
+                }
+                copy.content.markPersisted(new EncryptedFile(copy.fileName, copy.target, Files.size(copy.target)),
+                        copy.generation);
+            } catch (IOException e) {
+                String errorMsg = "Error renombrando el archivo " + copy.target.getFileName() + ": " + e.getMessage();
+                System.out.println(errorMsg);
+                errores.add(errorMsg);
+            }
+        }
+        if (activeJournal != null) {
+            boolean restarted = checkpointManifest(activeJournal, journalStart, written, errores, checkpoint);
+            if (!checkpoint && !restarted && errores.isEmpty()) {
+                // Al bloquear el diario se elimina: el manifiesto tiene que incluir todos los cambios
+                errores.add("La unidad se modificó durante el bloqueo; el diario de la bóveda no se pudo vaciar");
+            }
+        } else if (withManifest) {
+            writeManifest(written, errores);
+        }
+        if (!checkpoint) {
+            System.out.println("Archivos sin cambios (no se volvieron a cifrar): " + unchanged);
+        }
+        return errores;
+    }
+
+    /**
+     * Reemplaza el manifiesto por uno con los archivos actuales de la unidad que tienen una
+     * versión en un blob: la recién escrita o, si no se escribió, la de su origen (con el nombre
+     * actual). Si no cambió nada no se escribe.
+     *
+     * @param written Entradas de los archivos escritos en esta operación, por nombre.
+     * @param errores Errores acumulados; se agrega el del manifiesto si no se pudo escribir.
+     */
+    private void writeManifest(Map<String, VaultManifest.Entry> written, List<String> errores) {
+        // Los registros agregados a los paquetes deben ser durables antes que el manifiesto que los usa
+        try {
+            packStore.force();
+        } catch (IOException e) {
+            String errorMsg = "Error sincronizando los paquetes de la bóveda: " + e.getMessage();
+            System.out.println(errorMsg);
+            errores.add(errorMsg);
+            return;
+        }
+        List<VaultManifest.Entry> entries = new ArrayList<>();
+        for (Map.Entry<String, FileContent> file : decryptedFiles.entrySet()) {
+            String fileName = file.getKey();
+            FileContent content = file.getValue();
+            VaultManifest.Entry entry = null;
+            if (content instanceof LazyFileContent) {
+                EncryptedFile origin = ((LazyFileContent) content).getOrigin();
+                entry = origin != null ? entryOf(origin.getFilePath()) : null;
+            } else {
+                entry = written.get(fileName);
+            }
+            if (entry != null) {
+                entries.add(entry.renamed(fileName));
+            }
+        }
+        VaultManifest next = new VaultManifest(entries);
+        if (next.equals(manifest) && VaultManifest.exists(vaultPath)) {
+            return;
+        }
+        try {
+            next.write(vaultPath, encryptionService, alias);
+            manifest = next;
+        } catch (Exception e) {
+            String errorMsg = "Error escribiendo el manifiesto de la bóveda: " + e.getMessage();
+            System.out.println(errorMsg);
+            errores.add(errorMsg);
+        }
+    }
+
+    /**
+     * Reemplaza el manifiesto y vacía el diario, si desde el comienzo de la operación no se agregó
+     * nada al diario y (en un checkpoint) todos los archivos de la unidad tienen su versión actual
+     * en un blob. Si no,
+     * el manifiesto no cambia: el diario sigue aplicándose sobre él y los blobs escritos se
+     * registran en un checkpoint posterior o al bloquear.
+     *
+     * @param activeJournal Diario de la bóveda.
+     * @param start Posición del diario al comenzar la operación.
+     * @param written Entradas de los archivos escritos en esta operación, por nombre.
+     * @param errores Errores acumulados; se agrega el del diario si no se pudo vaciar.
+     * @param checkpoint true si la unidad sigue montada (checkpoint); false al bloquear.
+     * @return true si se vació el diario.
+     */
+    private boolean checkpointManifest(VaultJournal activeJournal, long start, Map<String, VaultManifest.Entry> written,
+                                       List<String> errores, boolean checkpoint) {
+        if (!errores.isEmpty()) {
+            return false;
+        }
+        try {
+            return activeJournal.restartIfUnchanged(start, () -> {
+                if (checkpoint) {
+                    for (FileContent content : decryptedFiles.values()) {
+                        if (!isUnchanged(content)) {
+                            return null;
+                        }
+                    }
+                }
+                writeManifest(written, errores);
+                return errores.isEmpty() ? VaultManifest.fileHash(vaultPath) : null;
+            });
+        } catch (Exception e) {
+            String errorMsg = "Error vaciando el diario de la bóveda: " + e.getMessage();
+            System.out.println(errorMsg);
+            errores.add(errorMsg);
+            return false;
+        }
+    }
+
+    /**
+     * Registra la entrada del blob recién confirmado de un archivo. La fecha de creación y los
+     * atributos se conservan de la versión anterior, si estaba en un blob.
+     *
+     * @param location Paquete y posición del registro, o null si el blob es un archivo propio.
+     */
+    private void recordBlob(String fileName, FileContent content, Path blob, PackStore.Location location,
+                            long blobSize, long size, byte[] hash, Map<String, VaultManifest.Entry> written) {
+        VaultManifest.Entry previous = null;
+        if (content instanceof LazyFileContent && ((LazyFileContent) content).getOrigin() != null) {
+            previous = entryOf(((LazyFileContent) content).getOrigin().getFilePath());
+        }
+        long now = System.currentTimeMillis();
+        VaultManifest.Entry entry = new VaultManifest.Entry(fileName, blob.getFileName().toString(),
+                location != null ? location.pack : "", location != null ? location.offset : 0, size, blobSize,
+                previous != null ? previous.created : now, now, previous != null ? previous.attributes : 0, hash);
+        blobEntries.put(entry.blob, entry);
+        written.put(fileName, entry);
+    }
+
+    /**
+     * Indica si, con paquetes, un archivo se guarda como registro de un paquete: los pequeños y las
+     * recetas de los deduplicados.
+     */
+    private boolean packs(boolean recipe, long size) {
+        return packFiles && (recipe || size <= PACKED_FILE_THRESHOLD);
+    }
+
+    /**
+     * Copia a un paquete la versión cifrada de un archivo sin cambios, verificando antes que sea la
+     * del manifiesto, y la registra como su nuevo origen.
+     */
+    private void packCopy(String fileName, LazyFileContent content, long generation, Path originFile,
+                          Map<String, VaultManifest.Entry> written) throws IOException {
+        ByteBuffer record = readBlob(originFile);
+        long blobSize = record.remaining();
+        byte[] hash = VaultManifest.hashOf(record);
+        VaultManifest.Entry originEntry = entryOf(originFile);
+        if (originEntry != null) {
+            verifyBlob(originEntry, hash);
+        }
+        PackStore.Location location = packStore.append(record);
+        String blob = VaultManifest.newBlobName(ChunkStore.isRecipe(originFile)
+                ? ChunkStore.RECIPE_EXTENSION : ENCRYPTED_EXTENSION);
+        Path outputFile = packStore.recordPath(location.pack, blob);
+        recordBlob(fileName, content, outputFile, location, blobSize, content.size(), hash, written);
+        content.markPersisted(new EncryptedFile(fileName, outputFile, blobSize), generation);
+    }
+
+    /**
+     * Copia un blob cifrado (un archivo o un registro de un paquete) en el archivo indicado. Si es
+     * un blob del manifiesto, se verifica que sea la versión registrada.
+     */
+    private void copyBlob(Path blob, Path target) throws IOException {
+        VaultManifest.Entry entry = entryOf(blob);
+        if (entry == null || !entry.isPacked()) {
+            Files.copy(blob, target, StandardCopyOption.REPLACE_EXISTING);
+            return;
+        }
+        ByteBuffer record = readBlob(blob);
+        verifyBlob(entry, VaultManifest.hashOf(record));
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (record.hasRemaining()) {
+                out.write(record);
+            }
+        }
+    }
+
+    /**
+     * Retorna la ruta de un blob nuevo, con un nombre aleatorio.
+     */
+    private Path newBlobPath(boolean recipe) {
+        return VaultManifest.blobDirectory(vaultPath)
+                .resolve(VaultManifest.newBlobName(recipe ? ChunkStore.RECIPE_EXTENSION : ENCRYPTED_EXTENSION));
+    }
+
+    /**
+     * Cifra un archivo en un temporal, lo sincroniza a disco y lo confirma reemplazando el .cv.
+     * Los errores se acumulan y se notifican al listener; el .cv anterior queda intacto.
+     *
+     * En un checkpoint, si el archivo cambió o se eliminó mientras se cifraba, el temporal se
+     * descarta: el archivo sigue sucio y se guardará más adelante.
+     *
+     * Con manifiesto (written no nulo), el archivo se escribe en un blob nuevo y su entrada se
+     * registra en written; con paquetes, si es pequeño, se agrega como registro de un paquete.
+     */
+    private void lockFile(String fileName, FileContent content, LockListener listener, List<String> errores,
+                          boolean checkpoint, Map<String, VaultManifest.Entry> written) {
+        if (listener.isCancelled()) {
+            return;
+        }
+        LazyFileContent lazy = content instanceof LazyFileContent ? (LazyFileContent) content : null;
+        // Generación que refleja lo que se va a escribir
+        long generation = lazy != null ? lazy.getGeneration() : 0;
+        Path tempFile = null;
+        try {
+            // Construir la ruta de salida para el archivo cifrado, agregando la extensión ".cv" (".cvc" si se deduplica)
+            Path outputFile = written != null ? newBlobPath(deduplication) : outputPathOf(fileName, deduplication);
+            if (written != null && packs(deduplication, content.size())) {
+                lockPacked(fileName, content, outputFile.getFileName().toString(), listener, checkpoint, written);
+                return;
+            }
+
+            // Un archivo desalojado ya tiene su versión cifrada en el área de desalojo:
+            // no hace falta descifrarlo para volver a cifrarlo.
+            if (lazy != null && !deduplication && persistSpilled(lazy, outputFile, checkpoint)) {
+                if (written != null) {
+                    recordBlob(fileName, lazy, outputFile, null, Files.size(outputFile), lazy.size(),
+                            VaultManifest.hashOf(outputFile), written);
+                }
+                lazy.markPersisted(new EncryptedFile(fileName, outputFile, Files.size(outputFile)), generation);
+                listener.onFileLocked(fileName, content.size());
+                return;
+            }
+
+            // Si el archivo se modificó en el lugar, se reutilizan los segmentos que no cambiaron.
+            BitSet changedSegments = lazy != null ? lazy.getChangedSegments() : null;
+            EncryptedFile origin = lazy != null ? lazy.getOrigin() : null;
+            // Con manifiesto, el origen es la versión anterior en su blob (no una de otro formato).
+            VaultManifest.Entry originEntry = origin != null ? entryOf(origin.getFilePath()) : null;
+            boolean sameFile = origin != null && (written != null
+                    ? originEntry != null && !originEntry.isPacked() && !ChunkStore.isRecipe(origin.getFilePath())
+                    : origin.getFilePath().equals(outputFile));
+            boolean incremental = !deduplication && changedSegments != null && sameFile
+                    && Files.exists(origin.getFilePath());
+
+            tempFile = stagingPathOf(outputFile);
+            ChunkStore.Recipe recipe = null;
+            MessageDigest digest = written != null ? VaultManifest.newDigest() : null;
+            long size = content.size();
+            try (FileChannel file = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                WritableByteChannel channel = digest != null ? VaultManifest.hashWrites(file, digest) : file;
+                if (deduplication) {
+                    // Solo se escriben los fragmentos que no están en el almacén
+                    recipe = chunkStore.write(cancellable(content.newReadableChannel(), listener), channel);
+                } else if (incremental) {
+                    encryptionService.reencrypt(origin.getFilePath(), (position, dst) -> {
+                        checkCancelled(listener);
+                        int n = content.read(position, dst);
+                        if (n > 0) {
+                            listener.onProgress(n);
+                        }
+                        return n;
+                    }, size, changedSegments, alias, channel);
+                } else {
+                    encryptionService.encrypt(cancellable(content.newReadableChannel(), listener), alias, channel);
+                }
+                file.force(true);
+            }
+            if (checkpoint && ((lazy != null && lazy.getGeneration() != generation)
+                    || decryptedFiles.get(fileName) != content)) {
+                deleteQuietly(tempFile);
+                return;
+            }
+            commit(tempFile, outputFile);
+            if (recipe != null) {
+                chunkStore.remember(outputFile, recipe);
+            }
+            if (written != null) {
+                recordBlob(fileName, content, outputFile, null, Files.size(outputFile),
+                        recipe != null ? recipe.size() : size, digest.digest(), written);
+            }
+            if (lazy != null) {
+                lazy.markPersisted(new EncryptedFile(fileName, outputFile, Files.size(outputFile)), generation);
+            }
+            System.out.println("Archivo cifrado y guardado: " + outputFile);
+            listener.onFileLocked(fileName, content.size());
+        } catch (CancellationException e) {
+            deleteQuietly(tempFile);
+        } catch (Exception e) {
+            deleteQuietly(tempFile);
+            String errorMsg = "Error cifrando el archivo " + fileName + ": " + e.getMessage();
+            System.out.println(errorMsg);
+            errores.add(errorMsg);
+            listener.onFileFailed(fileName, e);
+        }
+    }
+
+    /**
+     * Cifra un archivo en memoria y lo agrega como registro de un paquete. El registro queda
+     * confirmado al sincronizar los paquetes, antes de escribir el manifiesto (writeManifest()).
+     *
+     * @param blob Nombre del blob del registro.
+     */
+    private void lockPacked(String fileName, FileContent content, String blob, LockListener listener,
+                            boolean checkpoint, Map<String, VaultManifest.Entry> written) throws Exception {
+        LazyFileContent lazy = content instanceof LazyFileContent ? (LazyFileContent) content : null;
+        long generation = lazy != null ? lazy.getGeneration() : 0;
+        long size = content.size();
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        MessageDigest digest = VaultManifest.newDigest();
+        WritableByteChannel channel = VaultManifest.hashWrites(Channels.newChannel(record), digest);
+        ChunkStore.Recipe recipe = null;
+        if (deduplication) {
+            recipe = chunkStore.write(cancellable(content.newReadableChannel(), listener), channel);
+        } else {
+            encryptionService.encrypt(cancellable(content.newReadableChannel(), listener), alias, channel);
+        }
+        if (checkpoint && ((lazy != null && lazy.getGeneration() != generation)
+                || decryptedFiles.get(fileName) != content)) {
+            return;
+        }
+        PackStore.Location location = packStore.append(ByteBuffer.wrap(record.toByteArray()));
+        Path outputFile = packStore.recordPath(location.pack, blob);
+        if (recipe != null) {
+            chunkStore.remember(outputFile, recipe);
+        }
+        recordBlob(fileName, content, outputFile, location, record.size(), recipe != null ? recipe.size() : size,
+                digest.digest(), written);
+        if (lazy != null) {
+            lazy.markPersisted(new EncryptedFile(fileName, outputFile, record.size()), generation);
+        }
+        System.out.println("Archivo cifrado y guardado: " + outputFile);
+        listener.onFileLocked(fileName, size);
+    }
+
+    /**
+     * Envuelve un canal para que cada lectura verifique si el bloqueo se canceló e informe el avance.
+     */
+    static ReadableByteChannel cancellable(ReadableByteChannel in, LockListener listener) {
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                checkCancelled(listener);
+                int n = in.read(dst);
+                if (n > 0) {
+                    listener.onProgress(n);
+                }
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return in.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+
+    private static void checkCancelled(LockListener listener) {
+        if (listener.isCancelled()) {
+            throw new CancellationException("Bloqueo cancelado");
+        }
+    }
+
+    /**
+     * Reemplaza el archivo de destino por el temporal con un renombrado atómico (si el sistema
+     * de archivos no lo soporta, con un renombrado simple).
+     */
+    static void commit(Path tempFile, Path target) throws IOException {
+        try {
+            Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Fuerza a disco el contenido de un archivo ya escrito.
+     */
+    private static void fsync(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.out.println("Error eliminando el temporal " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Retorna la ruta del temporal donde se prepara un archivo cifrado antes de confirmarlo.
+     */
+    static Path stagingPathOf(Path outputFile) {
+        return outputFile.resolveSibling(outputFile.getFileName() + STAGING_EXTENSION);
+    }
+
+    /**
+     * Indica si el contenido es idéntico al archivo cifrado del que se cargó.
+     */
+    private boolean isUnchanged(FileContent content) {
+        return content instanceof LazyFileContent && !((LazyFileContent) content).isDirty();
+    }
+
+    /**
+     * Retorna la ruta en la unidad (por ejemplo "sub\informe.docx") de un archivo cifrado de la
+     * bóveda, sin su extensión.
+     */
+    private String driveNameOf(Path file) {
+        String parent = drivePathOf(file.getParent());
+        return parent.isEmpty() ? baseNameOf(file) : parent + FileTree.SEPARATOR + baseNameOf(file);
+    }
+
+    /**
+     * Retorna la ruta en la unidad de una carpeta de la bóveda ("" para la raíz).
+     */
+    private String drivePathOf(Path directory) {
+        Path relative = vaultPath.relativize(directory);
+        StringBuilder name = new StringBuilder();
+        for (Path part : relative) {
+            if (name.length() > 0) {
+                name.append(FileTree.SEPARATOR);
+            }
+            name.append(part);
+        }
+        return name.toString();
+    }
+
+    /**
+     * Retorna la ruta en disco, dentro de la bóveda, de una ruta de la unidad.
+     */
+    private Path diskPathOf(String drivePath) {
+        Path path = vaultPath;
+        for (String part : drivePath.split(Pattern.quote(String.valueOf(FileTree.SEPARATOR)))) {
+            path = path.resolve(part);
+        }
+        return path;
+    }
+
+    /**
+     * Deja en disco las carpetas de la unidad después de bloquear. Sin manifiesto se crean las
+     * carpetas vacías de la unidad y se eliminan las que ya no existen en ella. Con manifiesto las
+     * rutas quedan en el manifiesto, así que se eliminan todas las carpetas que quedaron vacías.
+     * Una carpeta con otros archivos (por ejemplo, sin cifrar) se conserva.
+     *
+     * @param listing Recorrido de la bóveda.
+     * @throws IOException Si no se pudo crear una carpeta.
+     */
+    private void syncDirectories(VaultWalker.Listing listing) throws IOException {
+        boolean keepTree = manifest == null;
+        if (keepTree) {
+            for (String directory : decryptedFiles.directoryPaths()) {
+                Files.createDirectories(diskPathOf(directory));
+            }
+        }
+        for (Path directory : listing.directoriesDeepestFirst()) {
+            if (keepTree && decryptedFiles.isDirectory(drivePathOf(directory))) {
+                continue;
+            }
+            try {
+                Files.delete(directory);
+                System.out.println("Carpeta eliminada (no presente en memoria): " + directory);
+            } catch (DirectoryNotEmptyException e) {
+                // Tiene archivos que no son de la unidad
+            }
+        }
+    }
+
+    /**
+     * Retorna la ruta del archivo cifrado correspondiente a un archivo de la unidad,
+     * creando su directorio si hace falta.
+     *
+     * @param recipe true para la receta de un archivo deduplicado (".cvc").
+     */
+    private Path outputPathOf(String fileName, boolean recipe) throws IOException {
+        Path outputFile = diskPathOf(fileName + (recipe ? ChunkStore.RECIPE_EXTENSION : ENCRYPTED_EXTENSION));
+        Path parentDir = outputFile.getParent();
+        if (parentDir != null && !Files.exists(parentDir)) {
+            Files.createDirectories(parentDir);
+        }
+        return outputFile;
+    }
+
+    /**
+     * Persiste un archivo desalojado confirmando su versión cifrada del área de desalojo.
+     * En un checkpoint se copia, porque el contenido puede volver a cargarse desde ella en
+     * cualquier momento; al bloquear basta con moverla.
+     *
+     * @param content Contenido diferido.
+     * @param outputFile Ruta final del archivo cifrado.
+     * @param checkpoint true si la unidad sigue montada.
+     * @return true si el archivo quedó resuelto; false si debe cifrarse desde memoria.
+     * @throws IOException Si el archivo de desalojo no se pudo confirmar.
+     */
+    private boolean persistSpilled(LazyFileContent content, Path outputFile, boolean checkpoint) throws IOException {
+        if (content.isLoaded() || !content.isSpilled()) {
+            return false;
+        }
+        // El archivo de desalojo ya está cifrado con el formato de la bóveda.
+        Path spillFile = content.getSource().getFilePath();
+        if (checkpoint) {
+            Path staged = stagingPathOf(outputFile);
+            try {
+                Files.copy(spillFile, staged, StandardCopyOption.REPLACE_EXISTING);
+                fsync(staged);
+                commit(staged, outputFile);
+            } catch (IOException e) {
+                deleteQuietly(staged);
+                throw e;
+            }
+        } else {
+            fsync(spillFile);
+            commit(spillFile, outputFile);
+        }
+        System.out.println("Archivo desalojado guardado: " + outputFile);
+        return true;
+    }
+
+    /**
+     * Elimina el área de desalojo de la bóveda y su contenido.
+     */
+    private void deleteSpillDirectory() {
+        Path spillDir = vaultPath.resolve(SPILL_DIRECTORY);
+        if (!Files.exists(spillDir)) {
+            return;
+        }
+        try (java.util.stream.Stream<Path> paths = Files.walk(spillDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            System.out.println("Error limpiando el área de desalojo: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Descifra un archivo de la bóveda dentro del contenido indicado.
+     *
+     * @param source Archivo cifrado en disco.
+     * @param target Contenido en memoria donde se escriben los datos descifrados.
+     * @throws Exception Si ocurre algún error durante la lectura o el descifrado.
+     */
+    private void decryptInto(EncryptedFile source, FileContent target) throws Exception {
+        VaultManifest.Entry entry = entryOf(source.getFilePath());
+        if (ChunkStore.isRecipe(source.getFilePath())) {
+            if (entry != null) {
+                verifyBlob(entry, VaultManifest.hashOf(readBlob(source.getFilePath())));
+            }
+            chunkStore.copyTo(chunkStore.recipe(source.getFilePath()), target.newWritableChannel());
+            return;
+        }
+        if (entry != null && entry.isPacked()) {
+            // El registro se descifra desde su región mapeada del paquete
+            ByteBuffer record = readBlob(source.getFilePath());
+            verifyBlob(entry, VaultManifest.hashOf(record));
+            encryptionService.decrypt(PackStore.readChannel(record), alias, target.newWritableChannel());
+            return;
+        }
+        MessageDigest digest = entry != null ? VaultManifest.newDigest() : null;
+        try (ReadableByteChannel in = openEncrypted(source)) {
+            ReadableByteChannel hashed = digest != null ? VaultManifest.hashReads(in, digest) : in;
+            encryptionService.decrypt(hashed, alias, target.newWritableChannel());
+            if (digest != null) {
+                // El hash cubre el blob completo, aunque el descifrado no haya leído hasta el final
+                ByteBuffer rest = ByteBuffer.allocate(8192);
+                while (hashed.read(rest) >= 0) {
+                    rest.clear();
+                }
+            }
+        }
+        if (digest != null) {
+            verifyBlob(entry, digest.digest());
+        }
+    }
+
+    /**
+     * Verifica que un blob sea la versión que registra el manifiesto.
+     *
+     * @throws IOException Si el blob se reemplazó por otro.
+     */
+    private static void verifyBlob(VaultManifest.Entry entry, byte[] hash) throws IOException {
+        if (!entry.matches(hash)) {
+            throw new IOException("El blob de " + entry.name + " no corresponde a la versión del manifiesto");
+        }
+    }
+
+    /**
+     * Abre un archivo cifrado para leerlo en bloques grandes: mapeado en memoria si es grande,
+     * o mediante su canal si es pequeño (mapear archivos pequeños cuesta más de lo que ahorra).
+     */
+    private ReadableByteChannel openEncrypted(EncryptedFile source) throws IOException {
+        if (source.getFileSize() >= MAPPED_READ_THRESHOLD) {
+            return new MappedFileInputStream(source.getFilePath());
+        }
+        return FileChannel.open(source.getFilePath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * Copia cifrada de un archivo renombrado, preparada en un temporal hasta confirmarla.
+     */
+    private static class StagedCopy {
+        final String fileName;
+        final LazyFileContent content;
+        final long generation;
+        final Path staged;
+        final Path target;
+
+        StagedCopy(String fileName, LazyFileContent content, long generation, Path staged, Path target) {
+            this.fileName = fileName;
+            this.content = content;
+            this.generation = generation;
+            this.staged = staged;
+            this.target = target;
+        }
+    }
+
+    /**
+     * Implementación de BackingStore que usa la memoria, el cifrado y el área de desalojo de la bóveda.
+     */
+    private class VaultBackingStore implements BackingStore {
+
+        @Override
+        public FileContent allocate() {
+            return new ChunkedFileContent(pageAllocator);
+        }
+
+        @Override
+        public void load(EncryptedFile source, FileContent target) throws Exception {
+            decryptInto(source, target);
+        }
+
+        @Override
+        public boolean canReadDirectly(EncryptedFile source, long size) {
+            // Los registros de los paquetes son pequeños: se cargan completos
+            return size >= directReadThresholdBytes && (ChunkStore.isRecipe(source.getFilePath())
+                    || (encryptionService.segmentSize(alias) > 0 && !packStore.isRecord(source.getFilePath())));
+        }
+
+        @Override
+        public int readDirectly(EncryptedFile source, long position, ByteBuffer dst) throws Exception {
+            if (ChunkStore.isRecipe(source.getFilePath())) {
+                return chunkStore.read(chunkStore.recipe(source.getFilePath()), position, dst);
+            }
+            try (RandomAccessDecryptor reader = encryptionService.openReader(source.getFilePath(), alias)) {
+                return reader.read(position, dst);
+            }
+        }
+
+        @Override
+        public int segmentSize() {
+            return encryptionService.segmentSize(alias);
+        }
+
+        @Override
+        public EncryptedFile spill(FileContent content) throws Exception {
+            Path spillDir = Files.createDirectories(vaultPath.resolve(SPILL_DIRECTORY));
+            Path spillFile = Files.createTempFile(spillDir, "spill-", ENCRYPTED_EXTENSION);
+            try (FileChannel out = FileChannel.open(spillFile, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                encryptionService.encrypt(content.newReadableChannel(), alias, out);
+            } catch (Exception e) {
+                Files.deleteIfExists(spillFile);
+                throw e;
+            }
+            return new EncryptedFile(spillFile.getFileName().toString(), spillFile, Files.size(spillFile));
+        }
+
+        @Override
+        public void discard(EncryptedFile spilled) {
+            try {
+                Files.deleteIfExists(spilled.getFilePath());
+            } catch (IOException e) {
+                System.out.println("Error eliminando el archivo de desalojo " + spilled.getFilePath() + ": " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void accessed(LazyFileContent content) {
+            residencyManager.accessed(content);
+        }
+
+        @Override
+        public void released(LazyFileContent content) {
+            residencyManager.forget(content);
+        }
     }
 
 }
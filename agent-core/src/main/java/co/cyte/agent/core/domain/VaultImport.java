@@ -0,0 +1,299 @@
+package co.cyte.agent.core.domain;
+
+import co.cyte.agent.core.services.EncryptionService;
+import co.cyte.agent.core.storage.FileTree;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Importación inicial de los archivos sin cifrar que hay en la carpeta de una bóveda y en sus
+ * subcarpetas (recorridas en paralelo con VaultWalker).
+ *
+ * Cada archivo se cifra en streaming a un temporal, que se sincroniza a disco y se confirma con
+ * un renombrado atómico como "nombre.cv", junto al original; recién entonces se elimina el
+ * original. Los archivos se cifran en paralelo y el avance (archivos, bytes y rendimiento) se
+ * informa a un LockListener.
+ *
+ * Cada archivo se anota en un archivo de control dentro de la bóveda (CHECKPOINT_FILE) antes de
+ * confirmarlo. Si la importación se interrumpe, la siguiente la retoma: los archivos anotados
+ * cuyo original no cambió y ya tienen su versión cifrada solo se eliminan, sin volver a cifrarse,
+ * y los demás se cifran desde el principio. Al terminar sin errores, el archivo de control se
+ * elimina.
+ *
+ * Un archivo que la bóveda ya tiene ("nombre.cv", "nombre.cvc" o una entrada del manifiesto) no se
+ * reemplaza, salvo que lo haya creado esta importación (está anotado): el original se conserva y
+ * se informa como error del archivo.
+ */
+final class VaultImport {
+
+    // Archivo de control de la importación en curso, dentro de la bóveda
+    static final String CHECKPOINT_FILE = ".cyte-import";
+
+    private final Path vaultPath;
+    private final EncryptionService encryptionService;
+    private final String alias;
+    private final int threads;
+    private final LockListener listener;
+
+    /**
+     * @param vaultPath Ruta de la bóveda.
+     * @param encryptionService Servicio con el que se cifran los archivos.
+     * @param alias Alias de cifrado de la bóveda.
+     * @param threads Hilos para cifrar en paralelo.
+     * @param listener Recibe el avance y puede cancelar la importación.
+     */
+    VaultImport(Path vaultPath, EncryptionService encryptionService, String alias, int threads,
+                LockListener listener) {
+        this.vaultPath = vaultPath;
+        this.encryptionService = encryptionService;
+        this.alias = alias;
+        this.threads = threads;
+        this.listener = listener;
+    }
+
+    /**
+     * Importa los archivos sin cifrar de la bóveda.
+     *
+     * @return Errores por archivo; los archivos con error conservan su original.
+     * @throws CancellationException Si el listener canceló la importación.
+     * @throws Exception Si no se pudo enumerar la carpeta o escribir el archivo de control.
+     */
+    List<String> run() throws Exception {
+        Path checkpointFile = vaultPath.resolve(CHECKPOINT_FILE);
+        Map<String, String> imported = readCheckpoint(checkpointFile);
+        VaultManifest manifest = VaultManifest.exists(vaultPath)
+                ? VaultManifest.read(vaultPath, encryptionService, alias)
+                : null;
+        List<String> errores = Collections.synchronizedList(new ArrayList<>());
+
+        List<Path> pending = new ArrayList<>();
+        long pendingBytes = 0;
+        int resumed = 0;
+        VaultWalker.Listing listing = VaultWalker.walk(vaultPath, VaultImport::isPlainFile, threads);
+        for (Map.Entry<Path, Long> entry : listing.files().entrySet()) {
+            Path file = entry.getKey();
+            if (isStagingLeftover(file.getFileName().toString())) {
+                // Temporal de un cifrado interrumpido
+                Vault.deleteQuietly(file);
+                continue;
+            }
+            if (stamp(file).equals(imported.get(nameOf(file))) && Files.exists(targetOf(file))) {
+                // Ya se había confirmado: solo falta eliminar el original
+                Files.delete(file);
+                resumed++;
+                continue;
+            }
+            pending.add(file);
+            pendingBytes += entry.getValue();
+        }
+        if (pending.isEmpty() && resumed == 0 && !Files.exists(checkpointFile)) {
+            listener.onStart(0, 0);
+            listener.onFinish();
+            return errores;
+        }
+        if (resumed > 0) {
+            System.out.println("Importación retomada: " + resumed + " archivos ya estaban cifrados");
+        }
+
+        listener.onStart(pending.size(), pendingBytes);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, pending.size())),
+                Vault.newWorkerThreadFactory("vault-import-worker-"));
+        try (FileChannel checkpoint = FileChannel.open(checkpointFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (Path file : pending) {
+                tasks.add(pool.submit(() -> importFile(file, checkpoint, imported, manifest,
+                        errores)));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } finally {
+            pool.shutdownNow();
+            listener.onFinish();
+        }
+        if (listener.isCancelled()) {
+            throw new CancellationException("La importación de la bóveda se canceló");
+        }
+        if (errores.isEmpty()) {
+            Files.deleteIfExists(checkpointFile);
+        }
+        return errores;
+    }
+
+    /**
+     * Cifra un archivo, lo anota en el archivo de control, lo confirma y elimina el original.
+     */
+    private void importFile(Path file, FileChannel checkpoint, Map<String, String> imported,
+                            VaultManifest manifest, List<String> errores) {
+        if (listener.isCancelled()) {
+            return;
+        }
+        String fileName = nameOf(file);
+        Path target = targetOf(file);
+        Path staged = Vault.stagingPathOf(target);
+        try {
+            if (!imported.containsKey(fileName)) {
+                String existing = existingVersionOf(file, manifest);
+                if (existing != null) {
+                    throw new IOException("la bóveda ya tiene una versión cifrada ("
+                            + existing + ")");
+                }
+            }
+            String before = stamp(file);
+            long size = Files.size(file);
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(staged, StandardOpenOption.CREATE,
+                         StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                encryptionService.encrypt(Vault.cancellable(in, listener), alias, out);
+                out.force(true);
+            }
+            // Si el original cambió mientras se cifraba, se conserva para la siguiente importación
+            if (!before.equals(stamp(file))) {
+                throw new IOException("el archivo cambió durante la importación");
+            }
+            // Se anota antes de confirmarlo: si se interrumpe, la versión cifrada que quede es de
+            // esta importación y puede reemplazarse
+            record(checkpoint, fileName, before);
+            Vault.commit(staged, target);
+            Files.delete(file);
+            System.out.println("Archivo importado: " + target);
+            listener.onFileLocked(fileName, size);
+        } catch (CancellationException e) {
+            Vault.deleteQuietly(staged);
+        } catch (Exception e) {
+            Vault.deleteQuietly(staged);
+            String errorMsg = "Error importando el archivo " + fileName + ": " + e.getMessage();
+            System.out.println(errorMsg);
+            errores.add(errorMsg);
+            listener.onFileFailed(fileName, e);
+        }
+    }
+
+    /**
+     * Anota en el archivo de control un archivo ya cifrado, y lo sincroniza a disco antes de
+     * confirmar su versión cifrada y eliminar su original.
+     */
+    private static void record(FileChannel checkpoint, String fileName, String stamp) throws IOException {
+        ByteBuffer line = ByteBuffer.wrap((stamp + " " + fileName + "\n").getBytes(StandardCharsets.UTF_8));
+        synchronized (checkpoint) {
+            while (line.hasRemaining()) {
+                checkpoint.write(line);
+            }
+            checkpoint.force(false);
+        }
+    }
+
+    /**
+     * Lee los archivos anotados en el archivo de control: nombre → tamaño y fecha del original.
+     * Una última línea incompleta (escritura interrumpida) se descarta.
+     */
+    private static Map<String, String> readCheckpoint(Path checkpointFile) throws IOException {
+        Map<String, String> imported = new HashMap<>();
+        if (!Files.exists(checkpointFile)) {
+            return imported;
+        }
+        String content = new String(Files.readAllBytes(checkpointFile), StandardCharsets.UTF_8);
+        int end = content.lastIndexOf('\n');
+        try (BufferedReader reader = new BufferedReader(new StringReader(content.substring(0, end + 1)))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // "<tamaño> <fecha> <nombre>"; el nombre puede tener espacios
+                String[] fields = line.split(" ", 3);
+                if (fields.length == 3) {
+                    imported.put(fields[2], fields[0] + " " + fields[1]);
+                }
+            }
+        }
+        return imported;
+    }
+
+    /**
+     * Ruta relativa de un archivo dentro de la bóveda, con la que se anota en el archivo de
+     * control.
+     */
+    private String nameOf(Path file) {
+        return vaultPath.relativize(file).toString();
+    }
+
+    /**
+     * Retorna la versión que la bóveda ya tiene del archivo (su archivo cifrado, su receta o su
+     * entrada del manifiesto), o null si no tiene ninguna.
+     */
+    private String existingVersionOf(Path file, VaultManifest manifest) {
+        String[] extensions = {Vault.ENCRYPTED_EXTENSION, ChunkStore.RECIPE_EXTENSION};
+        for (String extension : extensions) {
+            Path encrypted = file.resolveSibling(file.getFileName() + extension);
+            if (Files.exists(encrypted)) {
+                return encrypted.getFileName().toString();
+            }
+        }
+        if (manifest != null && manifest.get(drivePathOf(file)) != null) {
+            return "entrada del manifiesto";
+        }
+        return null;
+    }
+
+    /**
+     * Ruta en la unidad de un archivo de la bóveda, con la que se registra en el manifiesto.
+     */
+    private String drivePathOf(Path file) {
+        StringBuilder name = new StringBuilder();
+        for (Path part : vaultPath.relativize(file)) {
+            if (name.length() > 0) {
+                name.append(FileTree.SEPARATOR);
+            }
+            name.append(part);
+        }
+        return name.toString();
+    }
+
+    /**
+     * Ruta del archivo cifrado de un archivo sin cifrar, en su misma carpeta.
+     */
+    private static Path targetOf(Path file) {
+        return file.resolveSibling(file.getFileName() + Vault.ENCRYPTED_EXTENSION);
+    }
+
+    /**
+     * Tamaño y fecha de modificación de un archivo, para reconocer si cambió.
+     */
+    private static String stamp(Path file) throws IOException {
+        return Files.size(file) + " " + Files.getLastModifiedTime(file).toMillis();
+    }
+
+    /**
+     * Indica si un archivo regular es uno sin cifrar: no es de uso interno ni un archivo cifrado
+     * de la bóveda.
+     */
+    private static boolean isPlainFile(Path file) {
+        return Vault.baseNameOf(file) == null && !Vault.isInternal(file);
+    }
+
+    /**
+     * Indica si el nombre es el de un temporal donde se preparaba un archivo cifrado
+     * ("nombre.cv.tmp").
+     */
+    private static boolean isStagingLeftover(String fileName) {
+        String lower = fileName.toLowerCase();
+        return lower.endsWith(Vault.ENCRYPTED_EXTENSION + Vault.STAGING_EXTENSION)
+                || lower.endsWith(ChunkStore.RECIPE_EXTENSION + Vault.STAGING_EXTENSION);
+    }
+}
@@ -0,0 +1,602 @@
+package co.cyte.agent.core.domain;
+
+import co.cyte.agent.core.crypto.DamagedDataException;
+import co.cyte.agent.core.services.EncryptionService;
+import co.cyte.agent.core.storage.FileContent;
+import co.cyte.agent.core.storage.FileTree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Diario de escritura anticipada (write-ahead log) de una bóveda desbloqueada.
+ *
+ * Cada modificación que la unidad virtual aplica en memoria (escritura de un rango, cambio de
+ * tamaño, creación, renombrado o eliminación) se agrega al diario como un registro cifrado antes
+ * de confirmarse al llamador. Los archivos modificados se siguen cifrando en segundo plano con los
+ * checkpoints; el diario solo tiene que conservar los cambios hasta entonces, de modo que guardar
+ * un documento no obliga a volver a cifrarlo completo para que sea durable. Si la bóveda se
+ * interrumpe, el siguiente desbloqueo vuelve a aplicar los registros (replay()). Un archivo que se
+ * guarda cifrado directamente en un blob (Vault.storeFile()) se registra con su entrada del
+ * manifiesto, que lo vincula a su ruta hasta que un checkpoint o el bloqueo reemplacen el manifiesto.
+ *
+ * El diario se aplica sobre el manifiesto de la bóveda: su encabezado guarda el hash del manifiesto
+ * sobre el que empezó. El manifiesto solo se reemplaza al bloquear o en un checkpoint que vacía el
+ * diario a la vez (restartIfUnchanged()), de modo que un diario que no corresponde al manifiesto
+ * actual ya está incluido en él y se descarta.
+ *
+ * Los registros se sincronizan a disco con confirmación en grupo (sync()): el primer hilo que
+ * espera hace un solo force() que cubre todo lo agregado hasta ese momento, y los que llegan
+ * mientras tanto esperan a ese force() o al siguiente en lugar de hacer uno cada uno.
+ *
+ * Formato: int mágico y el hash de 32 bytes del manifiesto; luego, por registro, un int con su
+ * longitud y el registro cifrado con el formato de EncryptionService. Antes de cifrarse, un
+ * registro es el hash del manifiesto, su número de secuencia (long, desde 0), un byte con su tipo,
+ * la ruta (UTF) y los datos del tipo. Los registros se cifran y escriben de a uno, en el orden de
+ * su secuencia.
+ *
+ * El hash y la secuencia van dentro de la parte cifrada: al aplicar el diario se verifica que cada
+ * registro sea del mismo diario y el siguiente al anterior, de modo que no se pueden quitar,
+ * repetir ni reordenar registros, ni mezclar los de otro diario. Solo el último registro puede
+ * estar incompleto o ser ilegible (una escritura interrumpida) y se descarta; uno así seguido de
+ * registros válidos indica que el diario está dañado.
+ */
+public class VaultJournal {
+
+    // Archivo del diario, dentro de la bóveda
+    static final String FILE_NAME = ".cyte-journal";
+
+    private static final int MAGIC = 0x4359564A; // "CYVJ"
+    private static final int BASE_SIZE = 32;
+    private static final int HEADER_SIZE = 4 + BASE_SIZE;
+    // Hash del manifiesto y número de secuencia al comienzo de cada registro descifrado
+    private static final int RECORD_PREFIX_SIZE = BASE_SIZE + Long.BYTES;
+
+    private static final byte WRITE = 1;
+    private static final byte TRUNCATE = 2;
+    private static final byte CREATE = 3;
+    private static final byte DELETE = 4;
+    private static final byte MOVE = 5;
+    private static final byte STORE = 6;
+
+    private final Path file;
+    private final EncryptionService encryptionService;
+    private final String alias;
+    private final FileChannel channel;
+    // Bytes escritos en el diario, hash del manifiesto y secuencia del próximo registro (se
+    // modifican con el monitor de la instancia)
+    private long written;
+    private byte[] base;
+    private long sequence;
+    // Bytes sincronizados a disco, y si hay un force() en curso (se modifican con syncMonitor)
+    private final Object syncMonitor = new Object();
+    private long durable;
+    private boolean syncing;
+    private long records;
+    private long syncs;
+
+    private VaultJournal(Path file, EncryptionService encryptionService, String alias, FileChannel channel,
+                         long written, byte[] base, long sequence) {
+        this.file = file;
+        this.encryptionService = encryptionService;
+        this.alias = alias;
+        this.channel = channel;
+        this.written = written;
+        this.durable = written;
+        this.base = base.clone();
+        this.sequence = sequence;
+    }
+
+    /**
+     * Indica si la bóveda tiene un diario (de una sesión que no llegó a bloquearse).
+     */
+    static boolean exists(Path vaultPath) {
+        return Files.isRegularFile(vaultPath.resolve(FILE_NAME));
+    }
+
+    /**
+     * Abre el diario de la bóveda para agregar registros. Si ya tiene registros sobre el mismo
+     * manifiesto, los nuevos van a continuación (un registro incompleto al final se descarta); si
+     * no, empieza vacío.
+     *
+     * @param vaultPath Ruta de la bóveda.
+     * @param encryptionService Servicio con el que se cifran los registros.
+     * @param alias Alias de cifrado de la bóveda.
+     * @param base Hash del manifiesto actual de la bóveda.
+     * @return Diario abierto.
+     * @throws IOException Si no se pudo abrir o leer, o si el diario está dañado.
+     */
+    static VaultJournal open(Path vaultPath, EncryptionService encryptionService, String alias, byte[] base)
+            throws IOException {
+        Path file = vaultPath.resolve(FILE_NAME);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long valid = HEADER_SIZE;
+            long count = 0;
+            if (hasBase(channel, base)) {
+                for (Record record : readRecords(channel, base, encryptionService, alias)) {
+                    valid += record.length;
+                    count++;
+                }
+            } else {
+                writeHeader(channel, base);
+            }
+            if (valid < channel.size()) {
+                channel.truncate(valid);
+            }
+            channel.force(true);
+            return new VaultJournal(file, encryptionService, alias, channel, valid, base, count);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Registra la escritura de un rango de un archivo.
+     *
+     * @param path Ruta del archivo en la unidad.
+     * @param offset Posición donde se escribió.
+     * @param data Datos escritos; su posición no cambia.
+     * @return Posición del diario que hay que sincronizar (sync()) para que el registro sea durable.
+     * @throws IOException Si no se pudo cifrar o escribir el registro.
+     */
+    public long logWrite(String path, long offset, ByteBuffer data) throws IOException {
+        ByteBuffer bytes = data.duplicate();
+        return append(WRITE, path, out -> {
+            out.writeLong(offset);
+            byte[] copy = new byte[bytes.remaining()];
+            bytes.get(copy);
+            out.writeInt(copy.length);
+            out.write(copy);
+        });
+    }
+
+    /**
+     * Registra el cambio de tamaño de un archivo (también al sobrescribirlo, con tamaño 0).
+     */
+    public long logTruncate(String path, long size) throws IOException {
+        return append(TRUNCATE, path, out -> out.writeLong(size));
+    }
+
+    /**
+     * Registra la creación de un archivo vacío o de un directorio.
+     */
+    public long logCreate(String path, boolean directory) throws IOException {
+        return append(CREATE, path, out -> out.writeBoolean(directory));
+    }
+
+    /**
+     * Registra la eliminación de un archivo o de un directorio vacío.
+     */
+    public long logDelete(String path, boolean directory) throws IOException {
+        return append(DELETE, path, out -> out.writeBoolean(directory));
+    }
+
+    /**
+     * Registra el renombrado de un archivo o directorio (el destino, si existía, se reemplaza).
+     */
+    public long logMove(String from, String to) throws IOException {
+        return append(MOVE, from, out -> out.writeUTF(to));
+    }
+
+    /**
+     * Registra que un archivo pasó a ser un blob ya escrito en la bóveda (Vault.storeFile()), con
+     * su entrada del manifiesto; reemplaza al archivo que tuviera la misma ruta.
+     */
+    long logStore(VaultManifest.Entry entry) throws IOException {
+        return append(STORE, entry.name, out -> VaultManifest.writeEntry(out, entry));
+    }
+
+    /**
+     * Espera a que el diario esté sincronizado a disco hasta la posición indicada. Un solo force()
+     * cubre a todos los hilos que esperan a la vez.
+     *
+     * @param position Posición retornada al registrar la modificación.
+     * @throws IOException Si no se pudo sincronizar.
+     */
+    public void sync(long position) throws IOException {
+        synchronized (syncMonitor) {
+            while (durable < position) {
+                if (!syncing) {
+                    syncing = true;
+                    break;
+                }
+                try {
+                    syncMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrumpido esperando la sincronización del diario");
+                }
+            }
+            if (durable >= position) {
+                return;
+            }
+        }
+        // Este hilo sincroniza todo lo escrito hasta ahora, incluidos los registros de los demás
+        long target = position();
+        IOException failure = null;
+        try {
+            channel.force(true);
+        } catch (IOException e) {
+            failure = e;
+        }
+        synchronized (syncMonitor) {
+            syncing = false;
+            if (failure == null) {
+                durable = Math.max(durable, target);
+                syncs++;
+            }
+            syncMonitor.notifyAll();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Retorna la posición del final del diario.
+     */
+    synchronized long position() {
+        return written;
+    }
+
+    /**
+     * Si no se agregó nada al diario desde la posición indicada, ejecuta el checkpoint (que guarda
+     * el manifiesto) y vacía el diario, que pasa a aplicarse sobre el manifiesto nuevo. Mientras
+     * tanto no se agregan registros.
+     *
+     * @param position Posición del diario al comenzar el checkpoint.
+     * @param checkpoint Guarda el manifiesto y retorna su hash, o null si no pudo.
+     * @return true si el diario se vació.
+     * @throws Exception Si el checkpoint falló o el diario no se pudo vaciar.
+     */
+    synchronized boolean restartIfUnchanged(long position, Callable<byte[]> checkpoint) throws Exception {
+        synchronized (syncMonitor) {
+            if (written != position || durable != written || syncing) {
+                return false;
+            }
+        }
+        byte[] next = checkpoint.call();
+        if (next == null) {
+            return false;
+        }
+        writeHeader(channel, next);
+        channel.truncate(HEADER_SIZE);
+        channel.force(true);
+        base = next.clone();
+        sequence = 0;
+        synchronized (syncMonitor) {
+            written = HEADER_SIZE;
+            durable = HEADER_SIZE;
+        }
+        return true;
+    }
+
+    /**
+     * Cierra el diario y, si se indica, lo elimina (al bloquear, con todos los cambios guardados).
+     */
+    void close(boolean delete) {
+        try {
+            channel.close();
+            if (records > 0) {
+                System.out.println("Diario de la bóveda: " + records + " registros en " + syncs + " sincronizaciones");
+            }
+            if (delete) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            System.out.println("Error cerrando el diario de la bóveda: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Vuelve a aplicar sobre la unidad los registros del diario de la bóveda, en orden. Un registro
+     * de espacio de nombres que ya no se puede aplicar (por ejemplo, el renombrado de un archivo que
+     * no existe) se omite; una escritura o un truncado de un archivo desconocido indica que el
+     * diario está dañado, porque cada archivo nuevo tiene antes su registro CREATE.
+     *
+     * @param vaultPath Ruta de la bóveda.
+     * @param encryptionService Servicio con el que se cifraron los registros.
+     * @param alias Alias de cifrado de la bóveda.
+     * @param base Hash del manifiesto actual de la bóveda.
+     * @param files Archivos de la unidad.
+     * @param newContent Crea el contenido de un archivo nuevo.
+     * @param storedContent Registra el blob de un archivo guardado con logStore() y crea su contenido.
+     * @return Registros aplicados, o -1 si el diario no corresponde al manifiesto (ya está incluido en él).
+     * @throws IOException Si no se pudo leer el diario o está dañado.
+     */
+    static int replay(Path vaultPath, EncryptionService encryptionService, String alias, byte[] base,
+                      FileTree files, Supplier<FileContent> newContent,
+                      Function<VaultManifest.Entry, FileContent> storedContent) throws IOException {
+        int applied = 0;
+        try (FileChannel channel = FileChannel.open(vaultPath.resolve(FILE_NAME), StandardOpenOption.READ)) {
+            if (!hasBase(channel, base)) {
+                return -1;
+            }
+            for (Record record : readRecords(channel, base, encryptionService, alias)) {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.plain, RECORD_PREFIX_SIZE,
+                        record.plain.length - RECORD_PREFIX_SIZE));
+                if (apply(in, files, newContent, storedContent)) {
+                    applied++;
+                }
+            }
+        }
+        return applied;
+    }
+
+    private static boolean apply(DataInputStream in, FileTree files, Supplier<FileContent> newContent,
+                                 Function<VaultManifest.Entry, FileContent> storedContent) throws IOException {
+        byte type = in.readByte();
+        String path = in.readUTF();
+        FileContent content = files.get(path);
+        switch (type) {
+            case WRITE: {
+                long offset = in.readLong();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                requireFile(content, path);
+                content.write(offset, ByteBuffer.wrap(data));
+                return true;
+            }
+            case TRUNCATE:
+                requireFile(content, path);
+                content.truncate(in.readLong());
+                return true;
+            case CREATE:
+                if (in.readBoolean()) {
+                    return files.createDirectory(path);
+                }
+                if (content != null || files.isDirectory(path)) {
+                    return false;
+                }
+                files.put(path, newContent.get());
+                return true;
+            case DELETE:
+                if (in.readBoolean()) {
+                    return files.removeDirectory(path);
+                }
+                if (content == null) {
+                    return false;
+                }
+                files.remove(path).release();
+                return true;
+            case MOVE: {
+                String target = in.readUTF();
+                FileContent replaced = !target.equals(path) && !files.isDirectory(target) ? files.get(target) : null;
+                if ((content == null && !files.isDirectory(path)) || (replaced != null && content == null)) {
+                    return false;
+                }
+                if (replaced != null) {
+                    files.remove(target).release();
+                }
+                return files.move(path, target);
+            }
+            case STORE: {
+                VaultManifest.Entry entry = VaultManifest.readEntry(in);
+                if (files.isDirectory(path)) {
+                    return false;
+                }
+                FileContent replaced = files.put(path, storedContent.apply(entry));
+                if (replaced != null) {
+                    replaced.release();
+                }
+                return true;
+            }
+            default:
+                throw new IOException("Registro del diario no válido: tipo " + type);
+        }
+    }
+
+    /**
+     * Los cambios de datos se registran en el mismo orden en que se aplican, después del CREATE
+     * del archivo y antes de su renombrado o eliminación: si el archivo no existe, falta un
+     * registro y el diario no puede recuperarse sin perder una escritura confirmada.
+     */
+    private static void requireFile(FileContent content, String path) throws IOException {
+        if (content == null) {
+            throw new IOException("El diario de la bóveda está dañado: cambio de datos sobre un archivo "
+                    + "desconocido (" + path + ")");
+        }
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Cifra un registro y lo agrega al final del diario, sin esperar a que se sincronice. El
+     * registro se numera, cifra y escribe con el monitor tomado, para que el orden de las
+     * secuencias sea el del diario.
+     */
+    private long append(byte type, String path, RecordWriter fields) throws IOException {
+        ByteArrayOutputStream fieldBytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(fieldBytes);
+        out.writeByte(type);
+        out.writeUTF(path);
+        fields.write(out);
+        out.flush();
+        synchronized (this) {
+            ByteBuffer plain = ByteBuffer.allocate(RECORD_PREFIX_SIZE + fieldBytes.size());
+            plain.put(base).putLong(sequence).put(fieldBytes.toByteArray()).flip();
+            // Con compresión, el tamaño cifrado es a lo sumo encryptedSize()
+            ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES
+                    + (int) encryptionService.encryptedSize(plain.remaining(), alias));
+            frame.position(Integer.BYTES);
+            try {
+                encryptionService.encrypt(plain, alias, frame);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("No se pudo cifrar el registro del diario: " + e.getMessage(), e);
+            }
+            frame.putInt(0, frame.position() - Integer.BYTES);
+            frame.flip();
+            long position = written;
+            while (frame.hasRemaining()) {
+                position += channel.write(frame, position);
+            }
+            written = position;
+            sequence++;
+            records++;
+            return written;
+        }
+    }
+
+    private static boolean hasBase(FileChannel channel, byte[] base) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (!readFully(channel, header, 0) || header.getInt(0) != MAGIC) {
+            return false;
+        }
+        byte[] stored = new byte[BASE_SIZE];
+        header.position(4);
+        header.get(stored);
+        return MessageDigest.isEqual(stored, base);
+    }
+
+    private static void writeHeader(FileChannel channel, byte[] base) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).put(base, 0, BASE_SIZE).flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    /**
+     * Lee los registros del diario que siguen al encabezado, verificando que cada uno tenga el
+     * hash del manifiesto del diario y la secuencia siguiente a la del anterior. Un registro
+     * incompleto o ilegible al final se descarta.
+     *
+     * @return Registros válidos, en orden.
+     * @throws IOException Si no se pudo leer, si un registro legible no corresponde al diario o a su
+     * posición, o si uno ilegible va seguido de un registro válido.
+     */
+    private static List<Record> readRecords(FileChannel channel, byte[] base, EncryptionService encryptionService,
+                                            String alias) throws IOException {
+        List<Record> records = new ArrayList<>();
+        long position = HEADER_SIZE;
+        long size = channel.size();
+        while (position < size) {
+            Record record = readRecord(channel, position, encryptionService, alias);
+            if (record == null) {
+                long next = nextRecordPosition(channel, position);
+                if (next >= 0 && readRecord(channel, next, encryptionService, alias) != null) {
+                    throw new IOException("El diario de la bóveda está dañado: registro no válido en la posición "
+                            + position);
+                }
+                System.out.println("Registro incompleto al final del diario en la posición " + position
+                        + "; se descarta");
+                break;
+            }
+            if (!record.belongsTo(base, records.size())) {
+                throw new IOException("El diario de la bóveda está dañado: registro fuera de orden o de otro diario"
+                        + " en la posición " + position);
+            }
+            records.add(record);
+            position += record.length;
+        }
+        return records;
+    }
+
+    /**
+     * Retorna la posición del registro que sigue al que comienza en la indicada, según su longitud,
+     * o -1 si la longitud no es válida o el registro llega al final del diario.
+     */
+    private static long nextRecordPosition(FileChannel channel, long position) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        if (!readFully(channel, length, position)) {
+            return -1;
+        }
+        long next = position + Integer.BYTES + length.getInt(0);
+        return length.getInt(0) > 0 && next < channel.size() ? next : -1;
+    }
+
+    /**
+     * Lee y descifra el registro que comienza en la posición indicada, o null si no hay uno
+     * completo y legible. Solo un registro truncado, dañado o alterado es ilegible: si falla la
+     * clave o la suite de cifrado, se propaga el error para no descartar registros válidos.
+     */
+    private static Record readRecord(FileChannel channel, long position, EncryptionService encryptionService,
+                                     String alias) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        if (!readFully(channel, length, position)) {
+            return null;
+        }
+        int encryptedSize = length.getInt(0);
+        if (encryptedSize <= 0 || position + Integer.BYTES + encryptedSize > channel.size()) {
+            return null;
+        }
+        ByteBuffer encrypted = ByteBuffer.allocate(encryptedSize);
+        if (!readFully(channel, encrypted, position + Integer.BYTES)) {
+            return null;
+        }
+        encrypted.flip();
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        try {
+            encryptionService.decrypt(PackStore.readChannel(encrypted), alias, Channels.newChannel(plain));
+        } catch (DamagedDataException | EOFException e) {
+            return null;
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("No se pudo descifrar el diario de la bóveda", e);
+        }
+        if (plain.size() <= RECORD_PREFIX_SIZE) {
+            return null;
+        }
+        return new Record(plain.toByteArray(), Integer.BYTES + encryptedSize);
+    }
+
+    /**
+     * Registro leído del diario: su contenido descifrado (con el hash y la secuencia al comienzo)
+     * y lo que ocupa en el diario.
+     */
+    private static final class Record {
+        final byte[] plain;
+        final int length;
+
+        Record(byte[] plain, int length) {
+            this.plain = plain;
+            this.length = length;
+        }
+
+        /**
+         * Indica si el registro es del diario con el hash indicado y tiene la secuencia esperada.
+         */
+        boolean belongsTo(byte[] base, long expectedSequence) {
+            byte[] recordBase = Arrays.copyOf(plain, BASE_SIZE);
+            long recordSequence = ByteBuffer.wrap(plain, BASE_SIZE, Long.BYTES).getLong();
+            return MessageDigest.isEqual(recordBase, Arrays.copyOf(base, BASE_SIZE))
+                    && recordSequence == expectedSequence;
+        }
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position + dst.position());
+            if (n < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,446 @@
+package co.cyte.agent.core.domain;
+
+import co.cyte.agent.core.crypto.KeyGenerator;
+import co.cyte.agent.core.services.EncryptionService;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Manifiesto cifrado de una bóveda: la lista de sus archivos, con su nombre, tamaño, fechas,
+ * atributos, el hash de su versión cifrada y el blob donde está guardada.
+ *
+ * Los blobs tienen nombres aleatorios y están en el directorio BLOB_DIRECTORY: en disco no quedan
+ * ni los nombres ni la estructura de la bóveda, y los tamaños de los blobs solo aproximan los
+ * reales. Al desbloquear basta con leer el manifiesto, sin enumerar el directorio ni abrir cada
+ * archivo.
+ *
+ * Cada versión de un archivo se escribe en un blob nuevo y el manifiesto se reemplaza de forma
+ * atómica: una interrupción deja el manifiesto anterior, con sus blobs intactos. El hash SHA-256
+ * del blob fija la versión de cada archivo: al cargarlo se detecta si se reemplazó por otro blob
+ * válido de la bóveda (por ejemplo, una versión anterior del mismo archivo).
+ *
+ * Un blob puede ser también un registro dentro de un archivo de paquete (PackStore): su entrada
+ * indica el paquete y la posición del registro, y el manifiesto hace de índice de los paquetes.
+ *
+ * Formato (antes de cifrarse): int mágico, int versión, int cantidad de entradas y, por entrada,
+ * nombre, blob y paquete (UTF, el paquete vacío si el blob es un archivo), posición en el paquete,
+ * tamaño, tamaño del blob, creación y modificación (long), atributos (int) y el hash de 32 bytes.
+ * La versión 1 no tiene paquete ni posición.
+ */
+final class VaultManifest {
+
+    // Archivo del manifiesto y directorio de los blobs, dentro de la bóveda
+    static final String FILE_NAME = ".cyte-manifest";
+    static final String BLOB_DIRECTORY = ".cyte-blobs";
+
+    private static final int MAGIC = 0x4359564D; // "CYVM"
+    private static final int VERSION = 2;
+    private static final int HASH_SIZE = 32;
+    private static final int BLOB_ID_SIZE = 16;
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Map<String, Entry> byName = new LinkedHashMap<>();
+    private final Set<String> blobs = new HashSet<>();
+
+    /**
+     * @param entries Entradas del manifiesto.
+     */
+    VaultManifest(Collection<Entry> entries) {
+        for (Entry entry : entries) {
+            byName.put(entry.name, entry);
+            blobs.add(entry.blob);
+            if (entry.isPacked()) {
+                blobs.add(entry.pack);
+            }
+        }
+    }
+
+    /**
+     * Indica si la bóveda tiene un manifiesto.
+     */
+    static boolean exists(Path vaultPath) {
+        return Files.isRegularFile(vaultPath.resolve(FILE_NAME));
+    }
+
+    /**
+     * Retorna el hash del manifiesto cifrado de la bóveda (ceros si no tiene), para saber sobre qué
+     * versión del manifiesto se registró un diario.
+     */
+    static byte[] fileHash(Path vaultPath) throws IOException {
+        return exists(vaultPath) ? hashOf(vaultPath.resolve(FILE_NAME)) : new byte[HASH_SIZE];
+    }
+
+    /**
+     * Retorna el directorio de los blobs de la bóveda.
+     */
+    static Path blobDirectory(Path vaultPath) {
+        return vaultPath.resolve(BLOB_DIRECTORY);
+    }
+
+    /**
+     * Genera un nombre aleatorio para un blob nuevo.
+     *
+     * @param extension Extensión del blob (".cv", o ".cvc" para una receta de fragmentos).
+     */
+    static String newBlobName(String extension) {
+        return toHex(KeyGenerator.randomBytes(BLOB_ID_SIZE)) + extension;
+    }
+
+    /**
+     * Lee y descifra el manifiesto de la bóveda.
+     *
+     * @param vaultPath Ruta de la bóveda.
+     * @param encryptionService Servicio con el que se cifró.
+     * @param alias Alias de cifrado de la bóveda.
+     * @return Manifiesto.
+     * @throws IOException Si no se pudo leer o descifrar, o no tiene un formato válido.
+     */
+    static VaultManifest read(Path vaultPath, EncryptionService encryptionService, String alias) throws IOException {
+        Path file = vaultPath.resolve(FILE_NAME);
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        try (InputStream in = Files.newInputStream(file)) {
+            encryptionService.decrypt(in, alias, plain);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("No se pudo descifrar el manifiesto " + file + ": " + e.getMessage(), e);
+        }
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(plain.toByteArray()));
+        int version = data.readInt() == MAGIC ? data.readInt() : -1;
+        if (version != 1 && version != VERSION) {
+            throw new IOException("Manifiesto no válido: " + file);
+        }
+        int count = data.readInt();
+        Collection<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            entries.add(readEntry(data, version));
+        }
+        return new VaultManifest(entries);
+    }
+
+    /**
+     * Lee una entrada escrita con writeEntry() (también la usa el diario de la bóveda).
+     *
+     * @param data Datos del manifiesto o del registro.
+     * @param version Versión del formato con que se escribió.
+     * @return Entrada leída.
+     * @throws IOException Si la entrada no tiene un formato válido.
+     */
+    static Entry readEntry(DataInputStream data, int version) throws IOException {
+        String name = data.readUTF();
+        String blob = data.readUTF();
+        String pack = version > 1 ? data.readUTF() : "";
+        long offset = version > 1 ? data.readLong() : 0;
+        long size = data.readLong();
+        long blobSize = data.readLong();
+        long created = data.readLong();
+        long modified = data.readLong();
+        int attributes = data.readInt();
+        byte[] hash = new byte[HASH_SIZE];
+        data.readFully(hash);
+        if (!isPlainName(blob) || (!pack.isEmpty() && !isPlainName(pack)) || offset < 0) {
+            throw new IOException("Manifiesto no válido: blob " + blob);
+        }
+        return new Entry(name, blob, pack, offset, size, blobSize, created, modified, attributes, hash);
+    }
+
+    /**
+     * Lee una entrada escrita con writeEntry() en la versión actual del formato.
+     */
+    static Entry readEntry(DataInputStream data) throws IOException {
+        return readEntry(data, VERSION);
+    }
+
+    /**
+     * Escribe una entrada en la versión actual del formato.
+     */
+    static void writeEntry(DataOutputStream data, Entry entry) throws IOException {
+        data.writeUTF(entry.name);
+        data.writeUTF(entry.blob);
+        data.writeUTF(entry.pack);
+        data.writeLong(entry.offset);
+        data.writeLong(entry.size);
+        data.writeLong(entry.blobSize);
+        data.writeLong(entry.created);
+        data.writeLong(entry.modified);
+        data.writeInt(entry.attributes);
+        data.write(entry.hash);
+    }
+
+    /**
+     * Cifra el manifiesto y reemplaza el anterior de forma atómica.
+     *
+     * @param vaultPath Ruta de la bóveda.
+     * @param encryptionService Servicio de cifrado.
+     * @param alias Alias de cifrado de la bóveda.
+     * @throws Exception Si no se pudo cifrar o escribir.
+     */
+    void write(Path vaultPath, EncryptionService encryptionService, String alias) throws Exception {
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(plain);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(byName.size());
+        for (Entry entry : byName.values()) {
+            writeEntry(data, entry);
+        }
+        data.flush();
+
+        Path file = vaultPath.resolve(FILE_NAME);
+        Path temp = file.resolveSibling(FILE_NAME + TEMP_SUFFIX);
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                encryptionService.encrypt(new ByteArrayInputStream(plain.toByteArray()), alias, out);
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Retorna las entradas, en el orden en que se agregaron.
+     */
+    Collection<Entry> entries() {
+        return Collections.unmodifiableCollection(byName.values());
+    }
+
+    /**
+     * Retorna la entrada del archivo indicado, o null si no está en el manifiesto.
+     */
+    Entry get(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * Indica si el blob (o el paquete) indicado está en uso.
+     */
+    boolean references(String blob) {
+        return blobs.contains(blob);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof VaultManifest && byName.equals(((VaultManifest) o).byName);
+    }
+
+    @Override
+    public int hashCode() {
+        return byName.hashCode();
+    }
+
+    /**
+     * Crea un SHA-256 para calcular el hash de un blob.
+     */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no está disponible", e);
+        }
+    }
+
+    /**
+     * Calcula el hash de un archivo ya escrito.
+     */
+    static byte[] hashOf(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Calcula el hash de un blob ya leído (o mapeado); la posición del buffer no cambia.
+     */
+    static byte[] hashOf(ByteBuffer blob) {
+        MessageDigest digest = newDigest();
+        digest.update(blob.duplicate());
+        return digest.digest();
+    }
+
+    /**
+     * Envuelve un canal de escritura para calcular el hash de lo que se escribe.
+     */
+    static WritableByteChannel hashWrites(WritableByteChannel out, MessageDigest digest) {
+        return new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                ByteBuffer written = src.duplicate();
+                int n = out.write(src);
+                written.limit(written.position() + n);
+                digest.update(written);
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return out.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.close();
+            }
+        };
+    }
+
+    /**
+     * Envuelve un canal de lectura para calcular el hash de lo que se lee.
+     */
+    static ReadableByteChannel hashReads(ReadableByteChannel in, MessageDigest digest) {
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                ByteBuffer read = dst.duplicate();
+                int n = in.read(dst);
+                if (n > 0) {
+                    read.limit(read.position() + n);
+                    digest.update(read);
+                }
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return in.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+
+    // Un nombre de blob o paquete no puede salir de su directorio
+    private static boolean isPlainName(String name) {
+        return !name.isEmpty() && name.indexOf('/') < 0 && name.indexOf('\\') < 0 && !name.startsWith(".");
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Entrada del manifiesto: un archivo de la unidad y la versión cifrada que lo guarda, en un
+     * blob propio o en un registro de un paquete.
+     */
+    static final class Entry {
+        final String name;
+        final String blob;
+        // Paquete y posición del registro; el paquete es vacío si el blob es un archivo propio
+        final String pack;
+        final long offset;
+        final long size;
+        final long blobSize;
+        final long created;
+        final long modified;
+        final int attributes;
+        private final byte[] hash;
+
+        Entry(String name, String blob, String pack, long offset, long size, long blobSize, long created,
+              long modified, int attributes, byte[] hash) {
+            this.name = name;
+            this.blob = blob;
+            this.pack = pack;
+            this.offset = offset;
+            this.size = size;
+            this.blobSize = blobSize;
+            this.created = created;
+            this.modified = modified;
+            this.attributes = attributes;
+            this.hash = hash.clone();
+        }
+
+        /**
+         * Retorna la misma versión con otro nombre (el archivo se renombró sin modificarse).
+         */
+        Entry renamed(String newName) {
+            return newName.equals(name) ? this
+                    : new Entry(newName, blob, pack, offset, size, blobSize, created, modified, attributes, hash);
+        }
+
+        /**
+         * Retorna la misma versión, copiada a otra posición de un paquete (al compactar).
+         */
+        Entry moved(String newPack, long newOffset) {
+            return new Entry(name, blob, newPack, newOffset, size, blobSize, created, modified, attributes, hash);
+        }
+
+        /**
+         * Indica si la versión está en un registro de un paquete.
+         */
+        boolean isPacked() {
+            return !pack.isEmpty();
+        }
+
+        /**
+         * Indica si el hash coincide con el de la versión registrada.
+         */
+        boolean matches(byte[] actualHash) {
+            return MessageDigest.isEqual(hash, actualHash);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Entry)) return false;
+            Entry that = (Entry) o;
+            return offset == that.offset && size == that.size && blobSize == that.blobSize && created == that.created
+                    && modified == that.modified && attributes == that.attributes
+                    && name.equals(that.name) && blob.equals(that.blob) && pack.equals(that.pack)
+                    && Arrays.equals(hash, that.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, blob, size, modified);
+        }
+    }
+}
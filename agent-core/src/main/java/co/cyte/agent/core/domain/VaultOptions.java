@@ -0,0 +1,240 @@
+package co.cyte.agent.core.domain;
+
+import co.cyte.agent.core.storage.ChunkedFileContent;
+
+/**
+ * VaultOptions agrupa los parámetros configurables de una bóveda.
+ *
+ * Los valores por defecto reproducen el comportamiento sin configuración explícita;
+ * el backend los ajusta a partir de application.properties.
+ */
+public class VaultOptions {
+
+    private long memoryBudgetBytes = Long.MAX_VALUE;
+    private boolean offHeap = true;
+    private int pageSize = ChunkedFileContent.DEFAULT_CHUNK_SIZE;
+    private boolean lazyUnlock = true;
+    private long spillThresholdBytes = Long.MAX_VALUE;
+    private int unlockThreads = 0;
+    private int lockThreads = 0;
+    private long checkpointIntervalMillis = 30_000;
+    private long checkpointMaxBytesPerSecond = 0;
+    private long directReadThresholdBytes = 16L * 1024 * 1024;
+    private String cipherAlias = "AES";
+    private boolean deduplication = false;
+    private boolean manifest = false;
+    private boolean packFiles = false;
+    private boolean journal = false;
+
+    // Getters y setters
+
+    /**
+     * Máximo de bytes de texto plano que la bóveda puede mantener en memoria.
+     * Long.MAX_VALUE indica que no hay límite.
+     */
+    public long getMemoryBudgetBytes() {
+        return memoryBudgetBytes;
+    }
+
+    public void setMemoryBudgetBytes(long memoryBudgetBytes) {
+        this.memoryBudgetBytes = memoryBudgetBytes;
+    }
+
+    /**
+     * Indica si el texto plano se guarda en memoria nativa (fuera del heap de Java).
+     */
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Tamaño de las páginas en las que se divide el contenido de cada archivo.
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Indica si al desbloquear solo se enumeran los archivos y su contenido se descifra
+     * bajo demanda, en el primer acceso.
+     */
+    public boolean isLazyUnlock() {
+        return lazyUnlock;
+    }
+
+    public void setLazyUnlock(boolean lazyUnlock) {
+        this.lazyUnlock = lazyUnlock;
+    }
+
+    /**
+     * Memoria en uso a partir de la cual se desalojan los archivos menos usados recientemente
+     * (los modificados se cifran en el área de desalojo). Long.MAX_VALUE lo desactiva; aun así,
+     * al alcanzar el presupuesto de memoria se intenta desalojar antes de rechazar una escritura.
+     */
+    public long getSpillThresholdBytes() {
+        return spillThresholdBytes;
+    }
+
+    public void setSpillThresholdBytes(long spillThresholdBytes) {
+        this.spillThresholdBytes = spillThresholdBytes;
+    }
+
+    /**
+     * Hilos usados para descifrar archivos en paralelo al desbloquear; 0 usa un hilo por
+     * procesador disponible.
+     */
+    public int getUnlockThreads() {
+        return unlockThreads;
+    }
+
+    public void setUnlockThreads(int unlockThreads) {
+        this.unlockThreads = unlockThreads;
+    }
+
+    /**
+     * Hilos usados para cifrar archivos en paralelo al bloquear; 0 usa un hilo por
+     * procesador disponible.
+     */
+    public int getLockThreads() {
+        return lockThreads;
+    }
+
+    public void setLockThreads(int lockThreads) {
+        this.lockThreads = lockThreads;
+    }
+
+    /**
+     * Intervalo entre checkpoints en segundo plano: mientras la bóveda está desbloqueada, los
+     * archivos modificados que no cambiaron durante un intervalo completo se cifran y se
+     * guardan en disco. 0 desactiva los checkpoints (los cambios se guardan solo al bloquear).
+     */
+    public long getCheckpointIntervalMillis() {
+        return checkpointIntervalMillis;
+    }
+
+    public void setCheckpointIntervalMillis(long checkpointIntervalMillis) {
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+    }
+
+    /**
+     * Bytes sin cifrar por segundo que un checkpoint puede escribir como máximo, para no
+     * competir con el uso de la unidad; 0 no limita el ritmo.
+     */
+    public long getCheckpointMaxBytesPerSecond() {
+        return checkpointMaxBytesPerSecond;
+    }
+
+    public void setCheckpointMaxBytesPerSecond(long checkpointMaxBytesPerSecond) {
+        this.checkpointMaxBytesPerSecond = checkpointMaxBytesPerSecond;
+    }
+
+    /**
+     * Tamaño a partir del cual un archivo que no está en memoria se lee directamente desde su
+     * versión cifrada, descifrando solo los segmentos que cubre cada lectura, en lugar de
+     * cargarlo completo. Long.MAX_VALUE desactiva las lecturas directas.
+     */
+    public long getDirectReadThresholdBytes() {
+        return directReadThresholdBytes;
+    }
+
+    public void setDirectReadThresholdBytes(long directReadThresholdBytes) {
+        this.directReadThresholdBytes = directReadThresholdBytes;
+    }
+
+    /**
+     * Alias de cifrado de la bóveda: elige las suites con las que se cifran los archivos nuevos
+     * (ver CipherRegistry) e identifica su clave en el KeyProvider. Los archivos existentes se
+     * descifran con la suite guardada en cada uno.
+     */
+    public String getCipherAlias() {
+        return cipherAlias;
+    }
+
+    public void setCipherAlias(String cipherAlias) {
+        this.cipherAlias = cipherAlias;
+    }
+
+    /**
+     * Indica si los archivos nuevos o modificados se guardan deduplicados: divididos en fragmentos
+     * definidos por el contenido, cada uno cifrado y escrito una sola vez en la bóveda. Conviene
+     * cuando se guardan muchas versiones parecidas de los mismos documentos.
+     */
+    public boolean isDeduplication() {
+        return deduplication;
+    }
+
+    public void setDeduplication(boolean deduplication) {
+        this.deduplication = deduplication;
+    }
+
+    /**
+     * Indica si la lista de archivos se guarda en un manifiesto cifrado y cada archivo en un blob
+     * con un nombre aleatorio: el desbloqueo lee un solo archivo y en disco no quedan los nombres
+     * ni la estructura de la bóveda. Una bóveda que ya tiene manifiesto lo sigue usando aunque
+     * esta opción esté desactivada; una sin manifiesto pasa a tenerlo en el siguiente bloqueo.
+     */
+    public boolean isManifest() {
+        return manifest;
+    }
+
+    public void setManifest(boolean manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * Indica si los archivos pequeños se guardan como registros de unos pocos archivos de paquete
+     * (en lugar de un blob cada uno), que se leen mapeados en memoria. Implica el manifiesto, que
+     * es el índice de los paquetes. Al guardar, los archivos que no están en el formato elegido se
+     * copian al otro (sin volver a cifrarse): una bóveda cambia de formato en su siguiente bloqueo.
+     */
+    public boolean isPackFiles() {
+        return packFiles;
+    }
+
+    public void setPackFiles(boolean packFiles) {
+        this.packFiles = packFiles;
+    }
+
+    /**
+     * Indica si las modificaciones de la unidad se registran en un diario cifrado (VaultJournal),
+     * sincronizado a disco antes de confirmarlas: un cambio es durable sin volver a cifrar el
+     * archivo, y el desbloqueo siguiente a una interrupción lo vuelve a aplicar. Implica el
+     * manifiesto, sobre el que se aplica el diario.
+     */
+    public boolean isJournal() {
+        return journal;
+    }
+
+    public void setJournal(boolean journal) {
+        this.journal = journal;
+    }
+
+    @Override
+    public String toString() {
+        return "VaultOptions{" +
+                "memoryBudgetBytes=" + memoryBudgetBytes +
+                ", offHeap=" + offHeap +
+                ", pageSize=" + pageSize +
+                ", lazyUnlock=" + lazyUnlock +
+                ", spillThresholdBytes=" + spillThresholdBytes +
+                ", unlockThreads=" + unlockThreads +
+                ", lockThreads=" + lockThreads +
+                ", checkpointIntervalMillis=" + checkpointIntervalMillis +
+                ", checkpointMaxBytesPerSecond=" + checkpointMaxBytesPerSecond +
+                ", directReadThresholdBytes=" + directReadThresholdBytes +
+                ", cipherAlias='" + cipherAlias + '\'' +
+                ", deduplication=" + deduplication +
+                ", manifest=" + manifest +
+                ", packFiles=" + packFiles +
+                ", journal=" + journal +
+                '}';
+    }
+}
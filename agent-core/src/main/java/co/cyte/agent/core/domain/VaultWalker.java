@@ -0,0 +1,116 @@
+package co.cyte.agent.core.domain;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Recorre en paralelo el árbol de directorios de una bóveda.
+ *
+ * Cada directorio se lista en una tarea de un ForkJoinPool, que lanza una tarea por cada
+ * subdirectorio: en una bóveda con cientos de carpetas, el tiempo del recorrido se reparte entre
+ * los núcleos en lugar de listar una carpeta detrás de otra. Los directorios de uso interno de la
+ * bóveda (".cyte-*": blobs, paquetes, fragmentos, desalojo) y los enlaces simbólicos no se recorren.
+ */
+final class VaultWalker {
+
+    private VaultWalker() {
+    }
+
+    /**
+     * Recorre el árbol de la bóveda.
+     *
+     * @param root Ruta de la bóveda.
+     * @param filter Archivos regulares a incluir.
+     * @param parallelism Hilos del recorrido.
+     * @return Archivos incluidos, con su tamaño, y subdirectorios recorridos.
+     * @throws IOException Si algún directorio no se pudo listar.
+     */
+    static Listing walk(Path root, DirectoryStream.Filter<Path> filter, int parallelism) throws IOException {
+        Listing listing = new Listing();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            pool.invoke(new WalkTask(root, filter, listing));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+        return listing;
+    }
+
+    /**
+     * Lista un directorio: agrega sus archivos y recorre sus subdirectorios en tareas propias.
+     */
+    private static final class WalkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final DirectoryStream.Filter<Path> filter;
+        private final Listing listing;
+
+        WalkTask(Path directory, DirectoryStream.Filter<Path> filter, Listing listing) {
+            this.directory = directory;
+            this.filter = filter;
+            this.listing = listing;
+        }
+
+        @Override
+        protected void compute() {
+            List<WalkTask> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path entry : stream) {
+                    BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory()) {
+                        if (!Vault.isInternal(entry)) {
+                            listing.directories.add(entry);
+                            subdirectories.add(new WalkTask(entry, filter, listing));
+                        }
+                    } else if (attributes.isRegularFile() && filter.accept(entry)) {
+                        listing.files.put(entry, attributes.size());
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            invokeAll(subdirectories);
+        }
+    }
+
+    /**
+     * Resultado de un recorrido.
+     */
+    static final class Listing {
+        private final Map<Path, Long> files = new ConcurrentHashMap<>();
+        private final Set<Path> directories = ConcurrentHashMap.newKeySet();
+
+        /**
+         * Retorna los archivos incluidos, con su tamaño.
+         */
+        Map<Path, Long> files() {
+            return Collections.unmodifiableMap(files);
+        }
+
+        /**
+         * Retorna los subdirectorios recorridos (sin la raíz), de los más profundos a los menos.
+         */
+        List<Path> directoriesDeepestFirst() {
+            List<Path> sorted = new ArrayList<>(directories);
+            sorted.sort((a, b) -> b.getNameCount() - a.getNameCount());
+            return sorted;
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package co.cyte.agent.core.domain;
 
-import java.io.ByteArrayOutputStream;
-import java.util.Map;
+import co.cyte.agent.core.storage.FileContent;
+import co.cyte.agent.core.storage.FileTree;
 
 /**
  * Interfaz que define el contrato de una unidad virtual.
@@ -11,7 +11,25 @@ import java.util.Map;
 public interface VirtualDrive {
     /**
      * Retorna el mapa que asocia el nombre de archivo con su contenido descifrado.
-     * @return Map en el que la clave es el nombre del archivo y el valor es su contenido en memoria.
+     * Además de mapa, es un árbol de directorios que permite consultar y listar carpetas
+     * sin recorrer todas las claves.
+     * @return FileTree en el que la clave es la ruta del archivo y el valor es su contenido en memoria.
      */
-    Map<String, ByteArrayOutputStream> getDecryptedFiles();
+    FileTree getDecryptedFiles();
+
+    /**
+     * Crea un contenido vacío respaldado por la memoria de la unidad (heap o nativa),
+     * sujeto a su presupuesto. Debe usarse para todo archivo nuevo que se agregue al mapa.
+     * @return Contenido vacío listo para escribir.
+     */
+    FileContent newFileContent();
+
+    /**
+     * Retorna el diario donde se registran las modificaciones antes de confirmarlas al llamador,
+     * o null si la unidad no tiene diario.
+     * @return Diario de la unidad, o null.
+     */
+    default VaultJournal getJournal() {
+        return null;
+    }
 }
@@ -1,23 +1,66 @@
 package co.cyte.agent.core.services;
 
+import co.cyte.agent.core.crypto.KeyMaterial;
 import co.cyte.agent.core.domain.UserSession;
 
+import java.io.IOException;
+
 /**
  * AuthenticationService se encarga de gestionar la autenticación de usuarios.
+ *
+ * Si las claves del KeyManager están protegidas con contraseña, authenticate() deriva la clave
+ * de la contraseña (la operación costosa, calibrada por KeyManager) una sola vez por sesión y la
+ * conserva en la UserSession hasta logout(); las bóvedas y los archivos usan después las claves
+ * ya desbloqueadas.
  */
 public class AuthenticationService {
 
+    private final KeyManager keyManager;
+
+    /**
+     * Constructor por defecto, sobre el KeyManager compartido.
+     */
+    public AuthenticationService() {
+        this(KeyManager.getDefault());
+    }
+
+    /**
+     * Constructor que desbloquea las claves del KeyManager indicado.
+     *
+     * @param keyManager KeyManager cuyas claves protege la contraseña.
+     */
+    public AuthenticationService(KeyManager keyManager) {
+        this.keyManager = keyManager;
+    }
+
     /**
-     * Autentica al usuario con las credenciales proporcionadas.
+     * Autentica al usuario con las credenciales proporcionadas y, si las claves están protegidas
+     * con contraseña, las desbloquea.
      *
      * @param username Nombre de usuario ingresado.
      * @param password Contraseña ingresada.
-     * @return Un objeto UserSession representando la sesión del usuario.
+     * @return Un objeto UserSession representando la sesión del usuario (no autenticada si la
+     *         contraseña es incorrecta).
      */
     public UserSession authenticate(String username, String password) {
-        // TODO
         UserSession session = new UserSession();
         session.setUsername(username);
+        try {
+            if (keyManager.isPasswordProtected()) {
+                KeyMaterial key = keyManager.derivePasswordKey(password.toCharArray());
+                try {
+                    keyManager.unlock(key);
+                } catch (IOException e) {
+                    key.destroy();
+                    throw e;
+                }
+                session.setKeyMaterial(key);
+            }
+        } catch (IOException e) {
+            System.out.println("No se pudo autenticar a " + username + ": " + e.getMessage());
+            session.setAuthenticated(false);
+            return session;
+        }
         session.setAuthenticated(true);
         // Genera un token simulado
         session.setToken(generateDummyToken(username));
@@ -25,7 +68,23 @@ public class AuthenticationService {
     }
 
     /**
-     * Cierra la sesión del usuario.
+     * Vuelve a desbloquear las claves con la clave derivada de la sesión, sin repetir la
+     * derivación (por ejemplo, si se bloquearon mientras la sesión seguía abierta).
+     *
+     * @param session Sesión autenticada.
+     * @throws IOException Si la sesión no conserva una clave válida.
+     */
+    public void unlockKeys(UserSession session) throws IOException {
+        if (!isAuthenticated(session)) {
+            throw new IOException("La sesión no está autenticada");
+        }
+        if (session.getKeyMaterial() != null) {
+            keyManager.unlock(session.getKeyMaterial());
+        }
+    }
+
+    /**
+     * Cierra la sesión del usuario: bloquea las claves y borra la clave derivada de la contraseña.
      *
      * @param session La sesión a cerrar.
      */
@@ -33,6 +92,11 @@ public class AuthenticationService {
         if (session != null) {
             session.setAuthenticated(false);
             session.setToken(null);
+            keyManager.lock();
+            if (session.getKeyMaterial() != null) {
+                session.getKeyMaterial().destroy();
+                session.setKeyMaterial(null);
+            }
         }
     }
 
@@ -59,15 +123,24 @@ public class AuthenticationService {
     }
 
     /**
-     * Registra un nuevo usuario.
+     * Registra un nuevo usuario: protege las claves con su contraseña.
      *
      * @param username Nombre de usuario.
-     * @param password Contraseña (en una implementación real, se hashearía).
-     * @return true si el registro fue exitoso, false en caso contrario.
+     * @param password Contraseña; no se guarda, solo la clave maestra envuelta con su derivación.
+     * @return true si el registro fue exitoso, false si las claves ya tienen contraseña o no se pudieron guardar.
      */
     public boolean registerUser(String username, String password) {
-        //TODO
-        return true; // Stub: siempre exitoso por ahora.
+        try {
+            if (keyManager.isPasswordProtected()) {
+                System.out.println("Las claves ya están protegidas con una contraseña");
+                return false;
+            }
+            keyManager.changePassword(password.toCharArray());
+            return true;
+        } catch (IOException e) {
+            System.out.println("No se pudo registrar a " + username + ": " + e.getMessage());
+            return false;
+        }
     }
 
     /**
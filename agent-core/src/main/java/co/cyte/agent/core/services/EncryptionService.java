@@ -1,16 +1,30 @@
 package co.cyte.agent.core.services;
 
 import co.cyte.agent.core.crypto.AESCipher;
+import co.cyte.agent.core.crypto.CipherRegistry;
 import co.cyte.agent.core.crypto.EncryptionAlgorithm;
+import co.cyte.agent.core.crypto.PositionalReader;
+import co.cyte.agent.core.crypto.RandomAccessDecryptor;
+import javax.crypto.SecretKey;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Servicio encargado de realizar operaciones de cifrado y descifrado.
  *
- * Utiliza internamente una implementación de EncryptionAlgorithm (en este caso, AESCipher)
- * para delegar la lógica de transformación.
+ * Utiliza internamente una implementación de EncryptionAlgorithm (por defecto, AESCipher) para
+ * delegar la lógica de transformación; el alias de cada operación elige, en el CipherRegistry,
+ * la suite con la que se cifran los archivos nuevos.
  */
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -19,10 +33,55 @@ public class EncryptionService {
     private final EncryptionAlgorithm encryptionAlgorithm;
 
     /**
-     * Constructor por defecto que utiliza AESCipher como algoritmo de cifrado.
+     * Constructor por defecto que utiliza AESCipher como algoritmo de cifrado, con las claves
+     * del KeyManager compartido.
      */
     public EncryptionService() {
-        this.encryptionAlgorithm = new AESCipher();
+        this(new AESCipher(KeyManager.getDefault()));
+    }
+
+    /**
+     * Constructor usado por Spring: AESCipher con las claves del KeyManager compartido y el
+     * umbral de paralelismo configurado. Al iniciar mide en segundo plano el rendimiento de las
+     * suites de cifrado disponibles, para elegir la más rápida de cada alias.
+     *
+     * @param parallelThresholdMb MiB de un archivo a partir de los cuales se cifra y descifra en
+     *                            paralelo (0 = siempre secuencial).
+     * @param kdfTargetMs         Latencia con que se calibra la derivación de las contraseñas nuevas, en ms.
+     * @param compression         Comprimir los segmentos de los archivos nuevos antes de cifrarlos.
+     */
+    @Autowired
+    public EncryptionService(@Value("${vault.crypto.parallel-threshold-mb:4}") long parallelThresholdMb,
+                             @Value("${vault.keys.kdf-target-ms:500}") long kdfTargetMs,
+                             @Value("${vault.crypto.compression:false}") boolean compression) {
+        this(withCompression(new AESCipher(withKdfTarget(KeyManager.getDefault(), kdfTargetMs),
+                withBackgroundBenchmark(CipherRegistry.getDefault()),
+                parallelThresholdMb > 0 ? parallelThresholdMb * 1024 * 1024 : Long.MAX_VALUE,
+                ForkJoinPool.commonPool()), compression));
+    }
+
+    private static AESCipher withCompression(AESCipher cipher, boolean compression) {
+        cipher.setCompressionEnabled(compression);
+        return cipher;
+    }
+
+    private static KeyManager withKdfTarget(KeyManager keyManager, long kdfTargetMs) {
+        keyManager.setKdfTargetMillis(kdfTargetMs);
+        return keyManager;
+    }
+
+    private static CipherRegistry withBackgroundBenchmark(CipherRegistry registry) {
+        registry.benchmarkInBackground();
+        return registry;
+    }
+
+    /**
+     * Constructor que utiliza el algoritmo de cifrado indicado.
+     *
+     * @param encryptionAlgorithm Algoritmo en el que se delegan las operaciones.
+     */
+    public EncryptionService(EncryptionAlgorithm encryptionAlgorithm) {
+        this.encryptionAlgorithm = encryptionAlgorithm;
     }
 
     /**
@@ -30,7 +89,7 @@ public class EncryptionService {
      *
      * @param in    El InputStream con los datos originales.
      * @param alias Alias que identifica el algoritmo (por ejemplo, "AES").
-     * @param out   El OutputStream donde se escribirán los datos "cifrados".
+     * @param out   El OutputStream donde se escribirán los datos cifrados.
      * @throws Exception Si ocurre algún error durante la operación.
      */
     public void encrypt(InputStream in, String alias, OutputStream out) throws Exception {
@@ -40,12 +99,152 @@ public class EncryptionService {
     /**
      * Descifra los datos del InputStream y escribe el resultado en el OutputStream.
      *
-     * @param in    El InputStream con los datos "cifrados".
+     * @param in    El InputStream con los datos cifrados.
      * @param alias Alias que identifica el algoritmo.
-     * @param out   El OutputStream donde se escribirán los datos "descifrados".
+     * @param out   El OutputStream donde se escribirán los datos descifrados.
      * @throws Exception Si ocurre algún error durante la operación.
      */
     public void decrypt(InputStream in, String alias, OutputStream out) throws Exception {
         encryptionAlgorithm.decrypt(in, alias, out);
     }
+
+    /**
+     * Cifra los bytes restantes de src y escribe el resultado completo en dst.
+     *
+     * @param src   Datos originales; se consumen por completo.
+     * @param alias Alias que identifica el algoritmo.
+     * @param dst   Destino de los datos cifrados; necesita encryptedSize(src.remaining()) bytes libres.
+     * @throws Exception Si ocurre algún error durante la operación.
+     */
+    public void encrypt(ByteBuffer src, String alias, ByteBuffer dst) throws Exception {
+        encryptionAlgorithm.encrypt(src, alias, dst);
+    }
+
+    /**
+     * Descifra los bytes restantes de src y escribe el texto plano en dst.
+     *
+     * @param src   Datos cifrados completos; se consumen por completo.
+     * @param alias Alias que identifica el algoritmo.
+     * @param dst   Destino del texto plano; necesita decryptedSize(src.remaining()) bytes libres.
+     * @throws Exception Si ocurre algún error durante la operación o los datos fueron alterados.
+     */
+    public void decrypt(ByteBuffer src, String alias, ByteBuffer dst) throws Exception {
+        encryptionAlgorithm.decrypt(src, alias, dst);
+    }
+
+    /**
+     * Cifra el contenido del canal de entrada y escribe el resultado en el de salida.
+     *
+     * @param in    Canal con los datos originales.
+     * @param alias Alias que identifica el algoritmo.
+     * @param out   Canal donde se escribirán los datos cifrados.
+     * @throws Exception Si ocurre algún error durante la operación.
+     */
+    public void encrypt(ReadableByteChannel in, String alias, WritableByteChannel out) throws Exception {
+        encryptionAlgorithm.encrypt(in, alias, out);
+    }
+
+    /**
+     * Descifra el contenido del canal de entrada y escribe el resultado en el de salida.
+     *
+     * @param in    Canal con los datos cifrados.
+     * @param alias Alias que identifica el algoritmo.
+     * @param out   Canal donde se escribirán los datos descifrados.
+     * @throws Exception Si ocurre algún error durante la operación o los datos fueron alterados.
+     */
+    public void decrypt(ReadableByteChannel in, String alias, WritableByteChannel out) throws Exception {
+        encryptionAlgorithm.decrypt(in, alias, out);
+    }
+
+    /**
+     * Calcula el tamaño que tendrán los datos una vez cifrados.
+     *
+     * @param plainSize Tamaño de los datos originales, en bytes.
+     * @param alias     Alias que identifica el algoritmo.
+     * @return Tamaño de los datos cifrados, en bytes.
+     */
+    public long encryptedSize(long plainSize, String alias) {
+        return encryptionAlgorithm.encryptedSize(plainSize, alias);
+    }
+
+    /**
+     * Calcula el tamaño que tendrán los datos una vez descifrados, sin leerlos.
+     *
+     * @param encryptedSize Tamaño de los datos cifrados, en bytes.
+     * @param alias         Alias que identifica el algoritmo.
+     * @return Tamaño de los datos descifrados, en bytes.
+     */
+    public long decryptedSize(long encryptedSize, String alias) {
+        return encryptionAlgorithm.decryptedSize(encryptedSize, alias);
+    }
+
+    /**
+     * Calcula el tamaño que tendrá un archivo cifrado una vez descifrado, sin descifrarlo.
+     *
+     * @param file  Archivo cifrado.
+     * @param alias Alias que identifica el algoritmo.
+     * @return Tamaño de los datos descifrados, en bytes.
+     * @throws IOException Si el archivo no se pudo leer.
+     */
+    public long decryptedSize(Path file, String alias) throws IOException {
+        return encryptionAlgorithm.decryptedSize(file, alias);
+    }
+
+    /**
+     * Retorna el tamaño de los segmentos que el algoritmo cifra por separado.
+     *
+     * @param alias Alias que identifica el algoritmo.
+     * @return Bytes por segmento, o 0 si solo se cifran archivos completos.
+     */
+    public int segmentSize(String alias) {
+        return encryptionAlgorithm.segmentSize(alias);
+    }
+
+    /**
+     * Abre un archivo cifrado para leerlo en cualquier posición, descifrando solo lo que se lee.
+     *
+     * @param file  Archivo cifrado.
+     * @param alias Alias que identifica el algoritmo.
+     * @return Lector del texto plano; el llamador debe cerrarlo.
+     * @throws Exception Si el archivo no se pudo abrir o no tiene un formato válido.
+     */
+    public RandomAccessDecryptor openReader(Path file, String alias) throws Exception {
+        return encryptionAlgorithm.openReader(file, alias);
+    }
+
+    /**
+     * Cifra una nueva versión de un archivo volviendo a cifrar solo los segmentos modificados.
+     *
+     * @param origin          Versión cifrada anterior del archivo.
+     * @param plaintext       Contenido actual del archivo.
+     * @param size            Tamaño actual del archivo.
+     * @param changedSegments Índices de los segmentos modificados respecto de origin.
+     * @param alias           Alias que identifica el algoritmo.
+     * @param out             Canal donde se escribirá la nueva versión cifrada.
+     * @throws Exception Si ocurre algún error durante la operación.
+     */
+    public void reencrypt(Path origin, PositionalReader plaintext, long size, BitSet changedSegments,
+                          String alias, WritableByteChannel out) throws Exception {
+        encryptionAlgorithm.reencrypt(origin, plaintext, size, changedSegments, alias, out);
+    }
+
+    /**
+     * Deriva de la clave del alias una clave independiente para el uso indicado.
+     *
+     * @param alias   Alias que identifica el algoritmo y su clave.
+     * @param purpose Uso de la clave derivada.
+     * @return Clave HMAC-SHA256.
+     * @throws Exception Si la clave del alias no se pudo obtener.
+     */
+    public SecretKey deriveKey(String alias, String purpose) throws Exception {
+        return encryptionAlgorithm.deriveKey(alias, purpose);
+    }
+
+    /**
+     * Descarta las claves derivadas de cada archivo que el algoritmo conserve en caché (KeyManager
+     * lo hace al bloquearse, por ejemplo al cerrar la sesión).
+     */
+    public void clearKeyCache() {
+        encryptionAlgorithm.clearKeyCache();
+    }
 }
@@ -1,4 +1,538 @@
 package co.cyte.agent.core.services;
 
-public class KeyManager {
+import co.cyte.agent.core.crypto.CryptoUtils;
+import co.cyte.agent.core.crypto.KeyGenerator;
+import co.cyte.agent.core.crypto.KeyMaterial;
+import co.cyte.agent.core.crypto.KeyProvider;
+import co.cyte.agent.core.crypto.PasswordKdf;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * KeyManager administra las claves con las que se cifran las bóvedas, una por alias.
+ *
+ * Las claves se guardan con cifrado de sobre en una tabla pequeña ("keys.properties"):
+ * - Cada alias tiene una clave de datos aleatoria, de la que se derivan las claves de sus archivos.
+ * - Las claves de datos se guardan envueltas (cifradas) con una clave maestra.
+ * - La clave maestra se guarda envuelta con la clave de la contraseña del usuario (PBKDF2) o, si
+ *   no se configuró una contraseña, con un archivo de clave aleatorio ("master.key").
+ *
+ * Cambiar la contraseña solo vuelve a envolver la clave maestra, y rotar la clave maestra solo
+ * vuelve a envolver las claves de datos: ninguna de las dos operaciones toca los archivos
+ * cifrados, de modo que tardan milisegundos sea cual sea el tamaño de las bóvedas.
+ *
+ * La clave de la contraseña se deriva una vez por sesión (ver AuthenticationService) y se conserva
+ * como KeyMaterial hasta lock(); las iteraciones de PBKDF2 de una contraseña nueva se calibran
+ * para que la derivación tarde la latencia configurada en este equipo.
+ *
+ * Sin directorio, la tabla y las claves solo viven en memoria. Las claves de archivos ".key" de
+ * versiones anteriores se importan a la tabla la primera vez que se piden.
+ */
+public class KeyManager implements KeyProvider {
+
+    /** Calibrar las iteraciones de PBKDF2 de las contraseñas nuevas según la latencia configurada. */
+    public static final int AUTO_ITERATIONS = 0;
+
+    private static final String TABLE_FILE = "keys.properties";
+    private static final String MASTER_KEY_FILE = "master.key";
+    private static final String LEGACY_KEY_EXTENSION = ".key";
+    private static final int SALT_SIZE = 16;
+
+    private static final String FORMAT = "format";
+    private static final String PROTECTION = "protection";
+    private static final String PASSWORD = "password";
+    private static final String KEYFILE = "keyfile";
+    private static final String KDF_SALT = "kdf.salt";
+    private static final String KDF_ITERATIONS = "kdf.iterations";
+    private static final String MASTER = "master";
+    private static final String KEY_PREFIX = "key.";
+
+    // Directorio donde se guardan las claves; null para mantenerlas solo en memoria
+    private final Path keyDirectory;
+    private final int iterations;
+    private volatile long kdfTargetMillis = PasswordKdf.DEFAULT_TARGET_MILLIS;
+    private final Properties table = new Properties();
+    private final Map<String, SecretKey> keys = new ConcurrentHashMap<>();
+    // Acciones que descartan el material derivado de las claves (por ejemplo, la caché de AESCipher)
+    private final List<Runnable> lockListeners = new CopyOnWriteArrayList<>();
+    private boolean loaded;
+    // Clave maestra desenvuelta y la que la envuelve (de la contraseña o del archivo de clave);
+    // null mientras la tabla esté bloqueada
+    private SecretKey masterKey;
+    private KeyMaterial protectionKey;
+    // Indica si protectionKey se derivó aquí (y se destruye en lock()) o la prestó una sesión
+    private boolean ownsProtectionKey;
+    // Archivo de clave en memoria (solo sin directorio y sin contraseña)
+    private SecretKey memoryKeyFile;
+
+    /**
+     * Crea un KeyManager que mantiene las claves solo en memoria.
+     */
+    public KeyManager() {
+        this(null);
+    }
+
+    /**
+     * Crea un KeyManager que guarda las claves en el directorio indicado.
+     *
+     * @param keyDirectory Directorio de las claves (se crea si no existe), o null para no guardarlas.
+     */
+    public KeyManager(Path keyDirectory) {
+        this(keyDirectory, AUTO_ITERATIONS);
+    }
+
+    /**
+     * Crea un KeyManager que guarda las claves en el directorio indicado.
+     *
+     * @param keyDirectory Directorio de las claves, o null para no guardarlas.
+     * @param iterations Iteraciones de PBKDF2 con que se protegen las contraseñas nuevas, o
+     *                   AUTO_ITERATIONS para calibrarlas.
+     */
+    public KeyManager(Path keyDirectory, int iterations) {
+        this.keyDirectory = keyDirectory;
+        this.iterations = iterations;
+    }
+
+    /**
+     * Retorna el KeyManager compartido, sobre el directorio por defecto: el que desbloquea
+     * AuthenticationService y usa EncryptionService.
+     *
+     * @return KeyManager por defecto.
+     */
+    public static KeyManager getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    private static final class DefaultHolder {
+        static final KeyManager INSTANCE = new KeyManager(defaultKeyDirectory());
+    }
+
+    /**
+     * Configura la latencia con que se calibran las iteraciones de las contraseñas nuevas.
+     *
+     * @param kdfTargetMillis Latencia de una derivación, en milisegundos.
+     */
+    public void setKdfTargetMillis(long kdfTargetMillis) {
+        this.kdfTargetMillis = kdfTargetMillis;
+    }
+
+    /**
+     * Retorna el directorio por defecto de las claves: ".cyte/keys" en el directorio del usuario.
+     *
+     * @return Ruta del directorio.
+     */
+    public static Path defaultKeyDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".cyte", "keys");
+    }
+
+    /**
+     * Retorna la clave de datos del alias; si no existe, la genera (o importa la de versiones
+     * anteriores) y la guarda envuelta en la tabla.
+     *
+     * @param alias Alias de la clave (por ejemplo, "AES").
+     * @return Clave secreta.
+     * @throws IOException Si la tabla está protegida con contraseña y no se desbloqueó, o no se pudo leer o guardar.
+     */
+    @Override
+    public SecretKey getKey(String alias) throws IOException {
+        SecretKey key = keys.get(alias);
+        if (key != null) {
+            return key;
+        }
+        synchronized (this) {
+            key = keys.get(alias);
+            if (key == null) {
+                key = loadOrGenerate(alias);
+                keys.put(alias, key);
+            }
+            return key;
+        }
+    }
+
+    /**
+     * Registra la clave de un alias, reemplazando la anterior (no se guarda en la tabla).
+     *
+     * @param alias Alias de la clave.
+     * @param key Clave secreta.
+     */
+    public void setKey(String alias, SecretKey key) {
+        keys.put(alias, key);
+    }
+
+    /**
+     * Indica si la tabla está protegida con contraseña.
+     *
+     * @return true si se necesita unlock() antes de pedir claves.
+     * @throws IOException Si la tabla no se pudo leer.
+     */
+    public synchronized boolean isPasswordProtected() throws IOException {
+        load();
+        return PASSWORD.equals(table.getProperty(PROTECTION));
+    }
+
+    /**
+     * Indica si la clave maestra está disponible.
+     *
+     * @return true si se pueden pedir claves.
+     * @throws IOException Si la tabla no se pudo leer.
+     */
+    public synchronized boolean isUnlocked() throws IOException {
+        load();
+        return masterKey != null;
+    }
+
+    /**
+     * Deriva la clave de la contraseña con la sal y las iteraciones de la tabla, para
+     * desbloquearla con unlock(KeyMaterial). Es la única operación costosa del desbloqueo.
+     *
+     * @param password Contraseña del usuario.
+     * @return Material de la clave; el llamador lo destruye al cerrar la sesión.
+     * @throws IOException Si la tabla no está protegida con contraseña o no se pudo leer.
+     */
+    public KeyMaterial derivePasswordKey(char[] password) throws IOException {
+        byte[] salt;
+        int tableIterations;
+        synchronized (this) {
+            load();
+            if (!PASSWORD.equals(table.getProperty(PROTECTION))) {
+                throw new IllegalStateException("Las claves no están protegidas con contraseña");
+            }
+            salt = decode(KDF_SALT);
+            tableIterations = Integer.parseInt(table.getProperty(KDF_ITERATIONS));
+        }
+        // Fuera del bloqueo: la derivación tarda cientos de milisegundos a propósito
+        return passwordKey(password, salt, tableIterations);
+    }
+
+    /**
+     * Desbloquea una tabla protegida con contraseña.
+     *
+     * @param password Contraseña del usuario.
+     * @throws IOException Si la contraseña es incorrecta o la tabla no se pudo leer.
+     */
+    public void unlock(char[] password) throws IOException {
+        KeyMaterial passwordKey = derivePasswordKey(password);
+        try {
+            unlock(passwordKey, true);
+        } catch (IOException e) {
+            passwordKey.destroy();
+            throw e;
+        }
+    }
+
+    /**
+     * Desbloquea una tabla protegida con contraseña con la clave ya derivada de una sesión,
+     * sin repetir la derivación. La clave se usa hasta lock(), pero no se destruye: sigue
+     * siendo de la sesión.
+     *
+     * @param passwordKey Clave derivada con derivePasswordKey().
+     * @throws IOException Si la clave no corresponde a la contraseña o la tabla no se pudo leer.
+     */
+    public void unlock(KeyMaterial passwordKey) throws IOException {
+        unlock(passwordKey, false);
+    }
+
+    private synchronized void unlock(KeyMaterial passwordKey, boolean owned) throws IOException {
+        load();
+        if (!PASSWORD.equals(table.getProperty(PROTECTION))) {
+            throw new IllegalStateException("Las claves no están protegidas con contraseña");
+        }
+        masterKey = unwrap(passwordKey.toSecretKey("AES"), MASTER, "La contraseña es incorrecta");
+        replaceProtectionKey(passwordKey, owned);
+    }
+
+    @Override
+    public void addLockListener(Runnable listener) {
+        lockListeners.add(listener);
+    }
+
+    /**
+     * Olvida la clave maestra y las claves de datos desenvueltas; con contraseña, hasta el
+     * próximo unlock(). También avisa a los listeners registrados para que descarten las claves
+     * derivadas que conserven.
+     */
+    public synchronized void lock() {
+        keys.clear();
+        if (PASSWORD.equals(table.getProperty(PROTECTION))) {
+            masterKey = null;
+            replaceProtectionKey(null, false);
+        }
+        for (Runnable listener : lockListeners) {
+            listener.run();
+        }
+    }
+
+    private void replaceProtectionKey(KeyMaterial key, boolean owned) {
+        if (ownsProtectionKey && protectionKey != null && protectionKey != key) {
+            protectionKey.destroy();
+        }
+        protectionKey = key;
+        ownsProtectionKey = owned;
+    }
+
+    /**
+     * Protege la tabla con una contraseña nueva (o la establece por primera vez, reemplazando al
+     * archivo de clave). Solo vuelve a envolver la clave maestra.
+     *
+     * @param newPassword Contraseña nueva.
+     * @throws IOException Si la tabla está bloqueada o no se pudo guardar.
+     */
+    public synchronized void changePassword(char[] newPassword) throws IOException {
+        requireUnlocked();
+        byte[] salt = KeyGenerator.randomBytes(SALT_SIZE);
+        int newIterations = iterations == AUTO_ITERATIONS ? calibratedIterations() : iterations;
+        KeyMaterial passwordKey = passwordKey(newPassword, salt, newIterations);
+        boolean hadKeyFile = KEYFILE.equals(table.getProperty(PROTECTION));
+        Properties updated = copyOfTable();
+        updated.setProperty(PROTECTION, PASSWORD);
+        updated.setProperty(KDF_SALT, encode(salt));
+        updated.setProperty(KDF_ITERATIONS, Integer.toString(newIterations));
+        updated.setProperty(MASTER, encode(wrap(passwordKey.toSecretKey("AES"), masterKey.getEncoded(), MASTER)));
+        try {
+            replaceTable(updated);
+        } catch (IOException e) {
+            passwordKey.destroy();
+            throw e;
+        }
+        replaceProtectionKey(passwordKey, true);
+        memoryKeyFile = null;
+        if (hadKeyFile && keyDirectory != null) {
+            // Se borra después de guardar la tabla, para no quedar sin forma de abrirla si se interrumpe
+            Files.deleteIfExists(keyDirectory.resolve(MASTER_KEY_FILE));
+        }
+        System.out.println("Contraseña de las claves actualizada");
+    }
+
+    /**
+     * Reemplaza la clave maestra por una nueva y vuelve a envolver con ella las claves de datos.
+     * Los archivos cifrados no cambian: sus claves se derivan de las claves de datos.
+     *
+     * @throws IOException Si la tabla está bloqueada o no se pudo guardar.
+     */
+    public synchronized void rotateMasterKey() throws IOException {
+        requireUnlocked();
+        long start = System.nanoTime();
+        SecretKey newMaster = KeyGenerator.generateAesKey();
+        Properties rotated = copyOfTable();
+        for (String name : table.stringPropertyNames()) {
+            if (name.startsWith(KEY_PREFIX)) {
+                byte[] dataKey = unwrap(masterKey, name, "Clave de datos dañada: " + name).getEncoded();
+                rotated.setProperty(name, encode(wrap(newMaster, dataKey, name)));
+            }
+        }
+        rotated.setProperty(MASTER, encode(wrap(protectionKey.toSecretKey("AES"), newMaster.getEncoded(), MASTER)));
+        // Si no se pudo guardar, la tabla y la clave maestra en memoria siguen siendo las anteriores
+        replaceTable(rotated);
+        masterKey = newMaster;
+        System.out.println("Clave maestra rotada en " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    private SecretKey loadOrGenerate(String alias) throws IOException {
+        requireUnlocked();
+        String name = KEY_PREFIX + alias;
+        if (table.getProperty(name) != null) {
+            return unwrap(masterKey, name, "Clave de datos dañada: " + alias);
+        }
+        Path legacyFile = keyDirectory == null ? null : keyDirectory.resolve(alias + LEGACY_KEY_EXTENSION);
+        SecretKey key;
+        if (legacyFile != null && Files.exists(legacyFile)) {
+            key = new SecretKeySpec(Files.readAllBytes(legacyFile), "AES");
+        } else {
+            key = KeyGenerator.generateAesKey();
+        }
+        Properties updated = copyOfTable();
+        updated.setProperty(name, encode(wrap(masterKey, key.getEncoded(), name)));
+        // La clave anterior se borra solo cuando la tabla que la contiene ya está en disco
+        replaceTable(updated);
+        if (legacyFile != null && Files.deleteIfExists(legacyFile)) {
+            System.out.println("Clave del alias " + alias + " importada a la tabla de claves");
+        } else if (keyDirectory != null) {
+            System.out.println("Clave generada para el alias " + alias);
+        }
+        return key;
+    }
+
+    /**
+     * Lee la tabla la primera vez, o la crea protegida con un archivo de clave aleatorio.
+     */
+    private void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        Path tableFile = keyDirectory == null ? null : keyDirectory.resolve(TABLE_FILE);
+        if (tableFile != null && Files.exists(tableFile)) {
+            try (InputStream in = Files.newInputStream(tableFile)) {
+                table.load(in);
+            }
+            if (!"1".equals(table.getProperty(FORMAT))) {
+                throw new IOException("Formato de tabla de claves no soportado: " + table.getProperty(FORMAT));
+            }
+            if (KEYFILE.equals(table.getProperty(PROTECTION))) {
+                SecretKey keyFile = keyFile();
+                masterKey = unwrap(keyFile, MASTER, "El archivo de clave no corresponde a la tabla");
+                replaceProtectionKey(new KeyMaterial(keyFile.getEncoded()), true);
+            }
+        } else {
+            SecretKey master = KeyGenerator.generateAesKey();
+            SecretKey keyFile = createKeyFile();
+            Properties created = new Properties();
+            created.setProperty(FORMAT, "1");
+            created.setProperty(PROTECTION, KEYFILE);
+            created.setProperty(MASTER, encode(wrap(keyFile, master.getEncoded(), MASTER)));
+            replaceTable(created);
+            masterKey = master;
+            replaceProtectionKey(new KeyMaterial(keyFile.getEncoded()), true);
+        }
+        loaded = true;
+    }
+
+    private SecretKey createKeyFile() throws IOException {
+        SecretKey key = KeyGenerator.generateAesKey();
+        if (keyDirectory == null) {
+            memoryKeyFile = key;
+        } else {
+            writeAtomically(keyDirectory.resolve(MASTER_KEY_FILE), key.getEncoded());
+        }
+        return key;
+    }
+
+    private SecretKey keyFile() throws IOException {
+        if (keyDirectory == null) {
+            return memoryKeyFile;
+        }
+        return new SecretKeySpec(Files.readAllBytes(keyDirectory.resolve(MASTER_KEY_FILE)), "AES");
+    }
+
+    private void requireUnlocked() throws IOException {
+        load();
+        if (masterKey == null) {
+            throw new IOException("Las claves están protegidas con contraseña: se debe desbloquearlas primero");
+        }
+    }
+
+    private Properties copyOfTable() {
+        Properties copy = new Properties();
+        copy.putAll(table);
+        return copy;
+    }
+
+    /**
+     * Guarda la tabla indicada y solo entonces la adopta como la tabla en memoria: si no se pudo
+     * guardar, la tabla anterior queda intacta.
+     */
+    private void replaceTable(Properties updated) throws IOException {
+        if (keyDirectory != null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            updated.store(out, "Claves de la bóveda, envueltas con la clave maestra");
+            writeAtomically(keyDirectory.resolve(TABLE_FILE), out.toByteArray());
+        }
+        table.clear();
+        table.putAll(updated);
+    }
+
+    /**
+     * Reemplaza el archivo de forma atómica y lo deja en disco antes de retornar: se fuerza el
+     * archivo temporal antes de moverlo y el directorio después, para que una interrupción no deje
+     * el archivo vacío o con la versión anterior cuando ya se borró lo que reemplaza.
+     */
+    private void writeAtomically(Path file, byte[] content) throws IOException {
+        Files.createDirectories(keyDirectory);
+        Path tempFile = Files.createTempFile(keyDirectory, file.getFileName().toString(), ".tmp");
+        try {
+            restrictToOwner(tempFile);
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory(keyDirectory);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static void syncDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // En Windows no se puede abrir un directorio; NTFS registra el renombrado en su diario.
+        }
+    }
+
+    private static KeyMaterial passwordKey(char[] password, byte[] salt, int iterations) throws IOException {
+        try {
+            return PasswordKdf.derive(password, salt, iterations);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("No se pudo derivar la clave de la contraseña", e);
+        }
+    }
+
+    private int calibratedIterations() throws IOException {
+        try {
+            return PasswordKdf.calibrate(kdfTargetMillis);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("No se pudo calibrar la derivación de contraseñas", e);
+        }
+    }
+
+    private static byte[] wrap(SecretKey wrappingKey, byte[] key, String name) throws IOException {
+        try {
+            return CryptoUtils.wrapKey(wrappingKey, key, name.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("No se pudo envolver la clave " + name, e);
+        }
+    }
+
+    private SecretKey unwrap(SecretKey wrappingKey, String name, String error) throws IOException {
+        try {
+            byte[] key = CryptoUtils.unwrapKey(wrappingKey, decode(name), name.getBytes(StandardCharsets.UTF_8));
+            return new SecretKeySpec(key, "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IOException(error, e);
+        }
+    }
+
+    private byte[] decode(String name) throws IOException {
+        String value = table.getProperty(name);
+        if (value == null) {
+            throw new IOException("Falta la entrada " + name + " en la tabla de claves");
+        }
+        return Base64.getDecoder().decode(value);
+    }
+
+    private static String encode(byte[] bytes) {
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    private static void restrictToOwner(Path file) throws IOException {
+        try {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // En Windows el archivo hereda los permisos del perfil del usuario.
+        }
+    }
 }
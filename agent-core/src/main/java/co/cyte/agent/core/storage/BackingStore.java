@@ -0,0 +1,90 @@
+package co.cyte.agent.core.storage;
+
+import co.cyte.agent.core.domain.EncryptedFile;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Operaciones que una bóveda ofrece a sus contenidos diferidos (LazyFileContent) para
+ * obtener memoria, descifrar su origen y desalojarse a disco cuando falta memoria.
+ */
+public interface BackingStore {
+
+    /**
+     * Crea un contenido residente vacío, sujeto al presupuesto de memoria de la bóveda.
+     *
+     * @return Contenido vacío.
+     */
+    FileContent allocate();
+
+    /**
+     * Descifra el archivo indicado dentro del contenido de destino.
+     *
+     * @param source Archivo cifrado (original de la bóveda o de desalojo).
+     * @param target Contenido donde se escriben los datos descifrados.
+     * @throws Exception Si ocurre algún error durante la lectura o el descifrado.
+     */
+    void load(EncryptedFile source, FileContent target) throws Exception;
+
+    /**
+     * Indica si conviene leer el archivo cifrado directamente, descifrando solo la parte que se
+     * lee, en lugar de cargarlo completo en memoria.
+     *
+     * @param source Archivo cifrado.
+     * @param size Tamaño descifrado del archivo.
+     * @return true si las lecturas pueden resolverse con readDirectly().
+     */
+    boolean canReadDirectly(EncryptedFile source, long size);
+
+    /**
+     * Lee una parte de un archivo cifrado descifrando solo los segmentos que la cubren.
+     *
+     * @param source Archivo cifrado.
+     * @param position Posición inicial dentro del texto plano.
+     * @param dst Buffer de destino; se avanza su posición en la cantidad de bytes leídos.
+     * @return Cantidad de bytes leídos, o -1 si la posición está en o después del final.
+     * @throws Exception Si ocurre algún error durante la lectura o el descifrado.
+     */
+    int readDirectly(EncryptedFile source, long position, ByteBuffer dst) throws Exception;
+
+    /**
+     * Retorna el tamaño de los segmentos que el formato cifrado permite volver a cifrar por
+     * separado; los contenidos registran qué segmentos modificaron desde su origen.
+     *
+     * @return Bytes por segmento, o 0 si los archivos solo se cifran completos.
+     */
+    default int segmentSize() {
+        return 0;
+    }
+
+    /**
+     * Cifra el contenido en un archivo del área de desalojo de la bóveda.
+     *
+     * @param content Contenido a desalojar.
+     * @return Archivo cifrado creado en el área de desalojo.
+     * @throws Exception Si ocurre algún error durante el cifrado o la escritura.
+     */
+    EncryptedFile spill(FileContent content) throws Exception;
+
+    /**
+     * Elimina un archivo del área de desalojo que ya no se necesita.
+     *
+     * @param spilled Archivo creado previamente con spill().
+     */
+    void discard(EncryptedFile spilled);
+
+    /**
+     * Notifica que el contenido se acaba de usar, para mantener el orden LRU y
+     * desalojar otros archivos si se superó el límite de memoria.
+     *
+     * @param content Contenido utilizado.
+     */
+    void accessed(LazyFileContent content);
+
+    /**
+     * Notifica que el contenido se liberó y ya no debe considerarse para desalojo.
+     *
+     * @param content Contenido liberado.
+     */
+    void released(LazyFileContent content);
+}
@@ -0,0 +1,216 @@
+package co.cyte.agent.core.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Implementación de FileContent basada en una lista de bloques (chunks) de tamaño fijo.
+ *
+ * Una escritura solo toca los bloques que cubre y crecer el archivo agrega bloques nuevos
+ * sin copiar los existentes, por lo que escribir N bytes cuesta O(N) sin importar el
+ * tamaño total. Las lecturas copian directamente desde los bloques al buffer de destino.
+ *
+ * Los bloques se obtienen de un PageAllocator, que decide si viven en el heap o en memoria
+ * nativa y aplica el presupuesto de la bóveda. Al liberar el contenido, los bloques se
+ * borran y se devuelven al asignador.
+ *
+ * Cada contenido tiene su propio bloqueo de lectura/escritura: varias lecturas del mismo
+ * archivo avanzan en paralelo, mientras que escribir, truncar o liberar es exclusivo.
+ * Operar sobre archivos distintos nunca compite por el mismo bloqueo.
+ */
+public class ChunkedFileContent implements FileContent {
+
+    /** Tamaño de bloque por defecto: 64 KiB. */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private static final PageAllocator DEFAULT_ALLOCATOR = new HeapPageAllocator(DEFAULT_CHUNK_SIZE);
+
+    private final PageAllocator allocator;
+    private final int chunkSize;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private long size;
+
+    /**
+     * Crea un contenido vacío en el heap, con el tamaño de bloque por defecto y sin límite de memoria.
+     */
+    public ChunkedFileContent() {
+        this(DEFAULT_ALLOCATOR);
+    }
+
+    /**
+     * Crea un contenido vacío en el heap con el tamaño de bloque indicado.
+     *
+     * @param chunkSize Tamaño de cada bloque, en bytes.
+     */
+    public ChunkedFileContent(int chunkSize) {
+        this(new HeapPageAllocator(chunkSize));
+    }
+
+    /**
+     * Crea un contenido vacío cuyos bloques se obtienen del asignador indicado.
+     *
+     * @param allocator Asignador de páginas de la bóveda.
+     */
+    public ChunkedFileContent(PageAllocator allocator) {
+        this.allocator = allocator;
+        this.chunkSize = allocator.pageSize();
+    }
+
+    @Override
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int read(long position, ByteBuffer dst) {
+        if (position < 0) {
+            throw new IllegalArgumentException("Posición negativa: " + position);
+        }
+        lock.readLock().lock();
+        try {
+            return readLocked(position, dst);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int readLocked(long position, ByteBuffer dst) {
+        if (position >= size) {
+            return -1;
+        }
+        int toRead = (int) Math.min(dst.remaining(), size - position);
+        int done = 0;
+        while (done < toRead) {
+            long current = position + done;
+            int offsetInChunk = (int) (current % chunkSize);
+            int n = Math.min(toRead - done, chunkSize - offsetInChunk);
+            ByteBuffer view = chunks.get((int) (current / chunkSize)).duplicate();
+            view.limit(offsetInChunk + n).position(offsetInChunk);
+            dst.put(view);
+            done += n;
+        }
+        return done;
+    }
+
+    @Override
+    public int write(long position, ByteBuffer src) {
+        if (position < 0) {
+            throw new IllegalArgumentException("Posición negativa: " + position);
+        }
+        lock.writeLock().lock();
+        try {
+            return writeLocked(position, src);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int writeLocked(long position, ByteBuffer src) {
+        int toWrite = src.remaining();
+        long end = position + toWrite;
+        ensureCapacity(end);
+        int done = 0;
+        while (done < toWrite) {
+            long current = position + done;
+            int offsetInChunk = (int) (current % chunkSize);
+            int n = Math.min(toWrite - done, chunkSize - offsetInChunk);
+            ByteBuffer view = chunks.get((int) (current / chunkSize)).duplicate();
+            view.position(offsetInChunk);
+            ByteBuffer slice = src.duplicate();
+            slice.limit(slice.position() + n);
+            view.put(slice);
+            src.position(src.position() + n);
+            done += n;
+        }
+        if (end > size) {
+            size = end;
+        }
+        return done;
+    }
+
+    @Override
+    public void truncate(long newSize) {
+        if (newSize < 0) {
+            throw new IllegalArgumentException("Tamaño negativo: " + newSize);
+        }
+        lock.writeLock().lock();
+        try {
+            truncateLocked(newSize);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void truncateLocked(long newSize) {
+        if (newSize >= size) {
+            // Los bloques nuevos ya vienen en ceros y la cola del último se limpió al reducirlo.
+            ensureCapacity(newSize);
+            size = newSize;
+            return;
+        }
+        int keep = chunkCount(newSize);
+        while (chunks.size() > keep) {
+            allocator.free(chunks.remove(chunks.size() - 1));
+        }
+        // Limpiar la cola del último bloque para que un crecimiento posterior lea ceros.
+        int tail = (int) (newSize % chunkSize);
+        if (tail != 0) {
+            Pages.zero(chunks.get(keep - 1), tail, chunkSize);
+        }
+        size = newSize;
+    }
+
+    @Override
+    public void release() {
+        lock.writeLock().lock();
+        try {
+            for (ByteBuffer chunk : chunks) {
+                allocator.free(chunk);
+            }
+            chunks.clear();
+            size = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Retorna el tamaño de bloque usado por este contenido.
+     *
+     * @return Tamaño de bloque en bytes.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkedFileContent{" +
+                "size=" + size() +
+                ", chunkSize=" + chunkSize +
+                '}';
+    }
+
+    private void ensureCapacity(long capacity) {
+        int required = chunkCount(capacity);
+        while (chunks.size() < required) {
+            chunks.add(allocator.allocate());
+        }
+    }
+
+    private int chunkCount(long bytes) {
+        long count = (bytes + chunkSize - 1) / chunkSize;
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Tamaño de archivo no soportado: " + bytes);
+        }
+        return (int) count;
+    }
+}
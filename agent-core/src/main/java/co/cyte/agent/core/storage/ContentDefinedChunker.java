@@ -0,0 +1,97 @@
+package co.cyte.agent.core.storage;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Divide un contenido en fragmentos definidos por el contenido (FastCDC con hash Gear).
+ *
+ * Los cortes se ubican donde el hash de los últimos 64 bytes cumple una condición, no en
+ * posiciones fijas: insertar o borrar bytes en un archivo solo cambia los fragmentos cercanos a la
+ * modificación, y el resto coincide con los de la versión anterior. Así, varias versiones de un
+ * mismo documento comparten la mayoría de sus fragmentos.
+ *
+ * Para acercar los tamaños al promedio se usa el corte normalizado de FastCDC: antes del promedio
+ * la condición es más exigente y después, más laxa. Los fragmentos miden entre MIN_SIZE y
+ * MAX_SIZE bytes.
+ *
+ * La tabla Gear se genera a partir de una semilla: si es secreta, las posiciones de los cortes (y
+ * con ellas los tamaños de los fragmentos) no permiten reconocer contenidos conocidos.
+ */
+public final class ContentDefinedChunker {
+
+    /** Tamaño mínimo de un fragmento (salvo el último del contenido). */
+    public static final int MIN_SIZE = 8 * 1024;
+    /** Tamaño promedio buscado. */
+    public static final int AVERAGE_SIZE = 32 * 1024;
+    /** Tamaño máximo de un fragmento. */
+    public static final int MAX_SIZE = 128 * 1024;
+
+    // Condiciones de corte antes y después del promedio: 2 bits más y 2 bits menos que log2(AVERAGE_SIZE)
+    private static final long MASK_SMALL = topBits(17);
+    private static final long MASK_LARGE = topBits(13);
+
+    private final long[] gear = new long[256];
+
+    /**
+     * Crea un divisor con la tabla Gear generada a partir de la semilla.
+     *
+     * @param seed Semilla de la tabla (por ejemplo, una clave derivada de la bóveda).
+     */
+    public ContentDefinedChunker(byte[] seed) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            ByteBuffer table = ByteBuffer.allocate(gear.length * Long.BYTES);
+            for (int counter = 0; table.hasRemaining(); counter++) {
+                sha256.update(seed);
+                sha256.update(new byte[]{(byte) (counter >>> 8), (byte) counter});
+                table.put(sha256.digest());
+            }
+            table.flip();
+            for (int i = 0; i < gear.length; i++) {
+                gear[i] = table.getLong();
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no está disponible", e);
+        }
+    }
+
+    /**
+     * Retorna la longitud del fragmento que comienza en la posición actual del buffer.
+     *
+     * El buffer debe contener al menos MAX_SIZE bytes desde su posición, o todos los que le
+     * quedan al contenido: si no se encuentra un corte, el fragmento ocupa todo lo disponible hasta
+     * MAX_SIZE. La posición del buffer no cambia.
+     *
+     * @param data Contenido a partir del inicio del fragmento.
+     * @return Longitud del fragmento, en bytes (0 si no quedan datos).
+     */
+    public int nextChunkLength(ByteBuffer data) {
+        int start = data.position();
+        int available = Math.min(data.remaining(), MAX_SIZE);
+        if (available <= MIN_SIZE) {
+            return available;
+        }
+        int normal = Math.min(available, AVERAGE_SIZE);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + gear[data.get(start + i) & 0xFF];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < available; i++) {
+            hash = (hash << 1) + gear[data.get(start + i) & 0xFF];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return available;
+    }
+
+    private static long topBits(int bits) {
+        return -1L << (Long.SIZE - bits);
+    }
+}
@@ -0,0 +1,20 @@
+package co.cyte.agent.core.storage;
+
+/**
+ * Se lanza cuando el contenido de un archivo no se puede cargar desde su origen cifrado
+ * (por ejemplo, al descifrar bajo demanda un archivo de una bóveda desbloqueada en modo diferido).
+ */
+public class ContentLoadException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Crea la excepción con el mensaje y la causa indicados.
+     *
+     * @param message Descripción del error.
+     * @param cause Error original.
+     */
+    public ContentLoadException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,167 @@
+package co.cyte.agent.core.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Contenido en memoria de un archivo descifrado de la unidad virtual.
+ *
+ * Reemplaza al ByteArrayOutputStream como valor del mapa de VirtualDrive: permite leer y
+ * escribir en una posición arbitraria y ajustar el tamaño sin copiar el archivo completo,
+ * de modo que el costo de cada operación sea proporcional a los bytes involucrados.
+ */
+public interface FileContent {
+
+    /**
+     * Retorna el tamaño lógico del contenido, en bytes.
+     *
+     * @return Tamaño del archivo.
+     */
+    long size();
+
+    /**
+     * Copia en dst los bytes que inician en la posición indicada, hasta llenar el buffer
+     * o alcanzar el final del archivo.
+     *
+     * @param position Posición inicial dentro del archivo.
+     * @param dst Buffer de destino; se avanza su posición en la cantidad de bytes leídos.
+     * @return Cantidad de bytes leídos, o -1 si la posición está en o después del final.
+     */
+    int read(long position, ByteBuffer dst);
+
+    /**
+     * Escribe el contenido restante de src a partir de la posición indicada. Si la posición
+     * está más allá del final, el hueco intermedio se rellena con ceros.
+     *
+     * @param position Posición inicial dentro del archivo.
+     * @param src Buffer con los datos a escribir; se consume por completo.
+     * @return Cantidad de bytes escritos.
+     */
+    int write(long position, ByteBuffer src);
+
+    /**
+     * Ajusta el tamaño del archivo. Si el nuevo tamaño es menor se descarta el resto;
+     * si es mayor, el archivo se extiende con ceros.
+     *
+     * @param newSize Nuevo tamaño en bytes.
+     */
+    void truncate(long newSize);
+
+    /**
+     * Libera la memoria asociada al contenido. Tras invocarlo el archivo queda vacío.
+     */
+    void release();
+
+    /**
+     * Retorna un InputStream que recorre el contenido desde el inicio.
+     *
+     * @return InputStream de lectura secuencial.
+     */
+    default InputStream newInputStream() {
+        return new InputStream() {
+            private long position;
+
+            @Override
+            public int read() {
+                byte[] single = new byte[1];
+                return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                int n = FileContent.this.read(position, ByteBuffer.wrap(b, off, len));
+                if (n > 0) {
+                    position += n;
+                }
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Retorna un OutputStream que agrega datos al final del contenido.
+     *
+     * @return OutputStream de escritura secuencial.
+     */
+    default OutputStream newOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                FileContent.this.write(size(), ByteBuffer.wrap(b, off, len));
+            }
+        };
+    }
+
+    /**
+     * Retorna un canal que recorre el contenido desde el inicio. A diferencia del InputStream,
+     * copia directamente al ByteBuffer del llamador (que puede ser directo).
+     *
+     * @return Canal de lectura secuencial.
+     */
+    default ReadableByteChannel newReadableChannel() {
+        return new ReadableByteChannel() {
+            private long position;
+            private boolean open = true;
+
+            @Override
+            public int read(ByteBuffer dst) {
+                if (!dst.hasRemaining()) {
+                    return 0;
+                }
+                int n = FileContent.this.read(position, dst);
+                if (n > 0) {
+                    position += n;
+                }
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return open;
+            }
+
+            @Override
+            public void close() {
+                open = false;
+            }
+        };
+    }
+
+    /**
+     * Retorna un canal que agrega datos al final del contenido.
+     *
+     * @return Canal de escritura secuencial.
+     */
+    default WritableByteChannel newWritableChannel() {
+        return new WritableByteChannel() {
+            private boolean open = true;
+
+            @Override
+            public int write(ByteBuffer src) {
+                return FileContent.this.write(size(), src);
+            }
+
+            @Override
+            public boolean isOpen() {
+                return open;
+            }
+
+            @Override
+            public void close() {
+                open = false;
+            }
+        };
+    }
+}
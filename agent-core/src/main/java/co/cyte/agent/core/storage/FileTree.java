@@ -0,0 +1,322 @@
+package co.cyte.agent.core.storage;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Mapa de archivos descifrados de una unidad virtual, indexado además como árbol de directorios.
+ *
+ * Las claves son rutas relativas separadas por "\" (por ejemplo "sub\informe.docx"). Además del
+ * mapa ruta → contenido, se mantiene un nodo por directorio con los nombres de sus archivos y
+ * subdirectorios, de modo que saber si una ruta es un directorio cuesta O(1) y listar un
+ * directorio cuesta O(hijos), sin recorrer todas las claves.
+ *
+ * Los directorios intermedios se crean al agregar un archivo y se conservan al quedar vacíos;
+ * también pueden crearse de forma explícita con createDirectory(). Las modificaciones se
+ * serializan sobre la instancia; las lecturas (get, containsKey, listados) no se bloquean.
+ */
+public class FileTree extends AbstractMap<String, FileContent> {
+
+    /** Separador de componentes en las rutas del árbol. */
+    public static final char SEPARATOR = '\\';
+
+    private final Map<String, FileContent> files = new ConcurrentHashMap<>();
+    // Índice de directorios por ruta; "" es la raíz
+    private final Map<String, Directory> directories = new ConcurrentHashMap<>();
+    private final Set<Entry<String, FileContent>> entrySet = new EntrySet();
+
+    /**
+     * Nodo de directorio: nombres de los archivos y subdirectorios que contiene.
+     */
+    private static class Directory {
+        final Set<String> files = ConcurrentHashMap.newKeySet();
+        final Set<String> subdirectories = ConcurrentHashMap.newKeySet();
+
+        boolean isEmpty() {
+            return files.isEmpty() && subdirectories.isEmpty();
+        }
+    }
+
+    public FileTree() {
+        directories.put("", new Directory());
+    }
+
+    @Override
+    public FileContent get(Object path) {
+        return files.get(path);
+    }
+
+    @Override
+    public boolean containsKey(Object path) {
+        return files.containsKey(path);
+    }
+
+    @Override
+    public int size() {
+        return files.size();
+    }
+
+    @Override
+    public synchronized FileContent put(String path, FileContent content) {
+        if (content == null) {
+            throw new NullPointerException("El contenido no puede ser nulo: " + path);
+        }
+        if (path.isEmpty() || directories.containsKey(path)) {
+            throw new IllegalArgumentException("La ruta corresponde a un directorio: " + path);
+        }
+        Directory parent = ensureDirectory(parentOf(path));
+        FileContent previous = files.put(path, content);
+        parent.files.add(nameOf(path));
+        return previous;
+    }
+
+    @Override
+    public synchronized FileContent remove(Object path) {
+        FileContent removed = files.remove(path);
+        if (removed != null) {
+            String key = (String) path;
+            directories.get(parentOf(key)).files.remove(nameOf(key));
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized void clear() {
+        files.clear();
+        directories.clear();
+        directories.put("", new Directory());
+    }
+
+    @Override
+    public Set<Entry<String, FileContent>> entrySet() {
+        return entrySet;
+    }
+
+    /**
+     * Indica si la ruta corresponde a un directorio (la raíz es "").
+     *
+     * @param path Ruta relativa.
+     * @return true si existe un directorio con esa ruta.
+     */
+    public boolean isDirectory(String path) {
+        return directories.containsKey(path);
+    }
+
+    /**
+     * Indica si el directorio existe y no contiene archivos ni subdirectorios.
+     *
+     * @param path Ruta relativa del directorio.
+     * @return true si el directorio existe y está vacío.
+     */
+    public boolean isEmptyDirectory(String path) {
+        Directory directory = directories.get(path);
+        return directory != null && directory.isEmpty();
+    }
+
+    /**
+     * Crea un directorio vacío, junto con los directorios intermedios que falten.
+     *
+     * @param path Ruta relativa del directorio.
+     * @return true si se creó; false si ya existía o hay un archivo con esa ruta.
+     */
+    public synchronized boolean createDirectory(String path) {
+        if (path.isEmpty() || directories.containsKey(path) || files.containsKey(path)) {
+            return false;
+        }
+        ensureDirectory(path);
+        return true;
+    }
+
+    /**
+     * Elimina un directorio vacío.
+     *
+     * @param path Ruta relativa del directorio.
+     * @return true si se eliminó; false si no existe, es la raíz o no está vacío.
+     */
+    public synchronized boolean removeDirectory(String path) {
+        Directory directory = directories.get(path);
+        if (path.isEmpty() || directory == null || !directory.isEmpty()) {
+            return false;
+        }
+        directories.remove(path);
+        directories.get(parentOf(path)).subdirectories.remove(nameOf(path));
+        return true;
+    }
+
+    /**
+     * Retorna los nombres (sin ruta) de los archivos contenidos directamente en un directorio.
+     *
+     * @param path Ruta relativa del directorio ("" para la raíz).
+     * @return Nombres de los archivos, o una colección vacía si el directorio no existe.
+     */
+    public Collection<String> listFiles(String path) {
+        Directory directory = directories.get(path);
+        return directory != null ? Collections.unmodifiableSet(directory.files) : Collections.<String>emptySet();
+    }
+
+    /**
+     * Retorna los nombres (sin ruta) de los subdirectorios contenidos directamente en un directorio.
+     *
+     * @param path Ruta relativa del directorio ("" para la raíz).
+     * @return Nombres de los subdirectorios, o una colección vacía si el directorio no existe.
+     */
+    public Collection<String> listDirectories(String path) {
+        Directory directory = directories.get(path);
+        return directory != null ? Collections.unmodifiableSet(directory.subdirectories) : Collections.<String>emptySet();
+    }
+
+    /**
+     * Retorna las rutas de todos los directorios del árbol, excepto la raíz.
+     *
+     * @return Rutas relativas de los directorios.
+     */
+    public Collection<String> directoryPaths() {
+        List<String> paths = new ArrayList<>(directories.keySet());
+        paths.remove("");
+        return paths;
+    }
+
+    /**
+     * Mueve o renombra un archivo o un directorio completo. El destino no debe existir
+     * (el llamador decide si eliminarlo antes) y un directorio no puede moverse dentro de sí mismo.
+     *
+     * @param from Ruta relativa de origen.
+     * @param to Ruta relativa de destino.
+     * @return true si se movió; false si el origen no existe o el destino no es válido.
+     */
+    public synchronized boolean move(String from, String to) {
+        if (from.equals(to)) {
+            return files.containsKey(from) || directories.containsKey(from);
+        }
+        if (to.isEmpty() || files.containsKey(to) || directories.containsKey(to)) {
+            return false;
+        }
+        if (files.containsKey(from)) {
+            put(to, remove(from));
+            return true;
+        }
+        if (from.isEmpty() || !directories.containsKey(from) || to.startsWith(from + SEPARATOR)) {
+            return false;
+        }
+        // Se reubica el subárbol: los nodos conservan sus hijos, solo cambian las rutas.
+        String prefix = from + SEPARATOR;
+        List<String> movedDirectories = new ArrayList<>();
+        for (String dir : directories.keySet()) {
+            if (dir.startsWith(prefix)) {
+                movedDirectories.add(dir);
+            }
+        }
+        Directory moved = directories.remove(from);
+        directories.get(parentOf(from)).subdirectories.remove(nameOf(from));
+        ensureDirectory(parentOf(to)).subdirectories.add(nameOf(to));
+        directories.put(to, moved);
+        for (String dir : movedDirectories) {
+            String target = to + dir.substring(from.length());
+            Directory node = directories.remove(dir);
+            directories.put(target, node);
+        }
+        moveFiles(from, to, moved);
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "FileTree{" +
+                "files=" + files.size() +
+                ", directories=" + (directories.size() - 1) +
+                '}';
+    }
+
+    /**
+     * Retorna la ruta del directorio que contiene a la ruta indicada ("" para la raíz).
+     *
+     * @param path Ruta relativa.
+     * @return Ruta del directorio padre.
+     */
+    public static String parentOf(String path) {
+        int index = path.lastIndexOf(SEPARATOR);
+        return index < 0 ? "" : path.substring(0, index);
+    }
+
+    /**
+     * Retorna el último componente de la ruta.
+     *
+     * @param path Ruta relativa.
+     * @return Nombre del archivo o directorio.
+     */
+    public static String nameOf(String path) {
+        return path.substring(path.lastIndexOf(SEPARATOR) + 1);
+    }
+
+    private void moveFiles(String from, String to, Directory directory) {
+        for (String name : directory.files) {
+            files.put(to + SEPARATOR + name, files.remove(from + SEPARATOR + name));
+        }
+        for (String name : directory.subdirectories) {
+            moveFiles(from + SEPARATOR + name, to + SEPARATOR + name, directories.get(to + SEPARATOR + name));
+        }
+    }
+
+    private Directory ensureDirectory(String path) {
+        Directory directory = directories.get(path);
+        if (directory != null) {
+            return directory;
+        }
+        if (files.containsKey(path)) {
+            throw new IllegalArgumentException("La ruta corresponde a un archivo: " + path);
+        }
+        Directory parent = ensureDirectory(parentOf(path));
+        directory = new Directory();
+        directories.put(path, directory);
+        parent.subdirectories.add(nameOf(path));
+        return directory;
+    }
+
+    /**
+     * Vista de las entradas respaldada por el mapa de archivos; eliminar desde el iterador
+     * también actualiza el índice de directorios.
+     */
+    private class EntrySet extends AbstractSet<Entry<String, FileContent>> {
+
+        @Override
+        public Iterator<Entry<String, FileContent>> iterator() {
+            final Iterator<Entry<String, FileContent>> it = files.entrySet().iterator();
+            return new Iterator<Entry<String, FileContent>>() {
+                private Entry<String, FileContent> current;
+
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public Entry<String, FileContent> next() {
+                    current = it.next();
+                    return current;
+                }
+
+                @Override
+                public void remove() {
+                    if (current == null) {
+                        throw new IllegalStateException();
+                    }
+                    FileTree.this.remove(current.getKey());
+                    current = null;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return files.size();
+        }
+    }
+}
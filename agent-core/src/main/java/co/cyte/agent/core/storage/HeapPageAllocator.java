@@ -0,0 +1,78 @@
+package co.cyte.agent.core.storage;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PageAllocator que entrega páginas en el heap de Java.
+ *
+ * No conserva páginas para reutilizar: al liberarlas se borran y quedan a cargo del GC.
+ * Es la opción por defecto para contenidos pequeños y para las pruebas.
+ */
+public class HeapPageAllocator implements PageAllocator {
+
+    private final int pageSize;
+    private final long budgetBytes;
+    private final AtomicLong usedBytes = new AtomicLong();
+    private volatile MemoryPressureHandler pressureHandler;
+
+    /**
+     * Crea un asignador en heap sin límite de memoria.
+     *
+     * @param pageSize Tamaño de cada página, en bytes.
+     */
+    public HeapPageAllocator(int pageSize) {
+        this(pageSize, Long.MAX_VALUE);
+    }
+
+    /**
+     * Crea un asignador en heap con el presupuesto indicado.
+     *
+     * @param pageSize Tamaño de cada página, en bytes.
+     * @param budgetBytes Máximo de bytes que pueden estar en uso a la vez.
+     */
+    public HeapPageAllocator(int pageSize, long budgetBytes) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("El tamaño de página debe ser positivo: " + pageSize);
+        }
+        this.pageSize = pageSize;
+        this.budgetBytes = budgetBytes;
+    }
+
+    @Override
+    public int pageSize() {
+        return pageSize;
+    }
+
+    @Override
+    public ByteBuffer allocate() {
+        Pages.reserve(usedBytes, pageSize, budgetBytes, pressureHandler);
+        return ByteBuffer.allocate(pageSize);
+    }
+
+    @Override
+    public void free(ByteBuffer page) {
+        Pages.zero(page);
+        usedBytes.addAndGet(-pageSize);
+    }
+
+    @Override
+    public long usedBytes() {
+        return usedBytes.get();
+    }
+
+    @Override
+    public long budgetBytes() {
+        return budgetBytes;
+    }
+
+    @Override
+    public void setPressureHandler(MemoryPressureHandler handler) {
+        this.pressureHandler = handler;
+    }
+
+    @Override
+    public void clear() {
+        // No hay páginas retenidas.
+    }
+}
@@ -0,0 +1,448 @@
+package co.cyte.agent.core.storage;
+
+import co.cyte.agent.core.domain.EncryptedFile;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * FileContent que descifra su archivo de origen solo cuando se necesita y que puede
+ * desalojarse de memoria.
+ *
+ * Al desbloquear una bóveda en modo diferido, cada archivo se registra con su nombre y su
+ * tamaño descifrado, sin leer su contenido. La primera lectura o escritura descifra el archivo
+ * en un contenido residente y, desde ese momento, todas las operaciones se delegan en él.
+ * Truncar a cero antes de cargar (por ejemplo, al sobrescribir el archivo) evita descifrarlo.
+ *
+ * Cuando la bóveda supera su límite de memoria, el contenido residente puede desalojarse:
+ * si no se modificó basta con liberarlo, porque su origen sigue en disco; si se modificó,
+ * se cifra en el área de desalojo, que pasa a ser su nuevo origen. El siguiente acceso lo
+ * vuelve a cargar de forma transparente.
+ *
+ * El bloqueo de lectura/escritura protege la residencia: leer, escribir o truncar el contenido
+ * residente solo necesita el bloqueo de lectura (el contenido residente tiene su propio bloqueo
+ * para los datos), mientras que cargar, desalojar o liberar toman el de escritura. Así, varios
+ * hilos pueden operar sobre el mismo archivo a la vez y el desalojo nunca retira la memoria de
+ * una operación en curso.
+ *
+ * Cada escritura o truncamiento incrementa un contador de generación, después de modificar los
+ * datos y sin soltar el bloqueo de lectura. Al persistir el archivo (en un checkpoint o al
+ * bloquear) se registra la generación leída antes de cifrarlo: si no cambió mientras se cifraba,
+ * el archivo en disco pasa a ser el nuevo origen y el contenido vuelve a estar limpio. Como
+ * markPersisted() toma el bloqueo de escritura, nunca ve una modificación ya aplicada cuya
+ * generación todavía no se incrementó.
+ *
+ * Si el formato cifrado es por segmentos, el contenido registra qué segmentos cambiaron desde su
+ * origen, para que al guardarlo solo se vuelvan a cifrar esos. Mientras no esté en memoria, las
+ * lecturas de un archivo grande se resuelven descifrando solo los segmentos que cubren, sin
+ * cargarlo completo.
+ */
+public class LazyFileContent implements FileContent {
+
+    private final BackingStore store;
+    // Archivo cifrado de la bóveda del que proviene el contenido; null para archivos nuevos
+    private volatile EncryptedFile origin;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Origen actual del contenido no residente: el original, uno de desalojo o null (vacío)
+    private EncryptedFile source;
+    // Tamaño descifrado del origen actual
+    private long sourceSize;
+    // Contenido descifrado; null mientras no esté en memoria
+    private FileContent resident;
+    // Indica si el contenido residente cambió desde que se cargó de su origen
+    private volatile boolean modified;
+    // Se incrementa con cada escritura o truncamiento
+    private final AtomicLong generation = new AtomicLong();
+    // Tamaño de los segmentos del formato cifrado; 0 si no se registran los cambios por segmento
+    private final int segmentSize;
+    // Segmentos modificados respecto del origen (sincronizado sobre el propio BitSet)
+    private final BitSet changedSegments = new BitSet();
+    // El contenido se reemplazó por completo: no se puede reutilizar ningún segmento del origen
+    private boolean rewriteAll;
+
+    /**
+     * Crea un contenido diferido a partir de un archivo cifrado de la bóveda.
+     *
+     * @param origin Archivo cifrado de origen.
+     * @param originSize Tamaño del archivo una vez descifrado, en bytes.
+     * @param store Operaciones de la bóveda para cargar y desalojar el contenido.
+     */
+    public LazyFileContent(EncryptedFile origin, long originSize, BackingStore store) {
+        this.store = store;
+        this.origin = origin;
+        this.source = origin;
+        this.sourceSize = originSize;
+        this.segmentSize = store.segmentSize();
+    }
+
+    /**
+     * Crea el contenido de un archivo nuevo: vacío, residente y sin origen en disco.
+     *
+     * @param store Operaciones de la bóveda para cargar y desalojar el contenido.
+     * @return Contenido vacío.
+     */
+    public static LazyFileContent empty(BackingStore store) {
+        LazyFileContent content = new LazyFileContent(null, 0, store);
+        content.resident = store.allocate();
+        return content;
+    }
+
+    @Override
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return resident != null ? resident.size() : sourceSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int read(long position, ByteBuffer dst) {
+        lock.readLock().lock();
+        try {
+            if (resident == null && source != null && store.canReadDirectly(source, sourceSize)) {
+                // Se descifran solo los segmentos que cubre la lectura, sin cargar el archivo.
+                return store.readDirectly(source, position, dst);
+            }
+        } catch (Exception e) {
+            throw new ContentLoadException("Error al descifrar el archivo: " + source.getFilePath(), e);
+        } finally {
+            lock.readLock().unlock();
+        }
+        int n;
+        FileContent content = pin();
+        try {
+            n = content.read(position, dst);
+        } finally {
+            lock.readLock().unlock();
+        }
+        store.accessed(this);
+        return n;
+    }
+
+    @Override
+    public int write(long position, ByteBuffer src) {
+        int n;
+        FileContent content = pin();
+        try {
+            n = content.write(position, src);
+            // Solo después de escribir: un checkpoint que leyó la generación anterior no debe
+            // poder darse por persistido con los datos previos a esta escritura.
+            modified = true;
+            markChanged(position, position + n);
+            generation.incrementAndGet();
+        } finally {
+            lock.readLock().unlock();
+        }
+        store.accessed(this);
+        return n;
+    }
+
+    @Override
+    public void truncate(long newSize) {
+        if (newSize == 0 && replaceIfNotLoaded()) {
+            // Se descarta todo el contenido: no hizo falta descifrarlo.
+            store.accessed(this);
+            return;
+        }
+        FileContent content = pin();
+        try {
+            long oldSize = content.size();
+            content.truncate(newSize);
+            modified = true;
+            markChanged(Math.min(oldSize, newSize), Math.max(oldSize, newSize));
+            generation.incrementAndGet();
+        } finally {
+            lock.readLock().unlock();
+        }
+        store.accessed(this);
+    }
+
+    @Override
+    public void release() {
+        lock.writeLock().lock();
+        try {
+            if (resident != null) {
+                resident.release();
+                resident = null;
+            }
+            discardSpill();
+            source = null;
+            sourceSize = 0;
+            modified = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        store.released(this);
+    }
+
+    /**
+     * Carga el contenido en memoria si aún no lo está, sin marcarlo como modificado.
+     * Se usa para descifrar de antemano (por ejemplo, al desbloquear en modo no diferido).
+     *
+     * @throws ContentLoadException Si el origen no se pudo descifrar.
+     */
+    public void preload() {
+        lock.writeLock().lock();
+        try {
+            load();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        store.accessed(this);
+    }
+
+    /**
+     * Intenta desalojar el contenido residente. Si el archivo está en uso por otro hilo
+     * (o por el hilo actual) no se espera: se omite y el llamador elige otro candidato.
+     *
+     * @return true si se liberó memoria.
+     * @throws Exception Si el contenido modificado no se pudo cifrar en el área de desalojo.
+     */
+    public boolean tryEvict() throws Exception {
+        if (lock.isWriteLockedByCurrentThread() || lock.getReadHoldCount() > 0 || !lock.writeLock().tryLock()) {
+            return false;
+        }
+        try {
+            if (resident == null) {
+                return false;
+            }
+            if (modified) {
+                // El origen ya no refleja el contenido: se cifra en el área de desalojo.
+                EncryptedFile spilled = store.spill(resident);
+                discardSpill();
+                source = spilled;
+            }
+            sourceSize = resident.size();
+            resident.release();
+            resident = null;
+            modified = false;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Indica si el archivo está en memoria (porque se descifró, se creó o se reemplazó).
+     *
+     * @return true si el contenido es residente.
+     */
+    public boolean isLoaded() {
+        lock.readLock().lock();
+        try {
+            return resident != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Indica si el contenido difiere de su archivo cifrado de origen: es un archivo nuevo, se
+     * escribió o truncó desde que se cargó, o su versión vigente está en el área de desalojo.
+     * Solo los contenidos sucios necesitan cifrarse de nuevo al bloquear la bóveda.
+     *
+     * @return true si el contenido debe volver a cifrarse.
+     */
+    public boolean isDirty() {
+        lock.readLock().lock();
+        try {
+            return origin == null || source != origin || modified;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retorna la generación actual del contenido: cambia con cada escritura o truncamiento.
+     *
+     * @return Contador de modificaciones.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Registra que el contenido, tal como estaba en la generación indicada, quedó persistido en
+     * un archivo cifrado de la bóveda, que pasa a ser su origen.
+     *
+     * Si el contenido cambió mientras se persistía, sigue sucio; en otro caso queda limpio y se
+     * descarta su archivo de desalojo, si lo tenía.
+     *
+     * @param persisted Archivo cifrado recién escrito.
+     * @param persistedGeneration Generación que se leyó para escribirlo.
+     */
+    public void markPersisted(EncryptedFile persisted, long persistedGeneration) {
+        lock.writeLock().lock();
+        try {
+            boolean spilled = source != null && source != origin;
+            boolean unchanged = generation.get() == persistedGeneration;
+            if (spilled && unchanged) {
+                store.discard(source);
+            }
+            if (!spilled || unchanged) {
+                source = persisted;
+            }
+            origin = persisted;
+            if (resident != null && unchanged) {
+                modified = false;
+            }
+            if (unchanged) {
+                synchronized (changedSegments) {
+                    changedSegments.clear();
+                    rewriteAll = false;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Retorna los segmentos modificados respecto del archivo de origen. Debe consultarse después
+     * de getGeneration(): incluye al menos los cambios de esa generación.
+     *
+     * @return Índices de los segmentos modificados, o null si el archivo debe cifrarse completo
+     * (no tiene origen, se reemplazó o el formato no es por segmentos).
+     */
+    public BitSet getChangedSegments() {
+        synchronized (changedSegments) {
+            if (segmentSize <= 0 || origin == null || rewriteAll) {
+                return null;
+            }
+            return (BitSet) changedSegments.clone();
+        }
+    }
+
+    /**
+     * Retorna el archivo cifrado de la bóveda del que proviene este contenido.
+     *
+     * @return Archivo de origen, o null si el archivo se creó en la unidad virtual.
+     */
+    public EncryptedFile getOrigin() {
+        return origin;
+    }
+
+    /**
+     * Retorna el origen actual del contenido no residente: el archivo original, uno del área
+     * de desalojo, o null si el archivo está vacío o solo existe en memoria.
+     *
+     * @return Archivo cifrado que respalda el contenido.
+     */
+    public EncryptedFile getSource() {
+        lock.readLock().lock();
+        try {
+            return source;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Indica si el contenido no residente está guardado en el área de desalojo.
+     *
+     * @return true si el origen actual es un archivo de desalojo.
+     */
+    public boolean isSpilled() {
+        lock.readLock().lock();
+        try {
+            return source != null && source != origin;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LazyFileContent{" +
+                "origin=" + origin +
+                ", loaded=" + isLoaded() +
+                ", spilled=" + isSpilled() +
+                '}';
+    }
+
+    /**
+     * Obtiene el contenido residente, cargándolo si hace falta, y lo retorna con el bloqueo de
+     * lectura tomado para que no se desaloje mientras se usa. El llamador debe liberarlo.
+     */
+    private FileContent pin() {
+        lock.readLock().lock();
+        if (resident != null) {
+            return resident;
+        }
+        lock.readLock().unlock();
+        lock.writeLock().lock();
+        try {
+            FileContent content = load();
+            // Se degrada al bloqueo de lectura antes de soltar el de escritura.
+            lock.readLock().lock();
+            return content;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Si el contenido no está en memoria, lo reemplaza por uno vacío sin descifrar el origen.
+     *
+     * @return true si se reemplazó; false si el contenido ya era residente.
+     */
+    private boolean replaceIfNotLoaded() {
+        lock.writeLock().lock();
+        try {
+            if (resident != null) {
+                return false;
+            }
+            resident = store.allocate();
+            modified = true;
+            synchronized (changedSegments) {
+                rewriteAll = true;
+            }
+            generation.incrementAndGet();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private FileContent load() {
+        if (resident == null) {
+            FileContent content = store.allocate();
+            if (source != null) {
+                try {
+                    store.load(source, content);
+                } catch (Exception e) {
+                    content.release();
+                    throw new ContentLoadException("Error al descifrar el archivo: " + source.getFilePath(), e);
+                }
+            }
+            resident = content;
+            // Lo cargado desde el área de desalojo sigue siendo distinto del original.
+            modified = source != origin;
+        }
+        return resident;
+    }
+
+    /**
+     * Registra como modificados los segmentos que cubre el rango [from, to].
+     */
+    private void markChanged(long from, long to) {
+        if (segmentSize <= 0) {
+            return;
+        }
+        int first = (int) (from / segmentSize);
+        int last = (int) (Math.max(from, to - 1) / segmentSize);
+        synchronized (changedSegments) {
+            changedSegments.set(first, last + 1);
+        }
+    }
+
+    private void discardSpill() {
+        if (source != null && source != origin) {
+            store.discard(source);
+        }
+    }
+}
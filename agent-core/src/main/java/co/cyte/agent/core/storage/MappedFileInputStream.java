@@ -0,0 +1,129 @@
+package co.cyte.agent.core.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * InputStream que lee un archivo mapeándolo en memoria por ventanas.
+ *
+ * Cada ventana se mapea con FileChannel.map y se copia en bloques grandes hacia el buffer del
+ * llamador, sin pasar por las lecturas del sistema de archivos de a pocos KB. Al agotar una
+ * ventana (y al cerrar el stream) el mapeo se libera de inmediato: en Windows un archivo
+ * mapeado no se puede reemplazar, y la bóveda reescribe sus archivos .cv al bloquearse.
+ *
+ * También es un ReadableByteChannel: read(ByteBuffer) copia desde la ventana mapeada directamente
+ * al buffer del llamador.
+ */
+public class MappedFileInputStream extends InputStream implements ReadableByteChannel {
+
+    /** Tamaño por defecto de cada ventana mapeada: 64 MiB. */
+    public static final long DEFAULT_WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    private final long windowSize;
+    // Posición del archivo donde inicia la siguiente ventana
+    private long nextWindowStart;
+    private MappedByteBuffer window;
+
+    /**
+     * Abre el archivo con el tamaño de ventana por defecto.
+     *
+     * @param path Archivo a leer.
+     * @throws IOException Si el archivo no se puede abrir.
+     */
+    public MappedFileInputStream(Path path) throws IOException {
+        this(path, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Abre el archivo con el tamaño de ventana indicado.
+     *
+     * @param path Archivo a leer.
+     * @param windowSize Bytes que se mapean a la vez.
+     * @throws IOException Si el archivo no se puede abrir.
+     */
+    public MappedFileInputStream(Path path, long windowSize) throws IOException {
+        if (windowSize <= 0 || windowSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Tamaño de ventana no válido: " + windowSize);
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.windowSize = windowSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if ((window == null || !window.hasRemaining()) && !nextWindow()) {
+            return -1;
+        }
+        int n = Math.min(len, window.remaining());
+        window.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        if ((window == null || !window.hasRemaining()) && !nextWindow()) {
+            return -1;
+        }
+        int n = Math.min(dst.remaining(), window.remaining());
+        ByteBuffer slice = window.duplicate();
+        slice.limit(slice.position() + n);
+        dst.put(slice);
+        window.position(window.position() + n);
+        return n;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public int available() {
+        return window != null ? window.remaining() : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        unmap();
+        channel.close();
+    }
+
+    private boolean nextWindow() throws IOException {
+        unmap();
+        if (nextWindowStart >= size) {
+            return false;
+        }
+        long length = Math.min(windowSize, size - nextWindowStart);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, nextWindowStart, length);
+        nextWindowStart += length;
+        return true;
+    }
+
+    private void unmap() {
+        if (window != null) {
+            Pages.release(window);
+            window = null;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package co.cyte.agent.core.storage;
+
+/**
+ * Se lanza cuando una asignación de páginas superaría el presupuesto de memoria de la bóveda.
+ */
+public class MemoryBudgetExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long budgetBytes;
+
+    /**
+     * Crea la excepción indicando el presupuesto que se habría superado.
+     *
+     * @param budgetBytes Presupuesto de memoria configurado, en bytes.
+     */
+    public MemoryBudgetExceededException(long budgetBytes) {
+        super("Se superó el presupuesto de memoria de la bóveda (" + budgetBytes + " bytes)");
+        this.budgetBytes = budgetBytes;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+}
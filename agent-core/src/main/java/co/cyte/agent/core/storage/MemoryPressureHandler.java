@@ -0,0 +1,15 @@
+package co.cyte.agent.core.storage;
+
+/**
+ * Recibe el aviso de un PageAllocator cuando una asignación superaría su presupuesto,
+ * para que libere memoria antes de rechazarla.
+ */
+public interface MemoryPressureHandler {
+
+    /**
+     * Intenta liberar memoria suficiente para una nueva asignación.
+     *
+     * @param bytesNeeded Bytes que se intentan asignar.
+     */
+    void relieve(long bytesNeeded);
+}
@@ -0,0 +1,123 @@
+package co.cyte.agent.core.storage;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PageAllocator que entrega páginas en memoria nativa (ByteBuffer directos).
+ *
+ * El texto plano queda fuera del heap, por lo que el GC no lo recorre ni lo copia y el uso
+ * de heap se mantiene constante sin importar cuántos datos estén desbloqueados. Las páginas
+ * liberadas se borran y se conservan en un pool acotado para evitar reservar memoria nativa
+ * en cada escritura; clear() borra y libera explícitamente las páginas del pool.
+ */
+public class OffHeapPageAllocator implements PageAllocator {
+
+    /** Cantidad de páginas libres que se conservan por defecto (16 MiB con páginas de 64 KiB). */
+    public static final int DEFAULT_MAX_POOLED_PAGES = 256;
+
+    private final int pageSize;
+    private final long budgetBytes;
+    private final int maxPooledPages;
+    private final AtomicLong usedBytes = new AtomicLong();
+    private volatile MemoryPressureHandler pressureHandler;
+    private final ConcurrentLinkedDeque<ByteBuffer> pool = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger pooledPages = new AtomicInteger();
+
+    /**
+     * Crea un asignador nativo con el presupuesto indicado y el pool por defecto.
+     *
+     * @param pageSize Tamaño de cada página, en bytes.
+     * @param budgetBytes Máximo de bytes que pueden estar en uso a la vez.
+     */
+    public OffHeapPageAllocator(int pageSize, long budgetBytes) {
+        this(pageSize, budgetBytes, DEFAULT_MAX_POOLED_PAGES);
+    }
+
+    /**
+     * Crea un asignador nativo.
+     *
+     * @param pageSize Tamaño de cada página, en bytes.
+     * @param budgetBytes Máximo de bytes que pueden estar en uso a la vez.
+     * @param maxPooledPages Máximo de páginas libres que se conservan para reutilizar.
+     */
+    public OffHeapPageAllocator(int pageSize, long budgetBytes, int maxPooledPages) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("El tamaño de página debe ser positivo: " + pageSize);
+        }
+        this.pageSize = pageSize;
+        this.budgetBytes = budgetBytes;
+        this.maxPooledPages = maxPooledPages;
+    }
+
+    @Override
+    public int pageSize() {
+        return pageSize;
+    }
+
+    @Override
+    public ByteBuffer allocate() {
+        Pages.reserve(usedBytes, pageSize, budgetBytes, pressureHandler);
+        ByteBuffer page = pool.pollFirst();
+        if (page != null) {
+            pooledPages.decrementAndGet();
+            page.clear();
+            return page;
+        }
+        try {
+            // allocateDirect entrega la memoria en ceros.
+            return ByteBuffer.allocateDirect(pageSize);
+        } catch (OutOfMemoryError e) {
+            usedBytes.addAndGet(-pageSize);
+            throw e;
+        }
+    }
+
+    @Override
+    public void free(ByteBuffer page) {
+        Pages.zero(page);
+        usedBytes.addAndGet(-pageSize);
+        if (pooledPages.incrementAndGet() <= maxPooledPages) {
+            pool.offerFirst(page);
+        } else {
+            pooledPages.decrementAndGet();
+            Pages.release(page);
+        }
+    }
+
+    @Override
+    public long usedBytes() {
+        return usedBytes.get();
+    }
+
+    @Override
+    public long budgetBytes() {
+        return budgetBytes;
+    }
+
+    @Override
+    public void setPressureHandler(MemoryPressureHandler handler) {
+        this.pressureHandler = handler;
+    }
+
+    @Override
+    public void clear() {
+        ByteBuffer page;
+        while ((page = pool.pollFirst()) != null) {
+            pooledPages.decrementAndGet();
+            // Las páginas del pool ya se borraron en free().
+            Pages.release(page);
+        }
+    }
+
+    /**
+     * Retorna la cantidad de páginas libres retenidas en el pool.
+     *
+     * @return Páginas en el pool.
+     */
+    public int pooledPages() {
+        return pooledPages.get();
+    }
+}
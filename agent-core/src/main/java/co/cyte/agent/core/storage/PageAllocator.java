@@ -0,0 +1,62 @@
+package co.cyte.agent.core.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fuente de páginas de memoria de tamaño fijo para los contenidos de la unidad virtual.
+ *
+ * Cada Vault tiene su propio asignador, lo que permite elegir dónde vive el texto plano
+ * (heap o memoria nativa), limitar cuánta memoria puede ocupar y consultar su uso.
+ */
+public interface PageAllocator {
+
+    /**
+     * Retorna el tamaño de cada página, en bytes.
+     *
+     * @return Tamaño de página.
+     */
+    int pageSize();
+
+    /**
+     * Entrega una página llena de ceros, con posición 0 y límite igual a su capacidad.
+     *
+     * @return Página lista para usar.
+     * @throws MemoryBudgetExceededException Si la página excede el presupuesto configurado.
+     */
+    ByteBuffer allocate();
+
+    /**
+     * Devuelve una página al asignador. Su contenido se borra antes de reutilizarla o liberarla.
+     *
+     * @param page Página obtenida previamente con allocate().
+     */
+    void free(ByteBuffer page);
+
+    /**
+     * Retorna los bytes actualmente entregados en páginas.
+     *
+     * @return Bytes en uso.
+     */
+    long usedBytes();
+
+    /**
+     * Retorna el presupuesto máximo de bytes, o Long.MAX_VALUE si no hay límite.
+     *
+     * @return Presupuesto en bytes.
+     */
+    long budgetBytes();
+
+    /**
+     * Registra quién debe liberar memoria cuando una asignación superaría el presupuesto.
+     * Si tras avisarle la página sigue sin caber, allocate() lanza MemoryBudgetExceededException.
+     *
+     * @param handler Manejador de presión de memoria, o null para rechazar directamente.
+     */
+    void setPressureHandler(MemoryPressureHandler handler);
+
+    /**
+     * Borra y libera las páginas que el asignador conserva para reutilizar.
+     * Se invoca al bloquear la bóveda, una vez que todos los contenidos se liberaron.
+     */
+    void clear();
+}
@@ -0,0 +1,102 @@
+package co.cyte.agent.core.storage;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Utilidades compartidas por los asignadores de páginas.
+ */
+final class Pages {
+
+    private static final byte[] ZEROS = new byte[8192];
+
+    // Unsafe.invokeCleaner (Java 9+) permite devolver la memoria nativa sin esperar al GC.
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (Exception | LinkageError e) {
+            // Sin invokeCleaner la memoria se devuelve cuando el GC recolecta el buffer.
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private Pages() {
+    }
+
+    /**
+     * Reserva bytes contra el presupuesto de forma atómica. Si no caben, avisa al manejador
+     * de presión (si lo hay) y vuelve a intentarlo una vez antes de rechazar la asignación.
+     */
+    static void reserve(AtomicLong usedBytes, int bytes, long budgetBytes, MemoryPressureHandler handler) {
+        if (tryReserve(usedBytes, bytes, budgetBytes)) {
+            return;
+        }
+        if (handler != null) {
+            handler.relieve(bytes);
+            if (tryReserve(usedBytes, bytes, budgetBytes)) {
+                return;
+            }
+        }
+        throw new MemoryBudgetExceededException(budgetBytes);
+    }
+
+    private static boolean tryReserve(AtomicLong usedBytes, int bytes, long budgetBytes) {
+        while (true) {
+            long current = usedBytes.get();
+            if (current + bytes > budgetBytes) {
+                return false;
+            }
+            if (usedBytes.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Sobrescribe con ceros la página completa.
+     */
+    static void zero(ByteBuffer page) {
+        ByteBuffer view = page.duplicate();
+        view.clear();
+        while (view.hasRemaining()) {
+            view.put(ZEROS, 0, Math.min(ZEROS.length, view.remaining()));
+        }
+    }
+
+    /**
+     * Sobrescribe con ceros el rango [from, to) de la página.
+     */
+    static void zero(ByteBuffer page, int from, int to) {
+        ByteBuffer view = page.duplicate();
+        view.limit(to).position(from);
+        while (view.hasRemaining()) {
+            view.put(ZEROS, 0, Math.min(ZEROS.length, view.remaining()));
+        }
+    }
+
+    /**
+     * Libera inmediatamente la memoria nativa de un buffer directo, si la plataforma lo permite.
+     */
+    static void release(ByteBuffer page) {
+        if (!page.isDirect() || INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, page);
+        } catch (Exception e) {
+            // Se deja la liberación al GC.
+        }
+    }
+}
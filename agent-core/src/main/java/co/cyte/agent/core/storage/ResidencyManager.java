@@ -0,0 +1,94 @@
+package co.cyte.agent.core.storage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Mantiene el orden LRU de los contenidos residentes de una bóveda y los desaloja cuando la
+ * memoria en uso supera el límite configurado.
+ *
+ * Se recorren los archivos desde el menos usado recientemente; los que están en uso por otro
+ * hilo se omiten, de modo que desalojar nunca bloquea a los callbacks de la unidad virtual.
+ */
+public class ResidencyManager implements MemoryPressureHandler {
+
+    private final PageAllocator allocator;
+    private final long limitBytes;
+    // Orden de acceso: el primer elemento es el menos usado recientemente
+    private final LinkedHashMap<LazyFileContent, Boolean> lru = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Crea el administrador.
+     *
+     * @param allocator Asignador de páginas de la bóveda.
+     * @param limitBytes Memoria a partir de la cual se desalojan archivos.
+     */
+    public ResidencyManager(PageAllocator allocator, long limitBytes) {
+        this.allocator = allocator;
+        this.limitBytes = limitBytes;
+    }
+
+    /**
+     * Registra el uso de un contenido y, si se superó el límite, desaloja otros archivos.
+     *
+     * @param content Contenido utilizado.
+     */
+    public void accessed(LazyFileContent content) {
+        synchronized (lru) {
+            lru.put(content, Boolean.TRUE);
+        }
+        if (allocator.usedBytes() > limitBytes) {
+            evictUntil(limitBytes);
+        }
+    }
+
+    /**
+     * Deja de seguir un contenido (por ejemplo, al eliminar el archivo).
+     *
+     * @param content Contenido a olvidar.
+     */
+    public void forget(LazyFileContent content) {
+        synchronized (lru) {
+            lru.remove(content);
+        }
+    }
+
+    /**
+     * Desaloja archivos para que quepa una asignación que superaría el presupuesto.
+     *
+     * @param bytesNeeded Bytes que se intentan asignar.
+     */
+    @Override
+    public void relieve(long bytesNeeded) {
+        evictUntil(allocator.budgetBytes() - bytesNeeded);
+    }
+
+    /**
+     * Olvida todos los contenidos seguidos.
+     */
+    public void clear() {
+        synchronized (lru) {
+            lru.clear();
+        }
+    }
+
+    private void evictUntil(long targetBytes) {
+        List<LazyFileContent> candidates;
+        synchronized (lru) {
+            candidates = new ArrayList<>(lru.keySet());
+        }
+        for (LazyFileContent candidate : candidates) {
+            if (allocator.usedBytes() <= targetBytes) {
+                return;
+            }
+            try {
+                if (candidate.tryEvict()) {
+                    forget(candidate);
+                }
+            } catch (Exception e) {
+                System.out.println("Error desalojando un archivo de memoria: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+import co.cyte.agent.core.crypto.AESCipher;
+import co.cyte.agent.core.crypto.CipherRegistry;
+import co.cyte.agent.core.crypto.CipherSuite;
+import co.cyte.agent.core.crypto.KeyGenerator;
+import co.cyte.agent.core.crypto.RandomAccessDecryptor;
+import co.cyte.agent.core.crypto.SegmentCipher;
+import co.cyte.agent.core.services.KeyManager;
+import org.junit.jupiter.api.*;
+
+import javax.crypto.SecretKey;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class AESCipherTest {
+
+    private static final int SEGMENT = SegmentCipher.SEGMENT_SIZE;
+
+    private Path tempDir;
+    private AESCipher cipher;
+
+    @BeforeAll
+    public void setupAll() throws Exception {
+        tempDir = Files.createTempDirectory("aesCipherTest");
+        cipher = new AESCipher(new KeyManager());
+    }
+
+    @AfterAll
+    public void cleanupAll() throws Exception {
+        Files.walk(tempDir)
+                .sorted((a, b) -> b.compareTo(a))
+                .forEach(p -> p.toFile().delete());
+    }
+
+    @Test
+    public void testRoundTripAndSizes() throws Exception {
+        for (int size : new int[]{0, 1, SEGMENT, 2 * SEGMENT + 5}) {
+            byte[] plain = sample(size);
+            byte[] encrypted = encrypt(plain);
+            assertEquals(SegmentCipher.encryptedSize(size), encrypted.length);
+            assertEquals(size, cipher.decryptedSize(encrypted.length, "AES"), "El tamaño debe calcularse sin descifrar");
+            assertArrayEquals(plain, decrypt(encrypted));
+        }
+    }
+
+    @Test
+    public void testTamperedOrTruncatedFileIsRejected() throws Exception {
+        byte[] encrypted = encrypt(sample(2 * SEGMENT + 5));
+
+        byte[] tampered = encrypted.clone();
+        tampered[SegmentCipher.HEADER_SIZE + 40] ^= 1;
+        assertThrows(IOException.class, () -> decrypt(tampered), "Un segmento alterado debe detectarse");
+
+        // Cortar el archivo en el límite de un segmento deja un último segmento no marcado como final
+        byte[] truncated = Arrays.copyOf(encrypted, (int) SegmentCipher.segmentOffset(2));
+        assertThrows(IOException.class, () -> decrypt(truncated), "El truncamiento debe detectarse");
+    }
+
+    @Test
+    public void testRandomAccessReadDecryptsCoveringSegments() throws Exception {
+        byte[] plain = sample(3 * SEGMENT + 100);
+        Path file = tempDir.resolve("aleatorio.cv");
+        Files.write(file, encrypt(plain));
+
+        try (RandomAccessDecryptor reader = cipher.openReader(file, "AES")) {
+            assertEquals(plain.length, reader.size());
+            // Lectura que cruza el límite entre el segundo y el tercer segmento
+            ByteBuffer dst = ByteBuffer.allocate(1000);
+            assertEquals(1000, reader.read(2L * SEGMENT - 500, dst));
+            assertArrayEquals(Arrays.copyOfRange(plain, 2 * SEGMENT - 500, 2 * SEGMENT + 500), dst.array());
+            // Un segmento completo se descifra directamente en el buffer de destino
+            ByteBuffer whole = ByteBuffer.allocateDirect(SEGMENT);
+            assertEquals(SEGMENT, reader.read(SEGMENT, whole));
+            whole.flip();
+            byte[] segment = new byte[SEGMENT];
+            whole.get(segment);
+            assertArrayEquals(Arrays.copyOfRange(plain, SEGMENT, 2 * SEGMENT), segment);
+            assertEquals(-1, reader.read(plain.length, ByteBuffer.allocate(10)));
+        }
+    }
+
+    @Test
+    public void testReencryptRewritesOnlyChangedSegments() throws Exception {
+        byte[] plain = sample(3 * SEGMENT + 100);
+        Path origin = tempDir.resolve("origen.cv");
+        byte[] before = encrypt(plain);
+        Files.write(origin, before);
+
+        plain[SEGMENT + 7] ^= 1;
+        BitSet changed = new BitSet();
+        changed.set(1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cipher.reencrypt(origin, (position, dst) -> {
+            int n = (int) Math.min(dst.remaining(), plain.length - position);
+            dst.put(plain, (int) position, n);
+            return n;
+        }, plain.length, changed, "AES", Channels.newChannel(out));
+        byte[] after = out.toByteArray();
+
+        assertArrayEquals(plain, decrypt(after));
+        assertArrayEquals(segmentOf(before, 0), segmentOf(after, 0), "Un segmento sin cambios se copia tal cual");
+        assertFalse(Arrays.equals(segmentOf(before, 1), segmentOf(after, 1)), "El segmento modificado se vuelve a cifrar");
+        assertArrayEquals(segmentOf(before, 3), segmentOf(after, 3));
+    }
+
+    @Test
+    public void testParallelPathMatchesSequential() throws Exception {
+        KeyManager keys = new KeyManager();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        AESCipher sequential = new AESCipher(keys, Long.MAX_VALUE, pool);
+        AESCipher parallel = new AESCipher(keys, 0, pool);
+        byte[] plain = sample(40 * SEGMENT + 123);
+        try {
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+            parallel.encrypt(new ByteArrayInputStream(plain), "AES", encrypted);
+            assertEquals(SegmentCipher.encryptedSize(plain.length), encrypted.size(), "El formato debe ser el mismo");
+
+            ByteArrayOutputStream bySequential = new ByteArrayOutputStream();
+            sequential.decrypt(new ByteArrayInputStream(encrypted.toByteArray()), "AES", bySequential);
+            ByteArrayOutputStream byParallel = new ByteArrayOutputStream();
+            parallel.decrypt(new ByteArrayInputStream(encrypted.toByteArray()), "AES", byParallel);
+            assertArrayEquals(plain, bySequential.toByteArray());
+            assertArrayEquals(bySequential.toByteArray(), byParallel.toByteArray());
+
+            // Un segmento alterado también se detecta al descifrar en paralelo
+            byte[] tampered = encrypted.toByteArray();
+            tampered[(int) SegmentCipher.segmentOffset(30) + 20] ^= 1;
+            assertThrows(IOException.class, () -> parallel.decrypt(new ByteArrayInputStream(tampered), "AES", new ByteArrayOutputStream()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testDirectBufferRoundTripMatchesStreams() throws Exception {
+        for (AESCipher candidate : new AESCipher[]{cipher, new AESCipher(new KeyManager(), 0, ForkJoinPool.commonPool())}) {
+            byte[] plain = sample(5 * SEGMENT + 17);
+            ByteBuffer src = ByteBuffer.allocateDirect(plain.length);
+            src.put(plain).flip();
+            ByteBuffer encrypted = ByteBuffer.allocateDirect((int) candidate.encryptedSize(plain.length, "AES"));
+            candidate.encrypt(src, "AES", encrypted);
+            assertFalse(src.hasRemaining());
+            assertFalse(encrypted.hasRemaining(), "El resultado debe ocupar exactamente encryptedSize");
+            encrypted.flip();
+
+            // Lo cifrado en buffers se descifra con los streams, y viceversa
+            byte[] bytes = new byte[encrypted.remaining()];
+            encrypted.duplicate().get(bytes);
+            ByteArrayOutputStream byStream = new ByteArrayOutputStream();
+            candidate.decrypt(new ByteArrayInputStream(bytes), "AES", byStream);
+            assertArrayEquals(plain, byStream.toByteArray());
+
+            ByteBuffer decrypted = ByteBuffer.allocateDirect(plain.length);
+            candidate.decrypt(encrypted, "AES", decrypted);
+            decrypted.flip();
+            byte[] result = new byte[decrypted.remaining()];
+            decrypted.get(result);
+            assertArrayEquals(plain, result);
+        }
+    }
+
+    @Test
+    public void testEachFileIsDecryptedWithItsOwnSuite() throws Exception {
+        // La misma clave para todos los alias: solo cambia la suite de los archivos nuevos
+        KeyManager keys = new KeyManager();
+        SecretKey key = KeyGenerator.generateAesKey();
+        CipherRegistry registry = CipherRegistry.withDefaults();
+        AESCipher mixed = new AESCipher(keys, registry, Long.MAX_VALUE, ForkJoinPool.commonPool());
+        byte[] plain = sample(2 * SEGMENT + 9);
+
+        for (String alias : new String[]{"AES-GCM", "AES-CTR-HMAC", "CHACHA20"}) {
+            keys.setKey(alias, key);
+        }
+        for (String alias : new String[]{"AES-GCM", "AES-CTR-HMAC", "CHACHA20"}) {
+            CipherSuite suite;
+            try {
+                suite = registry.select(alias);
+            } catch (IllegalArgumentException e) {
+                continue; // ChaCha20-Poly1305 requiere Java 11
+            }
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+            mixed.encrypt(new ByteArrayInputStream(plain), alias, encrypted);
+            byte[] bytes = encrypted.toByteArray();
+            assertEquals(suite.getId(), bytes[3], "La suite debe quedar registrada en el encabezado");
+            assertEquals(SegmentCipher.encryptedSize(plain.length), bytes.length, "Todas las suites usan el mismo formato");
+
+            // Se descifra con la suite del archivo aunque el alias pida otra
+            ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+            mixed.decrypt(new ByteArrayInputStream(bytes), "AES-GCM", decrypted);
+            assertArrayEquals(plain, decrypted.toByteArray());
+
+            bytes[SegmentCipher.HEADER_SIZE + 100] ^= 1;
+            assertThrows(IOException.class, () -> mixed.decrypt(new ByteArrayInputStream(bytes), alias, new ByteArrayOutputStream()),
+                    "La alteración debe detectarse con " + suite);
+        }
+    }
+
+    @Test
+    public void testCompressedFormatRoundTrip() throws Exception {
+        AESCipher compressing = new AESCipher(new KeyManager(), 0, ForkJoinPool.commonPool());
+        compressing.setCompressionEnabled(true);
+        // Texto (se comprime), datos aleatorios (se guardan tal cual) y de nuevo texto
+        byte[] plain = new byte[3 * SEGMENT + 1000];
+        byte[] line = "2024-01-01;sensor-7;temperatura;21.5\n".getBytes("UTF-8");
+        for (int i = 0; i < plain.length; i++) {
+            plain[i] = line[i % line.length];
+        }
+        byte[] noise = new byte[SEGMENT];
+        new Random(7).nextBytes(noise);
+        System.arraycopy(noise, 0, plain, SEGMENT, SEGMENT);
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        compressing.encrypt(new ByteArrayInputStream(plain), "AES", encrypted);
+        byte[] bytes = encrypted.toByteArray();
+        assertTrue(bytes.length < SEGMENT + SEGMENT / 2, "El texto debe comprimirse: " + bytes.length);
+        assertTrue(bytes.length <= compressing.encryptedSize(plain.length, "AES"));
+
+        // Se lee igual por streams, buffers, acceso aleatorio y sin compresión activada
+        assertThrows(IOException.class, () -> cipher.decrypt(new ByteArrayInputStream(bytes), "AES", new ByteArrayOutputStream()),
+                "Otra clave no debe descifrarlo");
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        compressing.decrypt(new ByteArrayInputStream(bytes), "AES", decrypted);
+        assertArrayEquals(plain, decrypted.toByteArray());
+
+        ByteBuffer buffer = ByteBuffer.allocate(plain.length);
+        compressing.decrypt(ByteBuffer.wrap(bytes), "AES", buffer);
+        assertArrayEquals(plain, buffer.array());
+
+        Path file = tempDir.resolve("comprimido.cv");
+        Files.write(file, bytes);
+        assertEquals(plain.length, compressing.decryptedSize(file, "AES"), "El tamaño se lee del índice");
+        try (RandomAccessDecryptor reader = compressing.openReader(file, "AES")) {
+            ByteBuffer dst = ByteBuffer.allocate(1000);
+            assertEquals(1000, reader.read(2L * SEGMENT - 500, dst));
+            assertArrayEquals(Arrays.copyOfRange(plain, 2 * SEGMENT - 500, 2 * SEGMENT + 500), dst.array());
+        }
+
+        // reencrypt conserva el formato y copia los segmentos sin cambios
+        plain[2 * SEGMENT + 3] ^= 1;
+        BitSet changed = new BitSet();
+        changed.set(2);
+        ByteArrayOutputStream rewritten = new ByteArrayOutputStream();
+        compressing.reencrypt(file, (position, dst) -> {
+            int n = (int) Math.min(dst.remaining(), plain.length - position);
+            dst.put(plain, (int) position, n);
+            return n;
+        }, plain.length, changed, "AES", Channels.newChannel(rewritten));
+        decrypted.reset();
+        compressing.decrypt(new ByteArrayInputStream(rewritten.toByteArray()), "AES", decrypted);
+        assertArrayEquals(plain, decrypted.toByteArray());
+        assertArrayEquals(Arrays.copyOf(bytes, 200), Arrays.copyOf(rewritten.toByteArray(), 200));
+
+        // El bit de compresión de un registro está autenticado
+        byte[] tampered = bytes.clone();
+        tampered[SegmentCipher.HEADER_SIZE] ^= (byte) 0x80;
+        assertThrows(IOException.class, () -> compressing.decrypt(new ByteArrayInputStream(tampered), "AES", new ByteArrayOutputStream()));
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 1);
+        assertThrows(IOException.class, () -> compressing.decrypt(new ByteArrayInputStream(truncated), "AES", new ByteArrayOutputStream()));
+    }
+
+    @Test
+    public void testIncompressibleDataCostsOnlyTheIndex() throws Exception {
+        AESCipher compressing = new AESCipher(new KeyManager());
+        compressing.setCompressionEnabled(true);
+        byte[] plain = new byte[4 * SEGMENT];
+        new Random(11).nextBytes(plain);
+        ByteBuffer encrypted = ByteBuffer.allocate((int) compressing.encryptedSize(plain.length, "AES"));
+        compressing.encrypt(ByteBuffer.wrap(plain), "AES", encrypted);
+        assertEquals(compressing.encryptedSize(plain.length, "AES"), encrypted.position(), "Nada se comprime");
+        encrypted.flip();
+        ByteBuffer decrypted = ByteBuffer.allocate(plain.length);
+        compressing.decrypt(encrypted, "AES", decrypted);
+        assertArrayEquals(plain, decrypted.array());
+    }
+
+    private byte[] segmentOf(byte[] encrypted, int index) {
+        int from = (int) SegmentCipher.segmentOffset(index);
+        return Arrays.copyOfRange(encrypted, from, Math.min(encrypted.length, from + SegmentCipher.ENCRYPTED_SEGMENT_SIZE));
+    }
+
+    private byte[] sample(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31 + 7);
+        }
+        return data;
+    }
+
+    private byte[] encrypt(byte[] plain) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cipher.encrypt(new ByteArrayInputStream(plain), "AES", out);
+        return out.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] encrypted) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream sink = out) {
+            cipher.decrypt(new ByteArrayInputStream(encrypted), "AES", sink);
+        }
+        return out.toByteArray();
+    }
+}
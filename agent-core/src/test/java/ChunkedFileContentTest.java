@@ -0,0 +1,110 @@
+import co.cyte.agent.core.storage.ChunkedFileContent;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChunkedFileContentTest {
+
+    @Test
+    public void testWriteAndReadAcrossChunks() {
+        // Bloques pequeños para forzar que la escritura cruce varios de ellos
+        ChunkedFileContent content = new ChunkedFileContent(4);
+        byte[] data = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(data.length, content.write(0, ByteBuffer.wrap(data)));
+        assertEquals(data.length, content.size(), "El tamaño debe coincidir con lo escrito");
+
+        ByteBuffer dst = ByteBuffer.allocate(6);
+        assertEquals(6, content.read(5, dst));
+        assertEquals("56789a", new String(dst.array(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testOverwriteInTheMiddleKeepsTheRest() {
+        ChunkedFileContent content = new ChunkedFileContent(4);
+        content.write(0, ByteBuffer.wrap("aaaaaaaaaa".getBytes(StandardCharsets.US_ASCII)));
+        content.write(3, ByteBuffer.wrap("XYZ".getBytes(StandardCharsets.US_ASCII)));
+
+        ByteBuffer dst = ByteBuffer.allocate(10);
+        content.read(0, dst);
+        assertEquals("aaaXYZaaaa", new String(dst.array(), StandardCharsets.US_ASCII));
+        assertEquals(10, content.size(), "Sobrescribir no debe cambiar el tamaño");
+    }
+
+    @Test
+    public void testWriteBeyondEndFillsWithZeros() {
+        ChunkedFileContent content = new ChunkedFileContent(4);
+        content.write(6, ByteBuffer.wrap(new byte[]{7}));
+        assertEquals(7, content.size());
+
+        ByteBuffer dst = ByteBuffer.allocate(7);
+        content.read(0, dst);
+        assertArrayEquals(new byte[]{0, 0, 0, 0, 0, 0, 7}, dst.array());
+    }
+
+    @Test
+    public void testReadAtEndReturnsMinusOne() {
+        ChunkedFileContent content = new ChunkedFileContent(4);
+        content.write(0, ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        assertEquals(-1, content.read(3, ByteBuffer.allocate(1)), "Leer en el final debe indicar EOF");
+
+        ByteBuffer dst = ByteBuffer.allocate(8);
+        assertEquals(1, content.read(2, dst), "La lectura se limita al tamaño del archivo");
+    }
+
+    @Test
+    public void testTruncateShrinksAndRegrowsWithZeros() {
+        ChunkedFileContent content = new ChunkedFileContent(4);
+        content.write(0, ByteBuffer.wrap("abcdefghij".getBytes(StandardCharsets.US_ASCII)));
+        content.truncate(5);
+        assertEquals(5, content.size());
+
+        // Al crecer de nuevo, los bytes descartados no deben reaparecer
+        content.truncate(9);
+        ByteBuffer dst = ByteBuffer.allocate(9);
+        content.read(0, dst);
+        assertArrayEquals(new byte[]{'a', 'b', 'c', 'd', 'e', 0, 0, 0, 0}, dst.array());
+    }
+
+    @Test
+    public void testConcurrentWritersAndReaders() throws Exception {
+        // Cuatro hilos escriben rangos disjuntos mientras otro lee: el resultado debe ser consistente
+        ChunkedFileContent content = new ChunkedFileContent(64);
+        int perThread = 4096;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final byte value = (byte) (t + 1);
+            final long start = (long) t * perThread;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < perThread; i += 128) {
+                    byte[] block = new byte[128];
+                    Arrays.fill(block, value);
+                    content.write(start + i, ByteBuffer.wrap(block));
+                }
+            }));
+        }
+        threads.add(new Thread(() -> {
+            for (int i = 0; i < 1000; i++) {
+                content.read(0, ByteBuffer.allocate(256));
+            }
+        }));
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(4L * perThread, content.size());
+        ByteBuffer dst = ByteBuffer.allocate(4 * perThread);
+        content.read(0, dst);
+        for (int i = 0; i < dst.capacity(); i++) {
+            assertEquals((byte) (i / perThread + 1), dst.get(i), "Byte inesperado en la posición " + i);
+        }
+    }
+}
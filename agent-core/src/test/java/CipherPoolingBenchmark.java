@@ -0,0 +1,109 @@
+import co.cyte.agent.core.crypto.AESCipher;
+import co.cyte.agent.core.crypto.KeyGenerator;
+import co.cyte.agent.core.crypto.SegmentCipher;
+import co.cyte.agent.core.services.KeyManager;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Mide el costo por archivo de cifrar y descifrar muchos archivos pequeños (10.000 de 4 KB).
+ *
+ * "Antes" repite el camino sin reutilización: un Mac nuevo para derivar la clave de cada archivo y
+ * un Cipher nuevo por segmento. "Después" usa AESCipher, con los Cipher de cada hilo y las claves
+ * derivadas en caché. No es un test: se ejecuta a mano con
+ * {@code java -cp <clases de test y main> CipherPoolingBenchmark}.
+ */
+public class CipherPoolingBenchmark {
+
+    private static final int FILES = 10_000;
+    private static final int FILE_SIZE = 4 * 1024;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        KeyManager keys = new KeyManager();
+        AESCipher cipher = new AESCipher(keys);
+        SecretKey vaultKey = keys.getKey("AES");
+        byte[][] files = new byte[FILES][];
+        SecureRandom random = new SecureRandom();
+        for (int i = 0; i < FILES; i++) {
+            files[i] = new byte[FILE_SIZE];
+            random.nextBytes(files[i]);
+        }
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (byte[] file : files) {
+                check(file, unpooledRoundTrip(vaultKey, file, random));
+            }
+            long before = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (byte[] file : files) {
+                check(file, pooledRoundTrip(cipher, file));
+            }
+            long after = System.nanoTime() - start;
+
+            System.out.printf("Ronda %d: antes %.1f µs/archivo, después %.1f µs/archivo%n",
+                    round, before / 1000.0 / FILES, after / 1000.0 / FILES);
+        }
+    }
+
+    private static byte[] pooledRoundTrip(AESCipher cipher, byte[] file) throws Exception {
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        cipher.encrypt(new ByteArrayInputStream(file), "AES", encrypted);
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        cipher.decrypt(new ByteArrayInputStream(encrypted.toByteArray()), "AES", decrypted);
+        return decrypted.toByteArray();
+    }
+
+    /**
+     * Cifra y descifra un archivo de un solo segmento creando el Mac y los Cipher en cada paso,
+     * como se hacía antes de reutilizarlos.
+     */
+    private static byte[] unpooledRoundTrip(SecretKey vaultKey, byte[] file, SecureRandom random) throws Exception {
+        byte[] salt = new byte[16];
+        random.nextBytes(salt);
+        SecretKey fileKey = new SecretKeySpec(deriveUnpooled(vaultKey.getEncoded(), salt), "AES");
+        byte[] aad = Arrays.copyOf(salt, SegmentCipher.HEADER_SIZE + 9);
+
+        byte[] nonce = new byte[12];
+        random.nextBytes(nonce);
+        Cipher encrypt = Cipher.getInstance("AES/GCM/NoPadding");
+        encrypt.init(Cipher.ENCRYPT_MODE, fileKey, new GCMParameterSpec(128, nonce));
+        encrypt.updateAAD(aad);
+        byte[] encrypted = encrypt.doFinal(file);
+
+        // Al descifrar, la clave del archivo vuelve a derivarse desde su encabezado
+        fileKey = new SecretKeySpec(deriveUnpooled(vaultKey.getEncoded(), salt), "AES");
+        Cipher decrypt = Cipher.getInstance("AES/GCM/NoPadding");
+        decrypt.init(Cipher.DECRYPT_MODE, fileKey, new GCMParameterSpec(128, nonce));
+        decrypt.updateAAD(aad);
+        return decrypt.doFinal(encrypted);
+    }
+
+    private static byte[] deriveUnpooled(byte[] ikm, byte[] salt) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(salt, "HmacSHA256"));
+        byte[] prk = mac.doFinal(ikm);
+        mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(prk, "HmacSHA256"));
+        mac.update("cyte-vault segment key".getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 1);
+        return Arrays.copyOf(mac.doFinal(), KeyGenerator.AES_KEY_SIZE);
+    }
+
+    private static void check(byte[] expected, byte[] actual) {
+        if (!Arrays.equals(expected, actual)) {
+            throw new IllegalStateException("El descifrado no coincide con el original");
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import co.cyte.agent.core.storage.ChunkedFileContent;
+import co.cyte.agent.core.storage.FileContent;
+import co.cyte.agent.core.storage.FileTree;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileTreeTest {
+
+    @Test
+    public void testPutCreatesIntermediateDirectories() {
+        FileTree tree = new FileTree();
+        tree.put("a\\b\\informe.docx", new ChunkedFileContent());
+        tree.put("raiz.txt", new ChunkedFileContent());
+
+        assertTrue(tree.isDirectory("a"));
+        assertTrue(tree.isDirectory("a\\b"));
+        assertFalse(tree.isDirectory("a\\b\\informe.docx"), "Un archivo no es un directorio");
+        assertEquals(new HashSet<>(Arrays.asList("a")), new HashSet<>(tree.listDirectories("")));
+        assertEquals(new HashSet<>(Arrays.asList("raiz.txt")), new HashSet<>(tree.listFiles("")));
+        assertEquals(new HashSet<>(Arrays.asList("informe.docx")), new HashSet<>(tree.listFiles("a\\b")));
+    }
+
+    @Test
+    public void testRemovingLastFileKeepsEmptyDirectory() {
+        FileTree tree = new FileTree();
+        tree.put("sub\\archivo.txt", new ChunkedFileContent());
+        tree.remove("sub\\archivo.txt");
+
+        assertTrue(tree.isEmptyDirectory("sub"), "El directorio debe conservarse vacío");
+        assertTrue(tree.removeDirectory("sub"));
+        assertFalse(tree.isDirectory("sub"));
+        assertTrue(tree.listDirectories("").isEmpty());
+    }
+
+    @Test
+    public void testNonEmptyDirectoryIsNotRemoved() {
+        FileTree tree = new FileTree();
+        assertTrue(tree.createDirectory("vacio\\interno"));
+        assertFalse(tree.removeDirectory("vacio"), "Un directorio con hijos no se elimina");
+        assertFalse(tree.createDirectory("vacio"), "Crear un directorio existente debe fallar");
+    }
+
+    @Test
+    public void testMoveDirectoryRelocatesSubtree() {
+        FileTree tree = new FileTree();
+        ChunkedFileContent content = new ChunkedFileContent();
+        tree.put("origen\\sub\\datos.bin", content);
+        tree.createDirectory("origen\\vacio");
+
+        assertTrue(tree.move("origen", "destino\\nuevo"));
+
+        assertSame(content, tree.get("destino\\nuevo\\sub\\datos.bin"));
+        assertFalse(tree.containsKey("origen\\sub\\datos.bin"));
+        assertFalse(tree.isDirectory("origen"));
+        assertTrue(tree.isEmptyDirectory("destino\\nuevo\\vacio"));
+        assertEquals(new HashSet<>(Arrays.asList("sub", "vacio")), new HashSet<>(tree.listDirectories("destino\\nuevo")));
+        assertFalse(tree.move("destino", "destino\\nuevo\\dentro"), "Un directorio no puede moverse dentro de sí mismo");
+    }
+
+    @Test
+    public void testIteratorRemoveUpdatesIndex() {
+        FileTree tree = new FileTree();
+        tree.put("sub\\a.txt", new ChunkedFileContent());
+        Iterator<Map.Entry<String, FileContent>> it = tree.entrySet().iterator();
+        it.next();
+        it.remove();
+
+        assertTrue(tree.isEmpty());
+        assertTrue(tree.listFiles("sub").isEmpty(), "El índice debe reflejar la eliminación");
+    }
+}
@@ -0,0 +1,35 @@
+import co.cyte.agent.core.crypto.PasswordKdf;
+
+/**
+ * Informa cuánto tarda derivar la clave de una contraseña con PBKDF2-HMAC-SHA256 según las
+ * iteraciones, y qué iteraciones elige la calibración para distintas latencias en este equipo.
+ * No es un test: se ejecuta a mano con
+ * {@code java -cp <clases de test y main> KdfBenchmark}.
+ */
+public class KdfBenchmark {
+
+    private static final int[] ITERATIONS = {100_000, 200_000, 310_000, 600_000, 1_000_000};
+    private static final long[] TARGETS = {100, 250, 500, 1000};
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        // Calentamiento, para que el JIT compile HMAC-SHA256 antes de medir
+        for (int i = 0; i < 5; i++) {
+            PasswordKdf.measure(ITERATIONS[2]);
+        }
+
+        for (int iterations : ITERATIONS) {
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                best = Math.min(best, PasswordKdf.measure(iterations));
+            }
+            System.out.printf("%,d iteraciones: %.1f ms%n", iterations, best / 1_000_000.0);
+        }
+
+        for (long target : TARGETS) {
+            int iterations = PasswordKdf.calibrate(target);
+            System.out.printf("Objetivo %d ms: %,d iteraciones, medido %.1f ms%n",
+                    target, iterations, PasswordKdf.measure(iterations) / 1_000_000.0);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+import co.cyte.agent.core.crypto.AESCipher;
+import co.cyte.agent.core.crypto.KeyMaterial;
+import co.cyte.agent.core.crypto.PasswordKdf;
+import co.cyte.agent.core.domain.UserSession;
+import co.cyte.agent.core.services.AuthenticationService;
+import co.cyte.agent.core.services.KeyManager;
+import org.junit.jupiter.api.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeyManagerTest {
+
+    // Pocas iteraciones para que el test no dependa de la velocidad de PBKDF2
+    private static final int ITERATIONS = 1000;
+
+    private Path keyDirectory;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        keyDirectory = Files.createTempDirectory("keyManagerTest");
+    }
+
+    @AfterEach
+    public void cleanup() throws Exception {
+        Files.walk(keyDirectory)
+                .sorted((a, b) -> b.compareTo(a))
+                .forEach(p -> p.toFile().delete());
+    }
+
+    @Test
+    public void testPasswordChangeAndRotationKeepFilesReadable() throws Exception {
+        KeyManager keys = new KeyManager(keyDirectory, ITERATIONS);
+        byte[] plain = new byte[200_000];
+        for (int i = 0; i < plain.length; i++) {
+            plain[i] = (byte) (i * 13);
+        }
+        byte[] encrypted = encrypt(new AESCipher(keys), plain);
+        assertTrue(Files.exists(keyDirectory.resolve("master.key")), "Sin contraseña se usa un archivo de clave");
+
+        keys.changePassword("primera".toCharArray());
+        assertFalse(Files.exists(keyDirectory.resolve("master.key")), "Con contraseña el archivo de clave sobra");
+        keys.rotateMasterKey();
+        keys.changePassword("segunda".toCharArray());
+
+        // Los archivos cifrados no cambiaron: otra instancia los descifra con la contraseña nueva
+        KeyManager reopened = new KeyManager(keyDirectory, ITERATIONS);
+        assertTrue(reopened.isPasswordProtected());
+        assertThrows(IOException.class, () -> reopened.getKey("AES"), "Sin desbloquear no hay claves");
+        assertThrows(IOException.class, () -> reopened.unlock("primera".toCharArray()));
+        reopened.unlock("segunda".toCharArray());
+        assertArrayEquals(plain, decrypt(new AESCipher(reopened), encrypted));
+
+        reopened.lock();
+        assertFalse(reopened.isUnlocked());
+        assertThrows(IOException.class, () -> reopened.getKey("AES"));
+    }
+
+    @Test
+    public void testFailedRotationKeepsPreviousTable() throws Exception {
+        KeyManager keys = new KeyManager(keyDirectory, ITERATIONS);
+        byte[] key = keys.getKey("AES").getEncoded();
+
+        // Un archivo en lugar del directorio de claves impide guardar la tabla
+        Path moved = keyDirectory.resolveSibling(keyDirectory.getFileName() + ".moved");
+        Files.move(keyDirectory, moved);
+        Files.write(keyDirectory, new byte[0]);
+        try {
+            assertThrows(IOException.class, keys::rotateMasterKey);
+        } finally {
+            Files.delete(keyDirectory);
+            Files.move(moved, keyDirectory);
+        }
+
+        keys.lock();
+        assertArrayEquals(key, keys.getKey("AES").getEncoded(), "La tabla en memoria sigue siendo la anterior");
+        byte[] other = keys.getKey("OTRA").getEncoded();
+        KeyManager reopened = new KeyManager(keyDirectory, ITERATIONS);
+        assertArrayEquals(key, reopened.getKey("AES").getEncoded());
+        assertArrayEquals(other, reopened.getKey("OTRA").getEncoded());
+    }
+
+    @Test
+    public void testLegacyKeyFileIsImported() throws Exception {
+        byte[] legacy = new byte[32];
+        legacy[0] = 42;
+        Files.write(keyDirectory.resolve("AES.key"), legacy);
+
+        KeyManager keys = new KeyManager(keyDirectory, ITERATIONS);
+        assertArrayEquals(legacy, keys.getKey("AES").getEncoded());
+        assertFalse(Files.exists(keyDirectory.resolve("AES.key")), "La clave importada queda solo en la tabla");
+        assertArrayEquals(legacy, new KeyManager(keyDirectory, ITERATIONS).getKey("AES").getEncoded());
+    }
+
+    @Test
+    public void testSessionKeepsDerivedKeyUntilLogout() throws Exception {
+        assertTrue(new AuthenticationService(new KeyManager(keyDirectory, ITERATIONS)).registerUser("ana", "clave"));
+
+        KeyManager keys = new KeyManager(keyDirectory, ITERATIONS);
+        AuthenticationService authentication = new AuthenticationService(keys);
+        assertFalse(authentication.authenticate("ana", "otra").isAuthenticated());
+        assertFalse(keys.isUnlocked());
+
+        UserSession session = authentication.authenticate("ana", "clave");
+        assertTrue(session.isAuthenticated());
+        KeyMaterial derived = session.getKeyMaterial();
+        assertNotNull(derived, "La clave derivada se conserva en la sesión");
+        byte[] key = keys.getKey("AES").getEncoded();
+        AtomicInteger locks = new AtomicInteger();
+        keys.addLockListener(locks::incrementAndGet);
+
+        // Se vuelve a desbloquear con la clave de la sesión, sin derivarla otra vez
+        keys.lock();
+        authentication.unlockKeys(session);
+        assertArrayEquals(key, keys.getKey("AES").getEncoded());
+
+        authentication.logout(session);
+        assertTrue(derived.isDestroyed(), "Al cerrar la sesión la clave derivada se borra");
+        assertEquals(2, locks.get(), "Cada bloqueo avisa para descartar las claves derivadas en caché");
+        assertThrows(IOException.class, () -> keys.getKey("AES"));
+    }
+
+    @Test
+    public void testCalibrationRespectsMinimum() throws Exception {
+        assertEquals(PasswordKdf.MIN_ITERATIONS, PasswordKdf.calibrate(1), "Una latencia mínima no baja de MIN_ITERATIONS");
+        assertTrue(PasswordKdf.calibrate(2000) >= PasswordKdf.calibrate(1));
+    }
+
+    private byte[] encrypt(AESCipher cipher, byte[] plain) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cipher.encrypt(new ByteArrayInputStream(plain), "AES", out);
+        return out.toByteArray();
+    }
+
+    private byte[] decrypt(AESCipher cipher, byte[] encrypted) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cipher.decrypt(new ByteArrayInputStream(encrypted), "AES", out);
+        return out.toByteArray();
+    }
+}
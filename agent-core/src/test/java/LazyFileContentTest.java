@@ -0,0 +1,111 @@
+import co.cyte.agent.core.domain.EncryptedFile;
+import co.cyte.agent.core.storage.BackingStore;
+import co.cyte.agent.core.storage.ChunkedFileContent;
+import co.cyte.agent.core.storage.FileContent;
+import co.cyte.agent.core.storage.LazyFileContent;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LazyFileContentTest {
+
+    @Test
+    public void testCheckpointDuringWriteKeepsContentDirty() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        BlockingStore store = new BlockingStore(entered, proceed);
+        LazyFileContent content = new LazyFileContent(new EncryptedFile("a.txt", Paths.get("a.txt.cv"), 0), 0, store);
+        content.write(0, ByteBuffer.wrap("aaaa".getBytes(StandardCharsets.US_ASCII)));
+        content.markPersisted(new EncryptedFile("a.txt", Paths.get("a1.txt.cv"), 4), content.getGeneration());
+        assertFalse(content.isDirty());
+
+        // Una escritura queda detenida dentro del contenido residente
+        store.blockWrites = true;
+        Thread writer = new Thread(() -> content.write(0, ByteBuffer.wrap("bbbb".getBytes(StandardCharsets.US_ASCII))));
+        writer.start();
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        // Un checkpoint lee la generación y los datos mientras tanto: todavía son los anteriores
+        long generation = content.getGeneration();
+        ByteBuffer snapshot = ByteBuffer.allocate(4);
+        content.read(0, snapshot);
+        assertEquals("aaaa", new String(snapshot.array(), StandardCharsets.US_ASCII));
+
+        proceed.countDown();
+        writer.join(5000);
+        content.markPersisted(new EncryptedFile("a.txt", Paths.get("a2.txt.cv"), 4), generation);
+
+        // Lo persistido no incluye la escritura: el contenido debe seguir sucio
+        assertTrue(content.isDirty(), "La escritura concurrente no debe darse por persistida");
+        assertNotEquals(generation, content.getGeneration());
+    }
+
+    /**
+     * Almacén en memoria cuyos contenidos pueden detener las escrituras hasta que se indique.
+     */
+    private static final class BlockingStore implements BackingStore {
+        private final CountDownLatch entered;
+        private final CountDownLatch proceed;
+        volatile boolean blockWrites;
+
+        BlockingStore(CountDownLatch entered, CountDownLatch proceed) {
+            this.entered = entered;
+            this.proceed = proceed;
+        }
+
+        @Override
+        public FileContent allocate() {
+            return new ChunkedFileContent(4) {
+                @Override
+                public int write(long position, ByteBuffer src) {
+                    if (blockWrites) {
+                        entered.countDown();
+                        try {
+                            proceed.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return super.write(position, src);
+                }
+            };
+        }
+
+        @Override
+        public void load(EncryptedFile source, FileContent target) {
+        }
+
+        @Override
+        public boolean canReadDirectly(EncryptedFile source, long size) {
+            return false;
+        }
+
+        @Override
+        public int readDirectly(EncryptedFile source, long position, ByteBuffer dst) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public EncryptedFile spill(FileContent content) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void discard(EncryptedFile spilled) {
+        }
+
+        @Override
+        public void accessed(LazyFileContent content) {
+        }
+
+        @Override
+        public void released(LazyFileContent content) {
+        }
+    }
+}
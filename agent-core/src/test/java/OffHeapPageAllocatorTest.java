@@ -0,0 +1,54 @@
+import co.cyte.agent.core.storage.ChunkedFileContent;
+import co.cyte.agent.core.storage.MemoryBudgetExceededException;
+import co.cyte.agent.core.storage.OffHeapPageAllocator;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffHeapPageAllocatorTest {
+
+    @Test
+    public void testPagesAreAccountedAndPooled() {
+        OffHeapPageAllocator allocator = new OffHeapPageAllocator(16, 64);
+        ChunkedFileContent content = new ChunkedFileContent(allocator);
+        content.write(0, ByteBuffer.wrap(new byte[40]));
+
+        // 40 bytes en páginas de 16 ocupan 3 páginas
+        assertEquals(48, allocator.usedBytes(), "El uso debe contarse por páginas completas");
+
+        content.release();
+        assertEquals(0, allocator.usedBytes(), "Liberar el contenido debe devolver todas las páginas");
+        assertEquals(3, allocator.pooledPages(), "Las páginas liberadas deben quedar en el pool");
+
+        allocator.clear();
+        assertEquals(0, allocator.pooledPages(), "clear() debe vaciar el pool");
+    }
+
+    @Test
+    public void testBudgetIsEnforced() {
+        OffHeapPageAllocator allocator = new OffHeapPageAllocator(16, 32);
+        ChunkedFileContent content = new ChunkedFileContent(allocator);
+        content.write(0, ByteBuffer.wrap(new byte[32]));
+
+        assertThrows(MemoryBudgetExceededException.class,
+                () -> content.write(32, ByteBuffer.wrap(new byte[1])),
+                "Una página más allá del presupuesto debe rechazarse");
+        assertEquals(32, content.size(), "La escritura rechazada no debe cambiar el tamaño");
+    }
+
+    @Test
+    public void testReusedPagesAreZeroed() {
+        OffHeapPageAllocator allocator = new OffHeapPageAllocator(16, 64);
+        ChunkedFileContent first = new ChunkedFileContent(allocator);
+        first.write(0, ByteBuffer.wrap("texto plano sens".getBytes()));
+        first.release();
+
+        // La siguiente página sale del pool y no debe conservar datos anteriores
+        ByteBuffer page = allocator.allocate();
+        while (page.hasRemaining()) {
+            assertEquals(0, page.get(), "Las páginas reutilizadas deben estar en ceros");
+        }
+    }
+}
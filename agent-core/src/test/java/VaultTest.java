@@ -1,9 +1,26 @@
+import co.cyte.agent.core.crypto.AESCipher;
+import co.cyte.agent.core.domain.LockListener;
+import co.cyte.agent.core.domain.LockProgress;
 import co.cyte.agent.core.domain.Vault;
+import co.cyte.agent.core.domain.VaultJournal;
+import co.cyte.agent.core.domain.VaultOptions;
 import co.cyte.agent.core.services.EncryptionService;
+import co.cyte.agent.core.services.KeyManager;
+import co.cyte.agent.core.storage.ChunkedFileContent;
+import co.cyte.agent.core.storage.FileContent;
+import co.cyte.agent.core.storage.FileTree;
+import co.cyte.agent.core.storage.LazyFileContent;
 import org.junit.jupiter.api.*;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
 import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -11,6 +28,8 @@ import static org.junit.jupiter.api.Assertions.*;
 public class VaultTest {
 
     private Path tempDir;
+    // Bóveda compartida por las pruebas; las demás usan subcarpetas de tempDir
+    private Path vaultDir;
     private EncryptionService encryptionService;
     private Vault vault;
 
@@ -18,13 +37,15 @@ public class VaultTest {
     public void setupAll() throws Exception {
         // Crear un directorio temporal para simular la bóveda
         tempDir = Files.createTempDirectory("vaultTest");
-        encryptionService = new EncryptionService(); // Utiliza la implementación simulada (AESCipher)
+        vaultDir = Files.createDirectories(tempDir.resolve("shared"));
+        // AESCipher con una clave que solo vive en memoria durante las pruebas
+        encryptionService = new EncryptionService(new AESCipher(new KeyManager()));
     }
 
     @BeforeEach
     public void setup() {
         // Instanciar Vault para cada prueba
-        vault = new Vault(tempDir, encryptionService);
+        vault = new Vault(vaultDir, encryptionService);
     }
 
     @AfterEach
@@ -46,18 +67,18 @@ public class VaultTest {
         // Crear un archivo "testfile.cv" en el directorio temporal con contenido de ejemplo
         String fileContent = "Hello World";
         String baseFileName = "testfile";
-        Path encryptedFile = tempDir.resolve(baseFileName + ".cv");
-        Files.write(encryptedFile, fileContent.getBytes(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        Path encryptedFile = vaultDir.resolve(baseFileName + ".cv");
+        writeEncrypted(encryptedFile, fileContent.getBytes());
 
         // Invocar unlock() para que Vault lea y "descifre" el archivo
         vault.unlock();
 
         // Verificar que el Map contenga la entrada sin la extensión
-        Map<String, ByteArrayOutputStream> files = vault.getDecryptedFiles();
+        Map<String, FileContent> files = vault.getDecryptedFiles();
         assertTrue(files.containsKey(baseFileName), "El archivo 'testfile' debería estar cargado en memoria");
 
         // Verificar que el contenido leído sea igual al contenido original
-        String decryptedContent = files.get(baseFileName).toString();
+        String decryptedContent = new String(files.get(baseFileName).newInputStream().readAllBytes());
         assertEquals(fileContent, decryptedContent, "El contenido descifrado debe coincidir con el contenido original");
     }
 
@@ -66,9 +87,11 @@ public class VaultTest {
         // Simular que Vault tiene un archivo descifrado en memoria
         String fileContent = "Datos a cifrar";
         String baseFileName = "myfile";
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        baos.write(fileContent.getBytes());
-        vault.getDecryptedFiles().put(baseFileName, baos);
+        FileContent content = new ChunkedFileContent();
+        try (OutputStream out = content.newOutputStream()) {
+            out.write(fileContent.getBytes());
+        }
+        vault.getDecryptedFiles().put(baseFileName, content);
 
         // Invocar lock() para cifrar y persistir los archivos
         vault.lock();
@@ -77,11 +100,812 @@ public class VaultTest {
         assertTrue(vault.getDecryptedFiles().isEmpty(), "El mapa de archivos debe estar vacío luego de bloquear la vault");
 
         // Verificar que el archivo cifrado exista en disco con la extensión ".cv"
-        Path outputFile = tempDir.resolve(baseFileName + ".cv");
+        Path outputFile = vaultDir.resolve(baseFileName + ".cv");
         assertTrue(Files.exists(outputFile), "El archivo cifrado debería existir en disco");
 
-        // Leer el contenido del archivo y verificar que coincida (ya que la 'encriptación' es simulada)
-        String encryptedContent = new String(Files.readAllBytes(outputFile));
-        assertEquals(fileContent, encryptedContent, "El contenido cifrado debe ser igual al original (simulación)");
+        // El archivo no debe contener el texto plano y debe descifrarse al contenido original
+        assertFalse(new String(Files.readAllBytes(outputFile)).contains(fileContent), "El archivo en disco debe estar cifrado");
+        assertEquals(fileContent, readDecrypted(outputFile), "El contenido descifrado debe coincidir con el original");
+    }
+
+    @Test
+    public void testLazyUnlockDefersDecryption() throws Exception {
+        String fileContent = "Contenido diferido";
+        Path encryptedFile = vaultDir.resolve("lazy.cv");
+        writeEncrypted(encryptedFile, fileContent.getBytes());
+
+        vault.unlock();
+
+        // Tras desbloquear, el archivo se conoce por nombre y tamaño, pero no se ha descifrado
+        FileContent content = vault.getDecryptedFiles().get("lazy");
+        assertTrue(content instanceof LazyFileContent, "En modo diferido el contenido debe ser LazyFileContent");
+        assertFalse(((LazyFileContent) content).isLoaded(), "El archivo no debe descifrarse al desbloquear");
+        assertEquals(fileContent.length(), content.size(), "El tamaño debe conocerse sin descifrar");
+
+        // La primera lectura lo descifra
+        assertEquals(fileContent, new String(content.newInputStream().readAllBytes()));
+        assertTrue(((LazyFileContent) content).isLoaded(), "La lectura debe cargar el contenido");
+    }
+
+    @Test
+    public void testModifiedFileIsSpilledAndReloaded() throws Exception {
+        // Páginas de 16 bytes y umbral de una página: el segundo archivo desaloja al primero
+        VaultOptions options = new VaultOptions();
+        options.setOffHeap(false);
+        options.setPageSize(16);
+        options.setSpillThresholdBytes(16);
+        Path spillVaultDir = Files.createDirectories(tempDir.resolve("spill"));
+        Vault spillVault = new Vault(spillVaultDir, encryptionService, options);
+        spillVault.unlock();
+
+        FileContent first = spillVault.newFileContent();
+        first.write(0, java.nio.ByteBuffer.wrap("Primer archivo".getBytes()));
+        spillVault.getDecryptedFiles().put("first", first);
+        FileContent second = spillVault.newFileContent();
+        second.write(0, java.nio.ByteBuffer.wrap("Segundo archivo".getBytes()));
+        spillVault.getDecryptedFiles().put("second", second);
+
+        // El primer archivo salió de memoria hacia el área de desalojo
+        assertFalse(((LazyFileContent) first).isLoaded(), "El archivo menos usado debe desalojarse");
+        assertTrue(((LazyFileContent) first).isSpilled(), "Un archivo modificado debe guardarse cifrado al desalojarse");
+
+        // Se vuelve a cargar de forma transparente
+        assertEquals("Primer archivo", new String(first.newInputStream().readAllBytes()));
+
+        spillVault.lock();
+        assertEquals("Primer archivo", readDecrypted(spillVaultDir.resolve("first.cv")));
+        assertEquals("Segundo archivo", readDecrypted(spillVaultDir.resolve("second.cv")));
+        assertFalse(Files.exists(spillVaultDir.resolve(".cyte-spill")), "El área de desalojo debe eliminarse al bloquear");
+    }
+
+    @Test
+    public void testParallelUnlockReportsProgress() throws Exception {
+        Path parallelDir = Files.createDirectories(tempDir.resolve("parallel"));
+        // Un archivo mayor al umbral de lectura mapeada y varios pequeños
+        byte[] large = new byte[3 * 1024 * 1024 + 17];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) (i * 31);
+        }
+        writeEncrypted(parallelDir.resolve("grande.cv"), large);
+        for (int i = 0; i < 8; i++) {
+            writeEncrypted(parallelDir.resolve("archivo" + i + ".cv"), ("Contenido " + i).getBytes());
+        }
+
+        VaultOptions options = new VaultOptions();
+        options.setLazyUnlock(false);
+        options.setUnlockThreads(4);
+        Vault parallelVault = new Vault(parallelDir, encryptionService, options);
+        parallelVault.unlock();
+
+        assertEquals(9, parallelVault.getUnlockProgress().getTotalFiles());
+        assertEquals(9, parallelVault.getUnlockProgress().getUnlockedFiles());
+        assertEquals(0, parallelVault.getUnlockProgress().getFailedFiles());
+        assertTrue(parallelVault.getUnlockProgress().isFinished());
+        assertArrayEquals(large, parallelVault.getDecryptedFiles().get("grande").newInputStream().readAllBytes());
+        assertEquals("Contenido 5", new String(parallelVault.getDecryptedFiles().get("archivo5").newInputStream().readAllBytes()));
+        parallelVault.getDecryptedFiles().clear();
+    }
+
+    @Test
+    public void testLockOnlyRewritesChangedFiles() throws Exception {
+        Path dirtyDir = Files.createDirectories(tempDir.resolve("dirty"));
+        writeEncrypted(dirtyDir.resolve("intacto.cv"), "sin cambios".getBytes());
+        writeEncrypted(dirtyDir.resolve("editado.cv"), "original".getBytes());
+        writeEncrypted(dirtyDir.resolve("viejo.cv"), "renombrado".getBytes());
+        FileTime past = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(dirtyDir.resolve("intacto.cv"), past);
+
+        VaultOptions options = new VaultOptions();
+        options.setLazyUnlock(false);
+        Vault dirtyVault = new Vault(dirtyDir, encryptionService, options);
+        dirtyVault.unlock();
+
+        // Se lee un archivo, se modifica otro y se renombra un tercero
+        dirtyVault.getDecryptedFiles().get("intacto").newInputStream().readAllBytes();
+        FileContent edited = dirtyVault.getDecryptedFiles().get("editado");
+        edited.truncate(0);
+        edited.write(0, java.nio.ByteBuffer.wrap("nuevo".getBytes()));
+        dirtyVault.getDecryptedFiles().move("viejo", "nuevo");
+
+        dirtyVault.lock();
+
+        assertEquals(past, Files.getLastModifiedTime(dirtyDir.resolve("intacto.cv")), "Un archivo solo leído no debe reescribirse");
+        assertEquals("nuevo", readDecrypted(dirtyDir.resolve("editado.cv")));
+        assertEquals("renombrado", readDecrypted(dirtyDir.resolve("nuevo.cv")));
+        assertFalse(Files.exists(dirtyDir.resolve("viejo.cv")), "El nombre anterior debe eliminarse");
+    }
+
+    @Test
+    public void testCancelledLockKeepsVaultUnlockedAndDiskIntact() throws Exception {
+        Path cancelDir = Files.createDirectories(tempDir.resolve("cancel"));
+        writeEncrypted(cancelDir.resolve("doc.cv"), "version anterior".getBytes());
+        Vault cancelVault = new Vault(cancelDir, encryptionService);
+        cancelVault.unlock();
+        FileContent doc = cancelVault.getDecryptedFiles().get("doc");
+        doc.truncate(0);
+        doc.write(0, java.nio.ByteBuffer.wrap("version nueva".getBytes()));
+
+        LockListener cancelled = new LockListener() {
+            @Override
+            public boolean isCancelled() {
+                return true;
+            }
+        };
+        assertThrows(CancellationException.class, () -> cancelVault.lock(cancelled));
+
+        // El archivo en disco y el contenido en memoria se conservan, sin temporales
+        assertEquals("version anterior", readDecrypted(cancelDir.resolve("doc.cv")));
+        assertEquals("version nueva", new String(doc.newInputStream().readAllBytes()));
+        assertFalse(Files.exists(cancelDir.resolve("doc.cv.tmp")), "No deben quedar temporales");
+
+        // Un bloqueo posterior confirma la nueva versión y reporta el avance
+        cancelVault.lock();
+        assertEquals("version nueva", readDecrypted(cancelDir.resolve("doc.cv")));
+        assertEquals(1, cancelVault.getLockProgress().getLockedFiles());
+        assertTrue(cancelVault.getLockProgress().isFinished());
+    }
+
+    @Test
+    public void testCheckpointPersistsChangesWithoutLocking() throws Exception {
+        Path checkpointDir = Files.createDirectories(tempDir.resolve("checkpoint"));
+        writeEncrypted(checkpointDir.resolve("doc.cv"), "original".getBytes());
+        Vault checkpointVault = new Vault(checkpointDir, encryptionService);
+        checkpointVault.unlock();
+        FileContent doc = checkpointVault.getDecryptedFiles().get("doc");
+        doc.truncate(0);
+        doc.write(0, java.nio.ByteBuffer.wrap("guardado".getBytes()));
+
+        assertEquals(1, checkpointVault.checkpoint().getLockedFiles());
+
+        // El archivo queda en disco y limpio: la unidad sigue montada y el bloqueo no lo reescribe
+        assertEquals("guardado", readDecrypted(checkpointDir.resolve("doc.cv")));
+        assertFalse(((LazyFileContent) doc).isDirty());
+        assertEquals("guardado", new String(doc.newInputStream().readAllBytes()));
+        checkpointVault.lock();
+        assertEquals(0, checkpointVault.getLockProgress().getLockedFiles());
+    }
+
+    @Test
+    public void testScheduledCheckpointWaitsForQuietFile() throws Exception {
+        Path scheduledDir = Files.createDirectories(tempDir.resolve("scheduled"));
+        writeEncrypted(scheduledDir.resolve("doc.cv"), "original".getBytes());
+        VaultOptions options = new VaultOptions();
+        options.setCheckpointIntervalMillis(50);
+        Vault scheduledVault = new Vault(scheduledDir, encryptionService, options);
+        scheduledVault.unlock();
+        LazyFileContent doc = (LazyFileContent) scheduledVault.getDecryptedFiles().get("doc");
+        doc.truncate(0);
+        doc.write(0, java.nio.ByteBuffer.wrap("en segundo plano".getBytes()));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (doc.isDirty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertFalse(doc.isDirty(), "El checkpoint debe guardar el archivo una vez que deja de cambiar");
+        assertEquals("en segundo plano", readDecrypted(scheduledDir.resolve("doc.cv")));
+        scheduledVault.lock();
+    }
+
+    @Test
+    public void testLargeFileIsReadAndSavedBySegments() throws Exception {
+        Path segmentsDir = Files.createDirectories(tempDir.resolve("segments"));
+        byte[] data = new byte[3 * 64 * 1024 + 10];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 13);
+        }
+        Path file = segmentsDir.resolve("video.cv");
+        writeEncrypted(file, data);
+        byte[] before = Files.readAllBytes(file);
+
+        VaultOptions options = new VaultOptions();
+        options.setDirectReadThresholdBytes(0);
+        Vault segmentsVault = new Vault(segmentsDir, encryptionService, options);
+        segmentsVault.unlock();
+        LazyFileContent video = (LazyFileContent) segmentsVault.getDecryptedFiles().get("video");
+
+        // La lectura descifra solo lo que cubre, sin cargar el archivo en memoria
+        java.nio.ByteBuffer dst = java.nio.ByteBuffer.allocate(16);
+        video.read(100_000, dst);
+        assertArrayEquals(Arrays.copyOfRange(data, 100_000, 100_016), dst.array());
+        assertFalse(video.isLoaded(), "Una lectura directa no debe cargar el archivo");
+
+        // Una escritura pequeña solo vuelve a cifrar el segmento que toca
+        video.write(70_000, java.nio.ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        segmentsVault.lock();
+        byte[] after = Files.readAllBytes(file);
+        int header = 24;
+        int segment = 64 * 1024 + 28;
+        assertArrayEquals(Arrays.copyOfRange(before, header, header + segment),
+                Arrays.copyOfRange(after, header, header + segment), "El primer segmento no debe volver a cifrarse");
+        assertFalse(Arrays.equals(Arrays.copyOfRange(before, header + segment, header + 2 * segment),
+                Arrays.copyOfRange(after, header + segment, header + 2 * segment)));
+        data[70_000] = 1;
+        data[70_001] = 2;
+        data[70_002] = 3;
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        try (InputStream in = Files.newInputStream(file)) {
+            encryptionService.decrypt(in, "AES", decrypted);
+        }
+        assertArrayEquals(data, decrypted.toByteArray());
+    }
+
+    @Test
+    public void testCompressedFilesAreListedReadAndSaved() throws Exception {
+        Path compressedDir = Files.createDirectories(tempDir.resolve("compressed"));
+        AESCipher compressing = new AESCipher(new KeyManager());
+        compressing.setCompressionEnabled(true);
+        EncryptionService service = new EncryptionService(compressing);
+        byte[] data = new byte[3 * 64 * 1024 + 10];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + i % 7);
+        }
+        Path file = compressedDir.resolve("log.cv");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            service.encrypt(new ByteArrayInputStream(data), "AES", out);
+        }
+        assertTrue(Files.size(file) < data.length / 10, "El texto repetitivo debe ocupar mucho menos en disco");
+
+        VaultOptions options = new VaultOptions();
+        options.setDirectReadThresholdBytes(0);
+        Vault compressedVault = new Vault(compressedDir, service, options);
+        compressedVault.unlock();
+        LazyFileContent log = (LazyFileContent) compressedVault.getDecryptedFiles().get("log");
+        assertEquals(data.length, log.size(), "El tamaño se lee del índice, sin descifrar");
+        java.nio.ByteBuffer dst = java.nio.ByteBuffer.allocate(16);
+        log.read(100_000, dst);
+        assertArrayEquals(Arrays.copyOfRange(data, 100_000, 100_016), dst.array());
+
+        log.write(70_000, java.nio.ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        compressedVault.lock();
+        data[70_000] = 1;
+        data[70_001] = 2;
+        data[70_002] = 3;
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        try (InputStream in = Files.newInputStream(file)) {
+            service.decrypt(in, "AES", decrypted);
+        }
+        assertArrayEquals(data, decrypted.toByteArray());
+    }
+
+    @Test
+    public void testDeduplicatedVersionsShareChunks() throws Exception {
+        Path dedupDir = Files.createDirectories(tempDir.resolve("dedup"));
+        VaultOptions options = new VaultOptions();
+        options.setDeduplication(true);
+        options.setDirectReadThresholdBytes(0);
+        Vault dedupVault = new Vault(dedupDir, encryptionService, options);
+
+        // Siete versiones de un documento de 600 KB, cada una con un párrafo insertado
+        byte[] base = new byte[600_000];
+        new java.util.Random(7).nextBytes(base);
+        byte[][] versions = new byte[7][];
+        for (int v = 0; v < versions.length; v++) {
+            byte[] inserted = new byte[100];
+            Arrays.fill(inserted, (byte) v);
+            int at = 50_000 + v * 80_000;
+            versions[v] = new byte[base.length + inserted.length];
+            System.arraycopy(base, 0, versions[v], 0, at);
+            System.arraycopy(inserted, 0, versions[v], at, inserted.length);
+            System.arraycopy(base, at, versions[v], at + inserted.length, base.length - at);
+            FileContent content = dedupVault.newFileContent();
+            content.write(0, java.nio.ByteBuffer.wrap(versions[v]));
+            dedupVault.getDecryptedFiles().put("report_v" + (v + 1) + ".docx", content);
+        }
+        dedupVault.lock();
+        assertTrue(Files.exists(dedupDir.resolve("report_v1.docx.cvc")));
+        assertFalse(Files.exists(dedupDir.resolve("report_v1.docx.cv")));
+        assertTrue(directorySize(dedupDir) < 2L * base.length, "Las versiones comparten la mayoría de sus fragmentos");
+
+        dedupVault.unlock();
+        FileContent v3 = dedupVault.getDecryptedFiles().get("report_v3.docx");
+        assertEquals(versions[2].length, v3.size(), "El tamaño se lee de la receta");
+        java.nio.ByteBuffer dst = java.nio.ByteBuffer.allocate(16);
+        v3.read(300_000, dst);
+        assertArrayEquals(Arrays.copyOfRange(versions[2], 300_000, 300_016), dst.array());
+        assertArrayEquals(versions[2], v3.newInputStream().readAllBytes());
+
+        // Al eliminar versiones se eliminan los fragmentos que solo ellas usaban
+        long before = directorySize(dedupDir.resolve(".cyte-chunks"));
+        for (int v = 1; v <= 6; v++) {
+            dedupVault.getDecryptedFiles().remove("report_v" + v + ".docx");
+        }
+        dedupVault.lock();
+        assertTrue(directorySize(dedupDir.resolve(".cyte-chunks")) < before);
+        dedupVault.unlock();
+        assertEquals(1, dedupVault.getDecryptedFiles().size());
+        assertArrayEquals(versions[6], dedupVault.getDecryptedFiles().get("report_v7.docx").newInputStream().readAllBytes());
+        dedupVault.lock();
+    }
+
+    @Test
+    public void testManifestHidesNamesAndListsFilesWithoutOpeningThem() throws Exception {
+        Path manifestDir = Files.createDirectories(tempDir.resolve("manifest"));
+        writeEncrypted(manifestDir.resolve("informe secreto.txt.cv"), "version 1".getBytes());
+        VaultOptions options = new VaultOptions();
+        options.setManifest(true);
+        Vault manifestVault = new Vault(manifestDir, encryptionService, options);
+
+        // Una bóveda sin manifiesto se migra al bloquear: los nombres dejan de estar en disco
+        manifestVault.unlock();
+        FileContent renamed = manifestVault.getDecryptedFiles().remove("informe secreto.txt");
+        manifestVault.getDecryptedFiles().put("informe final.txt", renamed);
+        manifestVault.lock();
+        assertTrue(Files.exists(manifestDir.resolve(".cyte-manifest")));
+        try (java.util.stream.Stream<Path> files = Files.walk(manifestDir)) {
+            assertTrue(files.noneMatch(p -> p.getFileName().toString().contains("informe")), "En disco no quedan los nombres");
+        }
+
+        // Otra instancia (sin la opción) lee el manifiesto; renombrar no vuelve a escribir el blob
+        Vault reopened = new Vault(manifestDir, encryptionService);
+        reopened.unlock();
+        LazyFileContent report = (LazyFileContent) reopened.getDecryptedFiles().get("informe final.txt");
+        assertEquals("version 1".getBytes().length, report.size(), "El tamaño se lee del manifiesto");
+        Path blob = report.getOrigin().getFilePath();
+        reopened.getDecryptedFiles().move("informe final.txt", "definitivo.txt");
+        reopened.lock();
+        reopened.unlock();
+        assertEquals(blob, ((LazyFileContent) reopened.getDecryptedFiles().get("definitivo.txt")).getOrigin().getFilePath());
+        assertEquals("version 1", new String(reopened.getDecryptedFiles().get("definitivo.txt").newInputStream().readAllBytes()));
+
+        // Una versión modificada va a un blob nuevo y el anterior se elimina al bloquear
+        FileContent content = reopened.getDecryptedFiles().get("definitivo.txt");
+        content.write(content.size(), java.nio.ByteBuffer.wrap(" y 2".getBytes()));
+        reopened.lock();
+        assertFalse(Files.exists(blob));
+
+        // Reemplazar un blob por otro válido de la bóveda se detecta al cargarlo
+        reopened.unlock();
+        Path current = ((LazyFileContent) reopened.getDecryptedFiles().get("definitivo.txt")).getOrigin().getFilePath();
+        reopened.getDecryptedFiles().clear();
+        writeEncrypted(current, "otra cosa".getBytes());
+        reopened.unlock();
+        assertThrows(RuntimeException.class, () -> reopened.getDecryptedFiles().get("definitivo.txt").newInputStream().readAllBytes());
+        reopened.getDecryptedFiles().clear();
+    }
+
+    @Test
+    public void testPackFilesHoldSmallFilesAndMigrateBetweenLayouts() throws Exception {
+        Path packDir = Files.createDirectories(tempDir.resolve("packs"));
+        Path packs = packDir.resolve(".cyte-packs");
+        Path blobs = packDir.resolve(".cyte-blobs");
+        java.util.Random random = new java.util.Random(21);
+        byte[][] data = new byte[20][];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = new byte[100 * 1024];
+            random.nextBytes(data[i]);
+            writeEncrypted(packDir.resolve("doc" + i + ".txt.cv"), data[i]);
+        }
+        VaultOptions options = new VaultOptions();
+        options.setPackFiles(true);
+        Vault packed = new Vault(packDir, encryptionService, options);
+
+        // Los archivos con nombre pasan a un solo paquete, sin volver a cifrarse
+        packed.unlock();
+        packed.lock();
+        packed.compactPacks();
+        assertEquals(1, fileCount(packs));
+        assertEquals(0, fileCount(blobs));
+        try (java.util.stream.Stream<Path> files = Files.list(packDir)) {
+            assertTrue(files.noneMatch(p -> p.toString().endsWith(".cv")));
+        }
+
+        // Se leen desde el paquete; las versiones nuevas se agregan al final y la compactación
+        // recupera el espacio de las anteriores
+        packed.unlock();
+        for (int i = 0; i < data.length; i++) {
+            FileContent content = packed.getDecryptedFiles().get("doc" + i + ".txt");
+            assertArrayEquals(data[i], content.newInputStream().readAllBytes());
+            data[i][0] = (byte) i;
+            content.write(0, java.nio.ByteBuffer.wrap(new byte[]{(byte) i}));
+        }
+        packed.lock();
+        packed.compactPacks();
+        assertTrue(directorySize(packs) < 3 * 1024 * 1024, "La compactación recupera las versiones reemplazadas");
+        packed.unlock();
+        for (int i = 0; i < data.length; i++) {
+            assertArrayEquals(data[i], packed.getDecryptedFiles().get("doc" + i + ".txt").newInputStream().readAllBytes());
+        }
+        packed.getDecryptedFiles().clear();
+
+        // Sin la opción, la bóveda vuelve a un blob por archivo
+        Vault loose = new Vault(packDir, encryptionService);
+        loose.unlock();
+        loose.lock();
+        loose.compactPacks();
+        assertEquals(0, fileCount(packs));
+        assertEquals(data.length, fileCount(blobs));
+        loose.unlock();
+        assertArrayEquals(data[7], loose.getDecryptedFiles().get("doc7.txt").newInputStream().readAllBytes());
+        loose.getDecryptedFiles().clear();
+    }
+
+    @Test
+    public void testJournalReplaysChangesAfterInterruption() throws Exception {
+        Path journalDir = Files.createDirectories(tempDir.resolve("journal"));
+        Path journalFile = journalDir.resolve(".cyte-journal");
+        writeEncrypted(journalDir.resolve("doc.txt.cv"), "original".getBytes());
+        writeEncrypted(journalDir.resolve("viejo.txt.cv"), "eliminado".getBytes());
+        VaultOptions options = new VaultOptions();
+        options.setJournal(true);
+        options.setCheckpointIntervalMillis(0);
+        Vault journaled = new Vault(journalDir, encryptionService, options);
+        journaled.unlock();
+
+        // Cada cambio se aplica en memoria y se registra en el diario, como hace la unidad virtual
+        FileTree files = journaled.getDecryptedFiles();
+        VaultJournal journal = journaled.getJournal();
+        java.nio.ByteBuffer data = java.nio.ByteBuffer.wrap("modificado".getBytes());
+        files.get("doc.txt").write(0, data.duplicate());
+        journal.logWrite("doc.txt", 0, data);
+        files.createDirectory("sub");
+        journal.logCreate("sub", true);
+        files.move("doc.txt", "sub/doc.txt");
+        journal.logMove("doc.txt", "sub/doc.txt");
+        files.remove("viejo.txt");
+        journal.logDelete("viejo.txt", false);
+        files.put("nuevo.txt", journaled.newFileContent());
+        journal.logCreate("nuevo.txt", false);
+        java.nio.ByteBuffer created = java.nio.ByteBuffer.wrap("nuevo contenido".getBytes());
+        files.get("nuevo.txt").write(0, created.duplicate());
+        journal.sync(journal.logWrite("nuevo.txt", 0, created));
+
+        // La bóveda se interrumpe sin bloquear: el siguiente desbloqueo vuelve a aplicar el diario
+        Vault recovered = new Vault(journalDir, encryptionService, options);
+        recovered.unlock();
+        FileTree recoveredFiles = recovered.getDecryptedFiles();
+        assertEquals("modificado", new String(recoveredFiles.get("sub/doc.txt").newInputStream().readAllBytes()));
+        assertEquals("nuevo contenido", new String(recoveredFiles.get("nuevo.txt").newInputStream().readAllBytes()));
+        assertNull(recoveredFiles.get("doc.txt"));
+        assertNull(recoveredFiles.get("viejo.txt"));
+
+        // Al bloquear todo queda en el manifiesto y el diario se elimina
+        recovered.lock();
+        assertFalse(Files.exists(journalFile));
+        recovered.unlock();
+        assertEquals("modificado", new String(recovered.getDecryptedFiles().get("sub/doc.txt").newInputStream().readAllBytes()));
+        assertEquals(2, recovered.getDecryptedFiles().size());
+
+        // Un checkpoint con todos los archivos guardados vacía el diario sin esperar al bloqueo
+        FileContent doc = recovered.getDecryptedFiles().get("nuevo.txt");
+        data = java.nio.ByteBuffer.wrap("guardado".getBytes());
+        doc.truncate(0);
+        doc.write(0, data.duplicate());
+        recovered.getJournal().logTruncate("nuevo.txt", 0);
+        recovered.getJournal().sync(recovered.getJournal().logWrite("nuevo.txt", 0, data));
+        long journaledSize = Files.size(journalFile);
+        recovered.checkpoint();
+        assertTrue(Files.size(journalFile) < journaledSize);
+        Vault afterCheckpoint = new Vault(journalDir, encryptionService, options);
+        afterCheckpoint.unlock();
+        assertEquals("guardado", new String(afterCheckpoint.getDecryptedFiles().get("nuevo.txt").newInputStream().readAllBytes()));
+        afterCheckpoint.getDecryptedFiles().clear();
+        recovered.lock();
+        journaled.getDecryptedFiles().clear();
+    }
+
+    @Test
+    public void testJournalReplaysWriteThenRenameAndRejectsWriteToUnknownFile() throws Exception {
+        Path journalDir = Files.createDirectories(tempDir.resolve("journal-move"));
+        VaultOptions options = new VaultOptions();
+        options.setJournal(true);
+        options.setCheckpointIntervalMillis(0);
+        Vault journaled = new Vault(journalDir, encryptionService, options);
+        journaled.unlock();
+        FileTree files = journaled.getDecryptedFiles();
+        VaultJournal journal = journaled.getJournal();
+
+        // Se escribe "a.txt" y se renombra a "b.txt"
+        files.put("a.txt", journaled.newFileContent());
+        journal.logCreate("a.txt", false);
+        java.nio.ByteBuffer data = java.nio.ByteBuffer.wrap("escrito".getBytes());
+        files.get("a.txt").write(0, data.duplicate());
+        journal.logWrite("a.txt", 0, data);
+        files.move("a.txt", "b.txt");
+        journal.sync(journal.logMove("a.txt", "b.txt"));
+
+        Vault recovered = new Vault(journalDir, encryptionService, options);
+        recovered.unlock();
+        assertNull(recovered.getDecryptedFiles().get("a.txt"), "El archivo renombrado no debe reaparecer");
+        assertEquals("escrito", new String(recovered.getDecryptedFiles().get("b.txt").newInputStream().readAllBytes()));
+
+        // Una escritura registrada después del renombrado sobre la ruta anterior no tiene CREATE:
+        // falta un registro, y recuperar el diario perdería una escritura confirmada
+        journal.sync(journal.logWrite("a.txt", 0, java.nio.ByteBuffer.wrap("tarde".getBytes())));
+        Vault damaged = new Vault(journalDir, encryptionService, options);
+        assertThrows(java.io.IOException.class, damaged::unlock, "El diario con una escritura huérfana está dañado");
+        recovered.lock();
+        files.clear();
+    }
+
+    @Test
+    public void testJournalRejectsTamperedRecordsAndDiscardsTornTail() throws Exception {
+        Path journalDir = Files.createDirectories(tempDir.resolve("journal-tamper"));
+        Path journalFile = journalDir.resolve(".cyte-journal");
+        VaultOptions options = new VaultOptions();
+        options.setJournal(true);
+        options.setCheckpointIntervalMillis(0);
+        Vault journaled = new Vault(journalDir, encryptionService, options);
+        journaled.unlock();
+        FileTree files = journaled.getDecryptedFiles();
+        VaultJournal journal = journaled.getJournal();
+        files.put("log.txt", journaled.newFileContent());
+        journal.logCreate("log.txt", false);
+        for (String line : new String[]{"uno ", "dos ", "tres"}) {
+            java.nio.ByteBuffer data = java.nio.ByteBuffer.wrap(line.getBytes());
+            long offset = files.get("log.txt").size();
+            files.get("log.txt").write(offset, data.duplicate());
+            journal.sync(journal.logWrite("log.txt", offset, data));
+        }
+        files.clear();
+        byte[] original = Files.readAllBytes(journalFile);
+
+        // Registros: a continuación del encabezado (mágico y hash), cada uno con su longitud
+        java.util.List<int[]> frames = new java.util.ArrayList<>();
+        java.nio.ByteBuffer buffer = java.nio.ByteBuffer.wrap(original);
+        for (int position = 36; position < original.length; position += 4 + buffer.getInt(position)) {
+            frames.add(new int[]{position, 4 + buffer.getInt(position)});
+        }
+        assertEquals(4, frames.size());
+
+        // Quitar un registro del medio
+        int[] removed = frames.get(2);
+        java.io.ByteArrayOutputStream dropped = new java.io.ByteArrayOutputStream();
+        dropped.write(original, 0, removed[0]);
+        dropped.write(original, removed[0] + removed[1], original.length - removed[0] - removed[1]);
+        Files.write(journalFile, dropped.toByteArray());
+        assertThrows(Exception.class, () -> new Vault(journalDir, encryptionService, options).unlock());
+
+        // Repetir un registro
+        java.io.ByteArrayOutputStream duplicated = new java.io.ByteArrayOutputStream();
+        duplicated.write(original, 0, original.length);
+        duplicated.write(original, frames.get(3)[0], frames.get(3)[1]);
+        Files.write(journalFile, duplicated.toByteArray());
+        assertThrows(Exception.class, () -> new Vault(journalDir, encryptionService, options).unlock());
+
+        // Un registro dañado en el medio no se trata como una escritura interrumpida
+        byte[] corrupted = original.clone();
+        corrupted[frames.get(1)[0] + 20] ^= 1;
+        Files.write(journalFile, corrupted);
+        assertThrows(Exception.class, () -> new Vault(journalDir, encryptionService, options).unlock());
+
+        // Un último registro incompleto sí se descarta
+        byte[] torn = Arrays.copyOf(original, original.length - 5);
+        Files.write(journalFile, torn);
+        Vault recovered = new Vault(journalDir, encryptionService, options);
+        recovered.unlock();
+        assertEquals("uno dos ", new String(recovered.getDecryptedFiles().get("log.txt").newInputStream().readAllBytes()));
+        recovered.lock();
+    }
+
+    @Test
+    public void testJournalIsKeptWhenItsKeyIsUnavailable() throws Exception {
+        Path journalDir = Files.createDirectories(tempDir.resolve("journal-key"));
+        VaultOptions options = new VaultOptions();
+        options.setJournal(true);
+        options.setCheckpointIntervalMillis(0);
+        // Las claves dejan de estar disponibles después de la cantidad de consultas indicada
+        KeyManager keys = new KeyManager();
+        java.util.concurrent.atomic.AtomicInteger available = new java.util.concurrent.atomic.AtomicInteger(Integer.MAX_VALUE);
+        EncryptionService service = new EncryptionService(new AESCipher(alias -> {
+            if (available.getAndDecrement() <= 0) {
+                throw new java.io.IOException("Las claves están bloqueadas");
+            }
+            return keys.getKey(alias);
+        }));
+        new Vault(journalDir, service, options).unlock();
+
+        // Consultas de un desbloqueo con el diario vacío; luego se registra una escritura
+        Vault journaled = new Vault(journalDir, service, options);
+        int before = available.get();
+        journaled.unlock();
+        int unlockQueries = before - available.get();
+        FileTree files = journaled.getDecryptedFiles();
+        VaultJournal journal = journaled.getJournal();
+        files.put("log.txt", journaled.newFileContent());
+        journal.logCreate("log.txt", false);
+        java.nio.ByteBuffer data = java.nio.ByteBuffer.wrap("pendiente".getBytes());
+        files.get("log.txt").write(0, data.duplicate());
+        journal.sync(journal.logWrite("log.txt", 0, data));
+        files.clear();
+
+        // Sin clave para los registros del diario, el desbloqueo falla en lugar de descartarlos
+        available.set(unlockQueries);
+        assertThrows(java.io.IOException.class, () -> new Vault(journalDir, service, options).unlock());
+
+        available.set(Integer.MAX_VALUE);
+        Vault recovered = new Vault(journalDir, service, options);
+        recovered.unlock();
+        assertEquals("pendiente", new String(recovered.getDecryptedFiles().get("log.txt").newInputStream().readAllBytes()));
+        recovered.lock();
+    }
+
+    @Test
+    public void testPlainFilesAreImportedInBackgroundAndResumed() throws Exception {
+        Path importDir = Files.createDirectories(tempDir.resolve("import"));
+        Path first = Files.write(importDir.resolve("a.txt"), "primero".getBytes());
+        Files.write(importDir.resolve("b.txt"), "segundo".getBytes());
+        // Importación interrumpida: a.txt ya estaba confirmado y anotado, pero su original no se eliminó,
+        // y quedó el temporal de un cifrado a medias
+        writeEncrypted(importDir.resolve("a.txt.cv"), "primero".getBytes());
+        String stamp = Files.size(first) + " " + Files.getLastModifiedTime(first).toMillis();
+        Files.write(importDir.resolve(".cyte-import"), (stamp + " a.txt\n").getBytes());
+        Files.write(importDir.resolve("c.txt.cv.tmp"), new byte[16]);
+
+        Vault imported = new Vault(importDir, encryptionService);
+        imported.awaitImport();
+        LockProgress progress = imported.getImportProgress();
+        assertTrue(progress.isFinished());
+        assertEquals(1, progress.getLockedFiles(), "Solo se cifra el archivo que no estaba confirmado");
+        assertEquals(0, progress.getFailedFiles());
+        assertEquals("segundo".length(), progress.getProcessedBytes());
+        for (String name : new String[]{"a.txt", "b.txt", "c.txt.cv.tmp", ".cyte-import"}) {
+            assertFalse(Files.exists(importDir.resolve(name)), name);
+        }
+
+        imported.unlock();
+        assertEquals("primero", new String(imported.getDecryptedFiles().get("a.txt").newInputStream().readAllBytes()));
+        assertEquals("segundo", new String(imported.getDecryptedFiles().get("b.txt").newInputStream().readAllBytes()));
+        imported.getDecryptedFiles().clear();
+    }
+
+    @Test
+    public void testImportDoesNotReplaceFilesTheVaultAlreadyHas() throws Exception {
+        Path importDir = Files.createDirectories(tempDir.resolve("import-conflict"));
+        VaultOptions options = new VaultOptions();
+        options.setManifest(true);
+        Vault existing = new Vault(importDir, encryptionService, options);
+        existing.unlock();
+        existing.getDecryptedFiles().put("manifiesto.txt", new ChunkedFileContent());
+        existing.getDecryptedFiles().get("manifiesto.txt").write(0, java.nio.ByteBuffer.wrap("de la boveda".getBytes()));
+        existing.lock();
+        writeEncrypted(importDir.resolve("suelto.txt.cv"), "cifrado".getBytes());
+
+        // Versiones sin cifrar de archivos que la bóveda ya tiene, sin anotar en el archivo de control
+        Files.write(importDir.resolve("manifiesto.txt"), "sin cifrar".getBytes());
+        Files.write(importDir.resolve("suelto.txt"), "sin cifrar".getBytes());
+        Vault imported = new Vault(importDir, encryptionService, options);
+        imported.awaitImport();
+        assertEquals(2, imported.getImportProgress().getFailedFiles());
+        assertTrue(Files.exists(importDir.resolve("manifiesto.txt")), "El original se conserva");
+        assertTrue(Files.exists(importDir.resolve("suelto.txt")), "El original se conserva");
+        assertFalse(Files.exists(importDir.resolve("manifiesto.txt.cv")));
+
+        imported.unlock();
+        assertEquals("de la boveda", new String(imported.getDecryptedFiles().get("manifiesto.txt").newInputStream().readAllBytes()));
+        assertEquals("cifrado", new String(imported.getDecryptedFiles().get("suelto.txt").newInputStream().readAllBytes()));
+        imported.getDecryptedFiles().clear();
+    }
+
+    @Test
+    public void testSubdirectoriesAreUnlockedAndLocked() throws Exception {
+        Path treeDir = Files.createDirectories(tempDir.resolve("tree"));
+        Path deep = Files.createDirectories(treeDir.resolve("a").resolve("b").resolve("c"));
+        writeEncrypted(treeDir.resolve("raiz.txt.cv"), "raiz".getBytes());
+        writeEncrypted(deep.resolve("profundo.txt.cv"), "profundo".getBytes());
+        Files.createDirectories(treeDir.resolve("vacia"));
+        Vault tree = new Vault(treeDir, encryptionService);
+
+        // Se cargan los archivos de todo el árbol, y las carpetas aunque estén vacías
+        tree.unlock();
+        FileTree files = tree.getDecryptedFiles();
+        assertEquals(2, files.size());
+        assertEquals("profundo", new String(files.get("a\\b\\c\\profundo.txt").newInputStream().readAllBytes()));
+        assertTrue(files.isDirectory("vacia"));
+
+        // Al bloquear, el disco refleja las carpetas movidas, eliminadas y creadas
+        assertTrue(files.move("a", "x"));
+        assertTrue(files.removeDirectory("vacia"));
+        assertTrue(files.createDirectory("nueva"));
+        tree.lock();
+        assertEquals("profundo", readDecrypted(treeDir.resolve("x").resolve("b").resolve("c").resolve("profundo.txt.cv")));
+        assertFalse(Files.exists(treeDir.resolve("a")));
+        assertFalse(Files.exists(treeDir.resolve("vacia")));
+        assertTrue(Files.isDirectory(treeDir.resolve("nueva")));
+
+        tree.unlock();
+        assertEquals("raiz", new String(tree.getDecryptedFiles().get("raiz.txt").newInputStream().readAllBytes()));
+        assertTrue(tree.getDecryptedFiles().containsKey("x\\b\\c\\profundo.txt"));
+        tree.getDecryptedFiles().clear();
+    }
+
+    @Test
+    public void testStoreAndReadFileStreamRanges() throws Exception {
+        byte[] data = new byte[3 * 1024 * 1024 + 123];
+        new java.util.Random(25).nextBytes(data);
+        for (boolean withManifest : new boolean[]{false, true}) {
+            Path streamDir = Files.createDirectories(tempDir.resolve("stream-" + withManifest));
+            VaultOptions options = new VaultOptions();
+            options.setManifest(withManifest);
+            Vault streamVault = new Vault(streamDir, encryptionService, options);
+            assertThrows(IllegalStateException.class,
+                    () -> streamVault.storeFile("datos.bin", Channels.newChannel(new ByteArrayInputStream(data))));
+
+            // El archivo se cifra a disco y queda en la unidad sin cargarse en memoria
+            streamVault.unlock();
+            assertThrows(IllegalArgumentException.class,
+                    () -> streamVault.storeFile("..\\fuera.bin", Channels.newChannel(new ByteArrayInputStream(data))));
+            assertEquals(data.length, streamVault.storeFile("sub\\datos.bin", Channels.newChannel(new ByteArrayInputStream(data))));
+            FileContent stored = streamVault.getDecryptedFiles().get("sub\\datos.bin");
+            assertTrue(stored instanceof LazyFileContent);
+            assertEquals(data.length, stored.size());
+            assertEquals(0, streamVault.getMemoryUsedBytes());
+
+            // Un rango que cruza segmentos, y uno que pasa del final
+            ByteArrayOutputStream range = new ByteArrayOutputStream();
+            assertEquals(1024 * 1024, streamVault.readFile("sub\\datos.bin", 2 * 1024 * 1024 - 17, 1024 * 1024,
+                    Channels.newChannel(range)));
+            assertArrayEquals(Arrays.copyOfRange(data, 2 * 1024 * 1024 - 17, 3 * 1024 * 1024 - 17), range.toByteArray());
+            ByteArrayOutputStream tail = new ByteArrayOutputStream();
+            assertEquals(123, streamVault.readFile("sub\\datos.bin", 3 * 1024 * 1024, 1000, Channels.newChannel(tail)));
+            assertThrows(NoSuchFileException.class,
+                    () -> streamVault.readFile("otro.bin", 0, 1, Channels.newChannel(new ByteArrayOutputStream())));
+
+            // Se conserva al bloquear y volver a desbloquear
+            streamVault.lock();
+            streamVault.unlock();
+            ByteArrayOutputStream all = new ByteArrayOutputStream();
+            streamVault.readFile("sub\\datos.bin", 0, Long.MAX_VALUE / 2, Channels.newChannel(all));
+            assertArrayEquals(data, all.toByteArray(), "Con manifiesto: " + withManifest);
+            streamVault.lock();
+        }
+    }
+
+    @Test
+    public void testStoredFileIsJournaledUntilCheckpoint() throws Exception {
+        Path storeDir = Files.createDirectories(tempDir.resolve("stream-journal"));
+        writeEncrypted(storeDir.resolve("doc.txt.cv"), "version anterior".getBytes());
+        VaultOptions options = new VaultOptions();
+        options.setJournal(true);
+        options.setCheckpointIntervalMillis(0);
+        Vault journaled = new Vault(storeDir, encryptionService, options);
+        journaled.unlock();
+
+        // Se reemplaza el archivo por streaming y luego la unidad escribe sobre la versión nueva
+        journaled.storeFile("doc.txt", Channels.newChannel(new ByteArrayInputStream("version nueva".getBytes())));
+        java.nio.ByteBuffer data = java.nio.ByteBuffer.wrap("VERSION".getBytes());
+        journaled.getDecryptedFiles().get("doc.txt").write(0, data.duplicate());
+        journaled.getJournal().sync(journaled.getJournal().logWrite("doc.txt", 0, data));
+
+        // La bóveda se interrumpe sin bloquear ni hacer un checkpoint
+        Vault recovered = new Vault(storeDir, encryptionService, options);
+        recovered.unlock();
+        assertEquals("VERSION nueva", new String(recovered.getDecryptedFiles().get("doc.txt").newInputStream().readAllBytes()));
+
+        // Al bloquear, el blob queda en el manifiesto y no se elimina como huérfano
+        recovered.lock();
+        recovered.unlock();
+        assertEquals("VERSION nueva", new String(recovered.getDecryptedFiles().get("doc.txt").newInputStream().readAllBytes()));
+        recovered.lock();
+        journaled.getDecryptedFiles().clear();
+    }
+
+    private static long fileCount(Path dir) throws Exception {
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private static long directorySize(Path dir) throws Exception {
+        try (java.util.stream.Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    private void writeEncrypted(Path file, byte[] data) throws Exception {
+        try (InputStream in = new ByteArrayInputStream(data);
+             OutputStream out = Files.newOutputStream(file)) {
+            encryptionService.encrypt(in, "AES", out);
+        }
+    }
+
+    private String readDecrypted(Path file) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = Files.newInputStream(file)) {
+            encryptionService.decrypt(in, "AES", out);
+        }
+        return new String(out.toByteArray());
     }
 }